@@ -0,0 +1,76 @@
+package network.loki.messenger
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.goterl.lazysodium.LazySodiumAndroid
+import com.goterl.lazysodium.SodiumAndroid
+import com.goterl.lazysodium.interfaces.Box
+import com.goterl.lazysodium.interfaces.Sign
+import org.junit.Assert.assertArrayEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.sending_receiving.MessageDecrypter
+import org.session.libsignal.crypto.ecc.DjbECPrivateKey
+import org.session.libsignal.crypto.ecc.DjbECPublicKey
+import org.session.libsignal.crypto.ecc.ECKeyPair
+import org.session.libsignal.utilities.Log
+import java.util.UUID
+
+@RunWith(AndroidJUnit4::class)
+class ClosedGroupDecryptionBenchmark {
+
+    private val sodium = LazySodiumAndroid(SodiumAndroid())
+    private val senderPublicKey = ByteArray(Sign.PUBLICKEYBYTES)
+    private val senderSecretKey = ByteArray(Sign.SECRETKEYBYTES).also { sodium.cryptoSignKeypair(senderPublicKey, it) }
+    private val encryptionKeyPairs = (0 until 50).map { generateKeyPair() }
+
+    @Test
+    fun messagesFromLaggingMembersOnlyTryAllKeyPairsOnce() {
+        val groupPublicKey = UUID.randomUUID().toString()
+        val plaintext = ByteArray(256) { it.toByte() }
+        // encrypted for the group's oldest key pair, as by a member that missed every key rotation since
+        val ciphertexts = (0 until 20).map { encrypt(plaintext, encryptionKeyPairs.first()) }
+
+        var start = SystemClock.elapsedRealtimeNanos()
+        assertArrayEquals(plaintext, MessageDecrypter.decryptClosedGroupMessage(ciphertexts.first(), groupPublicKey, encryptionKeyPairs).first)
+        val firstMessage = SystemClock.elapsedRealtimeNanos() - start
+
+        start = SystemClock.elapsedRealtimeNanos()
+        for (ciphertext in ciphertexts.drop(1)) {
+            assertArrayEquals(plaintext, MessageDecrypter.decryptClosedGroupMessage(ciphertext, groupPublicKey, encryptionKeyPairs).first)
+        }
+        val laterMessages = (SystemClock.elapsedRealtimeNanos() - start) / (ciphertexts.size - 1)
+
+        Log.d("Loki", "Decrypting with ${encryptionKeyPairs.size} key pairs took ${firstMessage / 1000}us " +
+            "for the first message and ${laterMessages / 1000}us for each later one.")
+    }
+
+    @Test
+    fun messagesForTheLatestKeyPairDecryptAfterOlderOnes() {
+        val groupPublicKey = UUID.randomUUID().toString()
+        val plaintext = ByteArray(64) { it.toByte() }
+
+        MessageDecrypter.decryptClosedGroupMessage(encrypt(plaintext, encryptionKeyPairs.first()), groupPublicKey, encryptionKeyPairs)
+        val decrypted = MessageDecrypter.decryptClosedGroupMessage(encrypt(plaintext, encryptionKeyPairs.last()), groupPublicKey, encryptionKeyPairs)
+
+        assertArrayEquals(plaintext, decrypted.first)
+    }
+
+    private fun generateKeyPair(): ECKeyPair {
+        val publicKey = ByteArray(Box.PUBLICKEYBYTES)
+        val privateKey = ByteArray(Box.SECRETKEYBYTES)
+        sodium.cryptoBoxKeypair(publicKey, privateKey)
+        return ECKeyPair(DjbECPublicKey(publicKey), DjbECPrivateKey(privateKey))
+    }
+
+    private fun encrypt(plaintext: ByteArray, keyPair: ECKeyPair): ByteArray {
+        val recipientPublicKey = (keyPair.publicKey as DjbECPublicKey).publicKey
+        val verificationData = plaintext + senderPublicKey + recipientPublicKey
+        val signature = ByteArray(Sign.BYTES)
+        sodium.cryptoSignDetached(signature, verificationData, verificationData.size.toLong(), senderSecretKey)
+        val plaintextWithMetadata = plaintext + senderPublicKey + signature
+        val ciphertext = ByteArray(plaintextWithMetadata.size + Box.SEALBYTES)
+        sodium.cryptoBoxSeal(ciphertext, plaintextWithMetadata, plaintextWithMetadata.size.toLong(), recipientPublicKey)
+        return ciphertext
+    }
+}
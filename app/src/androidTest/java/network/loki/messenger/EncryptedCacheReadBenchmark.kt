@@ -0,0 +1,64 @@
+package network.loki.messenger
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.utilities.Util
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.glide.cache.EncryptedCoder
+import java.io.File
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class EncryptedCacheReadBenchmark {
+
+    private val coder = EncryptedCoder()
+    private val masterKey = Util.getSecretBytes(32)
+    private val file = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "encrypted_cache_benchmark")
+    private val buffer = ByteArray(64 * 1024)
+
+    @After
+    fun tearDown() {
+        file.delete()
+    }
+
+    @Test
+    fun smallThumbnailReads() {
+        benchmarkReads(16 * 1024, 500)
+    }
+
+    @Test
+    fun largeImageReads() {
+        benchmarkReads(2 * 1024 * 1024, 20)
+    }
+
+    private fun benchmarkReads(entrySize: Int, iterations: Int) {
+        coder.createEncryptedOutputStream(masterKey, file).use { it.write(Random(entrySize).nextBytes(entrySize)) }
+
+        repeat(iterations / 10) { assertEquals(entrySize.toLong(), drain()) }
+
+        val start = SystemClock.elapsedRealtimeNanos()
+        repeat(iterations) { drain() }
+        val seconds = (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000_000.0
+        val megabytes = entrySize.toDouble() * iterations / (1024 * 1024)
+
+        Log.d("Loki", "Encrypted cache read, $entrySize byte entries: ${(iterations / seconds).toInt()} entries/s, " +
+            "${"%.1f".format(megabytes / seconds)} MB/s.")
+    }
+
+    private fun drain(): Long {
+        var total = 0L
+        coder.createEncryptedInputStream(masterKey, file).use { inputStream ->
+            while (true) {
+                val read = inputStream.read(buffer)
+                if (read == -1) break
+                total += read
+            }
+        }
+        return total
+    }
+}
@@ -0,0 +1,98 @@
+package network.loki.messenger
+
+import android.content.ContentValues
+import android.database.Cursor
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import net.zetetic.database.sqlcipher.SQLiteDatabaseHook
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.database.GroupDatabase
+import java.io.File
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class GroupMembershipSearchBenchmark {
+
+    private val contacts = (0 until 3000).map { "05" + it.toString().padStart(64, '0') }
+    private val groups = (0 until 300).map { "__loki_group__" + it.toString().padStart(64, '0') }
+    private lateinit var file: File
+    private lateinit var db: SQLiteDatabase
+
+    @Before
+    fun setUp() {
+        System.loadLibrary("sqlcipher")
+        file = File(InstrumentationRegistry.getInstrumentation().targetContext.cacheDir, "group_membership_benchmark.db")
+        file.delete()
+        db = SQLiteDatabase.openOrCreateDatabase(file.absolutePath, "", null, null as SQLiteDatabaseHook?)
+        db.execSQL(GroupDatabase.CREATE_TABLE)
+        GroupDatabase.CREATE_INDEXS.forEach(db::execSQL)
+        GroupDatabase.CREATE_MEMBERSHIP_TABLE_COMMANDS.forEach(db::execSQL)
+
+        val random = Random(42)
+        db.beginTransaction()
+        for (group in groups) {
+            val members = contacts.shuffled(random).take(random.nextInt(3, 100)).sorted()
+            db.insert("groups", null, ContentValues().apply {
+                put("group_id", group)
+                put("members", members.joinToString(","))
+            })
+        }
+        GroupDatabase.populateMembershipTable(db)
+        db.setTransactionSuccessful()
+        db.endTransaction()
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+        file.delete()
+    }
+
+    @Test
+    fun searchingGroupsByMember() {
+        // a search matching a few hundred contacts by name
+        val matchingAddresses = contacts.filterIndexed { index, _ -> index % 12 == 0 }
+
+        repeat(3) {
+            groupIds(queryByMembersLike(matchingAddresses))
+            groupIds(queryByMembership(matchingAddresses))
+        }
+
+        var start = SystemClock.elapsedRealtimeNanos()
+        val likeResults = groupIds(queryByMembersLike(matchingAddresses))
+        val like = SystemClock.elapsedRealtimeNanos() - start
+
+        start = SystemClock.elapsedRealtimeNanos()
+        val membershipResults = groupIds(queryByMembership(matchingAddresses))
+        val membership = SystemClock.elapsedRealtimeNanos() - start
+
+        assertEquals(likeResults, membershipResults)
+        Log.d("Loki", "Finding the groups of ${matchingAddresses.size} of ${contacts.size} contacts in ${groups.size} " +
+            "groups took ${like / 1000}us matching member lists and ${membership / 1000}us through the membership table.")
+    }
+
+    // the query GroupDatabase.getGroupsFilteredByMembers made before the membership table
+    private fun queryByMembersLike(members: List<String>): Cursor {
+        val selection = members.joinToString(" OR ") { "members LIKE ?" }
+        return db.query("groups", null, selection, members.map { "%$it%" }.toTypedArray(), null, null, null)
+    }
+
+    private fun queryByMembership(members: List<String>): Cursor {
+        val placeholders = members.joinToString(",") { "?" }
+        return db.rawQuery("SELECT * FROM groups WHERE group_id IN " +
+            "(SELECT group_id FROM group_membership WHERE member_address IN ($placeholders))", members.toTypedArray())
+    }
+
+    private fun groupIds(cursor: Cursor): Set<String> = cursor.use {
+        val groupIds = mutableSetOf<String>()
+        while (it.moveToNext()) groupIds += it.getString(it.getColumnIndexOrThrow("group_id"))
+        groupIds
+    }
+}
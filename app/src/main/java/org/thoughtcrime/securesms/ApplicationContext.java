@@ -37,6 +37,7 @@ import org.session.libsession.database.MessageDataProvider;
 import org.session.libsession.messaging.MessagingModuleConfiguration;
 import org.session.libsession.messaging.sending_receiving.notifications.MessageNotifier;
 import org.session.libsession.messaging.sending_receiving.pollers.ClosedGroupPollerV2;
+import org.session.libsession.messaging.sending_receiving.pollers.PollScheduler;
 import org.session.libsession.messaging.sending_receiving.pollers.Poller;
 import org.session.libsession.snode.SnodeModule;
 import org.session.libsession.utilities.Address;
@@ -245,6 +246,7 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         isAppVisible = true;
         Log.i(TAG, "App is now visible.");
         KeyCachingService.onAppForegrounded(this);
+        PollScheduler.getShared().setInBackground(false);
 
         // If the user account hasn't been created or onboarding wasn't finished then don't start
         // the pollers
@@ -268,6 +270,8 @@ public class ApplicationContext extends Application implements DefaultLifecycleO
         isAppVisible = false;
         Log.i(TAG, "App is no longer visible.");
         KeyCachingService.onAppBackgrounded(this);
+        PollScheduler.getShared().setInBackground(true);
+        Log.i(TAG, "Poll scheduler: " + PollScheduler.getShared().stats());
         messageNotifier.setVisibleThread(-1);
         if (poller != null) {
             poller.stopIfNeeded();
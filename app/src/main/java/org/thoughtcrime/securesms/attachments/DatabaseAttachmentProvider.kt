@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.attachments
 
 import android.content.Context
+import android.media.MediaDataSource
 import android.text.TextUtils
 import com.google.protobuf.ByteString
 import org.greenrobot.eventbus.EventBus
@@ -14,6 +15,7 @@ import org.session.libsession.messaging.sending_receiving.attachments.PointerAtt
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentPointer
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentStream
 import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.MediaMetadata
 import org.session.libsession.utilities.UploadResult
 import org.session.libsession.utilities.Util
 import org.session.libsession.utilities.recipients.Recipient
@@ -80,6 +82,21 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
         return if (message != null) Triple(message.id, message.isMms, message.body) else null
     }
 
+    override fun getMessagesForQuotes(quotes: Collection<Pair<Long, String>>): Map<Pair<Long, String>, Triple<Long, Boolean, String>> {
+        val messagingDatabase = DatabaseComponent.get(context).mmsSmsDatabase()
+        val messagesByTimestamp = messagingDatabase.getMessagesForTimestamps(quotes.map { it.first }.toSet()).groupBy { it.dateSent }
+        val result = mutableMapOf<Pair<Long, String>, Triple<Long, Boolean, String>>()
+        for (quote in quotes) {
+            val (timestamp, author) = quote
+            val isOwnNumber = Util.isOwnNumber(context, author)
+            val message = messagesByTimestamp[timestamp]?.firstOrNull {
+                (isOwnNumber && it.isOutgoing) || (!isOwnNumber && it.individualRecipient.address.serialize() == author)
+            } ?: continue
+            result[quote] = Triple(message.id, message.isMms, message.body)
+        }
+        return result
+    }
+
     override fun getAttachmentsAndLinkPreviewFor(mmsId: Long): List<Attachment> {
         return DatabaseComponent.get(context).attachmentDatabase().getAttachmentsForMessage(mmsId)
     }
@@ -116,17 +133,27 @@ class DatabaseAttachmentProvider(context: Context, helper: SQLCipherOpenHelper)
         attachmentDatabase.insertAttachmentsForPlaceholder(messageId, attachmentId, stream)
     }
 
-    override fun updateAudioAttachmentDuration(
+    override fun getAttachmentDataSource(attachmentId: AttachmentId): MediaDataSource? {
+        val attachmentDatabase = DatabaseComponent.get(context).attachmentDatabase()
+        return attachmentDatabase.getMediaDataSource(attachmentId)
+    }
+
+    override fun updateAttachmentMediaMetadata(
         attachmentId: AttachmentId,
-        durationMs: Long,
+        metadata: MediaMetadata,
         threadId: Long
     ) {
         val attachmentDb = DatabaseComponent.get(context).attachmentDatabase()
-        attachmentDb.setAttachmentAudioExtras(DatabaseAttachmentAudioExtras(
-            attachmentId = attachmentId,
-            visualSamples = byteArrayOf(),
-            durationMs = durationMs
-        ), threadId)
+        if (metadata.waveform != null) {
+            attachmentDb.setAttachmentAudioExtras(DatabaseAttachmentAudioExtras(
+                attachmentId = attachmentId,
+                visualSamples = metadata.waveform,
+                durationMs = metadata.durationMs
+            ), threadId)
+        }
+        if (metadata.width > 0 && metadata.height > 0) {
+            attachmentDb.updateAttachmentDimensions(attachmentId, metadata.width, metadata.height)
+        }
     }
 
     override fun isMmsOutgoing(mmsMessageId: Long): Boolean {
@@ -0,0 +1,198 @@
+package org.thoughtcrime.securesms.backup
+
+import org.session.libsession.utilities.Conversions
+import org.thoughtcrime.securesms.backup.BackupProtos.Header
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.UUID
+import java.util.zip.DataFormatException
+import java.util.zip.Deflater
+import java.util.zip.Inflater
+import javax.crypto.Cipher
+import javax.crypto.Mac
+import javax.crypto.spec.IvParameterSpec
+import javax.crypto.spec.SecretKeySpec
+
+/**
+ * The block based backup format.
+ *
+ * Rather than encrypting every row as its own frame, frames are written length delimited into
+ * blocks of about [BLOCK_SIZE] bytes, which are compressed, encrypted with AES-CTR under the
+ * header IV with the block counter in its first four bytes, and followed by a truncated HMAC over
+ * that IV and the ciphertext. Each block is written as its length, ciphertext and MAC.
+ *
+ * The frame block holding an attachment, avatar or sticker frame ends with that frame, and is
+ * followed by blocks holding its data, terminated by an empty block.
+ *
+ * Backups in this format carry [VERSION] in their [Header], so that older backups without it can
+ * still be told apart. Incremental backups also carry their [Chain] there.
+ */
+object BackupBlockFormat {
+    const val VERSION = 2
+    const val BLOCK_SIZE = 512 * 1024
+
+    private const val MAC_LENGTH = 10
+    private const val MAX_BLOCK_LENGTH = 64 * 1024 * 1024
+
+    private const val ENCODING_STORED: Byte = 0
+    private const val ENCODING_DEFLATE: Byte = 1
+
+    private val ciphers = object : ThreadLocal<Cipher>() {
+        override fun initialValue(): Cipher = Cipher.getInstance("AES/CTR/NoPadding")
+    }
+
+    private val macs = object : ThreadLocal<Mac>() {
+        override fun initialValue(): Mac = Mac.getInstance("HmacSHA256")
+    }
+
+    /**
+     * Identifies a backup as the full backup starting a chain of incremental backups, when its
+     * [sequence] is 0, or as the one holding the changes made since the previous file in the chain.
+     */
+    data class Chain(val id: String, val sequence: Int) {
+        val isBase: Boolean get() = sequence == 0
+
+        fun next() = Chain(id, sequence + 1)
+
+        companion object {
+            @JvmStatic
+            fun newBase() = Chain(UUID.randomUUID().toString(), 0)
+        }
+    }
+
+    fun setVersion(header: Header.Builder, chain: Chain): Header.Builder {
+        return header.setVersion(VERSION).setChainId(chain.id).setChainSequence(chain.sequence)
+    }
+
+    fun getVersion(header: Header): Int {
+        return if (header.hasVersion()) header.version else 1
+    }
+
+    /**
+     * @return The chain of a backup, or null for backups that predate incremental backups and so
+     * are always full backups.
+     */
+    fun getChain(header: Header): Chain? {
+        if (!header.hasChainId() || !header.hasChainSequence()) return null
+        return Chain(header.chainId, header.chainSequence)
+    }
+
+    /**
+     * Compresses, encrypts and MACs the first [length] bytes of [data] as block number [counter].
+     *
+     * @return The block as it is written to the backup, including its length prefix.
+     */
+    fun encryptBlock(cipherKey: ByteArray, macKey: ByteArray, iv: ByteArray, counter: Int,
+                     data: ByteArray, length: Int, compressionLevel: Int): ByteArray {
+        val plaintext = encode(data, length, compressionLevel)
+        val blockIv = blockIv(iv, counter)
+        val block = ByteArray(4 + plaintext.size + MAC_LENGTH)
+        Conversions.intToByteArray(block, 0, plaintext.size + MAC_LENGTH)
+
+        val cipher = ciphers.get()!!
+        cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(blockIv))
+        cipher.doFinal(plaintext, 0, plaintext.size, block, 4)
+
+        val mac = macs.get()!!
+        mac.init(SecretKeySpec(macKey, "HmacSHA256"))
+        mac.update(blockIv)
+        mac.update(block, 4, plaintext.size)
+        System.arraycopy(mac.doFinal(), 0, block, 4 + plaintext.size, MAC_LENGTH)
+        return block
+    }
+
+    /**
+     * Checks and decrypts a [block] read from the backup after its length prefix.
+     */
+    @Throws(IOException::class)
+    fun decryptBlock(cipherKey: ByteArray, macKey: ByteArray, iv: ByteArray, counter: Int, block: ByteArray): ByteArray {
+        val ciphertextLength = block.size - MAC_LENGTH
+        val blockIv = blockIv(iv, counter)
+
+        val mac = macs.get()!!
+        mac.init(SecretKeySpec(macKey, "HmacSHA256"))
+        mac.update(blockIv)
+        mac.update(block, 0, ciphertextLength)
+        val ourMac = mac.doFinal().copyOf(MAC_LENGTH)
+        val theirMac = block.copyOfRange(ciphertextLength, block.size)
+        if (!MessageDigest.isEqual(ourMac, theirMac)) {
+            throw IOException("Bad MAC")
+        }
+
+        val cipher = ciphers.get()!!
+        cipher.init(Cipher.DECRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(blockIv))
+        return decode(cipher.doFinal(block, 0, ciphertextLength))
+    }
+
+    @Throws(IOException::class)
+    fun checkBlockLength(length: Int) {
+        if (length <= MAC_LENGTH || length > MAX_BLOCK_LENGTH) {
+            throw IOException("Invalid block length: $length")
+        }
+    }
+
+    private fun blockIv(iv: ByteArray, counter: Int): ByteArray {
+        val blockIv = iv.copyOf()
+        Conversions.intToByteArray(blockIv, 0, counter)
+        return blockIv
+    }
+
+    /**
+     * Deflates [data], falling back to storing it as is when that doesn't make it smaller, as is
+     * the case for most media.
+     */
+    private fun encode(data: ByteArray, length: Int, compressionLevel: Int): ByteArray {
+        val deflater = Deflater(compressionLevel)
+        try {
+            deflater.setInput(data, 0, length)
+            deflater.finish()
+            val output = ByteArray(length + 1)
+            output[0] = ENCODING_DEFLATE
+            var size = 1
+            while (!deflater.finished() && size < output.size) {
+                size += deflater.deflate(output, size, output.size - size)
+            }
+            if (deflater.finished() && size < output.size) {
+                return output.copyOf(size)
+            }
+        } finally {
+            deflater.end()
+        }
+        val output = ByteArray(length + 1)
+        output[0] = ENCODING_STORED
+        System.arraycopy(data, 0, output, 1, length)
+        return output
+    }
+
+    @Throws(IOException::class)
+    private fun decode(plaintext: ByteArray): ByteArray {
+        when (plaintext[0]) {
+            ENCODING_STORED -> return plaintext.copyOfRange(1, plaintext.size)
+            ENCODING_DEFLATE -> {
+                val inflater = Inflater()
+                try {
+                    inflater.setInput(plaintext, 1, plaintext.size - 1)
+                    val output = ByteArrayOutputStream(BLOCK_SIZE)
+                    val buffer = ByteArray(64 * 1024)
+                    while (!inflater.finished()) {
+                        val read = inflater.inflate(buffer)
+                        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw IOException("Truncated block")
+                        }
+                        output.write(buffer, 0, read)
+                        if (output.size() > MAX_BLOCK_LENGTH) {
+                            throw IOException("Block is too large")
+                        }
+                    }
+                    return output.toByteArray()
+                } catch (e: DataFormatException) {
+                    throw IOException(e)
+                } finally {
+                    inflater.end()
+                }
+            }
+            else -> throw IOException("Unknown block encoding: ${plaintext[0]}")
+        }
+    }
+}
@@ -4427,6 +4427,41 @@ public final class BackupProtos {
      * <code>optional bytes salt = 2;</code>
      */
     com.google.protobuf.ByteString getSalt();
+
+    // optional uint32 version = 3;
+    /**
+     * <code>optional uint32 version = 3;</code>
+     */
+    boolean hasVersion();
+    /**
+     * <code>optional uint32 version = 3;</code>
+     */
+    int getVersion();
+
+    // optional string chainId = 4;
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    boolean hasChainId();
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    java.lang.String getChainId();
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    com.google.protobuf.ByteString
+        getChainIdBytes();
+
+    // optional uint32 chainSequence = 5;
+    /**
+     * <code>optional uint32 chainSequence = 5;</code>
+     */
+    boolean hasChainSequence();
+    /**
+     * <code>optional uint32 chainSequence = 5;</code>
+     */
+    int getChainSequence();
   }
   /**
    * Protobuf type {@code signal.Header}
@@ -4489,6 +4524,21 @@ public final class BackupProtos {
               salt_ = input.readBytes();
               break;
             }
+            case 24: {
+              bitField0_ |= 0x00000004;
+              version_ = input.readUInt32();
+              break;
+            }
+            case 34: {
+              bitField0_ |= 0x00000008;
+              chainId_ = input.readBytes();
+              break;
+            }
+            case 40: {
+              bitField0_ |= 0x00000010;
+              chainSequence_ = input.readUInt32();
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -4561,9 +4611,87 @@ public final class BackupProtos {
       return salt_;
     }
 
+    // optional uint32 version = 3;
+    public static final int VERSION_FIELD_NUMBER = 3;
+    private int version_;
+    /**
+     * <code>optional uint32 version = 3;</code>
+     */
+    public boolean hasVersion() {
+      return ((bitField0_ & 0x00000004) == 0x00000004);
+    }
+    /**
+     * <code>optional uint32 version = 3;</code>
+     */
+    public int getVersion() {
+      return version_;
+    }
+
+    // optional string chainId = 4;
+    public static final int CHAIN_ID_FIELD_NUMBER = 4;
+    private java.lang.Object chainId_;
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    public boolean hasChainId() {
+      return ((bitField0_ & 0x00000008) == 0x00000008);
+    }
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    public java.lang.String getChainId() {
+      java.lang.Object ref = chainId_;
+      if (ref instanceof java.lang.String) {
+        return (java.lang.String) ref;
+      } else {
+        com.google.protobuf.ByteString bs = 
+            (com.google.protobuf.ByteString) ref;
+        java.lang.String s = bs.toStringUtf8();
+        if (bs.isValidUtf8()) {
+          chainId_ = s;
+        }
+        return s;
+      }
+    }
+    /**
+     * <code>optional string chainId = 4;</code>
+     */
+    public com.google.protobuf.ByteString
+        getChainIdBytes() {
+      java.lang.Object ref = chainId_;
+      if (ref instanceof java.lang.String) {
+        com.google.protobuf.ByteString b = 
+            com.google.protobuf.ByteString.copyFromUtf8(
+                (java.lang.String) ref);
+        chainId_ = b;
+        return b;
+      } else {
+        return (com.google.protobuf.ByteString) ref;
+      }
+    }
+
+    // optional uint32 chainSequence = 5;
+    public static final int CHAIN_SEQUENCE_FIELD_NUMBER = 5;
+    private int chainSequence_;
+    /**
+     * <code>optional uint32 chainSequence = 5;</code>
+     */
+    public boolean hasChainSequence() {
+      return ((bitField0_ & 0x00000010) == 0x00000010);
+    }
+    /**
+     * <code>optional uint32 chainSequence = 5;</code>
+     */
+    public int getChainSequence() {
+      return chainSequence_;
+    }
+
     private void initFields() {
       iv_ = com.google.protobuf.ByteString.EMPTY;
       salt_ = com.google.protobuf.ByteString.EMPTY;
+      version_ = 0;
+      chainId_ = "";
+      chainSequence_ = 0;
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -4583,6 +4711,15 @@ public final class BackupProtos {
       if (((bitField0_ & 0x00000002) == 0x00000002)) {
         output.writeBytes(2, salt_);
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        output.writeUInt32(3, version_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        output.writeBytes(4, getChainIdBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        output.writeUInt32(5, chainSequence_);
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -4600,6 +4737,18 @@ public final class BackupProtos {
         size += com.google.protobuf.CodedOutputStream
           .computeBytesSize(2, salt_);
       }
+      if (((bitField0_ & 0x00000004) == 0x00000004)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(3, version_);
+      }
+      if (((bitField0_ & 0x00000008) == 0x00000008)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeBytesSize(4, getChainIdBytes());
+      }
+      if (((bitField0_ & 0x00000010) == 0x00000010)) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeUInt32Size(5, chainSequence_);
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -4720,6 +4869,12 @@ public final class BackupProtos {
         bitField0_ = (bitField0_ & ~0x00000001);
         salt_ = com.google.protobuf.ByteString.EMPTY;
         bitField0_ = (bitField0_ & ~0x00000002);
+        version_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000004);
+        chainId_ = "";
+        bitField0_ = (bitField0_ & ~0x00000008);
+        chainSequence_ = 0;
+        bitField0_ = (bitField0_ & ~0x00000010);
         return this;
       }
 
@@ -4756,6 +4911,18 @@ public final class BackupProtos {
           to_bitField0_ |= 0x00000002;
         }
         result.salt_ = salt_;
+        if (((from_bitField0_ & 0x00000004) == 0x00000004)) {
+          to_bitField0_ |= 0x00000004;
+        }
+        result.version_ = version_;
+        if (((from_bitField0_ & 0x00000008) == 0x00000008)) {
+          to_bitField0_ |= 0x00000008;
+        }
+        result.chainId_ = chainId_;
+        if (((from_bitField0_ & 0x00000010) == 0x00000010)) {
+          to_bitField0_ |= 0x00000010;
+        }
+        result.chainSequence_ = chainSequence_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -4778,6 +4945,17 @@ public final class BackupProtos {
         if (other.hasSalt()) {
           setSalt(other.getSalt());
         }
+        if (other.hasVersion()) {
+          setVersion(other.getVersion());
+        }
+        if (other.hasChainId()) {
+          bitField0_ |= 0x00000008;
+          chainId_ = other.chainId_;
+          onChanged();
+        }
+        if (other.hasChainSequence()) {
+          setChainSequence(other.getChainSequence());
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -4877,6 +5055,146 @@ public final class BackupProtos {
         return this;
       }
 
+      // optional uint32 version = 3;
+      private int version_ ;
+      /**
+       * <code>optional uint32 version = 3;</code>
+       */
+      public boolean hasVersion() {
+        return ((bitField0_ & 0x00000004) == 0x00000004);
+      }
+      /**
+       * <code>optional uint32 version = 3;</code>
+       */
+      public int getVersion() {
+        return version_;
+      }
+      /**
+       * <code>optional uint32 version = 3;</code>
+       */
+      public Builder setVersion(int value) {
+        bitField0_ |= 0x00000004;
+        version_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint32 version = 3;</code>
+       */
+      public Builder clearVersion() {
+        bitField0_ = (bitField0_ & ~0x00000004);
+        version_ = 0;
+        onChanged();
+        return this;
+      }
+
+      // optional string chainId = 4;
+      private java.lang.Object chainId_ = "";
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public boolean hasChainId() {
+        return ((bitField0_ & 0x00000008) == 0x00000008);
+      }
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public java.lang.String getChainId() {
+        java.lang.Object ref = chainId_;
+        if (!(ref instanceof java.lang.String)) {
+          java.lang.String s = ((com.google.protobuf.ByteString) ref)
+              .toStringUtf8();
+          chainId_ = s;
+          return s;
+        } else {
+          return (java.lang.String) ref;
+        }
+      }
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public com.google.protobuf.ByteString
+          getChainIdBytes() {
+        java.lang.Object ref = chainId_;
+        if (ref instanceof String) {
+          com.google.protobuf.ByteString b = 
+              com.google.protobuf.ByteString.copyFromUtf8(
+                  (java.lang.String) ref);
+          chainId_ = b;
+          return b;
+        } else {
+          return (com.google.protobuf.ByteString) ref;
+        }
+      }
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public Builder setChainId(
+          java.lang.String value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        chainId_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public Builder clearChainId() {
+        bitField0_ = (bitField0_ & ~0x00000008);
+        chainId_ = getDefaultInstance().getChainId();
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional string chainId = 4;</code>
+       */
+      public Builder setChainIdBytes(
+          com.google.protobuf.ByteString value) {
+        if (value == null) {
+    throw new NullPointerException();
+  }
+  bitField0_ |= 0x00000008;
+        chainId_ = value;
+        onChanged();
+        return this;
+      }
+
+      // optional uint32 chainSequence = 5;
+      private int chainSequence_ ;
+      /**
+       * <code>optional uint32 chainSequence = 5;</code>
+       */
+      public boolean hasChainSequence() {
+        return ((bitField0_ & 0x00000010) == 0x00000010);
+      }
+      /**
+       * <code>optional uint32 chainSequence = 5;</code>
+       */
+      public int getChainSequence() {
+        return chainSequence_;
+      }
+      /**
+       * <code>optional uint32 chainSequence = 5;</code>
+       */
+      public Builder setChainSequence(int value) {
+        bitField0_ |= 0x00000010;
+        chainSequence_ = value;
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>optional uint32 chainSequence = 5;</code>
+       */
+      public Builder clearChainSequence() {
+        bitField0_ = (bitField0_ & ~0x00000010);
+        chainSequence_ = 0;
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:signal.Header)
     }
 
@@ -6694,17 +7012,18 @@ public final class BackupProtos {
       "\002 \001(\004\022\016\n\006length\030\003 \001(\r\"(\n\007Sticker\022\r\n\005rowI",
       "d\030\001 \001(\004\022\016\n\006length\030\002 \001(\r\"&\n\006Avatar\022\014\n\004nam" +
       "e\030\001 \001(\t\022\016\n\006length\030\002 \001(\r\"\"\n\017DatabaseVersi" +
-      "on\022\017\n\007version\030\001 \001(\r\"\"\n\006Header\022\n\n\002iv\030\001 \001(" +
-      "\014\022\014\n\004salt\030\002 \001(\014\"\245\002\n\013BackupFrame\022\036\n\006heade" +
-      "r\030\001 \001(\0132\016.signal.Header\022\'\n\tstatement\030\002 \001" +
-      "(\0132\024.signal.SqlStatement\022,\n\npreference\030\003" +
-      " \001(\0132\030.signal.SharedPreference\022&\n\nattach" +
-      "ment\030\004 \001(\0132\022.signal.Attachment\022(\n\007versio" +
-      "n\030\005 \001(\0132\027.signal.DatabaseVersion\022\013\n\003end\030" +
-      "\006 \001(\010\022\036\n\006avatar\030\007 \001(\0132\016.signal.Avatar\022 \n",
-      "\007sticker\030\010 \001(\0132\017.signal.StickerB1\n!org.t" +
-      "houghtcrime.securesms.backupB\014BackupProt" +
-      "os"
+      "on\022\017\n\007version\030\001 \001(\r\"[\n\006Header\022\n\n\002iv\030\001 \001(" +
+      "\014\022\014\n\004salt\030\002 \001(\014\022\017\n\007version\030\003 \001(\r\022\017\n\007chai" +
+      "nId\030\004 \001(\t\022\025\n\rchainSequence\030\005 \001(\r\"\245\002\n\013Bac" +
+      "kupFrame\022\036\n\006header\030\001 \001(\0132\016.signal.Header" +
+      "\022\'\n\tstatement\030\002 \001(\0132\024.signal.SqlStatemen" +
+      "t\022,\n\npreference\030\003 \001(\0132\030.signal.SharedPre" +
+      "ference\022&\n\nattachment\030\004 \001(\0132\022.signal.Att" +
+      "achment\022(\n\007version\030\005 \001(\0132\027.signal.Databa",
+      "seVersion\022\013\n\003end\030\006 \001(\010\022\036\n\006avatar\030\007 \001(\0132\016" +
+      ".signal.Avatar\022 \n\007sticker\030\010 \001(\0132\017.signal" +
+      ".StickerB1\n!org.thoughtcrime.securesms.b" +
+      "ackupB\014BackupProtos"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -6758,7 +7077,7 @@ public final class BackupProtos {
           internal_static_signal_Header_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_signal_Header_descriptor,
-              new java.lang.String[] { "Iv", "Salt", });
+              new java.lang.String[] { "Iv", "Salt", "Version", "ChainId", "ChainSequence", });
           internal_static_signal_BackupFrame_descriptor =
             getDescriptor().getMessageTypes().get(7);
           internal_static_signal_BackupFrame_fieldAccessorTable = new
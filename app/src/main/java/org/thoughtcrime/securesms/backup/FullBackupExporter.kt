@@ -4,6 +4,7 @@ import android.content.Context
 import android.database.Cursor
 import android.net.Uri
 import android.text.TextUtils
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import com.annimon.stream.function.Consumer
 import com.annimon.stream.function.Predicate
@@ -31,14 +32,17 @@ import org.thoughtcrime.securesms.crypto.ModernDecryptingPartInputStream
 import org.thoughtcrime.securesms.database.AttachmentDatabase
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase
 import org.thoughtcrime.securesms.database.JobDatabase
+import org.thoughtcrime.securesms.database.LinkPreviewCacheDatabase
 import org.thoughtcrime.securesms.database.LokiAPIDatabase
 import org.thoughtcrime.securesms.database.LokiBackupFilesDatabase
 import org.thoughtcrime.securesms.database.MmsDatabase
 import org.thoughtcrime.securesms.database.MmsSmsColumns
 import org.thoughtcrime.securesms.database.PushDatabase
 import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.database.SessionContactDatabase
 import org.thoughtcrime.securesms.database.SmsDatabase
 import org.thoughtcrime.securesms.util.BackupUtil
+import java.io.ByteArrayOutputStream
 import java.io.Closeable
 import java.io.File
 import java.io.FileInputStream
@@ -46,69 +50,60 @@ import java.io.Flushable
 import java.io.IOException
 import java.io.InputStream
 import java.io.OutputStream
-import java.security.InvalidAlgorithmParameterException
-import java.security.InvalidKeyException
-import java.security.NoSuchAlgorithmException
 import java.util.LinkedList
-import javax.crypto.BadPaddingException
-import javax.crypto.Cipher
-import javax.crypto.IllegalBlockSizeException
-import javax.crypto.Mac
-import javax.crypto.NoSuchPaddingException
-import javax.crypto.spec.IvParameterSpec
-import javax.crypto.spec.SecretKeySpec
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.zip.Deflater
+
+/**
+ * Runs a query with its arguments against the database being exported.
+ */
+internal typealias RowQuery = (sql: String, args: Array<String>?) -> Cursor
 
 object FullBackupExporter {
     private val TAG = FullBackupExporter::class.java.simpleName
 
+    /**
+     * Exports a full backup when [chain] is a base. Otherwise exports only the rows of the
+     * [LokiBackupFilesDatabase.TRACKED_TABLES] that were logged as changed up to [lastChangeId],
+     * with the attachments of changed attachment rows, along with every other table in full.
+     */
     @JvmStatic
+    @JvmOverloads
     @WorkerThread
     @Throws(IOException::class)
     fun export(context: Context,
                attachmentSecret: AttachmentSecret,
                input: SQLiteDatabase,
                fileUri: Uri,
-               passphrase: String) {
+               passphrase: String,
+               chain: BackupBlockFormat.Chain = BackupBlockFormat.Chain.newBase(),
+               lastChangeId: Long = 0) {
 
         val baseOutputStream = context.contentResolver.openOutputStream(fileUri)
                 ?: throw IOException("Cannot open an output stream for the file URI: $fileUri")
 
+        val query: RowQuery = { sql, args -> input.rawQuery(sql, args) }
         var count = 0
         try {
-            BackupFrameOutputStream(baseOutputStream, passphrase).use { outputStream ->
+            BackupFrameOutputStream(baseOutputStream, passphrase, chain).use { outputStream ->
                 outputStream.writeDatabaseVersion(input.version)
-                val tables = exportSchema(input, outputStream)
-                for (table in tables) if (shouldExportTable(table)) {
-                    count = when (table) {
-                        SmsDatabase.TABLE_NAME, MmsDatabase.TABLE_NAME -> {
-                            exportTable(table, input, outputStream,
-                                    { cursor: Cursor ->
-                                        cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0
-                                    },
-                                    null,
-                                    count)
-                        }
-                        GroupReceiptDatabase.TABLE_NAME -> {
-                            exportTable(table, input, outputStream,
-                                    { cursor: Cursor ->
-                                        isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID)))
-                                    },
-                                    null,
-                                    count)
-                        }
-                        AttachmentDatabase.TABLE_NAME -> {
-                            exportTable(table, input, outputStream,
-                                    { cursor: Cursor ->
-                                        isForNonExpiringMessage(input, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID)))
-                                    },
-                                    { cursor: Cursor ->
-                                        exportAttachment(attachmentSecret, cursor, outputStream)
-                                    },
-                                    count)
-                        }
-                        else -> {
-                            exportTable(table, input, outputStream, null, null, count)
-                        }
+                if (chain.isBase) {
+                    val tables = exportSchema(input, outputStream)
+                    for (table in tables) if (shouldExportTable(table)) {
+                        count = exportTable(attachmentSecret, table, query, outputStream, null, null, count)
+                    }
+                } else {
+                    val tables = getTables(input).filter { shouldExportTable(it) }
+                    // Changed rows go first, as deleting messages also deletes their reactions.
+                    for (table in tables) if (table in LokiBackupFilesDatabase.TRACKED_TABLES) {
+                        count = exportChanges(attachmentSecret, table, query, outputStream, lastChangeId, count)
+                    }
+                    for (table in tables) if (table !in LokiBackupFilesDatabase.TRACKED_TABLES) {
+                        outputStream.writeSql(SqlStatement.newBuilder().setStatement("DELETE FROM $table").build())
+                        count = exportTable(attachmentSecret, table, query, outputStream, null, null, count)
                     }
                 }
                 for (preference in BackupUtil.getBackupRecords(context)) {
@@ -127,7 +122,7 @@ object FullBackupExporter {
             }
             EventBus.getDefault().post(BackupEvent.createFinished())
         } catch (e: Exception) {
-            Log.e(TAG, "Failed to make full backup.", e)
+            Log.e(TAG, "Failed to make backup.", e)
             EventBus.getDefault().post(BackupEvent.createFinished(e))
             throw e
         }
@@ -137,7 +132,9 @@ object FullBackupExporter {
         return  table != PushDatabase.TABLE_NAME &&
 
                 table != LokiBackupFilesDatabase.TABLE_NAME &&
+                table != LokiBackupFilesDatabase.CHANGES_TABLE_NAME &&
                 table != LokiAPIDatabase.openGroupProfilePictureTable &&
+                table != LinkPreviewCacheDatabase.TABLE_NAME &&
 
                 table != JobDatabase.Jobs.TABLE_NAME &&
                 table != JobDatabase.Constraints.TABLE_NAME &&
@@ -145,6 +142,7 @@ object FullBackupExporter {
 
                 !table.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME) &&
                 !table.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME) &&
+                !table.startsWith(SessionContactDatabase.nameSearchTable) &&
                 !table.startsWith("sqlite_")
     }
 
@@ -159,7 +157,8 @@ object FullBackupExporter {
                 if (sql != null) {
                     val isSmsFtsSecretTable = name != null && name != SearchDatabase.SMS_FTS_TABLE_NAME && name.startsWith(SearchDatabase.SMS_FTS_TABLE_NAME)
                     val isMmsFtsSecretTable = name != null && name != SearchDatabase.MMS_FTS_TABLE_NAME && name.startsWith(SearchDatabase.MMS_FTS_TABLE_NAME)
-                    if (!isSmsFtsSecretTable && !isMmsFtsSecretTable) {
+                    val isContactFtsSecretTable = name != null && name != SessionContactDatabase.nameSearchTable && name.startsWith(SessionContactDatabase.nameSearchTable)
+                    if (!isSmsFtsSecretTable && !isMmsFtsSecretTable && !isContactFtsSecretTable) {
                         if ("table" == type) {
                             tables.add(name)
                         }
@@ -171,16 +170,97 @@ object FullBackupExporter {
         return tables
     }
 
+    private fun getTables(input: SQLiteDatabase): List<String> {
+        val tables: MutableList<String> = LinkedList()
+        input.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'", null).use { cursor ->
+            while (cursor != null && cursor.moveToNext()) {
+                tables.add(cursor.getString(0))
+            }
+        }
+        return tables
+    }
+
+    /**
+     * Writes a delete for every logged change to [table], followed by the current contents of the
+     * rows that still exist.
+     */
+    @VisibleForTesting
+    @Throws(IOException::class)
+    internal fun exportChanges(attachmentSecret: AttachmentSecret,
+                               table: String,
+                               query: RowQuery,
+                               outputStream: RowOutputStream,
+                               lastChangeId: Long,
+                               count: Int): Int {
+        val changes = "SELECT ${LokiBackupFilesDatabase.CHANGE_ROW_ID} FROM ${LokiBackupFilesDatabase.CHANGES_TABLE_NAME} " +
+                "WHERE ${LokiBackupFilesDatabase.CHANGE_TABLE} = ? AND ${LokiBackupFilesDatabase.CHANGE_ID} <= ?"
+        val changesArgs = arrayOf(table, lastChangeId.toString())
+        query(changes, changesArgs).use { cursor ->
+            while (cursor != null && cursor.moveToNext()) {
+                outputStream.writeSql(SqlStatement.newBuilder()
+                        .setStatement("DELETE FROM $table WHERE ${MmsSmsColumns.ID} = ?")
+                        .addParameters(SqlStatement.SqlParameter.newBuilder().setIntegerParameter(cursor.getLong(0)))
+                        .build())
+            }
+        }
+        return exportTable(attachmentSecret, table, query, outputStream, "${MmsSmsColumns.ID} IN ($changes)", changesArgs, count)
+    }
+
+    @VisibleForTesting
     @Throws(IOException::class)
-    private fun exportTable(table: String,
-                            input: SQLiteDatabase,
-                            outputStream: BackupFrameOutputStream,
-                            predicate: Predicate<Cursor>?,
-                            postProcess: Consumer<Cursor>?,
-                            count: Int): Int {
+    internal fun exportTable(attachmentSecret: AttachmentSecret,
+                             table: String,
+                             query: RowQuery,
+                             outputStream: RowOutputStream,
+                             where: String?,
+                             whereArgs: Array<String>?,
+                             count: Int): Int {
+        return when (table) {
+            SmsDatabase.TABLE_NAME, MmsDatabase.TABLE_NAME -> {
+                exportRows(table, where, whereArgs, query, outputStream,
+                        { cursor: Cursor ->
+                            cursor.getInt(cursor.getColumnIndexOrThrow(MmsSmsColumns.EXPIRES_IN)) <= 0
+                        },
+                        null,
+                        count)
+            }
+            GroupReceiptDatabase.TABLE_NAME -> {
+                exportRows(table, where, whereArgs, query, outputStream,
+                        { cursor: Cursor ->
+                            isForNonExpiringMessage(query, cursor.getLong(cursor.getColumnIndexOrThrow(GroupReceiptDatabase.MMS_ID)))
+                        },
+                        null,
+                        count)
+            }
+            AttachmentDatabase.TABLE_NAME -> {
+                exportRows(table, where, whereArgs, query, outputStream,
+                        { cursor: Cursor ->
+                            isForNonExpiringMessage(query, cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.MMS_ID)))
+                        },
+                        { cursor: Cursor ->
+                            exportAttachment(attachmentSecret, cursor, outputStream)
+                        },
+                        count)
+            }
+            else -> {
+                exportRows(table, where, whereArgs, query, outputStream, null, null, count)
+            }
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun exportRows(table: String,
+                           where: String?,
+                           whereArgs: Array<String>?,
+                           query: RowQuery,
+                           outputStream: RowOutputStream,
+                           predicate: Predicate<Cursor>?,
+                           postProcess: Consumer<Cursor>?,
+                           count: Int): Int {
         var count = count
         val template = "INSERT INTO $table VALUES "
-        input.rawQuery("SELECT * FROM $table", null).use { cursor ->
+        val select = if (where != null) "SELECT * FROM $table WHERE $where" else "SELECT * FROM $table"
+        query(select, whereArgs).use { cursor ->
             while (cursor != null && cursor.moveToNext()) {
                 EventBus.getDefault().post(BackupEvent.createProgress(++count))
                 if (predicate != null && !predicate.test(cursor)) continue
@@ -227,7 +307,7 @@ object FullBackupExporter {
         return count
     }
 
-    private fun exportAttachment(attachmentSecret: AttachmentSecret, cursor: Cursor, outputStream: BackupFrameOutputStream) {
+    private fun exportAttachment(attachmentSecret: AttachmentSecret, cursor: Cursor, outputStream: RowOutputStream) {
         try {
             val rowId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.ROW_ID))
             val uniqueId = cursor.getLong(cursor.getColumnIndexOrThrow(AttachmentDatabase.UNIQUE_ID))
@@ -266,11 +346,9 @@ object FullBackupExporter {
         return result
     }
 
-    private fun isForNonExpiringMessage(db: SQLiteDatabase, mmsId: Long): Boolean {
-        val columns = arrayOf(MmsSmsColumns.EXPIRES_IN)
-        val where = MmsSmsColumns.ID + " = ?"
-        val args = arrayOf(mmsId.toString())
-        db.query(MmsDatabase.TABLE_NAME, columns, where, args, null, null, null).use { mmsCursor ->
+    private fun isForNonExpiringMessage(query: RowQuery, mmsId: Long): Boolean {
+        val select = "SELECT ${MmsSmsColumns.EXPIRES_IN} FROM ${MmsDatabase.TABLE_NAME} WHERE ${MmsSmsColumns.ID} = ?"
+        query(select, arrayOf(mmsId.toString())).use { mmsCursor ->
             if (mmsCursor != null && mmsCursor.moveToFirst()) {
                 return mmsCursor.getLong(0) == 0L
             }
@@ -278,62 +356,69 @@ object FullBackupExporter {
         return false
     }
 
-    private class BackupFrameOutputStream : Closeable, Flushable {
+    /**
+     * Where exported rows and the attachments of attachment rows are written.
+     */
+    internal interface RowOutputStream {
+        @Throws(IOException::class)
+        fun writeSql(statement: SqlStatement)
+
+        @Throws(IOException::class)
+        override fun writeAttachment(attachmentId: AttachmentId, inputStream: InputStream, size: Long)
+    }
+
+    /**
+     * Writes backups in the [BackupBlockFormat]. Blocks are compressed and encrypted on a small
+     * pool of workers, and written out in order as they complete.
+     */
+    private class BackupFrameOutputStream : RowOutputStream, Closeable, Flushable {
+
+        companion object {
+            private val WORKER_COUNT = Runtime.getRuntime().availableProcessors().coerceIn(1, 4)
+            private val MAX_PENDING_BLOCKS = WORKER_COUNT * 2
+        }
 
         private val outputStream: OutputStream
-        private var cipher: Cipher
-        private var mac: Mac
         private val cipherKey: ByteArray
         private val macKey: ByteArray
         private val iv: ByteArray
+        private val executor = Executors.newFixedThreadPool(WORKER_COUNT)
+        private val pendingBlocks = ArrayDeque<Future<ByteArray>>()
+        private val frames = ByteArrayOutputStream(BackupBlockFormat.BLOCK_SIZE + 64 * 1024)
 
         private var counter: Int = 0
 
-        constructor(outputStream: OutputStream, passphrase: String) : super() {
-            try {
-                val salt = Util.getSecretBytes(32)
-                val key = BackupUtil.computeBackupKey(passphrase, salt)
-                val derived = HKDFv3().deriveSecrets(key, "Backup Export".toByteArray(), 64)
-                val split = ByteUtil.split(derived, 32, 32)
-                cipherKey = split[0]
-                macKey = split[1]
-                cipher = Cipher.getInstance("AES/CTR/NoPadding")
-                mac = Mac.getInstance("HmacSHA256")
-                this.outputStream = outputStream
-                iv = Util.getSecretBytes(16)
-                counter = Conversions.byteArrayToInt(iv)
-                mac.init(SecretKeySpec(macKey, "HmacSHA256"))
-                val header = BackupFrame.newBuilder().setHeader(Header.newBuilder()
-                        .setIv(ByteString.copyFrom(iv))
-                        .setSalt(ByteString.copyFrom(salt)))
-                        .build().toByteArray()
-                outputStream.write(Conversions.intToByteArray(header.size))
-                outputStream.write(header)
-            } catch (e: Exception) {
-                when (e) {
-                    is NoSuchAlgorithmException,
-                    is NoSuchPaddingException,
-                    is InvalidKeyException -> {
-                        throw AssertionError(e)
-                    }
-                    else -> throw e
-                }
-            }
+        constructor(outputStream: OutputStream, passphrase: String, chain: BackupBlockFormat.Chain) : super() {
+            val salt = Util.getSecretBytes(32)
+            val key = BackupUtil.computeBackupKey(passphrase, salt)
+            val derived = HKDFv3().deriveSecrets(key, "Backup Export".toByteArray(), 64)
+            val split = ByteUtil.split(derived, 32, 32)
+            cipherKey = split[0]
+            macKey = split[1]
+            this.outputStream = outputStream
+            iv = Util.getSecretBytes(16)
+            counter = Conversions.byteArrayToInt(iv)
+            val header = BackupFrame.newBuilder().setHeader(BackupBlockFormat.setVersion(Header.newBuilder()
+                    .setIv(ByteString.copyFrom(iv))
+                    .setSalt(ByteString.copyFrom(salt)), chain))
+                    .build().toByteArray()
+            outputStream.write(Conversions.intToByteArray(header.size))
+            outputStream.write(header)
         }
 
         @Throws(IOException::class)
-        fun writeSql(statement: SqlStatement) {
-            write(outputStream, BackupFrame.newBuilder().setStatement(statement).build())
+        override fun writeSql(statement: SqlStatement) {
+            write(BackupFrame.newBuilder().setStatement(statement).build())
         }
 
         @Throws(IOException::class)
         fun writePreferenceEntry(preference: SharedPreference?) {
-            write(outputStream, BackupFrame.newBuilder().setPreference(preference).build())
+            write(BackupFrame.newBuilder().setPreference(preference).build())
         }
 
         @Throws(IOException::class)
         fun writeAvatar(avatarName: String, inputStream: InputStream, size: Long) {
-            write(outputStream, BackupFrame.newBuilder()
+            write(BackupFrame.newBuilder()
                     .setAvatar(Avatar.newBuilder()
                             .setName(avatarName)
                             .setLength(Util.toIntExact(size))
@@ -343,8 +428,8 @@ object FullBackupExporter {
         }
 
         @Throws(IOException::class)
-        fun writeAttachment(attachmentId: AttachmentId, inputStream: InputStream, size: Long) {
-            write(outputStream, BackupFrame.newBuilder()
+        override fun writeAttachment(attachmentId: AttachmentId, inputStream: InputStream, size: Long) {
+            write(BackupFrame.newBuilder()
                     .setAttachment(Attachment.newBuilder()
                             .setRowId(attachmentId.rowId)
                             .setAttachmentId(attachmentId.uniqueId)
@@ -356,7 +441,7 @@ object FullBackupExporter {
 
         @Throws(IOException::class)
         fun writeSticker(rowId: Long, inputStream: InputStream, size: Long) {
-            write(outputStream, BackupFrame.newBuilder()
+            write(BackupFrame.newBuilder()
                     .setSticker(Sticker.newBuilder()
                             .setRowId(rowId)
                             .setLength(Util.toIntExact(size))
@@ -367,80 +452,94 @@ object FullBackupExporter {
 
         @Throws(IOException::class)
         fun writeDatabaseVersion(version: Int) {
-            write(outputStream, BackupFrame.newBuilder()
+            write(BackupFrame.newBuilder()
                     .setVersion(DatabaseVersion.newBuilder().setVersion(version))
                     .build())
         }
 
         @Throws(IOException::class)
         fun writeEnd() {
-            write(outputStream, BackupFrame.newBuilder().setEnd(true).build())
+            write(BackupFrame.newBuilder().setEnd(true).build())
+            flush()
         }
 
+        /**
+         * Writes the contents of [inputStream] as data blocks following the frame that describes
+         * it. The data is always terminated, even if reading it fails part way, so that the rest of
+         * the backup stays readable.
+         */
         @Throws(IOException::class)
         private fun writeStream(inputStream: InputStream) {
+            flushFrames()
             try {
-                Conversions.intToByteArray(iv, 0, counter++)
-                cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(iv))
-                mac.update(iv)
-                val buffer = ByteArray(8192)
-                var read: Int
-                while (inputStream.read(buffer).also { read = it } != -1) {
-                    val ciphertext = cipher.update(buffer, 0, read)
-                    if (ciphertext != null) {
-                        outputStream.write(ciphertext)
-                        mac.update(ciphertext)
+                while (true) {
+                    val buffer = ByteArray(BackupBlockFormat.BLOCK_SIZE)
+                    var length = 0
+                    var read = 0
+                    while (length < buffer.size && inputStream.read(buffer, length, buffer.size - length).also { read = it } != -1) {
+                        length += read
                     }
-                }
-                val remainder = cipher.doFinal()
-                outputStream.write(remainder)
-                mac.update(remainder)
-                val attachmentDigest = mac.doFinal()
-                outputStream.write(attachmentDigest, 0, 10)
-            } catch (e: Exception) {
-                when (e) {
-                    is InvalidKeyException,
-                    is InvalidAlgorithmParameterException,
-                    is IllegalBlockSizeException,
-                    is BadPaddingException -> {
-                        throw AssertionError(e)
+                    if (length > 0) {
+                        submitBlock(buffer, length, Deflater.BEST_SPEED)
                     }
-                    else -> throw e
+                    if (read == -1) break
                 }
+            } finally {
+                submitBlock(ByteArray(0), 0, Deflater.BEST_SPEED)
             }
         }
 
         @Throws(IOException::class)
-        private fun write(out: OutputStream, frame: BackupFrame) {
-            try {
-                Conversions.intToByteArray(iv, 0, counter++)
-                cipher.init(Cipher.ENCRYPT_MODE, SecretKeySpec(cipherKey, "AES"), IvParameterSpec(iv))
-                val frameCiphertext = cipher.doFinal(frame.toByteArray())
-                val frameMac = mac.doFinal(frameCiphertext)
-                val length = Conversions.intToByteArray(frameCiphertext.size + 10)
-                out.write(length)
-                out.write(frameCiphertext)
-                out.write(frameMac, 0, 10)
-            } catch (e: Exception) {
-                when (e) {
-                    is InvalidKeyException,
-                    is InvalidAlgorithmParameterException,
-                    is IllegalBlockSizeException,
-                    is BadPaddingException -> {
-                        throw AssertionError(e)
-                    }
-                    else -> throw e
-                }
+        private fun write(frame: BackupFrame) {
+            frame.writeDelimitedTo(frames)
+            if (frames.size() >= BackupBlockFormat.BLOCK_SIZE) {
+                flushFrames()
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun flushFrames() {
+            if (frames.size() == 0) return
+            val data = frames.toByteArray()
+            frames.reset()
+            submitBlock(data, data.size, Deflater.DEFAULT_COMPRESSION)
+        }
+
+        @Throws(IOException::class)
+        private fun submitBlock(data: ByteArray, length: Int, compressionLevel: Int) {
+            val blockCounter = counter++
+            pendingBlocks.addLast(executor.submit(Callable {
+                BackupBlockFormat.encryptBlock(cipherKey, macKey, iv, blockCounter, data, length, compressionLevel)
+            }))
+            while (pendingBlocks.size > MAX_PENDING_BLOCKS) {
+                writeNextBlock()
             }
         }
 
+        @Throws(IOException::class)
+        private fun writeNextBlock() {
+            val block = try {
+                pendingBlocks.removeFirst().get()
+            } catch (e: ExecutionException) {
+                throw IOException(e.cause)
+            } catch (e: InterruptedException) {
+                throw IOException(e)
+            }
+            outputStream.write(block)
+        }
+
         @Throws(IOException::class)
         override fun flush() {
+            flushFrames()
+            while (pendingBlocks.isNotEmpty()) {
+                writeNextBlock()
+            }
             outputStream.flush()
         }
 
         @Throws(IOException::class)
         override fun close() {
+            executor.shutdownNow()
             outputStream.close()
         }
     }
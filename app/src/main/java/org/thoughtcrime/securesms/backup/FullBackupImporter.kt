@@ -4,11 +4,12 @@ import android.annotation.SuppressLint
 import android.content.ContentValues
 import android.content.Context
 import android.net.Uri
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import net.zetetic.database.sqlcipher.SQLiteDatabase
+import net.zetetic.database.sqlcipher.SQLiteStatement
 import org.greenrobot.eventbus.EventBus
 import org.session.libsession.avatars.AvatarHelper
-import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
 import org.session.libsession.utilities.Address
 import org.session.libsession.utilities.Conversions
 import org.session.libsession.utilities.Util
@@ -25,12 +26,16 @@ import org.thoughtcrime.securesms.crypto.AttachmentSecret
 import org.thoughtcrime.securesms.crypto.ModernEncryptingPartOutputStream
 import org.thoughtcrime.securesms.database.AttachmentDatabase
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase
+import org.thoughtcrime.securesms.database.LokiBackupFilesDatabase
 import org.thoughtcrime.securesms.database.MmsDatabase
 import org.thoughtcrime.securesms.database.MmsSmsColumns
 import org.thoughtcrime.securesms.database.SearchDatabase
+import org.thoughtcrime.securesms.database.SessionContactDatabase
+import org.thoughtcrime.securesms.database.SmsDatabase
 import org.thoughtcrime.securesms.database.ThreadDatabase
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.util.BackupUtil
+import java.io.ByteArrayInputStream
 import java.io.Closeable
 import java.io.File
 import java.io.FileOutputStream
@@ -41,7 +46,6 @@ import java.security.InvalidAlgorithmParameterException
 import java.security.InvalidKeyException
 import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
-import java.util.LinkedList
 import java.util.Locale
 import javax.crypto.BadPaddingException
 import javax.crypto.Cipher
@@ -61,6 +65,18 @@ object FullBackupImporter {
 
     private val TAG = FullBackupImporter::class.java.simpleName
 
+    /**
+     * A backup contains one INSERT per row but only one distinct INSERT per table, so a small cache
+     * of compiled statements is enough to avoid re-preparing the same SQL for every row.
+     */
+    private const val MAX_CACHED_STATEMENTS = 64
+
+    /**
+     * Schema statements that only speed up or derive from the table contents. They are run once
+     * all rows are loaded, rather than updating indexes and the FTS tables on every insert.
+     */
+    private val DEFERRED_STATEMENT_PREFIXES = listOf("create index", "create unique index", "create trigger")
+
     @JvmStatic
     @WorkerThread
     @Throws(IOException::class)
@@ -69,27 +85,60 @@ object FullBackupImporter {
                       db: SQLiteDatabase,
                       fileUri: Uri,
                       passphrase: String) {
+        importFromUris(context, attachmentSecret, db, listOf(fileUri), passphrase)
+    }
 
-        val baseInputStream = context.contentResolver.openInputStream(fileUri)
-                ?: throw IOException("Cannot open an input stream for the file URI: $fileUri")
+    /**
+     * Restores a full backup followed by the incremental backups made after it, replaying each of
+     * them in order within a single transaction.
+     */
+    @JvmStatic
+    @WorkerThread
+    @Throws(IOException::class)
+    fun importFromUris(context: Context,
+                       attachmentSecret: AttachmentSecret,
+                       db: SQLiteDatabase,
+                       fileUris: List<Uri>,
+                       passphrase: String) {
+        if (fileUris.isEmpty()) {
+            throw IOException("There are no backup files to import")
+        }
 
         var count = 0
         try {
-            BackupRecordInputStream(baseInputStream, passphrase).use { inputStream ->
+            StatementCache(db).use { statements ->
                 db.beginTransaction()
                 dropAllTables(db)
-                var frame: BackupFrame
-                while (!inputStream.readFrame().also { frame = it }.end) {
-                    if (count++ % 100 == 0) EventBus.getDefault().post(BackupEvent.createProgress(count))
-                    when {
-                        frame.hasVersion() -> processVersion(db, frame.version)
-                        frame.hasStatement() -> processStatement(db, frame.statement)
-                        frame.hasPreference() -> processPreference(context, frame.preference)
-                        frame.hasAttachment() -> processAttachment(context, attachmentSecret, db, frame.attachment, inputStream)
-                        frame.hasAvatar() -> processAvatar(context, frame.avatar, inputStream)
+                var previousChain: BackupBlockFormat.Chain? = null
+                for ((index, fileUri) in fileUris.withIndex()) {
+                    val baseInputStream = context.contentResolver.openInputStream(fileUri)
+                            ?: throw IOException("Cannot open an input stream for the file URI: $fileUri")
+
+                    openBackupInputStream(baseInputStream, passphrase).use { inputStream ->
+                        checkChain(previousChain, inputStream.chain, index)
+                        previousChain = inputStream.chain
+                        val deferredStatements = mutableListOf<String>()
+                        var frame: BackupFrame
+                        while (!inputStream.readFrame().also { frame = it }.end) {
+                            if (count++ % 100 == 0) EventBus.getDefault().post(BackupEvent.createProgress(count))
+                            when {
+                                frame.hasVersion() -> processVersion(db, frame.version)
+                                frame.hasStatement() -> processStatement(db, statements, deferredStatements, frame.statement)
+                                frame.hasPreference() -> processPreference(context, frame.preference)
+                                frame.hasAttachment() -> processAttachment(context, attachmentSecret, db, frame.attachment, inputStream)
+                                frame.hasAvatar() -> processAvatar(context, frame.avatar, inputStream)
+                            }
+                        }
+                        statements.clear()
+                        processDeferredStatements(db, deferredStatements)
                     }
                 }
                 trimEntriesForExpiredMessages(context, db)
+                if (tableExists(db, LokiBackupFilesDatabase.CHANGES_TABLE_NAME)) {
+                    db.delete(LokiBackupFilesDatabase.CHANGES_TABLE_NAME, null, null)
+                }
+                // the restored schema may log changes, which only the next backup starts doing again
+                LokiBackupFilesDatabase.DROP_CHANGE_TRIGGERS.forEach(db::execSQL)
                 db.setTransactionSuccessful()
             }
         } finally {
@@ -97,9 +146,24 @@ object FullBackupImporter {
                 db.endTransaction()
             }
         }
+        if (fileUris.size > 1) {
+            deleteUnreferencedAttachmentFiles(context, db)
+        }
         EventBus.getDefault().post(BackupEvent.createFinished())
     }
 
+    @VisibleForTesting
+    @Throws(IOException::class)
+    internal fun checkChain(previousChain: BackupBlockFormat.Chain?, chain: BackupBlockFormat.Chain?, index: Int) {
+        if (index == 0) {
+            if (chain != null && !chain.isBase) {
+                throw IOException("The first backup to restore must be a full backup")
+            }
+        } else if (chain == null || previousChain == null || chain != previousChain.next()) {
+            throw IOException("Backup file $index doesn't follow the previous one in its chain")
+        }
+    }
+
     @Throws(IOException::class)
     private fun processVersion(db: SQLiteDatabase, version: DatabaseVersion) {
         if (version.version > db.version) {
@@ -108,35 +172,74 @@ object FullBackupImporter {
         db.version = version.version
     }
 
-    private fun processStatement(db: SQLiteDatabase, statement: SqlStatement) {
-        val isForSmsFtsSecretTable = statement.statement.contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_")
-        val isForMmsFtsSecretTable = statement.statement.contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_")
-        val isForSqliteSecretTable = statement.statement.toLowerCase(Locale.ENGLISH).startsWith("create table sqlite_")
-        if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
-            Log.i(TAG, "Ignoring import for statement: " + statement.statement)
+    private fun processStatement(db: SQLiteDatabase,
+                                 statements: StatementCache,
+                                 deferredStatements: MutableList<String>,
+                                 statement: SqlStatement) {
+        // Backups made before the contact name index was left out also hold the rows of its shadow tables
+        if (statement.statement.contains(SessionContactDatabase.nameSearchTable + "_")) {
+            if (statement.parametersCount == 0) Log.i(TAG, "Ignoring import for statement: " + statement.statement)
+            return
+        }
+        if (statement.parametersCount == 0) {
+            val isForSmsFtsSecretTable = statement.statement.contains(SearchDatabase.SMS_FTS_TABLE_NAME + "_")
+            val isForMmsFtsSecretTable = statement.statement.contains(SearchDatabase.MMS_FTS_TABLE_NAME + "_")
+            val normalizedStatement = statement.statement.trimStart().toLowerCase(Locale.ENGLISH)
+            val isForSqliteSecretTable = normalizedStatement.startsWith("create table sqlite_")
+            if (isForSmsFtsSecretTable || isForMmsFtsSecretTable || isForSqliteSecretTable) {
+                Log.i(TAG, "Ignoring import for statement: " + statement.statement)
+                return
+            }
+            if (DEFERRED_STATEMENT_PREFIXES.any { normalizedStatement.startsWith(it) }) {
+                deferredStatements.add(statement.statement)
+                return
+            }
+            // Schema changes invalidate any statements compiled against the old schema.
+            statements.clear()
+            db.execSQL(statement.statement)
             return
         }
-        val parameters: MutableList<Any?> = LinkedList()
-        for (parameter in statement.parametersList) {
+        val compiledStatement = statements[statement.statement]
+        compiledStatement.clearBindings()
+        for ((i, parameter) in statement.parametersList.withIndex()) {
+            val index = i + 1
             when {
-                parameter.hasStringParamter() -> parameters.add(parameter.stringParamter)
-                parameter.hasDoubleParameter() -> parameters.add(parameter.doubleParameter)
-                parameter.hasIntegerParameter() -> parameters.add(parameter.integerParameter)
-                parameter.hasBlobParameter() -> parameters.add(parameter.blobParameter.toByteArray())
-                parameter.hasNullparameter() -> parameters.add(null)
+                parameter.hasStringParamter() -> compiledStatement.bindString(index, parameter.stringParamter)
+                parameter.hasDoubleParameter() -> compiledStatement.bindDouble(index, parameter.doubleParameter)
+                parameter.hasIntegerParameter() -> compiledStatement.bindLong(index, parameter.integerParameter)
+                parameter.hasBlobParameter() -> compiledStatement.bindBlob(index, parameter.blobParameter.toByteArray())
+                else -> compiledStatement.bindNull(index)
             }
         }
-        if (parameters.size > 0) {
-            db.execSQL(statement.statement, parameters.toTypedArray())
-        } else {
-            db.execSQL(statement.statement)
+        compiledStatement.execute()
+    }
+
+    /**
+     * Creates the indexes and triggers held back during the data load, after populating the FTS
+     * tables in one pass since their triggers weren't there to do it row by row.
+     */
+    private fun processDeferredStatements(db: SQLiteDatabase, deferredStatements: List<String>) {
+        if (deferredStatements.isEmpty()) return
+        for (ftsTable in listOf(SearchDatabase.SMS_FTS_TABLE_NAME, SearchDatabase.MMS_FTS_TABLE_NAME, SessionContactDatabase.nameSearchTable)) {
+            if (tableExists(db, ftsTable)) {
+                db.execSQL("INSERT INTO $ftsTable($ftsTable) VALUES('rebuild')")
+            }
+        }
+        for (statement in deferredStatements) {
+            db.execSQL(statement)
+        }
+    }
+
+    private fun tableExists(db: SQLiteDatabase, table: String): Boolean {
+        db.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = ?", arrayOf(table)).use { cursor ->
+            return cursor != null && cursor.moveToFirst()
         }
     }
 
     @Throws(IOException::class)
     private fun processAttachment(context: Context, attachmentSecret: AttachmentSecret,
                                   db: SQLiteDatabase, attachment: Attachment,
-                                  inputStream: BackupRecordInputStream) {
+                                  inputStream: BackupInputStream) {
         val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
         val dataFile = File.createTempFile("part", ".mms", partsDirectory)
         val output = ModernEncryptingPartOutputStream.createFor(attachmentSecret, dataFile, false)
@@ -151,7 +254,7 @@ object FullBackupImporter {
     }
 
     @Throws(IOException::class)
-    private fun processAvatar(context: Context, avatar: Avatar, inputStream: BackupRecordInputStream) {
+    private fun processAvatar(context: Context, avatar: Avatar, inputStream: BackupInputStream) {
         inputStream.readAttachmentTo(FileOutputStream(
                 AvatarHelper.getAvatarFile(context, Address.fromExternal(context, avatar.name))), avatar.length)
     }
@@ -194,23 +297,174 @@ object FullBackupImporter {
     private fun trimEntriesForExpiredMessages(context: Context, db: SQLiteDatabase) {
         val trimmedCondition = " NOT IN (SELECT ${MmsSmsColumns.ID} FROM ${MmsDatabase.TABLE_NAME})"
         db.delete(GroupReceiptDatabase.TABLE_NAME, GroupReceiptDatabase.MMS_ID + trimmedCondition, null)
-        val columns = arrayOf(AttachmentDatabase.ROW_ID, AttachmentDatabase.UNIQUE_ID)
-        val where = AttachmentDatabase.MMS_ID + trimmedCondition
-        db.query(AttachmentDatabase.TABLE_NAME, columns, where, null, null, null, null).use { cursor ->
+        DatabaseComponent.get(context).attachmentDatabase().deleteAttachmentsForMissingMessages()
+        // Disappearing messages aren't exported, so only the threads that had some need a new summary.
+        val messageCount = "(SELECT COUNT(*) FROM ${SmsDatabase.TABLE_NAME} WHERE ${MmsSmsColumns.THREAD_ID} = ${ThreadDatabase.TABLE_NAME}.${ThreadDatabase.ID})" +
+                " + (SELECT COUNT(*) FROM ${MmsDatabase.TABLE_NAME} WHERE ${MmsSmsColumns.THREAD_ID} = ${ThreadDatabase.TABLE_NAME}.${ThreadDatabase.ID})"
+        val staleThreadIds = mutableListOf<Long>()
+        db.rawQuery("SELECT ${ThreadDatabase.ID} FROM ${ThreadDatabase.TABLE_NAME} WHERE ${ThreadDatabase.MESSAGE_COUNT} != $messageCount", null).use { cursor ->
             while (cursor != null && cursor.moveToNext()) {
-                DatabaseComponent.get(context).attachmentDatabase()
-                        .deleteAttachment(AttachmentId(cursor.getLong(0), cursor.getLong(1)))
+                staleThreadIds.add(cursor.getLong(0))
             }
         }
-        db.query(ThreadDatabase.TABLE_NAME, arrayOf(ThreadDatabase.ID),
-                ThreadDatabase.EXPIRES_IN + " > 0", null, null, null, null).use { cursor ->
+        val threadDatabase = DatabaseComponent.get(context).threadDatabase()
+        for (threadId in staleThreadIds) {
+            threadDatabase.update(threadId, false)
+        }
+    }
+
+    /**
+     * Deletes the attachment files that incremental backups replaced or deleted the rows of.
+     */
+    private fun deleteUnreferencedAttachmentFiles(context: Context, db: SQLiteDatabase) {
+        val referencedFiles = HashSet<String>()
+        db.query(AttachmentDatabase.TABLE_NAME, arrayOf(AttachmentDatabase.DATA, AttachmentDatabase.THUMBNAIL), null, null, null, null, null).use { cursor ->
             while (cursor != null && cursor.moveToNext()) {
-                DatabaseComponent.get(context).threadDatabase().update(cursor.getLong(0), false)
+                cursor.getString(0)?.let { referencedFiles.add(it) }
+                cursor.getString(1)?.let { referencedFiles.add(it) }
+            }
+        }
+        val partsDirectory = context.getDir(AttachmentDatabase.DIRECTORY, Context.MODE_PRIVATE)
+        partsDirectory.listFiles()?.forEach { file ->
+            if (file.absolutePath !in referencedFiles && !file.delete()) {
+                Log.w(TAG, "Failed to delete unreferenced attachment file: ${file.name}")
             }
         }
     }
 
-    private class BackupRecordInputStream : Closeable {
+    /**
+     * Compiled statements keyed by their SQL text, closing the least recently used ones once there
+     * are more than [MAX_CACHED_STATEMENTS].
+     */
+    private class StatementCache(private val db: SQLiteDatabase) : Closeable {
+        private val statements = object : LinkedHashMap<String, SQLiteStatement>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, SQLiteStatement>): Boolean {
+                if (size <= MAX_CACHED_STATEMENTS) return false
+                eldest.value.close()
+                return true
+            }
+        }
+
+        operator fun get(sql: String): SQLiteStatement {
+            return statements.getOrPut(sql) { db.compileStatement(sql) }
+        }
+
+        fun clear() {
+            statements.values.forEach { it.close() }
+            statements.clear()
+        }
+
+        override fun close() {
+            clear()
+        }
+    }
+
+    @Throws(IOException::class)
+    private fun openBackupInputStream(inputStream: InputStream, passphrase: String): BackupInputStream {
+        try {
+            val headerLengthBytes = ByteArray(4)
+            Util.readFully(inputStream, headerLengthBytes)
+            val headerLength = Conversions.byteArrayToInt(headerLengthBytes)
+            val headerFrame = ByteArray(headerLength)
+            Util.readFully(inputStream, headerFrame)
+            val frame = BackupFrame.parseFrom(headerFrame)
+            if (!frame.hasHeader()) {
+                throw IOException("Backup stream does not start with header!")
+            }
+            val header = frame.header
+            val iv = header.iv.toByteArray()
+            if (iv.size != 16) {
+                throw IOException("Invalid IV length!")
+            }
+            val key = BackupUtil.computeBackupKey(passphrase, if (header.hasSalt()) header.salt.toByteArray() else null)
+            val derived = HKDFv3().deriveSecrets(key, "Backup Export".toByteArray(), 64)
+            val split = ByteUtil.split(derived, 32, 32)
+            return if (BackupBlockFormat.getVersion(header) >= BackupBlockFormat.VERSION) {
+                BackupBlockInputStream(inputStream, iv, split[0], split[1], BackupBlockFormat.getChain(header))
+            } else {
+                BackupRecordInputStream(inputStream, iv, split[0], split[1])
+            }
+        } catch (e: IOException) {
+            inputStream.close()
+            throw e
+        }
+    }
+
+    private interface BackupInputStream : Closeable {
+        val chain: BackupBlockFormat.Chain?
+
+        @Throws(IOException::class)
+        fun readFrame(): BackupFrame
+
+        /**
+         * Reads the data of the attachment, avatar or sticker frame that was just read into [out],
+         * and closes it.
+         */
+        @Throws(IOException::class)
+        fun readAttachmentTo(out: OutputStream, length: Int)
+    }
+
+    /**
+     * Reads backups in the [BackupBlockFormat].
+     */
+    private class BackupBlockInputStream(private val inputStream: InputStream,
+                                         private val iv: ByteArray,
+                                         private val cipherKey: ByteArray,
+                                         private val macKey: ByteArray,
+                                         override val chain: BackupBlockFormat.Chain?) : BackupInputStream {
+
+        private var counter = Conversions.byteArrayToInt(iv)
+        private var frames = ByteArrayInputStream(ByteArray(0))
+
+        @Throws(IOException::class)
+        override fun readFrame(): BackupFrame {
+            while (true) {
+                val frame = BackupFrame.parseDelimitedFrom(frames)
+                if (frame != null) return frame
+                frames = ByteArrayInputStream(readBlock())
+            }
+        }
+
+        @Throws(IOException::class)
+        override fun readAttachmentTo(out: OutputStream, length: Int) {
+            out.use {
+                var written = 0L
+                while (true) {
+                    val data = readBlock()
+                    if (data.isEmpty()) break
+                    out.write(data)
+                    written += data.size
+                }
+                if (written != length.toLong()) {
+                    Log.w(TAG, "Expected $length bytes of attachment data, but read $written.")
+                }
+            }
+        }
+
+        @Throws(IOException::class)
+        private fun readBlock(): ByteArray {
+            val lengthBytes = ByteArray(4)
+            Util.readFully(inputStream, lengthBytes)
+            val length = Conversions.byteArrayToInt(lengthBytes)
+            BackupBlockFormat.checkBlockLength(length)
+            val block = ByteArray(length)
+            Util.readFully(inputStream, block)
+            return BackupBlockFormat.decryptBlock(cipherKey, macKey, iv, counter++, block)
+        }
+
+        @Throws(IOException::class)
+        override fun close() {
+            inputStream.close()
+        }
+    }
+
+    /**
+     * Reads backups written before the [BackupBlockFormat], with every frame and attachment
+     * encrypted separately.
+     */
+    private class BackupRecordInputStream : BackupInputStream {
+        override val chain: BackupBlockFormat.Chain? = null
+
         private val inputStream: InputStream
         private val cipher: Cipher
         private val mac: Mac
@@ -220,29 +474,12 @@ object FullBackupImporter {
 
         private var counter = 0
 
-        @Throws(IOException::class)
-        constructor(inputStream: InputStream, passphrase: String) : super() {
+        constructor(inputStream: InputStream, iv: ByteArray, cipherKey: ByteArray, macKey: ByteArray) : super() {
             try {
                 this.inputStream = inputStream
-                val headerLengthBytes = ByteArray(4)
-                Util.readFully(this.inputStream, headerLengthBytes)
-                val headerLength = Conversions.byteArrayToInt(headerLengthBytes)
-                val headerFrame = ByteArray(headerLength)
-                Util.readFully(this.inputStream, headerFrame)
-                val frame = BackupFrame.parseFrom(headerFrame)
-                if (!frame.hasHeader()) {
-                    throw IOException("Backup stream does not start with header!")
-                }
-                val header = frame.header
-                iv = header.iv.toByteArray()
-                if (iv.size != 16) {
-                    throw IOException("Invalid IV length!")
-                }
-                val key = BackupUtil.computeBackupKey(passphrase, if (header.hasSalt()) header.salt.toByteArray() else null)
-                val derived = HKDFv3().deriveSecrets(key, "Backup Export".toByteArray(), 64)
-                val split = ByteUtil.split(derived, 32, 32)
-                cipherKey = split[0]
-                macKey = split[1]
+                this.iv = iv
+                this.cipherKey = cipherKey
+                this.macKey = macKey
                 cipher = Cipher.getInstance("AES/CTR/NoPadding")
                 mac = Mac.getInstance("HmacSHA256")
                 mac.init(SecretKeySpec(macKey, "HmacSHA256"))
@@ -260,12 +497,12 @@ object FullBackupImporter {
         }
 
         @Throws(IOException::class)
-        fun readFrame(): BackupFrame {
+        override fun readFrame(): BackupFrame {
             return readFrame(inputStream)
         }
 
         @Throws(IOException::class)
-        fun readAttachmentTo(out: OutputStream, length: Int) {
+        override fun readAttachmentTo(out: OutputStream, length: Int) {
             var length = length
             try {
                 Conversions.intToByteArray(iv, 0, counter++)
@@ -48,10 +48,7 @@ class ProfilePictureView @JvmOverloads constructor(
 
         if (recipient.isClosedGroupRecipient) {
             val members = DatabaseComponent.get(context).groupDatabase()
-                    .getGroupMemberAddresses(recipient.address.toGroupString(), true)
-                    .sorted()
-                    .take(2)
-                    .toMutableList()
+                    .getFirstGroupMemberAddresses(recipient.address.toGroupString(), 2)
             val pk = members.getOrNull(0)?.serialize() ?: ""
             publicKey = pk
             displayName = getUserDisplayName(pk)
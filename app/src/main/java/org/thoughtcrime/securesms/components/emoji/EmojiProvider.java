@@ -22,6 +22,7 @@ import org.session.libsession.utilities.FutureTaskListener;
 import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiDrawInfo;
 import org.thoughtcrime.securesms.components.emoji.parsing.EmojiParser;
+import org.thoughtcrime.securesms.components.emoji.parsing.EmojiTree;
 import org.thoughtcrime.securesms.emoji.EmojiPageCache;
 import org.thoughtcrime.securesms.emoji.EmojiSource;
 import org.thoughtcrime.securesms.util.Util;
@@ -34,9 +35,24 @@ public class EmojiProvider {
   private static final    String TAG   = Log.tag(EmojiProvider.class);
   private static final    Paint  PAINT = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.ANTI_ALIAS_FLAG);
 
+  private static volatile EmojiParser parser;
+
   public static @Nullable EmojiParser.CandidateList getCandidates(@Nullable CharSequence text) {
     if (text == null) return null;
-    return new EmojiParser(EmojiSource.getLatest().getEmojiTree()).findCandidates(text);
+    return getParser().findCachedCandidates(text);
+  }
+
+  private static @NonNull EmojiParser getParser() {
+    EmojiTree   emojiTree = EmojiSource.getLatest().getEmojiTree();
+    EmojiParser parser    = EmojiProvider.parser;
+
+    // a new parser, with an empty cache, for each new emoji source
+    if (parser == null || parser.getEmojiTree() != emojiTree) {
+      parser = new EmojiParser(emojiTree);
+      EmojiProvider.parser = parser;
+    }
+
+    return parser;
   }
 
   static  @Nullable Spannable emojify(@Nullable CharSequence text, @NonNull TextView tv, boolean jumboEmoji) {
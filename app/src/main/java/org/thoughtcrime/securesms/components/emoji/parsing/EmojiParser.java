@@ -24,30 +24,73 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Based in part on code from emoji-java
  */
 public class EmojiParser {
 
+  private static final int MAX_CACHED_TEXTS       = 500;
+  private static final int MAX_CACHED_TEXT_LENGTH = 2000;
+
   private final EmojiTree emojiTree;
 
+  // The same message bodies and names are parsed each time they're bound while scrolling
+  private final Map<String, CandidateList> cache = new LinkedHashMap<String, CandidateList>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, CandidateList> eldest) {
+      return size() > MAX_CACHED_TEXTS;
+    }
+  };
+
   public EmojiParser(EmojiTree emojiTree) {
     this.emojiTree = emojiTree;
   }
 
+  public EmojiTree getEmojiTree() {
+    return emojiTree;
+  }
+
+  /**
+   * Like {@link #findCandidates(CharSequence)}, but returns the candidates found earlier for the same text
+   * if they're still cached.
+   */
+  public @NonNull CandidateList findCachedCandidates(@Nullable CharSequence text) {
+    if (text == null || text.length() > MAX_CACHED_TEXT_LENGTH) return findCandidates(text);
+
+    String        key = text.toString();
+    CandidateList candidates;
+
+    synchronized (cache) {
+      candidates = cache.get(key);
+    }
+
+    if (candidates == null) {
+      candidates = findCandidates(key);
+
+      synchronized (cache) {
+        cache.put(key, candidates);
+      }
+    }
+
+    return candidates;
+  }
+
   public @NonNull CandidateList findCandidates(@Nullable CharSequence text) {
-    List<Candidate> results = new LinkedList<>();
+    List<Candidate> results = new ArrayList<>();
 
     if (text == null) return new CandidateList(results, false);
 
     boolean allEmojis = text.length() > 0;
 
     for (int i = 0; i < text.length(); i++) {
-      int emojiEnd = getEmojiEndPos(text, i);
+      int emojiEnd = emojiTree.getEmojiEnd(text, i);
 
       if (emojiEnd != -1) {
         EmojiDrawInfo drawInfo = emojiTree.getEmoji(text, i, emojiEnd);
@@ -69,22 +112,6 @@ public class EmojiParser {
     return new CandidateList(results, allEmojis);
   }
 
-  private int getEmojiEndPos(CharSequence text, int startPos) {
-    int best = -1;
-
-    for (int j = startPos + 1; j <= text.length(); j++) {
-      EmojiTree.Matches status = emojiTree.isEmoji(text, startPos, j);
-
-      if (status.exactMatch()) {
-        best = j;
-      } else if (status.impossibleMatch()) {
-        return best;
-      }
-    }
-
-    return best;
-  }
-
   public static class Candidate {
 
     private final int           startIndex;
@@ -115,7 +142,7 @@ public class EmojiParser {
     public final boolean                     allEmojis;
 
     public CandidateList(List<EmojiParser.Candidate> candidates, boolean allEmojis) {
-      this.list = candidates;
+      this.list = Collections.unmodifiableList(candidates);
       this.allEmojis = allEmojis;
     }
 
@@ -22,117 +22,130 @@ package org.thoughtcrime.securesms.components.emoji.parsing;
 
 import androidx.annotation.Nullable;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Based in part on code from emoji-java
+ *
+ * A trie over the code points of each emoji, held in arrays indexed by node: each node's children are
+ * a sorted array of code points searched by bisection, next to an array of the child nodes they lead to.
  */
 public class EmojiTree {
 
-  private final EmojiTreeNode root = new EmojiTreeNode();
+  private static final int ROOT = 0;
+  private static final int NONE = -1;
+
+  private static final int[] NO_CHILDREN = new int[0];
 
-  private static final char TERMINATOR = '\ufe0f';
+  private static final int TERMINATOR = '\ufe0f';
+
+  private int[][]         childCodePoints = new int[256][];
+  private int[][]         childNodes      = new int[256][];
+  private EmojiDrawInfo[] emoji           = new EmojiDrawInfo[256];
+  private int             size;
+
+  public EmojiTree() {
+    size = 1;
+    childCodePoints[ROOT] = NO_CHILDREN;
+    childNodes[ROOT]      = NO_CHILDREN;
+  }
 
   public void add(String emojiEncoding, EmojiDrawInfo emoji) {
-    EmojiTreeNode tree = root;
+    int node = ROOT;
+
+    for (int i = 0; i < emojiEncoding.length(); ) {
+      int codePoint = Character.codePointAt(emojiEncoding, i);
+      int child     = getChild(node, codePoint);
 
-    for (char c: emojiEncoding.toCharArray()) {
-      if (!tree.hasChild(c)) {
-        tree.addChild(c);
+      if (child == NONE) {
+        child = addChild(node, codePoint);
       }
 
-      tree = tree.getChild(c);
+      node = child;
+      i   += Character.charCount(codePoint);
     }
 
-    tree.setEmoji(emoji);
+    this.emoji[node] = emoji;
   }
 
-  public Matches isEmoji(CharSequence sequence, int startPosition, int endPosition) {
-    if (sequence == null) {
-      return Matches.POSSIBLY;
-    }
+  /**
+   * @return The end of the longest emoji starting at {@code startPosition}, or -1 if none does.
+   */
+  public int getEmojiEnd(CharSequence sequence, int startPosition) {
+    int node = ROOT;
+    int best = -1;
 
-    EmojiTreeNode tree = root;
+    for (int i = startPosition; i < sequence.length(); ) {
+      int codePoint = Character.codePointAt(sequence, i);
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = sequence.charAt(i);
+      node = getChild(node, codePoint);
+      if (node == NONE) break;
 
-      if (!tree.hasChild(character)) {
-        return Matches.IMPOSSIBLE;
-      }
+      i += Character.charCount(codePoint);
 
-      tree = tree.getChild(character);
+      if (emoji[node] != null || (codePoint != TERMINATOR && getTerminatedEmoji(node) != null)) {
+        best = i;
+      }
     }
 
-    if (tree.isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else if (sequence.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR) && tree.getChild(TERMINATOR).isEndOfEmoji()) {
-      return Matches.EXACTLY;
-    } else {
-      return Matches.POSSIBLY;
-    }
+    return best;
   }
 
   public @Nullable EmojiDrawInfo getEmoji(CharSequence unicode, int startPosition, int endPosition) {
-    EmojiTreeNode tree = root;
+    int node = ROOT;
 
-    for (int i=startPosition; i<endPosition; i++) {
-      char character = unicode.charAt(i);
+    for (int i = startPosition; i < endPosition; ) {
+      int codePoint = Character.codePointAt(unicode, i);
 
-      if (!tree.hasChild(character)) {
-        return null;
-      }
+      node = getChild(node, codePoint);
+      if (node == NONE) return null;
 
-      tree = tree.getChild(character);
+      i += Character.charCount(codePoint);
     }
 
-    if      (tree.getEmoji() != null)                                                  return tree.getEmoji();
-    else if (unicode.charAt(endPosition-1) != TERMINATOR && tree.hasChild(TERMINATOR)) return tree.getChild(TERMINATOR).getEmoji();
+    if      (emoji[node] != null)                          return emoji[node];
+    else if (unicode.charAt(endPosition-1) != TERMINATOR) return getTerminatedEmoji(node);
     else    return null;
   }
 
+  private @Nullable EmojiDrawInfo getTerminatedEmoji(int node) {
+    int child = getChild(node, TERMINATOR);
+    return child != NONE ? emoji[child] : null;
+  }
 
-  private static class EmojiTreeNode {
-
-    private Map<Character, EmojiTreeNode> children = new HashMap<>();
-    private EmojiDrawInfo emoji;
-
-    public void setEmoji(EmojiDrawInfo emoji) {
-      this.emoji = emoji;
-    }
-
-    public @Nullable EmojiDrawInfo getEmoji() {
-      return emoji;
-    }
+  private int getChild(int node, int codePoint) {
+    int index = Arrays.binarySearch(childCodePoints[node], codePoint);
+    return index >= 0 ? childNodes[node][index] : NONE;
+  }
 
-    boolean hasChild(char child) {
-      return children.containsKey(child);
+  private int addChild(int node, int codePoint) {
+    if (size == emoji.length) {
+      childCodePoints = Arrays.copyOf(childCodePoints, size * 2);
+      childNodes      = Arrays.copyOf(childNodes, size * 2);
+      emoji           = Arrays.copyOf(emoji, size * 2);
     }
 
-    void addChild(char child) {
-      children.put(child, new EmojiTreeNode());
-    }
+    int child = size++;
+    childCodePoints[child] = NO_CHILDREN;
+    childNodes[child]      = NO_CHILDREN;
 
-    EmojiTreeNode getChild(char child) {
-      return children.get(child);
-    }
+    int[] codePoints = childCodePoints[node];
+    int[] nodes      = childNodes[node];
+    int   index      = -(Arrays.binarySearch(codePoints, codePoint) + 1);
 
-    boolean isEndOfEmoji() {
-      return emoji != null;
-    }
-  }
+    int[] newCodePoints = new int[codePoints.length + 1];
+    int[] newNodes      = new int[nodes.length + 1];
 
-  public enum Matches {
-    EXACTLY, POSSIBLY, IMPOSSIBLE;
+    System.arraycopy(codePoints, 0, newCodePoints, 0, index);
+    System.arraycopy(nodes, 0, newNodes, 0, index);
+    newCodePoints[index] = codePoint;
+    newNodes[index]      = child;
+    System.arraycopy(codePoints, index, newCodePoints, index + 1, codePoints.length - index);
+    System.arraycopy(nodes, index, newNodes, index + 1, nodes.length - index);
 
-    public boolean exactMatch() {
-      return this == EXACTLY;
-    }
+    childCodePoints[node] = newCodePoints;
+    childNodes[node]      = newNodes;
 
-    public boolean impossibleMatch() {
-      return this == IMPOSSIBLE;
-    }
+    return child;
   }
-
 }
@@ -0,0 +1,147 @@
+package org.thoughtcrime.securesms.contacts
+
+import android.content.Context
+import android.database.ContentObserver
+import androidx.annotation.WorkerThread
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsession.utilities.recipients.RecipientModifiedListener
+import org.thoughtcrime.securesms.database.DatabaseContentProviders
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent
+import java.text.Normalizer
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * An in-memory index of the recipients shown when selecting contacts and groups, so that filtering
+ * doesn't have to walk the conversation list and resolve every recipient's name on each keystroke.
+ *
+ * The set of indexed recipients is refreshed lazily after the conversation list changes, by
+ * diffing thread addresses, and individual entries are re-indexed when their recipient is
+ * modified. Queries are prefix matches against the words of the display name and against the
+ * Session ID.
+ */
+class ContactSelectionIndex private constructor(private val context: Context) : RecipientModifiedListener {
+
+    class Entry(val recipient: Recipient, val name: String, internal val tokens: List<String>)
+
+    companion object {
+        @Volatile
+        private var instance: ContactSelectionIndex? = null
+
+        @JvmStatic
+        fun getInstance(context: Context): ContactSelectionIndex {
+            return instance ?: synchronized(this) {
+                instance ?: ContactSelectionIndex(context.applicationContext).also { instance = it }
+            }
+        }
+
+        fun normalize(text: String): String {
+            val decomposed = Normalizer.normalize(text, Normalizer.Form.NFD)
+            return decomposed.replace("\\p{Mn}+".toRegex(), "").lowercase(Locale.ROOT)
+        }
+    }
+
+    private val entries = mutableMapOf<Address, Entry>()
+    private val modifiedRecipients = ConcurrentHashMap.newKeySet<Address>()
+    @Volatile private var isThreadListStale = true
+    private var sortedEntries = listOf<Entry>()
+    private var ranks = mapOf<Entry, Int>()
+    private var tokens = arrayOf<String>()
+    private var tokenEntries = arrayOf<Entry>()
+
+    init {
+        context.contentResolver.registerContentObserver(
+            DatabaseContentProviders.ConversationList.CONTENT_URI,
+            true,
+            object : ContentObserver(null) {
+                override fun onChange(selfChange: Boolean) {
+                    isThreadListStale = true
+                }
+            }
+        )
+    }
+
+    override fun onModified(recipient: Recipient) {
+        modifiedRecipients.add(recipient.address)
+    }
+
+    /**
+     * @return The indexed entries matching [filter], sorted by display name.
+     */
+    @WorkerThread
+    @Synchronized
+    fun query(filter: String?): List<Entry> {
+        refreshIfNeeded()
+        val words = normalize(filter?.trim() ?: "").split(' ').filter { it.isNotEmpty() }
+        if (words.isEmpty()) { return sortedEntries }
+        val candidates = entriesWithTokenPrefix(words.first())
+        val remainingWords = words.drop(1)
+        return candidates
+            .filter { entry -> remainingWords.all { word -> entry.tokens.any { it.startsWith(word) } } }
+            .sortedBy { ranks[it] }
+    }
+
+    private fun entriesWithTokenPrefix(prefix: String): Set<Entry> {
+        val result = LinkedHashSet<Entry>()
+        var index = lowerBound(prefix)
+        while (index < tokens.size && tokens[index].startsWith(prefix)) {
+            result.add(tokenEntries[index])
+            index++
+        }
+        return result
+    }
+
+    private fun lowerBound(key: String): Int {
+        var low = 0
+        var high = tokens.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (tokens[mid] < key) low = mid + 1 else high = mid
+        }
+        return low
+    }
+
+    private fun refreshIfNeeded() {
+        var changed = false
+        if (isThreadListStale) {
+            isThreadListStale = false
+            val addresses = DatabaseComponent.get(context).threadDatabase().conversationListAddresses.toSet()
+            val removed = entries.keys - addresses
+            removed.forEach { entries.remove(it)?.recipient?.removeListener(this) }
+            addresses.filterNot { entries.containsKey(it) }.forEach { address ->
+                val recipient = Recipient.from(context, address, false)
+                recipient.addListener(this)
+                entries[address] = createEntry(recipient)
+            }
+            changed = removed.isNotEmpty() || entries.size != sortedEntries.size
+        }
+        if (modifiedRecipients.isNotEmpty()) {
+            val modified = modifiedRecipients.toList()
+            modifiedRecipients.removeAll(modified.toSet())
+            modified.forEach { address ->
+                val entry = entries[address] ?: return@forEach
+                entries[address] = createEntry(entry.recipient)
+            }
+            changed = true
+        }
+        if (changed) {
+            rebuildIndex()
+        }
+    }
+
+    private fun createEntry(recipient: Recipient): Entry {
+        val name = recipient.toShortString()
+        val address = normalize(recipient.address.serialize())
+        val nameTokens = normalize(name).split(' ').filter { it.isNotEmpty() }
+        return Entry(recipient, name, (nameTokens + address).distinct())
+    }
+
+    private fun rebuildIndex() {
+        sortedEntries = entries.values.sortedBy { it.name }
+        ranks = sortedEntries.withIndex().associate { (index, entry) -> entry to index }
+        val pairs = sortedEntries.flatMap { entry -> entry.tokens.map { it to entry } }.sortedBy { it.first }
+        tokens = Array(pairs.size) { pairs[it].first }
+        tokenEntries = Array(pairs.size) { pairs[it].second }
+    }
+}
@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.contacts
 import android.content.Context
 import android.view.LayoutInflater
 import android.view.ViewGroup
+import androidx.recyclerview.widget.DiffUtil
 import androidx.recyclerview.widget.RecyclerView
 import network.loki.messenger.databinding.ContactSelectionListDividerBinding
 import org.session.libsession.utilities.recipients.Recipient
@@ -12,7 +13,11 @@ class ContactSelectionListAdapter(private val context: Context, private val mult
     lateinit var glide: GlideRequests
     val selectedContacts = mutableSetOf<Recipient>()
     var items = listOf<ContactSelectionListItem>()
-        set(value) { field = value; notifyDataSetChanged() }
+        set(value) {
+            val diffResult = DiffUtil.calculateDiff(ContactSelectionListDiff(field, value))
+            field = value
+            diffResult.dispatchUpdatesTo(this)
+        }
     var contactClickListener: ContactClickListener? = null
 
     private object ViewType {
@@ -93,6 +98,33 @@ class ContactSelectionListAdapter(private val context: Context, private val mult
     }
 }
 
+private class ContactSelectionListDiff(
+    private val oldItems: List<ContactSelectionListItem>,
+    private val newItems: List<ContactSelectionListItem>
+) : DiffUtil.Callback() {
+    override fun getOldListSize(): Int = oldItems.size
+    override fun getNewListSize(): Int = newItems.size
+
+    override fun areItemsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        val oldItem = oldItems[oldItemPosition]
+        val newItem = newItems[newItemPosition]
+        return when {
+            oldItem is ContactSelectionListItem.Header && newItem is ContactSelectionListItem.Header -> oldItem.name == newItem.name
+            oldItem is ContactSelectionListItem.Contact && newItem is ContactSelectionListItem.Contact -> oldItem.recipient.address == newItem.recipient.address
+            else -> false
+        }
+    }
+
+    override fun areContentsTheSame(oldItemPosition: Int, newItemPosition: Int): Boolean {
+        val oldItem = oldItems[oldItemPosition]
+        val newItem = newItems[newItemPosition]
+        if (oldItem is ContactSelectionListItem.Contact && newItem is ContactSelectionListItem.Contact) {
+            return oldItem.name == newItem.name
+        }
+        return areItemsTheSame(oldItemPosition, newItemPosition)
+    }
+}
+
 interface ContactClickListener {
     fun onContactClick(contact: Recipient)
     fun onContactSelected(contact: Recipient)
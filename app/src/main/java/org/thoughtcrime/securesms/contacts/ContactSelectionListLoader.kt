@@ -2,13 +2,12 @@ package org.thoughtcrime.securesms.contacts
 
 import android.content.Context
 import network.loki.messenger.R
-import org.thoughtcrime.securesms.util.ContactUtilities
 import org.session.libsession.utilities.recipients.Recipient
 import org.thoughtcrime.securesms.util.AsyncLoader
 
 sealed class ContactSelectionListItem {
     class Header(val name: String) : ContactSelectionListItem()
-    class Contact(val recipient: Recipient) : ContactSelectionListItem()
+    class Contact(val recipient: Recipient, val name: String) : ContactSelectionListItem()
 }
 
 class ContactSelectionListLoader(context: Context, val mode: Int, val filter: String?) : AsyncLoader<List<ContactSelectionListItem>>(context) {
@@ -25,12 +24,7 @@ class ContactSelectionListLoader(context: Context, val mode: Int, val filter: St
     }
 
     override fun loadInBackground(): List<ContactSelectionListItem> {
-        val contacts = ContactUtilities.getAllContacts(context).filter {
-            if (filter.isNullOrEmpty()) return@filter true
-            it.toShortString().contains(filter.trim(), true) || it.address.serialize().contains(filter.trim(), true)
-        }.sortedBy {
-            it.toShortString()
-        }
+        val contacts = ContactSelectionIndex.getInstance(context).query(filter)
         val list = mutableListOf<ContactSelectionListItem>()
         if (isFlagSet(DisplayMode.FLAG_CLOSED_GROUPS)) {
             list.addAll(getClosedGroups(contacts))
@@ -44,27 +38,27 @@ class ContactSelectionListLoader(context: Context, val mode: Int, val filter: St
         return list
     }
 
-    private fun getContacts(contacts: List<Recipient>): List<ContactSelectionListItem> {
+    private fun getContacts(contacts: List<ContactSelectionIndex.Entry>): List<ContactSelectionListItem> {
         return getItems(contacts, context.getString(R.string.fragment_contact_selection_contacts_title)) {
             !it.isGroupRecipient
         }
     }
 
-    private fun getClosedGroups(contacts: List<Recipient>): List<ContactSelectionListItem> {
+    private fun getClosedGroups(contacts: List<ContactSelectionIndex.Entry>): List<ContactSelectionListItem> {
         return getItems(contacts, context.getString(R.string.fragment_contact_selection_closed_groups_title)) {
             it.address.isClosedGroup
         }
     }
 
-    private fun getOpenGroups(contacts: List<Recipient>): List<ContactSelectionListItem> {
+    private fun getOpenGroups(contacts: List<ContactSelectionIndex.Entry>): List<ContactSelectionListItem> {
         return getItems(contacts, context.getString(R.string.fragment_contact_selection_open_groups_title)) {
             it.address.isOpenGroup
         }
     }
 
-    private fun getItems(contacts: List<Recipient>, title: String, contactFilter: (Recipient) -> Boolean): List<ContactSelectionListItem> {
-        val items = contacts.filter(contactFilter).map {
-            ContactSelectionListItem.Contact(it)
+    private fun getItems(contacts: List<ContactSelectionIndex.Entry>, title: String, contactFilter: (Recipient) -> Boolean): List<ContactSelectionListItem> {
+        val items = contacts.filter { contactFilter(it.recipient) }.map {
+            ContactSelectionListItem.Contact(it.recipient, it.name)
         }
         if (items.isEmpty()) return listOf()
         val header = ContactSelectionListItem.Header(title)
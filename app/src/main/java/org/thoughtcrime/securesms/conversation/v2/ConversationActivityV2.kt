@@ -920,7 +920,7 @@ class ConversationActivityV2 : PassphraseRequiredActionBarActivity(), InputBarDe
                 val userCount = lokiApiDb.getUserCount(openGroup.room, openGroup.server) ?: 0
                 actionBarBinding.conversationSubtitleView.text = getString(R.string.ConversationActivity_active_member_count, userCount)
             } ?: run {
-                val userCount = groupDb.getGroupMemberAddresses(recipient.address.toGroupString(), true).size
+                val userCount = groupDb.getGroupMemberCount(recipient.address.toGroupString())
                 actionBarBinding.conversationSubtitleView.text = getString(R.string.ConversationActivity_member_count, userCount)
             }
             viewModel
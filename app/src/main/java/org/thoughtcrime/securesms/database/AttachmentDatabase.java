@@ -21,6 +21,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.media.MediaDataSource;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Build;
@@ -173,6 +174,16 @@ public class AttachmentDatabase extends Database {
     else                    return dataStream;
   }
 
+  /**
+   * @return A source that decrypts the stored attachment as it's read, or null if it has no data.
+   */
+  public @Nullable MediaDataSource getMediaDataSource(@NonNull AttachmentId attachmentId) {
+    DataInfo dataInfo = getAttachmentDataFileInfo(attachmentId, DATA);
+
+    if (dataInfo == null) return null;
+    else                  return new EncryptedMediaDataSource(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
+  }
+
   public @NonNull InputStream getThumbnailStream(@NonNull AttachmentId attachmentId)
       throws IOException
   {
@@ -341,6 +352,28 @@ public class AttachmentDatabase extends Database {
     notifyAttachmentListeners();
   }
 
+  /**
+   * Deletes, in a single statement, every attachment whose message no longer exists, e.g. after a
+   * backup import that skipped disappearing messages.
+   */
+  public void deleteAttachmentsForMissingMessages() {
+    SQLiteDatabase          database        = databaseHelper.getWritableDatabase();
+    String                  where           = MMS_ID + " NOT IN (SELECT " + MmsSmsColumns.ID + " FROM " + MmsDatabase.TABLE_NAME + ")";
+    List<MmsAttachmentInfo> attachmentInfos = new ArrayList<>();
+
+    try (Cursor cursor = database.query(TABLE_NAME, new String[] {DATA, THUMBNAIL, CONTENT_TYPE}, where, null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        attachmentInfos.add(new MmsAttachmentInfo(cursor.getString(0), cursor.getString(1), cursor.getString(2)));
+      }
+    }
+
+    if (attachmentInfos.isEmpty()) return;
+
+    database.delete(TABLE_NAME, where, null);
+    deleteAttachmentsOnDisk(attachmentInfos);
+    notifyAttachmentListeners();
+  }
+
   public void deleteAttachment(@NonNull AttachmentId id) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
 
@@ -472,6 +505,16 @@ public class AttachmentDatabase extends Database {
     database.update(TABLE_NAME, values, PART_ID_WHERE, id.toStrings());
   }
 
+  public void updateAttachmentDimensions(@NonNull AttachmentId id, int width, int height) {
+    SQLiteDatabase database = databaseHelper.getWritableDatabase();
+    ContentValues  values   = new ContentValues(2);
+
+    values.put(WIDTH, width);
+    values.put(HEIGHT, height);
+
+    database.update(TABLE_NAME, values, PART_ID_WHERE, id.toStrings());
+  }
+
   public void handleFailedAttachmentUpload(@NonNull AttachmentId id) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
     ContentValues  values   = new ContentValues();
@@ -5,8 +5,19 @@ import java.util.*
 
 /**
  * Represents a record for a backup file in the [org.thoughtcrime.securesms.database.LokiBackupFilesDatabase].
+ *
+ * Incremental backups form a chain of files sharing a [chainId]: a full backup with a
+ * [chainSequence] of 0 followed by the files holding the changes since the previous one.
  */
-data class BackupFileRecord(val id: Long, val uri: Uri, val fileSize: Long, val timestamp: Date) {
+data class BackupFileRecord(
+        val id: Long,
+        val uri: Uri,
+        val fileSize: Long,
+        val timestamp: Date,
+        val chainId: String? = null,
+        val chainSequence: Int = 0,
+        val databaseVersion: Int = 0
+) {
 
     constructor(uri: Uri, fileSize: Long, timestamp: Date) : this(-1, uri, fileSize, timestamp)
 }
\ No newline at end of file
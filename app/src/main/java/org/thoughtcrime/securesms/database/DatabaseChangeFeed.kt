@@ -0,0 +1,165 @@
+package org.thoughtcrime.securesms.database
+
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.awaitClose
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.buffer
+import kotlinx.coroutines.flow.callbackFlow
+import net.zetetic.database.sqlcipher.SQLiteDatabase
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * An in-process feed of the rows written to the message, thread, reaction and recipient tables, so that
+ * listeners can apply what changed rather than query everything again whenever a content URI they observe
+ * is notified. Those notifications are still sent alongside.
+ *
+ * Changes are published on the writing thread, so listeners should only hand them off. Those written in a
+ * transaction begun with [beginTransaction] are held until it commits and dropped if it's rolled back.
+ */
+object DatabaseChangeFeed {
+
+    /**
+     * The thread ID of changes that aren't to a single thread, like those to recipients or to every thread.
+     */
+    const val NO_THREAD = -1L
+
+    enum class Table { SMS, MMS, THREAD, REACTION, RECIPIENT }
+
+    enum class Kind { INSERT, UPDATE, DELETE }
+
+    /**
+     * @param ids the IDs of the changed rows of [table], which are message IDs for messages and reactions. Empty
+     * when every row of the thread may have changed.
+     * @param isMms whether the messages of reaction changes are MMS messages.
+     * @param address the address of the changed recipient, or null for changes to other tables and to every
+     * recipient.
+     */
+    data class Change @JvmOverloads constructor(
+        val table: Table,
+        val kind: Kind,
+        val threadId: Long,
+        val ids: Set<Long> = emptySet(),
+        val isMms: Boolean = false,
+        val address: String? = null
+    )
+
+    fun interface Listener {
+        fun onChange(change: Change)
+    }
+
+    private class Transaction {
+        // whether each nested transaction has been marked successful, innermost last
+        val successful = ArrayList<Boolean>()
+        val changes    = ArrayList<Change>()
+        var failed     = false
+    }
+
+    private val listeners    = CopyOnWriteArrayList<Listener>()
+    private val transactions = ThreadLocal<Transaction>()
+
+    /**
+     * Whether anything is listening, so that writers can skip looking up what a change needs when nothing is.
+     */
+    @JvmStatic
+    val hasListeners: Boolean get() = listeners.isNotEmpty()
+
+    @JvmStatic
+    fun addListener(listener: Listener) {
+        listeners += listener
+    }
+
+    @JvmStatic
+    fun removeListener(listener: Listener) {
+        listeners -= listener
+    }
+
+    @JvmStatic
+    fun publish(change: Change) {
+        val transaction = transactions.get()
+        if (transaction != null) {
+            transaction.changes += change
+        } else {
+            dispatch(listOf(change))
+        }
+    }
+
+    @JvmStatic
+    fun publish(table: Table, kind: Kind, threadId: Long, vararg ids: Long) {
+        if (listeners.isEmpty()) return
+        publish(Change(table, kind, threadId, ids.toSet()))
+    }
+
+    @JvmStatic
+    fun publishRecipient(kind: Kind, address: String) {
+        if (listeners.isEmpty()) return
+        publish(Change(Table.RECIPIENT, kind, NO_THREAD, address = address))
+    }
+
+    /**
+     * Begins a transaction on [database], holding the changes published on this thread until it ends.
+     */
+    @JvmStatic
+    fun beginTransaction(database: SQLiteDatabase) {
+        database.beginTransaction()
+        beginTransaction()
+    }
+
+    @JvmStatic
+    fun setTransactionSuccessful(database: SQLiteDatabase) {
+        database.setTransactionSuccessful()
+        setTransactionSuccessful()
+    }
+
+    /**
+     * Ends a transaction on [database]. Once the outermost one commits the changes held for it are published, and
+     * if any of them wasn't marked successful or the commit fails they're dropped along with the writes.
+     */
+    @JvmStatic
+    fun endTransaction(database: SQLiteDatabase) {
+        var committed = false
+        try {
+            database.endTransaction()
+            committed = true
+        } finally {
+            endTransaction(committed)
+        }
+    }
+
+    internal fun beginTransaction() {
+        val transaction = transactions.get() ?: Transaction().also { transactions.set(it) }
+        transaction.successful += false
+    }
+
+    internal fun setTransactionSuccessful() {
+        val transaction = transactions.get() ?: throw IllegalStateException("No transaction to mark successful.")
+        transaction.successful[transaction.successful.lastIndex] = true
+    }
+
+    internal fun endTransaction(committed: Boolean) {
+        val transaction = transactions.get() ?: throw IllegalStateException("No transaction to end.")
+        if (!transaction.successful.removeAt(transaction.successful.lastIndex) || !committed) {
+            transaction.failed = true
+        }
+        if (transaction.successful.isEmpty()) {
+            transactions.remove()
+            if (!transaction.failed) dispatch(transaction.changes)
+        }
+    }
+
+    private fun dispatch(changes: List<Change>) {
+        for (change in changes) {
+            for (listener in listeners) {
+                listener.onChange(change)
+            }
+        }
+    }
+
+    /**
+     * The changes published while the flow is collected, none of which are dropped however slowly it is.
+     */
+    fun changes(): Flow<Change> = callbackFlow {
+        val listener = Listener { trySend(it) }
+        addListener(listener)
+        awaitClose { removeListener(listener) }
+    }.buffer(Channel.UNLIMITED)
+}
@@ -4,12 +4,14 @@ import android.content.Context
 import androidx.core.content.contentValuesOf
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.database.model.EmojiSearchData
+import org.thoughtcrime.securesms.emoji.EmojiSearchIndex
 import org.thoughtcrime.securesms.util.CursorUtil
-import kotlin.math.max
-import kotlin.math.roundToInt
 
 /**
  * Contains all info necessary for full-text search of emoji tags.
+ *
+ * Queries are answered from an [EmojiSearchIndex] read from the table on first use, since the tags only change
+ * when [setSearchIndex] replaces them.
  */
 class EmojiSearchDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
 
@@ -20,6 +22,9 @@ class EmojiSearchDatabase(context: Context, helper: SQLCipherOpenHelper) : Datab
     const val CREATE_EMOJI_SEARCH_TABLE_COMMAND = "CREATE VIRTUAL TABLE $TABLE_NAME USING fts5($LABEL, $EMOJI UNINDEXED)"
   }
 
+  @Volatile
+  private var searchIndex: EmojiSearchIndex? = null
+
   /**
    * @param query A search query. Doesn't need any special formatted -- it'll be sanitized.
    * @return A list of emoji that are related to the search term, ordered by relevance.
@@ -31,32 +36,15 @@ class EmojiSearchDatabase(context: Context, helper: SQLCipherOpenHelper) : Datab
       return emptyList()
     }
 
-    val limit: Int = max(originalLimit, 100)
-    val entries = mutableListOf<Entry>()
-
-    readableDatabase.query(TABLE_NAME, arrayOf(LABEL, EMOJI), "$LABEL LIKE ?", arrayOf("%$query%"), null, null, null, "$limit")
-      .use { cursor ->
-        while (cursor.moveToNext()) {
-          entries += Entry(
-            label = CursorUtil.requireString(cursor, LABEL),
-            emoji = CursorUtil.requireString(cursor, EMOJI)
-          )
-        }
-      }
-
-    return entries
-      .sortedWith { lhs, rhs ->
-        similarityScore(query, lhs.label) - similarityScore(query, rhs.label)
-      }
-      .distinctBy { it.emoji }
-      .take(originalLimit)
-      .map { it.emoji }
+    return getSearchIndex().query(query, originalLimit)
   }
 
   /**
    * Deletes the content of the current search index and replaces it with the new one.
    */
   fun setSearchIndex(searchIndex: List<EmojiSearchData>) {
+    val entries = mutableListOf<Pair<String, String>>()
+
     writableDatabase.beginTransaction()
     writableDatabase.delete(TABLE_NAME, null, null)
 
@@ -67,35 +55,33 @@ class EmojiSearchDatabase(context: Context, helper: SQLCipherOpenHelper) : Datab
           EMOJI to searchData.emoji
         )
         writableDatabase.insert(TABLE_NAME, null, values)
+        entries += label to searchData.emoji
       }
     }
     writableDatabase.setTransactionSuccessful()
     writableDatabase.endTransaction()
-  }
 
-  /**
-   * Ranks how "similar" a match is to the original search term.
-   * A lower score means more similar, with 0 being a perfect match.
-   *
-   * We know that the `searchTerm` must be a substring of the `match`.
-   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
-   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
-   */
-  private fun similarityScore(searchTerm: String, match: String): Int {
-    if (searchTerm == match) {
-      return 0
+    synchronized(this) {
+      this.searchIndex = EmojiSearchIndex(entries)
     }
+  }
 
-    val startIndex = match.indexOf(searchTerm)
+  private fun getSearchIndex(): EmojiSearchIndex {
+    return searchIndex ?: synchronized(this) {
+      searchIndex ?: readSearchIndex().also { searchIndex = it }
+    }
+  }
 
-    val prefixCount = startIndex
-    val suffixCount = match.length - (startIndex + searchTerm.length)
+  private fun readSearchIndex(): EmojiSearchIndex {
+    val entries = mutableListOf<Pair<String, String>>()
 
-    val prefixRankWeight = 1.5f
-    val suffixRankWeight = 1f
+    readableDatabase.query(TABLE_NAME, arrayOf(LABEL, EMOJI), null, null, null, null, null)
+      .use { cursor ->
+        while (cursor.moveToNext()) {
+          entries += CursorUtil.requireString(cursor, LABEL) to CursorUtil.requireString(cursor, EMOJI)
+        }
+      }
 
-    return ((prefixCount * prefixRankWeight) + (suffixCount * suffixRankWeight)).roundToInt()
+    return EmojiSearchIndex(entries)
   }
-
-  private data class Entry(val label: String, val emoji: String)
 }
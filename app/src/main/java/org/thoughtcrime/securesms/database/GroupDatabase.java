@@ -5,6 +5,7 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.graphics.Bitmap;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -80,6 +81,34 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
       "CREATE UNIQUE INDEX IF NOT EXISTS group_id_index ON " + TABLE_NAME + " (" + GROUP_ID + ");",
   };
 
+  // One row per address in MEMBERS, so that members can be looked up without parsing every group's member list
+  private static final String MEMBERSHIP_TABLE_NAME = "group_membership";
+  private static final String MEMBER_ADDRESS        = "member_address";
+
+  public static final String[] CREATE_MEMBERSHIP_TABLE_COMMANDS = {
+      "CREATE TABLE IF NOT EXISTS " + MEMBERSHIP_TABLE_NAME + " (" +
+          GROUP_ID + " TEXT NOT NULL, " +
+          MEMBER_ADDRESS + " TEXT NOT NULL, " +
+          "PRIMARY KEY (" + GROUP_ID + ", " + MEMBER_ADDRESS + "));",
+      "CREATE INDEX IF NOT EXISTS group_membership_member_address_index ON " + MEMBERSHIP_TABLE_NAME + " (" + MEMBER_ADDRESS + ");",
+  };
+
+  /**
+   * Fills the membership table from the member lists of the groups already in the database.
+   */
+  public static void populateMembershipTable(SQLiteDatabase db) {
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] {GROUP_ID, MEMBERS}, null, null, null, null, null)) {
+      while (cursor.moveToNext()) {
+        String groupId           = cursor.getString(0);
+        String serializedMembers = cursor.getString(1);
+
+        if (groupId != null && serializedMembers != null && !serializedMembers.isEmpty()) {
+          insertMembership(db, groupId, Address.fromSerializedList(serializedMembers, ','));
+        }
+      }
+    }
+  }
+
   private static final String[] GROUP_PROJECTION = {
       GROUP_ID, TITLE, MEMBERS, ZOMBIE_MEMBERS, AVATAR, AVATAR_ID, AVATAR_KEY, AVATAR_CONTENT_TYPE, AVATAR_RELAY, AVATAR_DIGEST,
       TIMESTAMP, ACTIVE, MMS, AVATAR_URL, ADMINS, UPDATED
@@ -149,22 +178,11 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
       return null;
     }
 
-    String[] queriesValues = new String[members.size()];
+    String placeholders = TextUtils.join(",", Collections.nCopies(members.size(), "?"));
+    String query        = "SELECT * FROM " + TABLE_NAME + " WHERE " + GROUP_ID + " IN (" +
+                          "SELECT " + GROUP_ID + " FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + MEMBER_ADDRESS + " IN (" + placeholders + "))";
 
-    StringBuilder queries = new StringBuilder();
-    for (int i=0; i < members.size(); i++) {
-      boolean isEnd = i == (members.size() - 1);
-      queries.append(MEMBERS + " LIKE ?");
-      queriesValues[i] = "%"+members.get(i)+"%";
-      if (!isEnd) {
-        queries.append(" OR ");
-      }
-    }
-
-    return databaseHelper.getReadableDatabase().query(TABLE_NAME, null,
-            queries.toString(),
-            queriesValues,
-            null, null, null);
+    return databaseHelper.getReadableDatabase().rawQuery(query, members.toArray(new String[0]));
   }
 
   public @NonNull List<Recipient> getGroupMembers(String groupId, boolean includeSelf) {
@@ -197,6 +215,33 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
     return members;
   }
 
+  public int getGroupMemberCount(String groupId) {
+    try (Cursor cursor = databaseHelper.getReadableDatabase().rawQuery(
+            "SELECT COUNT(*) FROM " + MEMBERSHIP_TABLE_NAME + " WHERE " + GROUP_ID + " = ?",
+            new String[] {groupId}
+    )) {
+      return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+    }
+  }
+
+  /**
+   * @return The first {@code limit} members of the group in address order.
+   */
+  public @NonNull List<Address> getFirstGroupMemberAddresses(String groupId, int limit) {
+    List<Address> members = new LinkedList<>();
+
+    try (Cursor cursor = databaseHelper.getReadableDatabase().query(MEMBERSHIP_TABLE_NAME, new String[] {MEMBER_ADDRESS},
+                                                                    GROUP_ID + " = ?", new String[] {groupId},
+                                                                    null, null, MEMBER_ADDRESS + " ASC", String.valueOf(limit)))
+    {
+      while (cursor.moveToNext()) {
+        members.add(Address.fromSerialized(cursor.getString(0)));
+      }
+    }
+
+    return members;
+  }
+
   public @NonNull List<Recipient> getGroupZombieMembers(String groupId) {
     List<Address>   members     = getCurrentZombieMembers(groupId);
     List<Recipient> recipients  = new LinkedList<>();
@@ -235,7 +280,17 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
       contentValues.put(ADMINS, Address.toSerializedList(admins, ','));
     }
 
-    long threadId = databaseHelper.getWritableDatabase().insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    long threadId;
+
+    db.beginTransaction();
+    try {
+      threadId = db.insert(TABLE_NAME, null, contentValues);
+      if (threadId != -1) replaceMembership(db, groupId, members);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     Recipient.applyCached(Address.fromSerialized(groupId), recipient -> {
       recipient.setName(title);
@@ -249,7 +304,17 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
   }
 
   public boolean delete(@NonNull String groupId) {
-    int result = databaseHelper.getWritableDatabase().delete(TABLE_NAME, GROUP_ID + " = ?", new String[]{groupId});
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    int result;
+
+    db.beginTransaction();
+    try {
+      result = db.delete(TABLE_NAME, GROUP_ID + " = ?", new String[]{groupId});
+      db.delete(MEMBERSHIP_TABLE_NAME, GROUP_ID + " = ?", new String[]{groupId});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     if (result > 0) {
       Recipient.removeCached(Address.fromSerialized(groupId));
@@ -338,8 +403,15 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
     contents.put(MEMBERS, Address.toSerializedList(members, ','));
     contents.put(ACTIVE, 1);
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId});
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId});
+      replaceMembership(db, groupId, members);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     Recipient.applyCached(Address.fromSerialized(groupId), recipient -> {
       recipient.setParticipants(Stream.of(members).map(a -> Recipient.from(context, a, false)).toList());
@@ -386,8 +458,19 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
     ContentValues contents = new ContentValues();
     contents.put(MEMBERS, Address.toSerializedList(currentMembers, ','));
 
-    databaseHelper.getWritableDatabase().update(TABLE_NAME, contents, GROUP_ID + " = ?",
-                                                new String[] {groupId});
+    SQLiteDatabase db = databaseHelper.getWritableDatabase();
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contents, GROUP_ID + " = ?", new String[] {groupId});
+      // the member list may have held the address more than once
+      if (!currentMembers.contains(source)) {
+        db.delete(MEMBERSHIP_TABLE_NAME, GROUP_ID + " = ? AND " + MEMBER_ADDRESS + " = ?",
+                  new String[] {groupId, source.serialize()});
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
 
     Recipient.applyCached(Address.fromSerialized(groupId), recipient -> {
       List<Recipient> current = recipient.getParticipants();
@@ -459,7 +542,29 @@ public class GroupDatabase extends Database implements LokiOpenGroupDatabaseProt
     ContentValues contentValues = new ContentValues(1);
     contentValues.put(GROUP_ID, newEncodedGroupId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    db.update(TABLE_NAME, contentValues, query, new String[]{legacyEncodedGroupId});
+    db.beginTransaction();
+    try {
+      db.update(TABLE_NAME, contentValues, query, new String[]{legacyEncodedGroupId});
+      db.update(MEMBERSHIP_TABLE_NAME, contentValues, query, new String[]{legacyEncodedGroupId});
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private static void replaceMembership(SQLiteDatabase db, String groupId, List<Address> members) {
+    db.delete(MEMBERSHIP_TABLE_NAME, GROUP_ID + " = ?", new String[] {groupId});
+    insertMembership(db, groupId, members);
+  }
+
+  private static void insertMembership(SQLiteDatabase db, String groupId, List<Address> members) {
+    ContentValues values = new ContentValues(2);
+    values.put(GROUP_ID, groupId);
+
+    for (Address member : members) {
+      values.put(MEMBER_ADDRESS, member.serialize());
+      db.insertWithOnConflict(MEMBERSHIP_TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_IGNORE);
+    }
   }
 
     public static class Reader implements Closeable {
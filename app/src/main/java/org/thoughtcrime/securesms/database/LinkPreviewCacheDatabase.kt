@@ -0,0 +1,95 @@
+package org.thoughtcrime.securesms.database
+
+import android.content.Context
+import androidx.core.content.contentValuesOf
+import net.zetetic.database.sqlcipher.SQLiteDatabase.CONFLICT_REPLACE
+import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
+
+/**
+ * Caches the metadata and thumbnail of recently fetched link previews, so that editing a draft or
+ * re-sending a link doesn't fetch and parse the same page again.
+ */
+class LinkPreviewCacheDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper) {
+
+    companion object {
+        const val TABLE_NAME = "link_preview_cache"
+        const val URL = "url"
+        const val TITLE = "title"
+        const val IMAGE_URL = "image_url"
+        const val THUMBNAIL = "thumbnail"
+        const val THUMBNAIL_WIDTH = "thumbnail_width"
+        const val THUMBNAIL_HEIGHT = "thumbnail_height"
+        const val FETCHED_AT = "fetched_at"
+
+        const val CREATE_LINK_PREVIEW_CACHE_TABLE_COMMAND = """
+            CREATE TABLE $TABLE_NAME (
+                $URL TEXT PRIMARY KEY,
+                $TITLE TEXT,
+                $IMAGE_URL TEXT,
+                $THUMBNAIL BLOB,
+                $THUMBNAIL_WIDTH INTEGER DEFAULT 0,
+                $THUMBNAIL_HEIGHT INTEGER DEFAULT 0,
+                $FETCHED_AT INTEGER NOT NULL
+            )
+        """
+
+        private const val MAX_ENTRIES = 200
+        private const val MAX_THUMBNAIL_SIZE = 256 * 1024
+    }
+
+    class Entry(
+        val url: String,
+        val title: String?,
+        val imageUrl: String?,
+        val thumbnail: ByteArray?,
+        val thumbnailWidth: Int,
+        val thumbnailHeight: Int,
+        val fetchedAt: Long
+    )
+
+    /**
+     * @return the cached preview for [url], or null if there is none that was fetched in the last
+     * [maxAge] milliseconds.
+     */
+    fun get(url: String, maxAge: Long): Entry? {
+        val columns = arrayOf(URL, TITLE, IMAGE_URL, THUMBNAIL, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT, FETCHED_AT)
+        val minFetchedAt = System.currentTimeMillis() - maxAge
+        readableDatabase.query(TABLE_NAME, columns, "$URL = ? AND $FETCHED_AT >= ?", arrayOf(url, minFetchedAt.toString()), null, null, null).use { cursor ->
+            if (!cursor.moveToFirst()) return null
+            return Entry(
+                url = cursor.getString(0),
+                title = cursor.getString(1),
+                imageUrl = cursor.getString(2),
+                thumbnail = cursor.getBlob(3),
+                thumbnailWidth = cursor.getInt(4),
+                thumbnailHeight = cursor.getInt(5),
+                fetchedAt = cursor.getLong(6)
+            )
+        }
+    }
+
+    /**
+     * Stores [entry], evicting the least recently fetched previews once the cache is full.
+     */
+    fun put(entry: Entry) {
+        val thumbnail = entry.thumbnail?.takeIf { it.size <= MAX_THUMBNAIL_SIZE }
+        val values = contentValuesOf(
+            URL to entry.url,
+            TITLE to entry.title,
+            IMAGE_URL to entry.imageUrl,
+            THUMBNAIL to thumbnail,
+            THUMBNAIL_WIDTH to if (thumbnail != null) entry.thumbnailWidth else 0,
+            THUMBNAIL_HEIGHT to if (thumbnail != null) entry.thumbnailHeight else 0,
+            FETCHED_AT to entry.fetchedAt
+        )
+        val database = writableDatabase
+        database.beginTransaction()
+        try {
+            database.insertWithOnConflict(TABLE_NAME, null, values, CONFLICT_REPLACE)
+            database.delete(TABLE_NAME, "$URL NOT IN (SELECT $URL FROM $TABLE_NAME ORDER BY $FETCHED_AT DESC LIMIT $MAX_ENTRIES)", null)
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
+    }
+}
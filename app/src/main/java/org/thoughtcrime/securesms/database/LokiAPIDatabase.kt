@@ -17,9 +17,15 @@ import org.session.libsignal.utilities.toHexString
 import org.thoughtcrime.securesms.crypto.IdentityKeyUtil
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import java.util.Date
+import java.util.concurrent.ConcurrentHashMap
 
 class LokiAPIDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper), LokiAPIDatabaseProtocol {
 
+    /**
+     * The decoded key pairs of each closed group, from oldest to newest, as every closed group message received needs them.
+     */
+    private val closedGroupEncryptionKeyPairCache = ConcurrentHashMap<String, List<ECKeyPair>>()
+
     companion object {
         // Shared
         private const val publicKey = "public_key"
@@ -466,10 +472,20 @@ class LokiAPIDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(
         val encryptionKeyPairPrivateKey = encryptionKeyPair.privateKey.serialize().toHexString()
         val row = wrap(mapOf(closedGroupsEncryptionKeyPairIndex to index, Companion.encryptionKeyPairPublicKey to encryptionKeyPairPublicKey,
                 Companion.encryptionKeyPairPrivateKey to encryptionKeyPairPrivateKey ))
-        database.insertOrUpdate(closedGroupEncryptionKeyPairsTable, row, "${Companion.closedGroupsEncryptionKeyPairIndex} = ?", wrap(index))
+        synchronized(closedGroupEncryptionKeyPairCache) {
+            database.insertOrUpdate(closedGroupEncryptionKeyPairsTable, row, "${Companion.closedGroupsEncryptionKeyPairIndex} = ?", wrap(index))
+            closedGroupEncryptionKeyPairCache.remove(groupPublicKey)
+        }
     }
 
     override fun getClosedGroupEncryptionKeyPairs(groupPublicKey: String): List<ECKeyPair> {
+        closedGroupEncryptionKeyPairCache[groupPublicKey]?.let { return it }
+        synchronized(closedGroupEncryptionKeyPairCache) {
+            return closedGroupEncryptionKeyPairCache.getOrPut(groupPublicKey) { readClosedGroupEncryptionKeyPairs(groupPublicKey) }
+        }
+    }
+
+    private fun readClosedGroupEncryptionKeyPairs(groupPublicKey: String): List<ECKeyPair> {
         val database = databaseHelper.readableDatabase
         val timestampsAndKeyPairs = database.getAll(closedGroupEncryptionKeyPairsTable, "${Companion.closedGroupsEncryptionKeyPairIndex} LIKE ?", wrap("$groupPublicKey%")) { cursor ->
             val timestamp = cursor.getString(cursor.getColumnIndexOrThrow(Companion.closedGroupsEncryptionKeyPairIndex)).split("-").last()
@@ -487,7 +503,10 @@ class LokiAPIDatabase(context: Context, helper: SQLCipherOpenHelper) : Database(
 
     fun removeAllClosedGroupEncryptionKeyPairs(groupPublicKey: String) {
         val database = databaseHelper.writableDatabase
-        database.delete(closedGroupEncryptionKeyPairsTable, "${Companion.closedGroupsEncryptionKeyPairIndex} LIKE ?", wrap("$groupPublicKey%"))
+        synchronized(closedGroupEncryptionKeyPairCache) {
+            database.delete(closedGroupEncryptionKeyPairsTable, "${Companion.closedGroupsEncryptionKeyPairIndex} LIKE ?", wrap("$groupPublicKey%"))
+            closedGroupEncryptionKeyPairCache.remove(groupPublicKey)
+        }
     }
 
     fun addClosedGroupPublicKey(groupPublicKey: String) {
@@ -12,6 +12,10 @@ import kotlin.collections.ArrayList
 /**
  * Keeps track of the backup files saved by the app.
  * Uses [BackupFileRecord] as an entry data projection.
+ *
+ * Also keeps a log of the message, attachment and receipt rows that changed since the last backup,
+ * maintained by triggers while backups are enabled, so that incremental backups only have to export
+ * those rows.
  */
 class LokiBackupFilesDatabase(context: Context, databaseHelper: SQLCipherOpenHelper)
     : Database(context, databaseHelper) {
@@ -22,8 +26,68 @@ class LokiBackupFilesDatabase(context: Context, databaseHelper: SQLCipherOpenHel
         private const val COLUMN_URI = "uri"
         private const val COLUMN_FILE_SIZE = "file_size"
         private const val COLUMN_TIMESTAMP = "timestamp"
+        private const val COLUMN_CHAIN_ID = "chain_id"
+        private const val COLUMN_CHAIN_SEQUENCE = "chain_sequence"
+        private const val COLUMN_DATABASE_VERSION = "database_version"
 
-        private val allColumns = arrayOf(COLUMN_ID, COLUMN_URI, COLUMN_FILE_SIZE, COLUMN_TIMESTAMP)
+        private val allColumns = arrayOf(COLUMN_ID, COLUMN_URI, COLUMN_FILE_SIZE, COLUMN_TIMESTAMP,
+                COLUMN_CHAIN_ID, COLUMN_CHAIN_SEQUENCE, COLUMN_DATABASE_VERSION)
+
+        const val CHANGES_TABLE_NAME = "backup_changes"
+        const val CHANGE_ID = "_id"
+        const val CHANGE_TABLE = "table_name"
+        const val CHANGE_ROW_ID = "row_id"
+
+        /**
+         * The tables whose changes are logged. Every other exported table is small enough to be
+         * exported in full by each incremental backup.
+         */
+        @JvmField
+        val TRACKED_TABLES = listOf(SmsDatabase.TABLE_NAME, MmsDatabase.TABLE_NAME,
+                AttachmentDatabase.TABLE_NAME, GroupReceiptDatabase.TABLE_NAME)
+
+        @JvmField
+        val ADD_CHAIN_COLUMNS_COMMANDS = arrayOf(
+                "ALTER TABLE $TABLE_NAME ADD COLUMN $COLUMN_CHAIN_ID TEXT",
+                "ALTER TABLE $TABLE_NAME ADD COLUMN $COLUMN_CHAIN_SEQUENCE INTEGER DEFAULT 0",
+                "ALTER TABLE $TABLE_NAME ADD COLUMN $COLUMN_DATABASE_VERSION INTEGER DEFAULT 0"
+        )
+
+        const val CREATE_CHANGES_TABLE_COMMAND = """
+            CREATE TABLE $CHANGES_TABLE_NAME (
+                $CHANGE_ID INTEGER PRIMARY KEY AUTOINCREMENT,
+                $CHANGE_TABLE TEXT NOT NULL,
+                $CHANGE_ROW_ID INTEGER NOT NULL,
+                UNIQUE($CHANGE_TABLE, $CHANGE_ROW_ID)
+            )
+        """
+
+        private val CHANGE_TRIGGER_EVENTS = listOf(Triple("ai", "INSERT", "new"), Triple("au", "UPDATE", "new"), Triple("ad", "DELETE", "old"))
+
+        /**
+         * Re-inserting a change moves it past the changes a running backup has already read, so a
+         * row modified while it is being backed up is exported again next time.
+         *
+         * The triggers only exist while backups are being made, see [startTrackingChanges].
+         */
+        private val CREATE_CHANGE_TRIGGERS = TRACKED_TABLES.flatMap { table ->
+            CHANGE_TRIGGER_EVENTS.map { (suffix, event, row) -> createChangeTrigger(table, suffix, event, row) }
+        }
+
+        @JvmField
+        val DROP_CHANGE_TRIGGERS = TRACKED_TABLES.flatMap { table ->
+            CHANGE_TRIGGER_EVENTS.map { (suffix, _, _) -> "DROP TRIGGER IF EXISTS ${changeTriggerName(table, suffix)}" }
+        }.toTypedArray()
+
+        private fun changeTriggerName(table: String, suffix: String) = "${table}_backup_$suffix"
+
+        private fun createChangeTrigger(table: String, suffix: String, event: String, row: String) = """
+            CREATE TRIGGER ${changeTriggerName(table, suffix)} AFTER $event ON $table
+            BEGIN
+                DELETE FROM $CHANGES_TABLE_NAME WHERE $CHANGE_TABLE = '$table' AND $CHANGE_ROW_ID = $row._id;
+                INSERT INTO $CHANGES_TABLE_NAME ($CHANGE_TABLE, $CHANGE_ROW_ID) VALUES ('$table', $row._id);
+            END
+        """
 
         @JvmStatic
         val createTableCommand = """
@@ -40,7 +104,10 @@ class LokiBackupFilesDatabase(context: Context, databaseHelper: SQLCipherOpenHel
             val uriRaw = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_URI))
             val fileSize = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_FILE_SIZE))
             val timestampRaw = cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIMESTAMP))
-            return BackupFileRecord(id, Uri.parse(uriRaw), fileSize, Date(timestampRaw))
+            val chainId = cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_CHAIN_ID))
+            val chainSequence = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_CHAIN_SEQUENCE))
+            val databaseVersion = cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_DATABASE_VERSION))
+            return BackupFileRecord(id, Uri.parse(uriRaw), fileSize, Date(timestampRaw), chainId, chainSequence, databaseVersion)
         }
 
         private fun mapRecordToValues(record: BackupFileRecord): ContentValues {
@@ -49,6 +116,9 @@ class LokiBackupFilesDatabase(context: Context, databaseHelper: SQLCipherOpenHel
             contentValues.put(COLUMN_URI, record.uri.toString())
             contentValues.put(COLUMN_FILE_SIZE, record.fileSize)
             contentValues.put(COLUMN_TIMESTAMP, record.timestamp.time)
+            contentValues.put(COLUMN_CHAIN_ID, record.chainId)
+            contentValues.put(COLUMN_CHAIN_SEQUENCE, record.chainSequence)
+            contentValues.put(COLUMN_DATABASE_VERSION, record.databaseVersion)
             return contentValues
         }
     }
@@ -67,7 +137,76 @@ class LokiBackupFilesDatabase(context: Context, databaseHelper: SQLCipherOpenHel
     fun insertBackupFile(record: BackupFileRecord): BackupFileRecord {
         val contentValues = mapRecordToValues(record)
         val id = databaseHelper.writableDatabase.insertOrThrow(TABLE_NAME, null, contentValues)
-        return BackupFileRecord(id, record.uri, record.fileSize, record.timestamp)
+        return record.copy(id = id)
+    }
+
+    /**
+     * @return The backup files of the given chain, base first.
+     */
+    fun getBackupChain(chainId: String): List<BackupFileRecord> {
+        databaseHelper.readableDatabase.query(TABLE_NAME, allColumns, "$COLUMN_CHAIN_ID = ?", arrayOf(chainId),
+                null, null, "$COLUMN_CHAIN_SEQUENCE ASC").use {
+            val records = ArrayList<BackupFileRecord>()
+            while (it != null && it.moveToNext()) {
+                records.add(mapCursorToRecord(it))
+            }
+            return records
+        }
+    }
+
+    /**
+     * @return The ID of the last logged change, which a backup should read up to and afterwards
+     * pass to [deleteChanges].
+     */
+    fun getLastChangeId(): Long {
+        databaseHelper.readableDatabase.rawQuery("SELECT MAX($CHANGE_ID) FROM $CHANGES_TABLE_NAME", null).use {
+            return if (it != null && it.moveToFirst()) it.getLong(0) else 0
+        }
+    }
+
+    fun deleteChanges(upToChangeId: Long) {
+        databaseHelper.writableDatabase.delete(CHANGES_TABLE_NAME, "$CHANGE_ID <= ?", arrayOf(upToChangeId.toString()))
+    }
+
+    /**
+     * Starts logging the changes to the tracked tables, which only happens while backups are enabled
+     * so that messages aren't slowed down by a log nobody reads.
+     *
+     * @return Whether changes were already being logged. If not, the next backup must be a full one.
+     */
+    fun startTrackingChanges(): Boolean {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            val triggerName = changeTriggerName(TRACKED_TABLES.first(), CHANGE_TRIGGER_EVENTS.first().first)
+            val isTracking = database.rawQuery("SELECT 1 FROM sqlite_master WHERE type = 'trigger' AND name = ?", arrayOf(triggerName)).use {
+                it != null && it.moveToFirst()
+            }
+            if (!isTracking) {
+                DROP_CHANGE_TRIGGERS.forEach(database::execSQL)
+                database.delete(CHANGES_TABLE_NAME, null, null)
+                CREATE_CHANGE_TRIGGERS.forEach(database::execSQL)
+            }
+            database.setTransactionSuccessful()
+            return isTracking
+        } finally {
+            database.endTransaction()
+        }
+    }
+
+    /**
+     * Stops logging changes and clears the log, for when backups are turned off.
+     */
+    fun stopTrackingChanges() {
+        val database = databaseHelper.writableDatabase
+        database.beginTransaction()
+        try {
+            DROP_CHANGE_TRIGGERS.forEach(database::execSQL)
+            database.delete(CHANGES_TABLE_NAME, null, null)
+            database.setTransactionSuccessful()
+        } finally {
+            database.endTransaction()
+        }
     }
 
     fun getLastBackupFileTime(): Date? {
@@ -14,12 +14,15 @@ import org.session.libsession.utilities.IdentityKeyMismatchList;
 import org.session.libsignal.crypto.IdentityKey;
 import org.session.libsignal.utilities.JsonUtil;
 import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Table;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.util.SqlUtil;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
@@ -91,6 +94,8 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
         db.update(getTableName(), values, ID_WHERE, SqlUtil.buildArgs(messageId));
       }
       notifyConversationListeners(message.getThreadId());
+      DatabaseChangeFeed.publish(new DatabaseChangeFeed.Change(Table.REACTION, isRemoval ? Kind.DELETE : Kind.INSERT, message.getThreadId(),
+                                                               Collections.singleton(messageId), message.isMms()));
     } catch (NoSuchMessageException e) {
       Log.w(TAG, "Failed to find message " + messageId);
     }
@@ -98,7 +103,7 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   protected <D extends Document<I>, I> void removeFromDocument(long messageId, String column, I object, Class<D> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(database);
 
     try {
       D           document = getDocument(database, messageId, column, clazz);
@@ -114,9 +119,9 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
       }
 
       setDocument(database, messageId, column, document);
-      database.setTransactionSuccessful();
+      DatabaseChangeFeed.setTransactionSuccessful(database);
     } finally {
-      database.endTransaction();
+      DatabaseChangeFeed.endTransaction(database);
     }
   }
 
@@ -130,16 +135,16 @@ public abstract class MessagingDatabase extends Database implements MmsSmsColumn
 
   protected <T extends Document<I>, I> void addToDocument(long messageId, String column, List<I> objects, Class<T> clazz) throws IOException {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(database);
 
     try {
       T document = getDocument(database, messageId, column, clazz);
       document.getList().addAll(objects);
       setDocument(database, messageId, column, document);
 
-      database.setTransactionSuccessful();
+      DatabaseChangeFeed.setTransactionSuccessful(database);
     } finally {
-      database.endTransaction();
+      DatabaseChangeFeed.endTransaction(database);
     }
   }
 
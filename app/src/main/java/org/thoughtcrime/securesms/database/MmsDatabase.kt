@@ -55,6 +55,8 @@ import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.ThreadUtils.queue
 import org.session.libsignal.utilities.guava.Optional
 import org.thoughtcrime.securesms.attachments.MmsNotificationAttachment
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Table
 import org.thoughtcrime.securesms.database.SmsDatabase.InsertListener
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord
@@ -193,6 +195,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
                             .update(ourAddress, id, status, timestamp)
                         get(context).threadDatabase().update(threadId, false)
                         notifyConversationListeners(threadId)
+                        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, id)
                     }
                 }
             }
@@ -219,6 +222,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         )
         notifyConversationListeners(threadId)
         notifyConversationListListeners()
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     fun getThreadIdForMessage(id: Long): Long {
@@ -282,12 +286,6 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         return cursor
     }
 
-    val expireStartedMessages: Reader
-        get() {
-            val where = "$EXPIRE_STARTED > 0"
-            return readerFor(rawQuery(where, null))!!
-        }
-
     private fun updateMailboxBitmask(
         id: Long,
         maskOff: Long,
@@ -314,6 +312,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             Optional.of(threadId)
         )
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     fun markAsSending(messageId: Long) {
@@ -325,6 +324,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             Optional.of(threadId)
         )
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     fun markAsSentFailed(messageId: Long) {
@@ -336,6 +336,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             Optional.of(threadId)
         )
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     override fun markAsSent(messageId: Long, secure: Boolean) {
@@ -347,6 +348,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             Optional.of(threadId)
         )
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     override fun markUnidentified(messageId: Long, unidentified: Boolean) {
@@ -377,6 +379,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             Optional.of(threadId)
         )
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     override fun markExpireStarted(messageId: Long) {
@@ -390,6 +393,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         db.update(TABLE_NAME, contentValues, ID_WHERE, arrayOf(messageId.toString()))
         val threadId = getThreadIdForMessage(messageId)
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, threadId, messageId)
     }
 
     fun markAsNotified(id: Long) {
@@ -414,7 +418,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         val database = databaseHelper.writableDatabase
         val result: MutableList<MarkedMessageInfo> = LinkedList()
         var cursor: Cursor? = null
-        database.beginTransaction()
+        DatabaseChangeFeed.beginTransaction(database)
         try {
             cursor = database.query(
                 TABLE_NAME,
@@ -442,10 +446,10 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             contentValues.put(READ, 1)
             contentValues.put(REACTIONS_UNREAD, 0)
             database.update(TABLE_NAME, contentValues, where, arguments)
-            database.setTransactionSuccessful()
+            DatabaseChangeFeed.setTransactionSuccessful(database)
         } finally {
             cursor?.close()
-            database.endTransaction()
+            DatabaseChangeFeed.endTransaction(database)
         }
         return result
     }
@@ -701,6 +705,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
             }
         }
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.INSERT, threadId, messageId)
         return Optional.of(InsertResult(messageId, threadId))
     }
 
@@ -860,6 +865,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
                 update(threadId, true)
             }
         }
+        DatabaseChangeFeed.publish(Table.MMS, Kind.INSERT, threadId, messageId)
         return messageId
     }
 
@@ -889,7 +895,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         allAttachments.addAll(previewAttachments)
         contentValues.put(BODY, body)
         contentValues.put(PART_COUNT, allAttachments.size)
-        db.beginTransaction()
+        DatabaseChangeFeed.beginTransaction(db)
         return try {
             val messageId = db.insert(TABLE_NAME, null, contentValues)
             val insertedAttachments = partsDatabase.insertAttachmentsForMessage(
@@ -928,10 +934,10 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
                     Log.w(TAG, "Failed to update message with link preview data.")
                 }
             }
-            db.setTransactionSuccessful()
+            DatabaseChangeFeed.setTransactionSuccessful(db)
             messageId
         } finally {
-            db.endTransaction()
+            DatabaseChangeFeed.endTransaction(db)
             insertListener?.onComplete()
             notifyConversationListeners(contentValues.getAsLong(THREAD_ID))
         }
@@ -994,6 +1000,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         database!!.delete(TABLE_NAME, ID_WHERE, arrayOf(messageId.toString()))
         val threadDeleted = get(context).threadDatabase().update(threadId, false)
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.DELETE, threadId, messageId)
         notifyStickerListeners()
         notifyStickerPackListeners()
         return threadDeleted
@@ -1011,11 +1018,39 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
 
         val threadDeleted = get(context).threadDatabase().update(threadId, false)
         notifyConversationListeners(threadId)
+        DatabaseChangeFeed.publish(Table.MMS, Kind.DELETE, threadId, *messageIds)
         notifyStickerListeners()
         notifyStickerPackListeners()
         return threadDeleted
     }
 
+    /**
+     * Deletes the given messages along with their attachments and group receipts, without
+     * refreshing their threads, so that a caller deleting many messages at once can update each
+     * affected thread a single time.
+     *
+     * @return the IDs of the threads the deleted messages belonged to.
+     */
+    fun deleteMessageRows(messageIds: LongArray): Set<Long> {
+        if (messageIds.isEmpty()) return emptySet()
+        val database = databaseHelper.writableDatabase
+        val where = "$ID IN (${messageIds.joinToString(",")})"
+        val idsByThread = mutableMapOf<Long, MutableSet<Long>>()
+        database.rawQuery("SELECT $ID, $THREAD_ID FROM $TABLE_NAME WHERE $where", null).use { cursor ->
+            while (cursor.moveToNext()) {
+                idsByThread.getOrPut(cursor.getLong(1)) { mutableSetOf() } += cursor.getLong(0)
+            }
+        }
+        val attachmentDatabase = get(context).attachmentDatabase()
+        queue(Runnable { attachmentDatabase.deleteAttachmentsForMessages(messageIds) })
+        get(context).groupReceiptDatabase().deleteRowsForMessages(messageIds)
+        database.delete(TABLE_NAME, where, null)
+        notifyStickerListeners()
+        notifyStickerPackListeners()
+        idsByThread.forEach { (threadId, ids) -> DatabaseChangeFeed.publish(DatabaseChangeFeed.Change(Table.MMS, Kind.DELETE, threadId, ids)) }
+        return idsByThread.keys
+    }
+
     override fun updateThreadId(fromId: Long, toId: Long) {
         val contentValues = ContentValues(1)
         contentValues.put(THREAD_ID, toId)
@@ -1024,6 +1059,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         db.update(SmsDatabase.TABLE_NAME, contentValues, "$THREAD_ID = ?", arrayOf("$fromId"))
         notifyConversationListeners(toId)
         notifyConversationListListeners()
+        DatabaseChangeFeed.publish(Table.MMS, Kind.UPDATE, toId)
     }
 
     @Throws(NoSuchMessageException::class)
@@ -1209,6 +1245,7 @@ class MmsDatabase(context: Context, databaseHelper: SQLCipherOpenHelper) : Messa
         for (threadId in threadIds) {
             val threadDeleted = threadDb.update(threadId, false)
             notifyConversationListeners(threadId)
+            DatabaseChangeFeed.publish(Table.MMS, Kind.DELETE, threadId)
         }
         notifyStickerListeners()
         notifyStickerPackListeners()
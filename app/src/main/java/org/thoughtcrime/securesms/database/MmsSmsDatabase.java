@@ -18,6 +18,7 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -27,23 +28,27 @@ import net.zetetic.database.sqlcipher.SQLiteQueryBuilder;
 
 import org.session.libsession.utilities.Address;
 import org.session.libsession.utilities.Util;
+import org.session.libsignal.utilities.Log;
 import org.thoughtcrime.securesms.database.MessagingDatabase.SyncMessageId;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 public class MmsSmsDatabase extends Database {
 
-  @SuppressWarnings("unused")
   private static final String TAG = MmsSmsDatabase.class.getSimpleName();
 
   public static final String TRANSPORT     = "transport_type";
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
+  public static final String EXPIRES_AT    = "expires_at";
 
   private static final String[] PROJECTION = {MmsSmsColumns.ID, MmsSmsColumns.UNIQUE_ROW_ID,
                                               SmsDatabase.BODY, SmsDatabase.TYPE,
@@ -114,6 +119,72 @@ public class MmsSmsDatabase extends Database {
     return getMessageFor(timestamp, author.serialize());
   }
 
+  /**
+   * @return Every message sent at one of the timestamps, in a single query, for looking up many
+   * messages by timestamp and author at once.
+   */
+  public @NonNull List<MessageRecord> getMessagesForTimestamps(@NonNull Collection<Long> timestamps) {
+    List<MessageRecord> messageRecords = new LinkedList<>();
+    if (timestamps.isEmpty()) return messageRecords;
+
+    String selection = MmsSmsColumns.NORMALIZED_DATE_SENT + " IN (" + TextUtils.join(",", timestamps) + ")";
+
+    try (Cursor cursor = queryTables(PROJECTION, selection, null, null)) {
+      MmsSmsDatabase.Reader reader = readerFor(cursor);
+      MessageRecord         messageRecord;
+
+      while ((messageRecord = reader.getNext()) != null) {
+        messageRecords.add(messageRecord);
+      }
+    }
+
+    return messageRecords;
+  }
+
+  /**
+   * @return A cursor over the {@link MmsSmsColumns#ID}, {@link #TRANSPORT} and {@link #EXPIRES_AT}
+   * of every message whose expiration timer has started, without reading any other columns.
+   */
+  public Cursor getExpireStartedMessages() {
+    String columns = MmsSmsColumns.ID + ", '%s' AS " + TRANSPORT + ", " +
+                     MmsSmsColumns.EXPIRE_STARTED + " + " + MmsSmsColumns.EXPIRES_IN + " AS " + EXPIRES_AT;
+    String where   = " WHERE " + MmsSmsColumns.EXPIRE_STARTED + " > 0";
+    String query   = "SELECT " + String.format(columns, SMS_TRANSPORT) + " FROM " + SmsDatabase.TABLE_NAME + where +
+                     " UNION ALL " +
+                     "SELECT " + String.format(columns, MMS_TRANSPORT) + " FROM " + MmsDatabase.TABLE_NAME + where;
+
+    return databaseHelper.getReadableDatabase().rawQuery(query, null);
+  }
+
+  /**
+   * Deletes a batch of expired messages in a single transaction, refreshing each affected thread
+   * once rather than once per message.
+   */
+  public void deleteExpiredMessages(@NonNull long[] smsIds, @NonNull long[] mmsIds) {
+    SmsDatabase    smsDatabase    = DatabaseComponent.get(context).smsDatabase();
+    MmsDatabase    mmsDatabase    = DatabaseComponent.get(context).mmsDatabase();
+    ThreadDatabase threadDatabase = DatabaseComponent.get(context).threadDatabase();
+    SQLiteDatabase db             = databaseHelper.getWritableDatabase();
+    Set<Long>      threadIds      = new HashSet<>();
+
+    DatabaseChangeFeed.beginTransaction(db);
+    try {
+      threadIds.addAll(smsDatabase.deleteMessageRows(smsIds));
+      threadIds.addAll(mmsDatabase.deleteMessageRows(mmsIds));
+
+      for (long threadId : threadIds) {
+        threadDatabase.update(threadId, false);
+      }
+
+      DatabaseChangeFeed.setTransactionSuccessful(db);
+    } finally {
+      DatabaseChangeFeed.endTransaction(db);
+    }
+
+    Log.i(TAG, "Deleted " + (smsIds.length + mmsIds.length) + " expired messages from " + threadIds.size() + " threads.");
+    notifyConversationListeners(threadIds);
+  }
+
   public long getPreviousPage(long threadId, long fromTime, int limit) {
     String order = MmsSmsColumns.NORMALIZED_DATE_SENT+" ASC";
     String selection = MmsSmsColumns.THREAD_ID+" = "+threadId
@@ -104,7 +104,7 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
 
   fun addReaction(messageId: MessageId, reaction: ReactionRecord, notifyUnread: Boolean) {
 
-    writableDatabase.beginTransaction()
+    DatabaseChangeFeed.beginTransaction(writableDatabase)
     try {
       val values = ContentValues().apply {
         put(MESSAGE_ID, messageId.id)
@@ -126,9 +126,9 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
         DatabaseComponent.get(context).smsDatabase().updateReactionsUnread(writableDatabase, messageId.id, hasReactions(messageId), false, notifyUnread)
       }
 
-      writableDatabase.setTransactionSuccessful()
+      DatabaseChangeFeed.setTransactionSuccessful(writableDatabase)
     } finally {
-      writableDatabase.endTransaction()
+      DatabaseChangeFeed.endTransaction(writableDatabase)
     }
   }
 
@@ -160,7 +160,7 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
   }
 
   private fun deleteReactions(messageId: MessageId, query: String, args: Array<String>, notifyUnread: Boolean) {
-    writableDatabase.beginTransaction()
+    DatabaseChangeFeed.beginTransaction(writableDatabase)
     try {
       writableDatabase.delete(TABLE_NAME, query, args)
 
@@ -170,9 +170,9 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
         DatabaseComponent.get(context).smsDatabase().updateReactionsUnread(writableDatabase, messageId.id, hasReactions(messageId), true, notifyUnread)
       }
 
-      writableDatabase.setTransactionSuccessful()
+      DatabaseChangeFeed.setTransactionSuccessful(writableDatabase)
     } finally {
-      writableDatabase.endTransaction()
+      DatabaseChangeFeed.endTransaction(writableDatabase)
     }
   }
 
@@ -244,7 +244,7 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
   }
 
   fun updateReaction(reaction: ReactionRecord) {
-    writableDatabase.beginTransaction()
+    DatabaseChangeFeed.beginTransaction(writableDatabase)
     try {
       val values = ContentValues().apply {
         put(EMOJI, reaction.emoji)
@@ -260,9 +260,17 @@ class ReactionDatabase(context: Context, helper: SQLCipherOpenHelper) : Database
       val args = arrayOf("${reaction.id}")
       writableDatabase.update(TABLE_NAME, values, query, args)
 
-      writableDatabase.setTransactionSuccessful()
+      DatabaseChangeFeed.setTransactionSuccessful(writableDatabase)
     } finally {
-      writableDatabase.endTransaction()
+      DatabaseChangeFeed.endTransaction(writableDatabase)
+    }
+    if (DatabaseChangeFeed.hasListeners) {
+      val threadId = if (reaction.isMms) {
+        DatabaseComponent.get(context).mmsDatabase().getThreadIdForMessage(reaction.messageId)
+      } else {
+        DatabaseComponent.get(context).smsDatabase().getThreadIdForMessage(reaction.messageId)
+      }
+      DatabaseChangeFeed.publish(DatabaseChangeFeed.Change(DatabaseChangeFeed.Table.REACTION, DatabaseChangeFeed.Kind.UPDATE, threadId, setOf(reaction.messageId), reaction.isMms))
     }
   }
 
@@ -23,6 +23,7 @@ import org.session.libsession.utilities.recipients.Recipient.UnidentifiedAccessM
 import org.session.libsignal.utilities.Base64;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 
 import java.io.Closeable;
@@ -278,7 +279,7 @@ public class RecipientDatabase extends Database {
 
   public void setBlocked(@NonNull List<Recipient> recipients, boolean blocked) {
     SQLiteDatabase db = getWritableDatabase();
-    db.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(db);
     try {
       ContentValues values = new ContentValues();
       values.put(BLOCK, blocked ? 1 : 0);
@@ -286,11 +287,14 @@ public class RecipientDatabase extends Database {
         db.update(TABLE_NAME, values, ADDRESS + " = ?", new String[]{recipient.getAddress().serialize()});
         recipient.resolve().setBlocked(blocked);
       }
-      db.setTransactionSuccessful();
+      DatabaseChangeFeed.setTransactionSuccessful(db);
     } finally {
-      db.endTransaction();
+      DatabaseChangeFeed.endTransaction(db);
     }
     notifyRecipientListeners();
+    for (Recipient recipient : recipients) {
+      DatabaseChangeFeed.publishRecipient(Kind.UPDATE, recipient.getAddress().serialize());
+    }
   }
 
   public void setMuted(@NonNull Recipient recipient, long until) {
@@ -358,6 +362,25 @@ public class RecipientDatabase extends Database {
     notifyRecipientListeners();
   }
 
+  /**
+   * Writes the given profile fields of a recipient in a single update, skipping the ones that are null.
+   */
+  public void setProfile(@NonNull Recipient recipient, @Nullable String profileName, @Nullable byte[] profileKey, @Nullable UnidentifiedAccessMode unidentifiedAccessMode) {
+    ContentValues contentValues = new ContentValues(3);
+    if (profileName != null)            contentValues.put(SYSTEM_DISPLAY_NAME, profileName);
+    if (profileKey != null)             contentValues.put(PROFILE_KEY, Base64.encodeBytes(profileKey));
+    if (unidentifiedAccessMode != null) contentValues.put(UNIDENTIFIED_ACCESS_MODE, unidentifiedAccessMode.getMode());
+    if (contentValues.size() == 0) return;
+    updateOrInsert(recipient.getAddress(), contentValues);
+    if (profileName != null) {
+      recipient.resolve().setName(profileName);
+      recipient.resolve().setProfileName(profileName);
+    }
+    if (profileKey != null)             recipient.resolve().setProfileKey(profileKey);
+    if (unidentifiedAccessMode != null) recipient.resolve().setUnidentifiedAccessMode(unidentifiedAccessMode);
+    notifyRecipientListeners();
+  }
+
   public void setProfileSharing(@NonNull Recipient recipient, boolean enabled) {
     ContentValues contentValues = new ContentValues(1);
     contentValues.put(PROFILE_SHARING, enabled ? 1 : 0);
@@ -385,7 +408,7 @@ public class RecipientDatabase extends Database {
   private void updateOrInsert(Address address, ContentValues contentValues) {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
 
-    database.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(database);
 
     int updated = database.update(TABLE_NAME, contentValues, ADDRESS + " = ?",
                                   new String[] {address.serialize()});
@@ -395,8 +418,10 @@ public class RecipientDatabase extends Database {
       database.insert(TABLE_NAME, null, contentValues);
     }
 
-    database.setTransactionSuccessful();
-    database.endTransaction();
+    DatabaseChangeFeed.setTransactionSuccessful(database);
+    DatabaseChangeFeed.endTransaction(database);
+
+    DatabaseChangeFeed.publishRecipient(updated < 1 ? Kind.INSERT : Kind.UPDATE, address.serialize());
   }
 
   public List<Recipient> getBlockedContacts() {
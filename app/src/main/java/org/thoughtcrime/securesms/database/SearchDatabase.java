@@ -2,8 +2,10 @@ package org.thoughtcrime.securesms.database;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.os.CancellationSignal;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -11,6 +13,7 @@ import net.zetetic.database.sqlcipher.SQLiteDatabase;
 
 import org.session.libsession.utilities.Util;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
+import org.thoughtcrime.securesms.search.model.MessageResult;
 
 import java.util.List;
 
@@ -28,6 +31,8 @@ public class SearchDatabase extends Database {
   public static final String SNIPPET              = "snippet";
   public static final String CONVERSATION_ADDRESS = "conversation_address";
   public static final String MESSAGE_ADDRESS      = "message_address";
+  public static final String MESSAGE_ID           = "message_id";
+  public static final String IS_MMS               = "is_mms";
 
   public static final String[] CREATE_TABLE = {
       "CREATE VIRTUAL TABLE " + SMS_FTS_TABLE_NAME + " USING fts5(" + BODY + ", " + THREAD_ID + " UNINDEXED, content=" + SmsDatabase.TABLE_NAME + ", content_rowid=" + SmsDatabase.ID + ");",
@@ -58,30 +63,59 @@ public class SearchDatabase extends Database {
           "END;"
   };
 
+  // The page of matches is picked before any snippets are made, so that they're only made for the messages returned
   private static final String MESSAGES_QUERY =
+      "WITH page AS MATERIALIZED (" +
+        "SELECT " +
+          SMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
+          "0 AS " + IS_MMS + ", " +
+          SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + " " +
+        "FROM " + SMS_FTS_TABLE_NAME + " " +
+        "INNER JOIN " + SmsDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
+        "AND (" + SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + ", 0, " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + ") < (CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER)) " +
+        "UNION ALL " +
+        "SELECT " +
+          MMS_FTS_TABLE_NAME + "." + ID + " AS " + MESSAGE_ID + ", " +
+          "1 AS " + IS_MMS + ", " +
+          MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + " " +
+        "FROM " + MMS_FTS_TABLE_NAME + " " +
+        "INNER JOIN " + MmsDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
+        "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
+        "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
+        "AND (" + MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + ", 1, " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + ") < (CAST(? AS INTEGER), CAST(? AS INTEGER), CAST(? AS INTEGER)) " +
+        "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC, " + IS_MMS + " DESC, " + MESSAGE_ID + " DESC " +
+        "LIMIT ?" +
+      ") " +
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + " AS " + CONVERSATION_ADDRESS + ", " +
         MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
         "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-        SMS_FTS_TABLE_NAME + "."  + THREAD_ID + " " +
-      "FROM " + SmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
+        "page." + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
+        SMS_FTS_TABLE_NAME + "."  + THREAD_ID + ", " +
+        "page." + MESSAGE_ID + ", " +
+        "page." + IS_MMS + " " +
+      "FROM page " +
+      "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = page." + MESSAGE_ID + " " +
+      "INNER JOIN " + SmsDatabase.TABLE_NAME + " ON " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " = page." + MESSAGE_ID + " " +
       "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + SMS_FTS_TABLE_NAME + " MATCH ? " +
+      "WHERE page." + IS_MMS + " = 0 AND " + SMS_FTS_TABLE_NAME + " MATCH ? " +
       "UNION ALL " +
       "SELECT " +
         ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ADDRESS + " AS " + CONVERSATION_ADDRESS + ", " +
         MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
         "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
-        MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-        MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
-      "FROM " + MmsDatabase.TABLE_NAME + " " +
-      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
+        "page." + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
+        MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
+        "page." + MESSAGE_ID + ", " +
+        "page." + IS_MMS + " " +
+      "FROM page " +
+      "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = page." + MESSAGE_ID + " " +
+      "INNER JOIN " + MmsDatabase.TABLE_NAME + " ON " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " = page." + MESSAGE_ID + " " +
       "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
-      "WHERE " + MMS_FTS_TABLE_NAME + " MATCH ? " +
-      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC " +
-      "LIMIT ?";
+      "WHERE page." + IS_MMS + " = 1 AND " + MMS_FTS_TABLE_NAME + " MATCH ? " +
+      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_SENT + " DESC, " + IS_MMS + " DESC, " + MESSAGE_ID + " DESC";
 
   private static final String MESSAGES_FOR_THREAD_QUERY =
       "SELECT " +
@@ -89,7 +123,9 @@ public class SearchDatabase extends Database {
           MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
           "snippet(" + SMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
           SmsDatabase.TABLE_NAME + "." + SmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-          SMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
+          SMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
+          SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+          "0 AS " + IS_MMS + " " +
         "FROM " + SmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + SMS_FTS_TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + ID + " = " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + SMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
@@ -100,7 +136,9 @@ public class SearchDatabase extends Database {
           MmsSmsColumns.ADDRESS + " AS " + MESSAGE_ADDRESS + ", " +
           "snippet(" + MMS_FTS_TABLE_NAME + ", -1, '', '', '...', 7) AS " + SNIPPET + ", " +
           MmsDatabase.TABLE_NAME + "." + MmsDatabase.DATE_SENT + " AS " + MmsSmsColumns.NORMALIZED_DATE_SENT + ", " +
-          MMS_FTS_TABLE_NAME + "." + THREAD_ID + " " +
+          MMS_FTS_TABLE_NAME + "." + THREAD_ID + ", " +
+          MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " AS " + MESSAGE_ID + ", " +
+          "1 AS " + IS_MMS + " " +
         "FROM " + MmsDatabase.TABLE_NAME + " " +
         "INNER JOIN " + MMS_FTS_TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + ID + " = " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " " +
         "INNER JOIN " + ThreadDatabase.TABLE_NAME + " ON " + MMS_FTS_TABLE_NAME + "." + THREAD_ID + " = " + ThreadDatabase.TABLE_NAME + "." + ThreadDatabase.ID + " " +
@@ -112,22 +150,31 @@ public class SearchDatabase extends Database {
     super(context, databaseHelper);
   }
 
-  public Cursor queryMessages(@NonNull String query) {
+  /**
+   * @return A cursor over the most recent {@code limit} messages matching {@code query} that were sent before
+   * {@code after}, or the most recent of all matching messages if {@code after} is null.
+   */
+  public Cursor queryMessages(@NonNull String query, int limit, @Nullable MessageResult after, @Nullable CancellationSignal cancellationSignal) {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         prefixQuery = adjustQuery(query);
 
-    int queryLimit = Math.min(query.length()*50,500);
+    String dateSent  = String.valueOf(after != null ? after.sentTimestampMs : Long.MAX_VALUE);
+    String isMms     = after != null && !after.isMms ? "0" : "1";
+    String messageId = String.valueOf(after != null ? after.messageId : Long.MAX_VALUE);
 
-    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { prefixQuery, prefixQuery, String.valueOf(queryLimit) });
+    Cursor cursor = db.rawQuery(MESSAGES_QUERY, new String[] { prefixQuery, dateSent, isMms, messageId,
+                                                               prefixQuery, dateSent, isMms, messageId,
+                                                               String.valueOf(limit),
+                                                               prefixQuery, prefixQuery }, cancellationSignal);
     setNotifyConverationListListeners(cursor);
     return cursor;
   }
 
-  public Cursor queryMessages(@NonNull String query, long threadId) {
+  public Cursor queryMessages(@NonNull String query, long threadId, @Nullable CancellationSignal cancellationSignal) {
     SQLiteDatabase db          = databaseHelper.getReadableDatabase();
     String         prefixQuery = adjustQuery(query);
 
-    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { prefixQuery, String.valueOf(threadId), prefixQuery, String.valueOf(threadId) });
+    Cursor cursor = db.rawQuery(MESSAGES_FOR_THREAD_QUERY, new String[] { prefixQuery, String.valueOf(threadId), prefixQuery, String.valueOf(threadId) }, cancellationSignal);
     setNotifyConverationListListeners(cursor);
     return cursor;
 
@@ -4,6 +4,8 @@ import android.content.ContentValues
 import android.content.Context
 import androidx.core.database.getStringOrNull
 import android.database.Cursor
+import android.database.MatrixCursor
+import android.os.CancellationSignal
 import org.session.libsession.messaging.contacts.Contact
 import org.session.libsignal.utilities.Base64
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper
@@ -30,6 +32,33 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
                 "$profilePictureEncryptionKey BLOB DEFAULT NULL, " +
                 "$threadID INTEGER DEFAULT -1, " +
                 "$isTrusted INTEGER DEFAULT 0);"
+
+        // A full-text index of contact names and nicknames, kept in sync with the contact table by triggers. The
+        // index reads its content from the contact table by rowid, so a row's entry is found without a scan.
+        const val nameSearchTable = "session_contact_fts"
+        // The contact table has no INTEGER PRIMARY KEY, so VACUUM may renumber its rowids and the index has to follow
+        const val REBUILD_NAME_SEARCH_COMMAND = "INSERT INTO $nameSearchTable ($nameSearchTable) VALUES ('rebuild');"
+        @JvmField val CREATE_NAME_SEARCH_COMMANDS = arrayOf(
+            "CREATE VIRTUAL TABLE $nameSearchTable USING fts5($name, $nickname, content = '$sessionContactTable', content_rowid = 'rowid', tokenize = 'unicode61 remove_diacritics 2', prefix = '2 3');",
+            REBUILD_NAME_SEARCH_COMMAND,
+            "CREATE TRIGGER session_contact_ai AFTER INSERT ON $sessionContactTable BEGIN " +
+                "INSERT INTO $nameSearchTable (rowid, $name, $nickname) VALUES (new.rowid, new.$name, new.$nickname); " +
+            "END;",
+            "CREATE TRIGGER session_contact_ad AFTER DELETE ON $sessionContactTable BEGIN " +
+                "INSERT INTO $nameSearchTable ($nameSearchTable, rowid, $name, $nickname) VALUES ('delete', old.rowid, old.$name, old.$nickname); " +
+            "END;",
+            "CREATE TRIGGER session_contact_au AFTER UPDATE OF $name, $nickname ON $sessionContactTable " +
+            "WHEN old.$name IS NOT new.$name OR old.$nickname IS NOT new.$nickname BEGIN " +
+                "INSERT INTO $nameSearchTable ($nameSearchTable, rowid, $name, $nickname) VALUES ('delete', old.rowid, old.$name, old.$nickname); " +
+                "INSERT INTO $nameSearchTable (rowid, $name, $nickname) VALUES (new.rowid, new.$name, new.$nickname); " +
+            "END;"
+        )
+        @JvmField val DROP_NAME_SEARCH_COMMANDS = arrayOf(
+            "DROP TRIGGER IF EXISTS session_contact_ai;",
+            "DROP TRIGGER IF EXISTS session_contact_ad;",
+            "DROP TRIGGER IF EXISTS session_contact_au;",
+            "DROP TABLE IF EXISTS $nameSearchTable;"
+        )
     }
 
     fun getContactWithSessionID(sessionID: String): Contact? {
@@ -89,13 +118,19 @@ class SessionContactDatabase(context: Context, helper: SQLCipherOpenHelper) : Da
         return contact
     }
 
-    fun queryContactsByName(constraint: String): Cursor {
-        return databaseHelper.readableDatabase.query(
-            sessionContactTable, null, " $name LIKE ? OR $nickname LIKE ?", arrayOf(
-                "%$constraint%",
-                "%$constraint%"
-            ),
-            null, null, null
-        )
+    /**
+     * @return A cursor over the contacts with a name or nickname word starting with each word of [constraint],
+     * best matches first.
+     */
+    @JvmOverloads
+    fun queryContactsByName(constraint: String, cancellationSignal: CancellationSignal? = null): Cursor {
+        val words = constraint.split(' ').filter { it.isNotBlank() }
+        if (words.isEmpty()) { return MatrixCursor(arrayOf(sessionID), 0) }
+        val match = words.joinToString(" ") { "\"${it.replace("\"", "\"\"")}\"*" }
+        val query = "SELECT $sessionContactTable.* FROM $nameSearchTable " +
+            "INNER JOIN $sessionContactTable ON $sessionContactTable.rowid = $nameSearchTable.rowid " +
+            "WHERE $nameSearchTable MATCH ? " +
+            "ORDER BY $nameSearchTable.rank"
+        return databaseHelper.readableDatabase.rawQuery(query, arrayOf(match), cancellationSignal)
     }
 }
\ No newline at end of file
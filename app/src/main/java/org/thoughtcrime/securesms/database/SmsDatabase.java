@@ -45,6 +45,8 @@ import org.session.libsession.utilities.recipients.Recipient;
 import org.session.libsignal.utilities.JsonUtil;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Table;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.database.model.ReactionRecord;
@@ -55,6 +57,8 @@ import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -149,6 +153,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     DatabaseComponent.get(context).threadDatabase().update(threadId, false);
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, threadId, id);
   }
 
   public long getThreadIdForMessage(long id) {
@@ -242,6 +247,7 @@ public class SmsDatabase extends MessagingDatabase {
 
     DatabaseComponent.get(context).threadDatabase().update(threadId, false);
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, threadId, id);
   }
 
   public void markAsSentFailed(long id) {
@@ -297,14 +303,16 @@ public class SmsDatabase extends MessagingDatabase {
 
           if (ourAddress.equals(theirAddress)) {
             long threadId = cursor.getLong(cursor.getColumnIndexOrThrow(THREAD_ID));
+            long id       = cursor.getLong(cursor.getColumnIndexOrThrow(ID));
 
             database.execSQL("UPDATE " + TABLE_NAME +
                              " SET " + columnName + " = " + columnName + " + 1 WHERE " +
                              ID + " = ?",
-                             new String[] {String.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ID)))});
+                             new String[] {String.valueOf(id)});
 
             DatabaseComponent.get(context).threadDatabase().update(threadId, false);
             notifyConversationListeners(threadId);
+            DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, threadId, id);
             foundMessage = true;
           }
         }
@@ -334,7 +342,7 @@ public class SmsDatabase extends MessagingDatabase {
     List<MarkedMessageInfo> results   = new LinkedList<>();
     Cursor                  cursor    = null;
 
-    database.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(database);
     try {
       cursor = database.query(TABLE_NAME, new String[] {ID, ADDRESS, DATE_SENT, TYPE, EXPIRES_IN, EXPIRE_STARTED}, where, arguments, null, null, null);
 
@@ -352,10 +360,10 @@ public class SmsDatabase extends MessagingDatabase {
       contentValues.put(REACTIONS_UNREAD, 0);
 
       database.update(TABLE_NAME, contentValues, where, arguments);
-      database.setTransactionSuccessful();
+      DatabaseChangeFeed.setTransactionSuccessful(database);
     } finally {
       if (cursor != null) cursor.close();
-      database.endTransaction();
+      DatabaseChangeFeed.endTransaction(database);
     }
 
     return results;
@@ -368,6 +376,7 @@ public class SmsDatabase extends MessagingDatabase {
             new String[] {newTimestamp + "", messageId + ""});
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, threadId, messageId);
   }
 
   public Pair<Long, Long> updateBundleMessageBody(long messageId, String body) {
@@ -387,6 +396,7 @@ public class SmsDatabase extends MessagingDatabase {
     DatabaseComponent.get(context).threadDatabase().update(threadId, true);
     notifyConversationListeners(threadId);
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, threadId, messageId);
 
     return new Pair<>(messageId, threadId);
   }
@@ -483,6 +493,7 @@ public class SmsDatabase extends MessagingDatabase {
       }
 
       notifyConversationListeners(threadId);
+      DatabaseChangeFeed.publish(Table.SMS, Kind.INSERT, threadId, messageId);
 
       return Optional.of(new InsertResult(messageId, threadId));
     }
@@ -558,7 +569,7 @@ public class SmsDatabase extends MessagingDatabase {
     DatabaseComponent.get(context).threadDatabase().setHasSent(threadId, true);
 
     notifyConversationListeners(threadId);
-
+    DatabaseChangeFeed.publish(Table.SMS, Kind.INSERT, threadId, messageId);
 
     return messageId;
   }
@@ -571,11 +582,6 @@ public class SmsDatabase extends MessagingDatabase {
             " WHERE " + where + " GROUP BY " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID, arguments);
   }
 
-  public Cursor getExpirationStartedMessages() {
-    String         where = EXPIRE_STARTED + " > 0";
-    return rawQuery(where, null);
-  }
-
   public SmsMessageRecord getMessage(long messageId) throws NoSuchMessageException {
     Cursor         cursor = rawQuery(ID_WHERE, new String[]{messageId + ""});
     Reader         reader = new Reader(cursor);
@@ -602,9 +608,41 @@ public class SmsDatabase extends MessagingDatabase {
     db.delete(TABLE_NAME, ID_WHERE, new String[] {messageId+""});
     boolean threadDeleted = DatabaseComponent.get(context).threadDatabase().update(threadId, false);
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.SMS, Kind.DELETE, threadId, messageId);
     return threadDeleted;
   }
 
+  /**
+   * Deletes the given messages without refreshing their threads, so that a caller deleting many
+   * messages at once can update each affected thread a single time.
+   *
+   * @return The IDs of the threads the deleted messages belonged to.
+   */
+  public Set<Long> deleteMessageRows(long[] messageIds) {
+    Set<Long> threadIds = new HashSet<>();
+    if (messageIds.length == 0) return threadIds;
+
+    SQLiteDatabase db    = databaseHelper.getWritableDatabase();
+    String         where = ID + " IN (" + StringUtils.join(messageIds, ',') + ")";
+
+    Map<Long, Set<Long>> idsByThread = new HashMap<>();
+    try (Cursor cursor = db.rawQuery("SELECT " + ID + ", " + THREAD_ID + " FROM " + TABLE_NAME + " WHERE " + where, null)) {
+      while (cursor.moveToNext()) {
+        long threadId = cursor.getLong(1);
+        if (!idsByThread.containsKey(threadId)) idsByThread.put(threadId, new HashSet<>());
+        idsByThread.get(threadId).add(cursor.getLong(0));
+      }
+    }
+
+    db.delete(TABLE_NAME, where, null);
+
+    for (Map.Entry<Long, Set<Long>> entry : idsByThread.entrySet()) {
+      DatabaseChangeFeed.publish(new DatabaseChangeFeed.Change(Table.SMS, Kind.DELETE, entry.getKey(), entry.getValue()));
+    }
+    threadIds.addAll(idsByThread.keySet());
+    return threadIds;
+  }
+
   @Override
   public boolean deleteMessages(long[] messageIds, long threadId) {
     String[] argsArray = new String[messageIds.length];
@@ -626,6 +664,7 @@ public class SmsDatabase extends MessagingDatabase {
     );
     boolean threadDeleted = DatabaseComponent.get(context).threadDatabase().update(threadId, false);
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.SMS, Kind.DELETE, threadId, messageIds);
     return threadDeleted;
   }
 
@@ -638,6 +677,7 @@ public class SmsDatabase extends MessagingDatabase {
     db.update(TABLE_NAME, contentValues, THREAD_ID + " = ?", new String[] {fromId + ""});
     notifyConversationListeners(toId);
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.SMS, Kind.UPDATE, toId);
   }
 
   @Override
@@ -709,13 +749,13 @@ public class SmsDatabase extends MessagingDatabase {
 
   /*package*/ SQLiteDatabase beginTransaction() {
     SQLiteDatabase database = databaseHelper.getWritableDatabase();
-    database.beginTransaction();
+    DatabaseChangeFeed.beginTransaction(database);
     return database;
   }
 
   /*package*/ void endTransaction(SQLiteDatabase database) {
-    database.setTransactionSuccessful();
-    database.endTransaction();
+    DatabaseChangeFeed.setTransactionSuccessful(database);
+    DatabaseChangeFeed.endTransaction(database);
   }
 
   /*package*/ SQLiteStatement createInsertStatement(SQLiteDatabase database) {
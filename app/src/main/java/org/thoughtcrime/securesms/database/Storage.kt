@@ -54,6 +54,11 @@ import org.thoughtcrime.securesms.util.SessionMetaProtocol
 import java.security.MessageDigest
 
 class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context, helper), StorageProtocol {
+
+    private class UserProfileSnapshot(val encodedProfileKey: String?, val profileKey: ByteArray)
+
+    @Volatile
+    private var userProfileSnapshot: UserProfileSnapshot? = null
     
     override fun getUserPublicKey(): String? {
         return TextSecurePreferences.getLocalNumber(context)
@@ -65,9 +70,15 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
 
     override fun getUserProfile(): Profile {
         val displayName = TextSecurePreferences.getProfileName(context)!!
-        val profileKey = ProfileKeyUtil.getProfileKey(context)
+        val encodedProfileKey = TextSecurePreferences.getProfileKey(context)
         val profilePictureUrl = TextSecurePreferences.getProfilePictureURL(context)
-        return Profile(displayName, profileKey, profilePictureUrl)
+        // Every outgoing message carries the profile, so only decode the profile key again once a preference changes
+        val snapshot = userProfileSnapshot?.takeIf {
+            it.encodedProfileKey != null && it.encodedProfileKey == encodedProfileKey
+        } ?: UserProfileSnapshot(encodedProfileKey, ProfileKeyUtil.getProfileKey(context)).also {
+            userProfileSnapshot = it
+        }
+        return Profile(displayName, snapshot.profileKey.copyOf(), profilePictureUrl)
     }
 
     override fun setUserProfilePictureURL(newValue: String) {
@@ -75,8 +86,7 @@ class Storage(context: Context, helper: SQLCipherOpenHelper) : Database(context,
             Recipient.from(context, it, false)
         }
         TextSecurePreferences.setProfilePictureURL(context, newValue)
-        RetrieveProfileAvatarJob(ourRecipient, newValue)
-        ApplicationContext.getInstance(context).jobManager.add(RetrieveProfileAvatarJob(ourRecipient, newValue))
+        RetrieveProfileAvatarJob.enqueue(context, ourRecipient, newValue)
     }
 
     override fun getOrGenerateRegistrationID(): Int {
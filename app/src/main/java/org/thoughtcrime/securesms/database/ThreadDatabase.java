@@ -50,6 +50,8 @@ import org.session.libsignal.utilities.Pair;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.contactshare.ContactUtil;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind;
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Table;
 import org.thoughtcrime.securesms.database.MessagingDatabase.MarkedMessageInfo;
 import org.thoughtcrime.securesms.database.helpers.SQLCipherOpenHelper;
 import org.thoughtcrime.securesms.database.model.MediaMmsMessageRecord;
@@ -140,6 +142,10 @@ public class ThreadDatabase extends Database {
             "ADD COLUMN " + UNREAD_MENTION_COUNT + " INTEGER DEFAULT 0;";
   }
 
+  private static final String CONVERSATION_LIST_WHERE =
+      "(" + MESSAGE_COUNT + " != 0 OR " + GroupDatabase.TABLE_NAME + "." + GROUP_ID + " LIKE '" + OPEN_GROUP_PREFIX + "%') " +
+      "AND " + ARCHIVED + " = 0 ";
+
   public ThreadDatabase(Context context, SQLCipherOpenHelper databaseHelper) {
     super(context, databaseHelper);
   }
@@ -156,8 +162,10 @@ public class ThreadDatabase extends Database {
 
     contentValues.put(MESSAGE_COUNT, 0);
 
-    SQLiteDatabase db = databaseHelper.getWritableDatabase();
-    return db.insert(TABLE_NAME, null, contentValues);
+    SQLiteDatabase db       = databaseHelper.getWritableDatabase();
+    long           threadId = db.insert(TABLE_NAME, null, contentValues);
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.INSERT, threadId);
+    return threadId;
   }
 
   private void updateThread(long threadId, long count, String body, @Nullable Uri attachment,
@@ -184,6 +192,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void updateSnippet(long threadId, String snippet, @Nullable Uri attachment, long date, long type, boolean unarchive) {
@@ -203,6 +212,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID + " = ?", new String[] {threadId + ""});
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   private void deleteThread(long threadId) {
@@ -210,6 +220,7 @@ public class ThreadDatabase extends Database {
     db.delete(TABLE_NAME, ID_WHERE, new String[] {threadId + ""});
     addressCache.remove(threadId);
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.DELETE, threadId);
   }
 
   private void deleteThreads(Set<Long> threadIds) {
@@ -225,6 +236,7 @@ public class ThreadDatabase extends Database {
     db.delete(TABLE_NAME, where, null);
     for (long threadId: threadIds) {
       addressCache.remove(threadId);
+      DatabaseChangeFeed.publish(Table.THREAD, Kind.DELETE, threadId);
     }
     notifyConversationListListeners();
   }
@@ -234,6 +246,7 @@ public class ThreadDatabase extends Database {
     db.delete(TABLE_NAME, null, null);
     addressCache.clear();
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.DELETE, DatabaseChangeFeed.NO_THREAD);
   }
 
   public void trimAllThreads(int length, ProgressListener listener) {
@@ -311,6 +324,7 @@ public class ThreadDatabase extends Database {
     final List<MarkedMessageInfo> mmsRecords = DatabaseComponent.get(context).mmsDatabase().setMessagesRead(threadId);
 
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
 
     return new LinkedList<MarkedMessageInfo>() {{
       addAll(smsRecords);
@@ -328,6 +342,7 @@ public class ThreadDatabase extends Database {
                    String.valueOf(unreadMentionAmount),
                    String.valueOf(threadId)
               });
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void decrementUnread(long threadId, int amount, int unreadMentionAmount) {
@@ -340,6 +355,7 @@ public class ThreadDatabase extends Database {
               String.valueOf(unreadMentionAmount),
               String.valueOf(threadId)
             });
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void setDistributionType(long threadId, int distributionType) {
@@ -349,6 +365,7 @@ public class ThreadDatabase extends Database {
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId + ""});
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public int getDistributionType(long threadId) {
@@ -469,9 +486,29 @@ public class ThreadDatabase extends Database {
   }
 
   public Cursor getConversationList() {
-    String where  = "(" + MESSAGE_COUNT + " != 0 OR " + GroupDatabase.TABLE_NAME + "." + GROUP_ID + " LIKE '" + OPEN_GROUP_PREFIX + "%') " +
-            "AND " + ARCHIVED + " = 0 ";
-    return getConversationList(where);
+    return getConversationList(CONVERSATION_LIST_WHERE);
+  }
+
+  /**
+   * @return The addresses of the threads in {@link #getConversationList()}. Only the groups table is
+   * joined, as {@link #CONVERSATION_LIST_WHERE} filters on its group id, and no columns are read
+   * other than the thread address.
+   */
+  public List<Address> getConversationListAddresses() {
+    SQLiteDatabase db    = databaseHelper.getReadableDatabase();
+    String         query = "SELECT " + TABLE_NAME + "." + ADDRESS + " FROM " + TABLE_NAME +
+                           " LEFT OUTER JOIN " + GroupDatabase.TABLE_NAME +
+                           " ON " + TABLE_NAME + "." + ADDRESS + " = " + GroupDatabase.TABLE_NAME + "." + GROUP_ID +
+                           " WHERE " + CONVERSATION_LIST_WHERE;
+    List<Address>  result = new ArrayList<>();
+
+    try (Cursor cursor = db.rawQuery(query, null)) {
+      while (cursor.moveToNext()) {
+        result.add(Address.fromSerialized(cursor.getString(0)));
+      }
+    }
+
+    return result;
   }
 
   public Cursor getBlindedConversationList() {
@@ -527,6 +564,7 @@ public class ThreadDatabase extends Database {
 
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {String.valueOf(threadId)});
     notifyConversationListListeners();
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void setLastSeen(long threadId) {
@@ -623,6 +661,7 @@ public class ThreadDatabase extends Database {
 
     notifyConversationListListeners();
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public long getOrCreateThreadIdFor(Recipient recipient, int distributionType) {
@@ -678,6 +717,7 @@ public class ThreadDatabase extends Database {
                                                 new String[] {String.valueOf(threadId)});
 
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public boolean update(long threadId, boolean unarchive) {
@@ -731,6 +771,7 @@ public class ThreadDatabase extends Database {
             new String[] {String.valueOf(threadId)});
 
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void markAllAsRead(long threadId, boolean isGroupRecipient) {
@@ -804,10 +845,12 @@ public class ThreadDatabase extends Database {
     contentValues.put(ADDRESS, newEncodedGroupId);
     SQLiteDatabase db = databaseHelper.getWritableDatabase();
     db.update(TABLE_NAME, contentValues, ID_WHERE, new String[] {threadId+""});
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public void notifyThreadUpdated(long threadId) {
     notifyConversationListeners(threadId);
+    DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, threadId);
   }
 
   public interface ProgressListener {
@@ -25,6 +25,7 @@ import org.thoughtcrime.securesms.database.GroupDatabase;
 import org.thoughtcrime.securesms.database.GroupMemberDatabase;
 import org.thoughtcrime.securesms.database.GroupReceiptDatabase;
 import org.thoughtcrime.securesms.database.JobDatabase;
+import org.thoughtcrime.securesms.database.LinkPreviewCacheDatabase;
 import org.thoughtcrime.securesms.database.LokiAPIDatabase;
 import org.thoughtcrime.securesms.database.LokiBackupFilesDatabase;
 import org.thoughtcrime.securesms.database.LokiMessageDatabase;
@@ -86,9 +87,15 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
   private static final int lokiV38                          = 59;
   private static final int lokiV39                          = 60;
   private static final int lokiV40                          = 61;
+  private static final int lokiV41                          = 62;
+  private static final int lokiV42                          = 63;
+  private static final int lokiV43                          = 64;
+  private static final int lokiV44                          = 65;
+  private static final int lokiV45                          = 66;
+  private static final int lokiV46                          = 67;
 
   // Loki - onUpgrade(...) must be updated to use Loki version numbers if Signal makes any database changes
-  private static final int    DATABASE_VERSION         = lokiV40;
+  private static final int    DATABASE_VERSION         = lokiV46;
   private static final int    MIN_DATABASE_VERSION     = lokiV7;
   private static final String CIPHER3_DATABASE_NAME    = "signal.db";
   public static final String  DATABASE_NAME            = "signal_v4.db";
@@ -120,6 +127,7 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
           // 7 days
           if (currentTime - TextSecurePreferences.getLastVacuumTime(context) > 604_800_000) {
             connection.execute("VACUUM;", null, null);
+            rebuildIndexesAfterVacuum(connection);
             TextSecurePreferences.setLastVacuumNow(context);
           }
         }
@@ -136,6 +144,18 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     this.databaseSecret = databaseSecret;
   }
 
+  /**
+   * VACUUM may renumber the rows of tables without an INTEGER PRIMARY KEY, which the contact name
+   * index refers to by rowid.
+   */
+  private static void rebuildIndexesAfterVacuum(SQLiteConnection connection) {
+    long nameSearchTableCount = connection.executeForLong("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = ?",
+                                                          new Object[] { SessionContactDatabase.nameSearchTable }, null);
+    if (nameSearchTableCount > 0) {
+      connection.execute(SessionContactDatabase.REBUILD_NAME_SEARCH_COMMAND, null, null);
+    }
+  }
+
   private static void applySQLCipherPragmas(SQLiteConnection connection, boolean useSQLCipher4) {
     if (useSQLCipher4) {
       connection.execute("PRAGMA kdf_iter = '256000';", null, null);
@@ -344,6 +364,11 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
     db.execSQL(ThreadDatabase.getUnreadMentionCountCommand());
     db.execSQL(SmsDatabase.CREATE_HAS_MENTION_COMMAND);
     db.execSQL(MmsDatabase.CREATE_HAS_MENTION_COMMAND);
+    db.execSQL(LinkPreviewCacheDatabase.CREATE_LINK_PREVIEW_CACHE_TABLE_COMMAND);
+    executeStatements(db, LokiBackupFilesDatabase.ADD_CHAIN_COLUMNS_COMMANDS);
+    db.execSQL(LokiBackupFilesDatabase.CREATE_CHANGES_TABLE_COMMAND);
+    executeStatements(db, GroupDatabase.CREATE_MEMBERSHIP_TABLE_COMMANDS);
+    executeStatements(db, SessionContactDatabase.CREATE_NAME_SEARCH_COMMANDS);
 
     executeStatements(db, SmsDatabase.CREATE_INDEXS);
     executeStatements(db, MmsDatabase.CREATE_INDEXS);
@@ -587,6 +612,35 @@ public class SQLCipherOpenHelper extends SQLiteOpenHelper {
         db.execSQL(MmsDatabase.CREATE_HAS_MENTION_COMMAND);
       }
 
+      if (oldVersion < lokiV41) {
+        db.execSQL(LinkPreviewCacheDatabase.CREATE_LINK_PREVIEW_CACHE_TABLE_COMMAND);
+      }
+
+      if (oldVersion < lokiV42) {
+        executeStatements(db, LokiBackupFilesDatabase.ADD_CHAIN_COLUMNS_COMMANDS);
+        db.execSQL(LokiBackupFilesDatabase.CREATE_CHANGES_TABLE_COMMAND);
+      }
+
+      if (oldVersion < lokiV43) {
+        executeStatements(db, GroupDatabase.CREATE_MEMBERSHIP_TABLE_COMMANDS);
+        GroupDatabase.populateMembershipTable(db);
+      }
+
+      if (oldVersion < lokiV44) {
+        executeStatements(db, SessionContactDatabase.CREATE_NAME_SEARCH_COMMANDS);
+      }
+
+      if (oldVersion < lokiV45) {
+        executeStatements(db, SessionContactDatabase.DROP_NAME_SEARCH_COMMANDS);
+        executeStatements(db, SessionContactDatabase.CREATE_NAME_SEARCH_COMMANDS);
+      }
+
+      if (oldVersion < lokiV46) {
+        // Changes are only logged while backups are being made, which start logging again themselves
+        executeStatements(db, LokiBackupFilesDatabase.DROP_CHANGE_TRIGGERS);
+        db.delete(LokiBackupFilesDatabase.CHANGES_TABLE_NAME, null, null);
+      }
+
       db.setTransactionSuccessful();
     } finally {
       db.endTransaction();
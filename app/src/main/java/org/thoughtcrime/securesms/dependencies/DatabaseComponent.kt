@@ -42,6 +42,7 @@ interface DatabaseComponent {
     fun sessionContactDatabase(): SessionContactDatabase
     fun reactionDatabase(): ReactionDatabase
     fun emojiSearchDatabase(): EmojiSearchDatabase
+    fun linkPreviewCacheDatabase(): LinkPreviewCacheDatabase
     fun storage(): Storage
     fun attachmentProvider(): MessageDataProvider
     fun blindedIdMappingDatabase(): BlindedIdMappingDatabase
@@ -134,6 +134,10 @@ object DatabaseModule {
     @Singleton
     fun provideEmojiSearchDatabase(@ApplicationContext context: Context, openHelper: SQLCipherOpenHelper) = EmojiSearchDatabase(context, openHelper)
 
+    @Provides
+    @Singleton
+    fun provideLinkPreviewCacheDatabase(@ApplicationContext context: Context, openHelper: SQLCipherOpenHelper) = LinkPreviewCacheDatabase(context, openHelper)
+
     @Provides
     @Singleton
     fun provideStorage(@ApplicationContext context: Context, openHelper: SQLCipherOpenHelper) = Storage(context,openHelper)
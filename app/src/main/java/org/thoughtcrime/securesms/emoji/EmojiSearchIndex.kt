@@ -0,0 +1,97 @@
+package org.thoughtcrime.securesms.emoji
+
+import java.util.Locale
+import kotlin.math.roundToInt
+
+/**
+ * An in-memory index of emoji search labels, so that searching by keyword doesn't scan every label.
+ *
+ * Labels are indexed by each of their substrings of up to [GRAM_LENGTH] characters. A query is answered
+ * from the shortest posting list among its own substrings of that length, checking each candidate label
+ * against the whole query.
+ *
+ * @param entries Pairs of a label and its emoji, in the order ties between equally ranked labels are broken.
+ */
+class EmojiSearchIndex(entries: List<Pair<String, String>>) {
+
+  companion object {
+    private const val GRAM_LENGTH = 3
+
+    private const val PREFIX_RANK_WEIGHT = 1.5f
+    private const val SUFFIX_RANK_WEIGHT = 1f
+
+    private fun normalize(text: String): String = text.lowercase(Locale.ROOT)
+  }
+
+  private val labels = Array(entries.size) { normalize(entries[it].first) }
+  private val emoji = Array(entries.size) { entries[it].second }
+  private val postings: Map<String, IntArray>
+
+  init {
+    val ids = HashMap<String, MutableList<Int>>()
+    labels.forEachIndexed { id, label ->
+      for (length in 1..GRAM_LENGTH) {
+        for (start in 0..label.length - length) {
+          val labelIds = ids.getOrPut(label.substring(start, start + length)) { mutableListOf() }
+          // a gram can appear more than once in a label, and labels are added in order of ID
+          if (labelIds.lastOrNull() != id) labelIds += id
+        }
+      }
+    }
+    postings = ids.mapValues { it.value.toIntArray() }
+  }
+
+  /**
+   * @return Up to [limit] emoji with a label containing [query], ordered by [similarityScore].
+   */
+  fun query(query: String, limit: Int): List<String> {
+    val term = normalize(query)
+    if (term.isEmpty() || limit <= 0) return emptyList()
+
+    val candidates = candidatesFor(term) ?: return emptyList()
+    val scores = LongArray(candidates.size)
+    var matches = 0
+    for (id in candidates) {
+      val start = labels[id].indexOf(term)
+      if (start < 0) continue
+      // the score and ID packed together so that sorting orders by score, then by ID
+      scores[matches++] = similarityScore(term, labels[id], start).toLong() shl 32 or id.toLong()
+    }
+    scores.sort(0, matches)
+
+    val results = LinkedHashSet<String>()
+    for (i in 0 until matches) {
+      results += emoji[scores[i].toInt()]
+      if (results.size == limit) break
+    }
+    return results.toList()
+  }
+
+  private fun candidatesFor(term: String): IntArray? {
+    if (term.length <= GRAM_LENGTH) return postings[term]
+    var shortest: IntArray? = null
+    for (start in 0..term.length - GRAM_LENGTH) {
+      val labelIds = postings[term.substring(start, start + GRAM_LENGTH)] ?: return null
+      if (shortest == null || labelIds.size < shortest.size) shortest = labelIds
+    }
+    return shortest
+  }
+
+  /**
+   * Ranks how "similar" a match is to the original search term.
+   * A lower score means more similar, with 0 being a perfect match.
+   *
+   * We determine similarity by how many letters appear before or after the `searchTerm` in the `match`.
+   * We give letters that come before the term a bigger weight than those that come after as a way to prefer matches that are prefixed by the `searchTerm`.
+   */
+  private fun similarityScore(searchTerm: String, match: String, startIndex: Int): Int {
+    if (searchTerm == match) {
+      return 0
+    }
+
+    val prefixCount = startIndex
+    val suffixCount = match.length - (startIndex + searchTerm.length)
+
+    return ((prefixCount * PREFIX_RANK_WEIGHT) + (suffixCount * SUFFIX_RANK_WEIGHT)).roundToInt()
+  }
+}
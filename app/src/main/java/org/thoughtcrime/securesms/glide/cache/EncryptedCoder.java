@@ -5,51 +5,62 @@ import androidx.annotation.NonNull;
 
 import org.session.libsession.utilities.Util;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
 import javax.crypto.Mac;
 import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
-class EncryptedCoder {
+public class EncryptedCoder {
 
   private static byte[] MAGIC_BYTES = {(byte)0x91, (byte)0x5e, (byte)0x6d, (byte)0xb4,
                                        (byte)0x09, (byte)0xa6, (byte)0x68, (byte)0xbe,
                                        (byte)0xe5, (byte)0xb1, (byte)0x1b, (byte)0xd7,
                                        (byte)0x29, (byte)0xe5, (byte)0x04, (byte)0xcc};
 
-  OutputStream createEncryptedOutputStream(@NonNull byte[] masterKey, @NonNull File file)
+  private static final int BUFFER_SIZE         = 32 * 1024;
+  private static final int MAX_POOLED_CONTEXTS = 8;
+
+  private static final ThreadLocal<Mac>     MACS            = new ThreadLocal<>();
+  private static final Queue<CipherContext> CIPHER_CONTEXTS = new ConcurrentLinkedQueue<>();
+  private static final AtomicInteger        POOLED_CONTEXTS = new AtomicInteger();
+
+  public OutputStream createEncryptedOutputStream(@NonNull byte[] masterKey, @NonNull File file)
       throws IOException
   {
     try {
       byte[] random = Util.getSecretBytes(32);
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
-
-      FileOutputStream fileOutputStream = new FileOutputStream(file);
-      byte[]           iv               = new byte[16];
-      byte[]           key              = mac.doFinal(random);
+      byte[] iv     = new byte[16];
+      byte[] key    = deriveKey(masterKey, random);
 
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      CipherContext context = obtainCipherContext();
+      context.cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
 
+      OutputStream fileOutputStream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
       fileOutputStream.write(MAGIC_BYTES);
       fileOutputStream.write(random);
 
-      CipherOutputStream outputStream = new CipherOutputStream(fileOutputStream, cipher);
+      EncryptingOutputStream outputStream = new EncryptingOutputStream(fileOutputStream, context);
       outputStream.write(MAGIC_BYTES);
 
       return outputStream;
@@ -58,33 +69,43 @@ class EncryptedCoder {
     }
   }
 
-  InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file) throws IOException {
+  public InputStream createEncryptedInputStream(@NonNull byte[] masterKey, @NonNull File file) throws IOException {
     try {
-      Mac    mac    = Mac.getInstance("HmacSHA256");
-      mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+      InputStream fileInputStream     = new BufferedInputStream(new FileInputStream(file), MAGIC_BYTES.length + 32);
+      byte[]      theirMagic          = new byte[MAGIC_BYTES.length];
+      byte[]      theirRandom         = new byte[32];
+      byte[]      theirEncryptedMagic = new byte[MAGIC_BYTES.length];
 
-      FileInputStream fileInputStream     = new FileInputStream(file);
-      byte[]          theirMagic          = new byte[MAGIC_BYTES.length];
-      byte[]          theirRandom         = new byte[32];
-      byte[]          theirEncryptedMagic = new byte[MAGIC_BYTES.length];
-
-      Util.readFully(fileInputStream, theirMagic);
-      Util.readFully(fileInputStream, theirRandom);
+      try {
+        Util.readFully(fileInputStream, theirMagic);
+        Util.readFully(fileInputStream, theirRandom);
+      } catch (IOException e) {
+        fileInputStream.close();
+        throw e;
+      }
 
       if (!MessageDigest.isEqual(theirMagic, MAGIC_BYTES)) {
+        fileInputStream.close();
         throw new IOException("Not an encrypted cache file!");
       }
 
       byte[] iv  = new byte[16];
-      byte[] key = mac.doFinal(theirRandom);
+      byte[] key = deriveKey(masterKey, theirRandom);
 
-      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
-      cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+      CipherContext context = obtainCipherContext();
+      context.cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
 
-      CipherInputStream inputStream = new CipherInputStream(fileInputStream, cipher);
-      Util.readFully(inputStream, theirEncryptedMagic);
+      DecryptingInputStream inputStream = new DecryptingInputStream(fileInputStream, context);
+
+      try {
+        Util.readFully(inputStream, theirEncryptedMagic);
+      } catch (IOException e) {
+        inputStream.close();
+        throw e;
+      }
 
       if (!MessageDigest.isEqual(theirEncryptedMagic, MAGIC_BYTES)) {
+        inputStream.close();
         throw new IOException("Key change on encrypted cache file!");
       }
 
@@ -94,5 +115,209 @@ class EncryptedCoder {
     }
   }
 
+  private static byte[] deriveKey(@NonNull byte[] masterKey, @NonNull byte[] random)
+      throws NoSuchAlgorithmException, InvalidKeyException
+  {
+    Mac mac = MACS.get();
+
+    if (mac == null) {
+      mac = Mac.getInstance("HmacSHA256");
+      MACS.set(mac);
+    }
+
+    mac.init(new SecretKeySpec(masterKey, "HmacSHA256"));
+    return mac.doFinal(random);
+  }
+
+  private static CipherContext obtainCipherContext() throws NoSuchAlgorithmException, NoSuchPaddingException {
+    CipherContext context = CIPHER_CONTEXTS.poll();
+
+    if (context != null) {
+      POOLED_CONTEXTS.decrementAndGet();
+      return context;
+    }
+
+    return new CipherContext(Cipher.getInstance("AES/CTR/NoPadding"));
+  }
+
+  private static void recycleCipherContext(@NonNull CipherContext context) {
+    if (POOLED_CONTEXTS.incrementAndGet() <= MAX_POOLED_CONTEXTS) {
+      CIPHER_CONTEXTS.offer(context);
+    } else {
+      POOLED_CONTEXTS.decrementAndGet();
+    }
+  }
+
+  /**
+   * A cipher together with the buffers used to stream data through it, pooled so that reading or
+   * writing a cache entry doesn't have to look up a new cipher or allocate new buffers.
+   */
+  private static class CipherContext {
+    private final Cipher cipher;
+    private final byte[] input  = new byte[BUFFER_SIZE];
+    private final byte[] output = new byte[BUFFER_SIZE + 16];
+
+    private CipherContext(@NonNull Cipher cipher) {
+      this.cipher = cipher;
+    }
+  }
+
+  private static class DecryptingInputStream extends FilterInputStream {
+
+    private final CipherContext context;
+
+    private int     position;
+    private int     limit;
+    private boolean finished;
+    private boolean closed;
+
+    private DecryptingInputStream(@NonNull InputStream inputStream, @NonNull CipherContext context) {
+      super(inputStream);
+      this.context = context;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (closed)      throw new IOException("Stream closed");
+      if (length == 0) return 0;
+
+      while (position == limit) {
+        if (finished || !fill()) return -1;
+      }
+
+      int count = Math.min(length, limit - position);
+      System.arraycopy(context.output, position, buffer, offset, count);
+      position += count;
+
+      return count;
+    }
+
+    @Override
+    public long skip(long count) throws IOException {
+      if (closed) throw new IOException("Stream closed");
+
+      long skipped = 0;
+
+      while (skipped < count) {
+        if (position == limit && (finished || !fill())) break;
 
+        int step = (int) Math.min(count - skipped, limit - position);
+        position += step;
+        skipped  += step;
+      }
+
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return limit - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {}
+
+    @Override
+    public synchronized void reset() throws IOException {
+      throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+
+      try {
+        super.close();
+      } finally {
+        recycleCipherContext(context);
+      }
+    }
+
+    private boolean fill() throws IOException {
+      int read = in.read(context.input, 0, context.input.length);
+
+      try {
+        position = 0;
+
+        if (read == -1) {
+          finished = true;
+          limit    = context.cipher.doFinal(context.output, 0);
+        } else {
+          limit = context.cipher.update(context.input, 0, read, context.output, 0);
+        }
+      } catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      }
+
+      return !finished || limit > 0;
+    }
+  }
+
+  private static class EncryptingOutputStream extends FilterOutputStream {
+
+    private final CipherContext context;
+
+    private boolean closed;
+
+    private EncryptingOutputStream(@NonNull OutputStream outputStream, @NonNull CipherContext context) {
+      super(outputStream);
+      this.context = context;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (closed) throw new IOException("Stream closed");
+
+      try {
+        while (length > 0) {
+          int count    = Math.min(length, context.input.length);
+          int produced = context.cipher.update(buffer, offset, count, context.output, 0);
+
+          out.write(context.output, 0, produced);
+
+          offset += count;
+          length -= count;
+        }
+      } catch (ShortBufferException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+
+      try {
+        int produced = context.cipher.doFinal(context.output, 0);
+        out.write(context.output, 0, produced);
+        out.flush();
+      } catch (GeneralSecurityException e) {
+        throw new IOException(e);
+      } finally {
+        try {
+          out.close();
+        } finally {
+          recycleCipherContext(context);
+        }
+      }
+    }
+  }
 }
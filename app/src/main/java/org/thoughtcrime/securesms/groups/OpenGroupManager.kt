@@ -8,13 +8,13 @@ import org.session.libsession.messaging.open_groups.GroupMemberRole
 import org.session.libsession.messaging.open_groups.OpenGroup
 import org.session.libsession.messaging.open_groups.OpenGroupApi
 import org.session.libsession.messaging.sending_receiving.pollers.OpenGroupPoller
+import org.session.libsession.messaging.sending_receiving.pollers.PollScheduler
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.ThreadUtils
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
-import java.util.concurrent.Executors
 
 object OpenGroupManager {
-    private val executorService = Executors.newScheduledThreadPool(4)
+    private val scheduler = PollScheduler.shared
     private var pollers = mutableMapOf<String, OpenGroupPoller>() // One for each server
     private var isPolling = false
     private val pollUpdaterLock = Any()
@@ -43,7 +43,7 @@ object OpenGroupManager {
         val servers = storage.getAllOpenGroups().values.map { it.server }.toSet()
         servers.forEach { server ->
             pollers[server]?.stop() // Shouldn't be necessary
-            val poller = OpenGroupPoller(server, executorService)
+            val poller = OpenGroupPoller(server, scheduler)
             poller.startIfNeeded()
             pollers[server] = poller
         }
@@ -91,7 +91,7 @@ object OpenGroupManager {
         synchronized(pollUpdaterLock) {
             pollers[server]?.stop()
             pollers[server]?.startIfNeeded() ?: run {
-                val poller = OpenGroupPoller(server, executorService)
+                val poller = OpenGroupPoller(server, scheduler)
                 Log.d("Loki", "Starting poller for open group: $server")
                 pollers[server] = poller
                 poller.startIfNeeded()
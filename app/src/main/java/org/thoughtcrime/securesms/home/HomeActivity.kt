@@ -173,6 +173,14 @@ class HomeActivity : PassphraseRequiredActionBarActivity(),
         homeAdapter.glide = glide
         binding.recyclerView.adapter = homeAdapter
         binding.globalSearchRecycler.adapter = globalSearchAdapter
+        binding.globalSearchRecycler.addOnScrollListener(object : RecyclerView.OnScrollListener() {
+            override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                val layoutManager = recyclerView.layoutManager as? LinearLayoutManager ?: return
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= globalSearchAdapter.itemCount - 5) {
+                    globalSearchViewModel.loadMoreMessages()
+                }
+            }
+        })
 
         // Set up empty state view
         binding.createNewPrivateChatButton.setOnClickListener { showNewConversation() }
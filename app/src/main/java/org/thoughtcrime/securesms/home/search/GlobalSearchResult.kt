@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.home.search
 import org.session.libsession.messaging.contacts.Contact
 import org.session.libsession.utilities.GroupRecord
 import org.thoughtcrime.securesms.database.model.ThreadRecord
+import org.thoughtcrime.securesms.search.SearchRepository
 import org.thoughtcrime.securesms.search.model.MessageResult
 import org.thoughtcrime.securesms.search.model.SearchResult
 
@@ -10,7 +11,8 @@ data class GlobalSearchResult(
         val query: String,
         val contacts: List<Contact>,
         val threads: List<GroupRecord>,
-        val messages: List<MessageResult>
+        val messages: List<MessageResult>,
+        val hasMoreMessages: Boolean = false
 ) {
 
     val isEmpty: Boolean
@@ -27,7 +29,7 @@ data class GlobalSearchResult(
             val threads = searchResult.conversations.toList()
             val messages = searchResult.messages.toList()
             searchResult.close()
-            return GlobalSearchResult(query, contactList, threads, messages)
+            return GlobalSearchResult(query, contactList, threads, messages, messages.size == SearchRepository.MESSAGE_PAGE_SIZE)
         }
 
     }
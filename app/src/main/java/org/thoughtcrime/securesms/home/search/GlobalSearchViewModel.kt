@@ -3,6 +3,7 @@ package org.thoughtcrime.securesms.home.search
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.viewModelScope
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.channels.BufferOverflow
 import kotlinx.coroutines.delay
@@ -12,11 +13,14 @@ import kotlinx.coroutines.flow.buffer
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.mapLatest
 import kotlinx.coroutines.flow.onEach
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
-import org.session.libsignal.utilities.SettableFuture
+import kotlinx.coroutines.suspendCancellableCoroutine
+import org.thoughtcrime.securesms.database.CursorList
 import org.thoughtcrime.securesms.search.SearchRepository
+import org.thoughtcrime.securesms.search.model.MessageResult
 import org.thoughtcrime.securesms.search.model.SearchResult
-import java.util.concurrent.TimeUnit
+import java.io.Closeable
 import javax.inject.Inject
 
 @HiltViewModel
@@ -36,11 +40,16 @@ class GlobalSearchViewModel @Inject constructor(private val searchRepository: Se
         _queryText.value = charSequence
     }
 
+    private var isSearching = false
+    private var loadMoreJob: Job? = null
+
     init {
         //
         _queryText
                 .buffer(onBufferOverflow = BufferOverflow.DROP_OLDEST)
                 .mapLatest { query ->
+                    isSearching = true
+                    loadMoreJob?.cancel()
                     if (query.trim().length < 2) {
                         SearchResult.EMPTY
                     } else {
@@ -48,22 +57,41 @@ class GlobalSearchViewModel @Inject constructor(private val searchRepository: Se
                         // this coroutine will be cancelled and expensive query will not be run if typing quickly
                         // first query of 2 characters will be instant however
                         delay(300)
-                        val settableFuture = SettableFuture<SearchResult>()
-                        searchRepository.query(query.toString(), settableFuture::set)
-                        try {
-                            // search repository doesn't play nicely with suspend functions (yet)
-                            settableFuture.get(10_000, TimeUnit.MILLISECONDS)
-                        } catch (e: Exception) {
-                            SearchResult.EMPTY
-                        }
+                        // a query still running when the next one starts is cancelled by the repository
+                        awaitResult<SearchResult> { callback -> searchRepository.query(query.toString(), callback) }
                     }
                 }
                 .onEach { result ->
                     // update the latest _result value
                     _result.value = GlobalSearchResult.from(result)
+                    isSearching = false
                 }
                 .launchIn(executor)
     }
 
+    /**
+     * Appends the next page of messages to the result, unless there aren't any more or the query is changing.
+     */
+    fun loadMoreMessages() {
+        val current = _result.value
+        if (isSearching || !current.hasMoreMessages || loadMoreJob?.isActive == true) return
+        loadMoreJob = executor.launch {
+            val page = awaitResult<CursorList<MessageResult>> { callback ->
+                searchRepository.queryMessages(current.query, current.messages.last(), callback)
+            }
+            val messages = page.toList()
+            page.close()
+            if (_result.value === current) {
+                _result.value = current.copy(messages = current.messages + messages,
+                                             hasMoreMessages = messages.size == SearchRepository.MESSAGE_PAGE_SIZE)
+            }
+        }
+    }
+
+    private suspend fun <T : Closeable> awaitResult(query: (SearchRepository.Callback<T>) -> Unit): T =
+        suspendCancellableCoroutine { continuation ->
+            continuation.invokeOnCancellation { searchRepository.cancelQuery() }
+            query { result -> continuation.resume(result) { result.close() } }
+        }
 
 }
\ No newline at end of file
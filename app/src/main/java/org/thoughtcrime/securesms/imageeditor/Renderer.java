@@ -23,4 +23,13 @@ public interface Renderer extends Parcelable {
    * @return true iff hit.
    */
   boolean hitTest(float x, float y);
+
+  /**
+   * @return A value that changes whenever the state this writes to a parcel changes, so that the
+   * undo history only writes an unchanged renderer once. Renderers whose state is fixed once created
+   * can keep the default.
+   */
+  default int getStateVersion() {
+    return 0;
+  }
 }
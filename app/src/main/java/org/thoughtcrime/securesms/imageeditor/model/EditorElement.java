@@ -9,6 +9,8 @@ import androidx.annotation.Nullable;
 import org.thoughtcrime.securesms.imageeditor.Renderer;
 import org.thoughtcrime.securesms.imageeditor.RendererContext;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -53,6 +55,17 @@ public final class EditorElement implements Parcelable {
   @NonNull
   private AlphaAnimation alphaAnimation = AlphaAnimation.NULL_1;
 
+  // The persisted state as last serialized for the undo history, along with what it was serialized
+  // from. The local matrix is mutated in place by its callers, so it is compared by value.
+  @Nullable
+  private byte[] state;
+
+  private final float[] stateMatrix   = new float[9];
+  private final float[] currentMatrix = new float[9];
+
+  private int stateFlags;
+  private int stateRendererVersion;
+
   public EditorElement(@Nullable Renderer renderer) {
     this.id       = UUID.randomUUID();
     this.flags    = new EditorFlags();
@@ -67,6 +80,26 @@ public final class EditorElement implements Parcelable {
     in.readTypedList(children, EditorElement.CREATOR);
   }
 
+  /**
+   * Restores an element from its id, the state returned by {@link #getState} and its already
+   * restored children.
+   */
+  EditorElement(@NonNull UUID id, @NonNull byte[] state, @NonNull List<EditorElement> children) {
+    Parcel parcel = Parcel.obtain();
+    parcel.unmarshall(state, 0, state.length);
+    parcel.setDataPosition(0);
+
+    this.id       = id;
+    this.flags    = new EditorFlags(parcel.readInt());
+    ParcelUtils.readMatrix(localMatrix, parcel);
+    this.renderer = parcel.readParcelable(Renderer.class.getClassLoader());
+    this.children.addAll(children);
+
+    parcel.recycle();
+
+    rememberState(state);
+  }
+
   UUID getId() {
     return id;
   }
@@ -189,6 +222,10 @@ public final class EditorElement implements Parcelable {
     return children.get(i);
   }
 
+  @NonNull List<EditorElement> getChildren() {
+    return Collections.unmodifiableList(children);
+  }
+
   void forAllInTree(@NonNull PerElementFunction function) {
     function.apply(this);
     for (EditorElement child : children) {
@@ -330,4 +367,44 @@ public final class EditorElement implements Parcelable {
     dest.writeParcelable(renderer, flags);
     dest.writeTypedList(children);
   }
+
+  /**
+   * @return The persisted state of this element alone, without its id or children. The same array
+   * is returned for as long as the flags, local matrix and renderer are unchanged, so only changed
+   * elements are serialized again.
+   */
+  @NonNull byte[] getState() {
+    localMatrix.getValues(currentMatrix);
+
+    if (state != null                                     &&
+        stateFlags           == flags.asInt()             &&
+        stateRendererVersion == getRendererStateVersion() &&
+        Arrays.equals(stateMatrix, currentMatrix))
+    {
+      return state;
+    }
+
+    Parcel parcel = Parcel.obtain();
+    try {
+      parcel.writeInt(flags.asInt());
+      ParcelUtils.writeMatrix(parcel, localMatrix);
+      parcel.writeParcelable(renderer, 0);
+      rememberState(parcel.marshall());
+    } finally {
+      parcel.recycle();
+    }
+
+    return state;
+  }
+
+  private void rememberState(@NonNull byte[] state) {
+    this.state                = state;
+    this.stateFlags           = flags.asInt();
+    this.stateRendererVersion = getRendererStateVersion();
+    localMatrix.getValues(stateMatrix);
+  }
+
+  private int getRendererStateVersion() {
+    return renderer != null ? renderer.getStateVersion() : 0;
+  }
 }
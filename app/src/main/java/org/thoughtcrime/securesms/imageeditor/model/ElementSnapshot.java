@@ -0,0 +1,195 @@
+package org.thoughtcrime.securesms.imageeditor.model;
+
+import android.os.Parcel;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * An immutable snapshot of an {@link EditorElement} tree, as kept on the undo and redo stacks.
+ * <p>
+ * Each element is serialized on its own and refers to the snapshots of its children. Elements keep
+ * their serialized state until their flags, matrix or renderer change, so taking a snapshot only
+ * serializes the elements that changed. The elements whose state did not change reuse the previous
+ * snapshot's state, found by position in the previous tree, and unchanged subtrees are shared
+ * outright, so that a history of edits only holds what changed between them and states can be
+ * compared by reference for the parts they share.
+ */
+final class ElementSnapshot {
+
+  private final UUID              id;
+  private final byte[]            state;
+  private final int               stateHash;
+  private final ElementSnapshot[] children;
+  private final int               hashCode;
+
+  private ElementSnapshot(@NonNull UUID id, @NonNull byte[] state, int stateHash, @NonNull ElementSnapshot[] children) {
+    this.id        = id;
+    this.state     = state;
+    this.stateHash = stateHash;
+    this.children  = children;
+    this.hashCode  = 31 * (31 * id.hashCode() + stateHash) + Arrays.hashCode(children);
+  }
+
+  /**
+   * Takes a snapshot of the element tree, sharing whatever is unchanged with the previous snapshot.
+   */
+  static @NonNull ElementSnapshot of(@NonNull EditorElement element, @Nullable ElementSnapshot previous) {
+    PreviousSnapshots previousSnapshots = new PreviousSnapshots(previous);
+    ElementSnapshot   previousRoot      = previous != null && previous.id.equals(element.getId()) ? previous : previousSnapshots.find(element.getId(), null, 0);
+
+    return of(element, previousRoot, previousSnapshots);
+  }
+
+  private static @NonNull ElementSnapshot of(@NonNull EditorElement element, @Nullable ElementSnapshot previous, @NonNull PreviousSnapshots previousSnapshots) {
+    List<EditorElement> elementChildren = element.getChildren();
+    ElementSnapshot[]   children        = new ElementSnapshot[elementChildren.size()];
+
+    int i = 0;
+    for (EditorElement child : elementChildren) {
+      children[i] = of(child, previousSnapshots.find(child.getId(), previous, i), previousSnapshots);
+      i++;
+    }
+
+    return intern(element.getId(), element.getState(), children, previous);
+  }
+
+  /**
+   * @return The previous snapshot if it has the same state and children, otherwise a new snapshot
+   * that shares its state bytes with the previous one where those are unchanged.
+   */
+  private static @NonNull ElementSnapshot intern(@NonNull UUID id, @NonNull byte[] state, @NonNull ElementSnapshot[] children, @Nullable ElementSnapshot previous) {
+    // an element that wasn't serialized again hands back the very array the previous snapshot holds
+    if (previous == null || (state != previous.state && !Arrays.equals(state, previous.state))) {
+      return new ElementSnapshot(id, state, Arrays.hashCode(state), children);
+    }
+
+    if (previous.children.length == children.length) {
+      boolean sameChildren = true;
+      for (int i = 0; i < children.length && sameChildren; i++) {
+        sameChildren = children[i] == previous.children[i];
+      }
+      if (sameChildren) return previous;
+    }
+
+    return new ElementSnapshot(id, previous.state, previous.stateHash, children);
+  }
+
+  @VisibleForTesting
+  @NonNull byte[] getState() {
+    return state;
+  }
+
+  @VisibleForTesting
+  @NonNull ElementSnapshot getChild(int index) {
+    return children[index];
+  }
+
+  private static @NonNull Map<UUID, ElementSnapshot> buildMap(@Nullable ElementSnapshot snapshot) {
+    Map<UUID, ElementSnapshot> map = new HashMap<>();
+    if (snapshot != null) {
+      snapshot.buildMap(map);
+    }
+    return map;
+  }
+
+  private void buildMap(@NonNull Map<UUID, ElementSnapshot> map) {
+    map.put(id, this);
+    for (ElementSnapshot child : children) {
+      child.buildMap(map);
+    }
+  }
+
+  /**
+   * Recreates the element tree this is a snapshot of.
+   */
+  @NonNull EditorElement toElement() {
+    List<EditorElement> elementChildren = new ArrayList<>(children.length);
+    for (ElementSnapshot child : children) {
+      elementChildren.add(child.toElement());
+    }
+
+    return new EditorElement(id, state, elementChildren);
+  }
+
+  void writeToParcel(@NonNull Parcel dest) {
+    ParcelUtils.writeUUID(dest, id);
+    dest.writeByteArray(state);
+    dest.writeInt(children.length);
+    for (ElementSnapshot child : children) {
+      child.writeToParcel(dest);
+    }
+  }
+
+  /**
+   * Reads a snapshot written by {@link #writeToParcel}, sharing whatever is unchanged with the
+   * previous snapshot read.
+   */
+  static @NonNull ElementSnapshot readFromParcel(@NonNull Parcel in, @Nullable ElementSnapshot previous) {
+    return readFromParcel(in, buildMap(previous));
+  }
+
+  private static @NonNull ElementSnapshot readFromParcel(@NonNull Parcel in, @NonNull Map<UUID, ElementSnapshot> previousSnapshots) {
+    UUID              id       = ParcelUtils.readUUID(in);
+    byte[]            state    = in.createByteArray();
+    ElementSnapshot[] children = new ElementSnapshot[in.readInt()];
+
+    for (int i = 0; i < children.length; i++) {
+      children[i] = readFromParcel(in, previousSnapshots);
+    }
+
+    return intern(id, state, children, previousSnapshots.get(id));
+  }
+
+  /**
+   * Finds the snapshot an element had in the previous tree. Elements are usually where they were
+   * under their parent, so the previous tree is only indexed by id once one is found to have moved.
+   */
+  private static final class PreviousSnapshots {
+    private final ElementSnapshot root;
+
+    private Map<UUID, ElementSnapshot> byId;
+
+    private PreviousSnapshots(@Nullable ElementSnapshot root) {
+      this.root = root;
+    }
+
+    private @Nullable ElementSnapshot find(@NonNull UUID id, @Nullable ElementSnapshot previousParent, int index) {
+      if (root == null) return null;
+
+      if (previousParent != null && index < previousParent.children.length && previousParent.children[index].id.equals(id)) {
+        return previousParent.children[index];
+      }
+
+      if (byId == null) {
+        byId = buildMap(root);
+      }
+      return byId.get(id);
+    }
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    if (this == o) return true;
+    if (!(o instanceof ElementSnapshot)) return false;
+
+    ElementSnapshot other = (ElementSnapshot) o;
+
+    return hashCode == other.hashCode          &&
+           id.equals(other.id)                 &&
+           Arrays.equals(state, other.state)   &&
+           Arrays.equals(children, other.children);
+  }
+
+  @Override
+  public int hashCode() {
+    return hashCode;
+  }
+}
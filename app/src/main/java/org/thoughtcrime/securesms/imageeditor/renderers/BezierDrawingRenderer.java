@@ -50,6 +50,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
   public void setColor(int color) {
     if (this.color != color) {
       this.color = color;
+      onStateChanged();
       updatePaint();
       invalidate();
     }
@@ -58,6 +59,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
   public void setThickness(float thickness) {
     if (this.thickness != thickness) {
       this.thickness = thickness;
+      onStateChanged();
       updatePaint();
       invalidate();
     }
@@ -74,6 +76,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
   public void setFirstPoint(PointF point) {
     bezierLine.reset();
     bezierLine.addPoint(point.x, point.y);
+    onStateChanged();
     invalidate();
   }
 
@@ -83,6 +86,7 @@ public final class BezierDrawingRenderer extends InvalidateableRenderer implemen
     } else {
       bezierLine.addPoint(point.x, point.y);
     }
+    onStateChanged();
     invalidate();
   }
 
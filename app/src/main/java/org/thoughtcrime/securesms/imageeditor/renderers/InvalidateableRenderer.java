@@ -14,6 +14,8 @@ abstract class InvalidateableRenderer implements Renderer {
 
   private WeakReference<RendererContext.Invalidate> invalidate = new WeakReference<>(null);
 
+  private int stateVersion;
+
   @Override
   public void render(@NonNull RendererContext rendererContext) {
     setInvalidate(rendererContext.invalidate);
@@ -25,6 +27,18 @@ abstract class InvalidateableRenderer implements Renderer {
     }
   }
 
+  @Override
+  public int getStateVersion() {
+    return stateVersion;
+  }
+
+  /**
+   * Must be called whenever the state written to a parcel changes.
+   */
+  protected void onStateChanged() {
+    stateVersion++;
+  }
+
   protected void invalidate() {
     RendererContext.Invalidate invalidate = this.invalidate.get();
     if (invalidate != null) {
@@ -110,6 +110,7 @@ public final class TextRenderer extends InvalidateableRenderer implements Colora
   public void setText(@NonNull String text) {
     if (!this.text.equals(text)) {
       this.text = text;
+      onStateChanged();
       recalculate();
     }
   }
@@ -173,6 +174,7 @@ public final class TextRenderer extends InvalidateableRenderer implements Colora
   public void setColor(@ColorInt int color) {
     if (this.color != color) {
       this.color = color;
+      onStateChanged();
       paint.setColor(color);
       selectionPaint.setColor(color);
       invalidate();
@@ -12,7 +12,6 @@ import org.thoughtcrime.securesms.service.GenericForegroundService;
 import org.thoughtcrime.securesms.util.BackupUtil;
 
 import java.io.IOException;
-import java.util.Collections;
 
 import network.loki.messenger.R;
 
@@ -58,7 +57,7 @@ public class LocalBackupJob extends BaseJob {
 
     try {
       BackupFileRecord record = BackupUtil.createBackupFile(context);
-      BackupUtil.deleteAllBackupFiles(context, Collections.singletonList(record));
+      BackupUtil.deleteAllBackupFiles(context, BackupUtil.getBackupChain(context, record));
 
     } finally {
       GenericForegroundService.stopForegroundTask(context);
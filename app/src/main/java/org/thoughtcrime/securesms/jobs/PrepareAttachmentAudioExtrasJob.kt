@@ -37,7 +37,7 @@ class PrepareAttachmentAudioExtrasJob : BaseJob {
         const val KEY = "PrepareAttachmentAudioExtrasJob"
         const val DATA_ATTACH_ID = "attachment_id"
 
-        const val VISUAL_RMS_FRAMES = 32 // The amount of values to be computed for the visualization.
+        const val VISUAL_RMS_FRAMES = DatabaseAttachmentAudioExtras.VISUAL_RMS_FRAMES
     }
 
     private val attachmentId: AttachmentId
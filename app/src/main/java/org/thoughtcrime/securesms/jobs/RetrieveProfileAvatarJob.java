@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.jobs;
 
 import android.app.Application;
+import android.content.Context;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
@@ -15,17 +16,20 @@ import org.session.libsession.utilities.recipients.Recipient;
 import org.session.libsignal.exceptions.PushNetworkException;
 import org.session.libsignal.streams.ProfileCipherInputStream;
 import org.session.libsignal.utilities.Log;
+import org.thoughtcrime.securesms.ApplicationContext;
 import org.thoughtcrime.securesms.database.RecipientDatabase;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.jobmanager.Job;
 import org.thoughtcrime.securesms.jobmanager.impl.NetworkConstraint;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class RetrieveProfileAvatarJob extends BaseJob {
@@ -39,17 +43,25 @@ public class RetrieveProfileAvatarJob extends BaseJob {
   private static final String KEY_PROFILE_AVATAR = "profile_avatar";
   private static final String KEY_ADDRESS        = "address";
 
+  /**
+   * The number of queues avatar retrievals are spread over, and so the most that run at once.
+   */
+  private static final int MAX_CONCURRENT_RETRIEVALS = 2;
+
+  /**
+   * The avatar last enqueued for each recipient whose job hasn't finished yet, by address.
+   */
+  private static final Map<String, String> PENDING_AVATARS = new ConcurrentHashMap<>();
 
   private String    profileAvatar;
   private Recipient recipient;
 
-  public RetrieveProfileAvatarJob(Recipient recipient, String profileAvatar) {
+  private RetrieveProfileAvatarJob(Recipient recipient, String profileAvatar) {
     this(new Job.Parameters.Builder()
-            .setQueue("RetrieveProfileAvatarJob" + recipient.getAddress().serialize())
+            .setQueue("RetrieveProfileAvatarJob" + Math.abs(recipient.getAddress().serialize().hashCode() % MAX_CONCURRENT_RETRIEVALS))
             .addConstraint(NetworkConstraint.KEY)
             .setLifespan(TimeUnit.HOURS.toMillis(1))
             .setMaxAttempts(2)
-            .setMaxInstances(1)
             .build(),
         recipient,
         profileAvatar);
@@ -61,6 +73,28 @@ public class RetrieveProfileAvatarJob extends BaseJob {
     this.profileAvatar = profileAvatar;
   }
 
+  /**
+   * Enqueues a job to retrieve the avatar of a recipient, unless it has already been retrieved or
+   * a job for it is already pending. A recipient always uses the same queue, so their jobs run in
+   * order, and a job whose avatar was replaced by a later one while it waited is skipped.
+   */
+  public static void enqueue(@NonNull Context context, @NonNull Recipient recipient, @NonNull String profileAvatar) {
+    Address address = recipient.getAddress();
+
+    if (!TextUtils.isEmpty(profileAvatar)                                &&
+        Util.equals(profileAvatar, recipient.resolve().getProfileAvatar()) &&
+        AvatarHelper.avatarFileExists(context, address))
+    {
+      return;
+    }
+
+    if (profileAvatar.equals(PENDING_AVATARS.put(address.serialize(), profileAvatar))) {
+      return;
+    }
+
+    ApplicationContext.getInstance(context).getJobManager().add(new RetrieveProfileAvatarJob(recipient, profileAvatar));
+  }
+
   @Override
   public @NonNull
   Data serialize() {
@@ -77,6 +111,18 @@ public class RetrieveProfileAvatarJob extends BaseJob {
 
   @Override
   public void onRun() throws IOException {
+    String pendingAvatar = PENDING_AVATARS.get(recipient.getAddress().serialize());
+
+    if (pendingAvatar != null && !pendingAvatar.equals(profileAvatar)) {
+      Log.i(TAG, "Skipping profile avatar that has since been replaced.");
+      return;
+    }
+
+    retrieveAvatar();
+    PENDING_AVATARS.remove(recipient.getAddress().serialize(), profileAvatar);
+  }
+
+  private void retrieveAvatar() throws IOException {
     RecipientDatabase database   = DatabaseComponent.get(context).recipientDatabase();
     byte[]            profileKey = recipient.resolve().getProfileKey();
 
@@ -97,17 +143,17 @@ public class RetrieveProfileAvatarJob extends BaseJob {
       return;
     }
 
-    File downloadDestination = File.createTempFile("avatar", ".jpg", context.getCacheDir());
+    byte[] encryptedAvatar    = DownloadUtilities.downloadBytes(profileAvatar);
+    File   avatarFile         = AvatarHelper.getAvatarFile(context, recipient.getAddress());
+    File   decryptDestination = File.createTempFile("avatar", ".jpg", context.getCacheDir());
 
     try {
-      DownloadUtilities.downloadFile(downloadDestination, profileAvatar);
-      InputStream avatarStream       = new ProfileCipherInputStream(new FileInputStream(downloadDestination), profileKey);
-      File        decryptDestination = File.createTempFile("avatar", ".jpg", context.getCacheDir());
+      InputStream avatarStream = new ProfileCipherInputStream(new ByteArrayInputStream(encryptedAvatar), profileKey);
 
       Util.copy(avatarStream, new FileOutputStream(decryptDestination));
-      decryptDestination.renameTo(AvatarHelper.getAvatarFile(context, recipient.getAddress()));
+      decryptDestination.renameTo(avatarFile);
     } finally {
-      if (downloadDestination != null) downloadDestination.delete();
+      decryptDestination.delete();
     }
 
     if (recipient.isLocalNumber()) {
@@ -124,6 +170,7 @@ public class RetrieveProfileAvatarJob extends BaseJob {
 
   @Override
   public void onCanceled() {
+    PENDING_AVATARS.remove(recipient.getAddress().serialize(), profileAvatar);
   }
 
   public static final class Factory implements Job.Factory<RetrieveProfileAvatarJob> {
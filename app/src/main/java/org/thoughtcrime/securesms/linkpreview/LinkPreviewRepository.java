@@ -18,6 +18,8 @@ import org.session.libsession.utilities.MediaTypes;
 import org.session.libsession.utilities.concurrent.SignalExecutors;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
+import org.thoughtcrime.securesms.database.LinkPreviewCacheDatabase;
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.linkpreview.LinkPreviewUtil.OpenGraph;
 import org.thoughtcrime.securesms.net.CallRequestController;
 import org.thoughtcrime.securesms.net.CompositeRequestController;
@@ -28,18 +30,24 @@ import org.thoughtcrime.securesms.providers.BlobProvider;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
 import okhttp3.CacheControl;
 import okhttp3.Call;
+import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 public class LinkPreviewRepository {
 
   private static final String TAG = LinkPreviewRepository.class.getSimpleName();
 
-  private static final CacheControl NO_CACHE = new CacheControl.Builder().noCache().build();
+  private static final CacheControl NO_CACHE  = new CacheControl.Builder().noCache().build();
+  private static final long         CACHE_TTL = TimeUnit.DAYS.toMillis(1);
+  private static final Charset      UTF_8     = Charset.forName("UTF-8");
 
   private final OkHttpClient client;
 
@@ -59,24 +67,68 @@ public class LinkPreviewRepository {
       return compositeController;
     }
 
+    LinkPreviewCacheDatabase cache    = DatabaseComponent.get(context).linkPreviewCacheDatabase();
+    String                   cacheKey = LinkPreviewUtil.normalizeUrl(url);
+
+    SignalExecutors.BOUNDED.execute(() -> {
+      LinkPreviewCacheDatabase.Entry cached = cache.get(cacheKey, CACHE_TTL);
+
+      if (compositeController.isCanceled()) {
+        return;
+      }
+
+      if (cached != null) {
+        Optional<Attachment> thumbnail = cached.getThumbnail() != null ? bytesToAttachment(cached.getThumbnail(), cached.getThumbnailWidth(), cached.getThumbnailHeight())
+                                                                       : Optional.absent();
+        callback.onComplete(Optional.of(new LinkPreview(url, Optional.fromNullable(cached.getTitle()).or(""), thumbnail)));
+        return;
+      }
+
+      fetchLinkPreview(context, url, compositeController, (preview, thumbnail) -> {
+        if (preview.isPresent()) {
+          cache.put(new LinkPreviewCacheDatabase.Entry(cacheKey,
+                                                       preview.get().getTitle(),
+                                                       thumbnail.isPresent() ? thumbnail.get().imageUrl : null,
+                                                       thumbnail.isPresent() ? thumbnail.get().data : null,
+                                                       thumbnail.isPresent() ? thumbnail.get().width : 0,
+                                                       thumbnail.isPresent() ? thumbnail.get().height : 0,
+                                                       System.currentTimeMillis()));
+        }
+
+        callback.onComplete(preview);
+      });
+    });
+
+    return compositeController;
+  }
+
+  private void fetchLinkPreview(@NonNull Context context,
+                                @NonNull String url,
+                                @NonNull CompositeRequestController compositeController,
+                                @NonNull FetchCallback callback)
+  {
     RequestController metadataController;
 
     metadataController = fetchMetadata(url, metadata -> {
       if (metadata.isEmpty()) {
-        callback.onComplete(Optional.absent());
+        callback.onComplete(Optional.absent(), Optional.absent());
         return;
       }
 
       if (!metadata.getImageUrl().isPresent()) {
-        callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().get(), Optional.absent())));
+        callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().get(), Optional.absent())), Optional.absent());
         return;
       }
 
-      RequestController imageController = fetchThumbnail(context, metadata.getImageUrl().get(), attachment -> {
+      String            imageUrl        = metadata.getImageUrl().get();
+      RequestController imageController = fetchThumbnail(context, imageUrl, thumbnail -> {
+        Optional<Attachment> attachment = thumbnail.isPresent() ? bytesToAttachment(thumbnail.get().data, thumbnail.get().width, thumbnail.get().height)
+                                                                : Optional.absent();
+
         if (!metadata.getTitle().isPresent() && !attachment.isPresent()) {
-          callback.onComplete(Optional.absent());
+          callback.onComplete(Optional.absent(), Optional.absent());
         } else {
-          callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().or(""), attachment)));
+          callback.onComplete(Optional.of(new LinkPreview(url, metadata.getTitle().or(""), attachment)), thumbnail);
         }
       });
 
@@ -84,7 +136,6 @@ public class LinkPreviewRepository {
     });
 
     compositeController.addController(metadataController);
-    return compositeController;
   }
 
   private @NonNull RequestController fetchMetadata(@NonNull String url, Callback<Metadata> callback) {
@@ -110,8 +161,17 @@ public class LinkPreviewRepository {
           return;
         }
 
-        String            body     = response.body().string();
-        OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(body);
+        ResponseBody     body        = response.body();
+        MediaType        contentType = body.contentType();
+        String           head;
+
+        try (InputStream bodyStream = body.byteStream()) {
+          head = LinkPreviewUtil.readHtmlHead(bodyStream, contentType != null ? contentType.charset(UTF_8) : UTF_8);
+        } finally {
+          response.close();
+        }
+
+        OpenGraph        openGraph   = LinkPreviewUtil.parseOpenGraphFields(head);
         Optional<String> title       = openGraph.getTitle();
         Optional<String> imageUrl    = openGraph.getImageUrl();
 
@@ -132,7 +192,7 @@ public class LinkPreviewRepository {
     return new CallRequestController(call);
   }
 
-  private @NonNull RequestController fetchThumbnail(@NonNull Context context, @NonNull String imageUrl, @NonNull Callback<Optional<Attachment>> callback) {
+  private @NonNull RequestController fetchThumbnail(@NonNull Context context, @NonNull String imageUrl, @NonNull Callback<Optional<Thumbnail>> callback) {
     Call                  call       = client.newCall(new Request.Builder().url(imageUrl).build());
     CallRequestController controller = new CallRequestController(call);
 
@@ -148,9 +208,9 @@ public class LinkPreviewRepository {
         InputStream bodyStream = response.body().byteStream();
         controller.setStream(bodyStream);
 
-        byte[]               data      = IOUtils.readInputStreamFully(bodyStream);
-        Bitmap               bitmap    = BitmapFactory.decodeByteArray(data, 0, data.length);
-        Optional<Attachment> thumbnail = bitmapToAttachment(bitmap, Bitmap.CompressFormat.JPEG, MediaTypes.IMAGE_JPEG);
+        byte[]              data      = IOUtils.readInputStreamFully(bodyStream);
+        Bitmap              bitmap    = BitmapFactory.decodeByteArray(data, 0, data.length);
+        Optional<Thumbnail> thumbnail = compressThumbnail(imageUrl, bitmap);
 
         if (bitmap != null) bitmap.recycle();
 
@@ -165,36 +225,48 @@ public class LinkPreviewRepository {
     return controller;
   }
 
-  private static Optional<Attachment> bitmapToAttachment(@Nullable Bitmap bitmap,
-                                                         @NonNull Bitmap.CompressFormat format,
-                                                         @NonNull String contentType)
-  {
+  private static Optional<Thumbnail> compressThumbnail(@NonNull String imageUrl, @Nullable Bitmap bitmap) {
     if (bitmap == null) {
       return Optional.absent();
     }
 
     ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
-    bitmap.compress(format, 80, baos);
+    bitmap.compress(Bitmap.CompressFormat.JPEG, 80, baos);
 
-    byte[] bytes = baos.toByteArray();
-    Uri    uri   = BlobProvider.getInstance().forData(bytes).createForSingleSessionInMemory();
+    return Optional.of(new Thumbnail(imageUrl, baos.toByteArray(), bitmap.getWidth(), bitmap.getHeight()));
+  }
+
+  private static Optional<Attachment> bytesToAttachment(@NonNull byte[] bytes, int width, int height) {
+    Uri uri = BlobProvider.getInstance().forData(bytes).createForSingleSessionInMemory();
 
     return Optional.of(new UriAttachment(uri,
            uri,
-           contentType,
+           MediaTypes.IMAGE_JPEG,
            AttachmentTransferProgress.TRANSFER_PROGRESS_STARTED,
            bytes.length,
-           bitmap.getWidth(),
-           bitmap.getHeight(),
+           width,
+           height,
            null,
            null,
            false,
            false,
            null));
-
   }
 
+  private static class Thumbnail {
+    private final String imageUrl;
+    private final byte[] data;
+    private final int    width;
+    private final int    height;
+
+    Thumbnail(@NonNull String imageUrl, @NonNull byte[] data, int width, int height) {
+      this.imageUrl = imageUrl;
+      this.data     = data;
+      this.width    = width;
+      this.height   = height;
+    }
+  }
 
   private static class Metadata {
     private final Optional<String> title;
@@ -225,4 +297,8 @@ public class LinkPreviewRepository {
   interface Callback<T> {
     void onComplete(@NonNull T result);
   }
+
+  private interface FetchCallback {
+    void onComplete(@NonNull Optional<LinkPreview> preview, @NonNull Optional<Thumbnail> thumbnail);
+  }
 }
@@ -17,9 +17,14 @@ import org.session.libsignal.utilities.guava.Optional;
 
 import org.session.libsession.utilities.Util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -31,12 +36,14 @@ public final class LinkPreviewUtil {
   private static final Pattern DOMAIN_PATTERN             = Pattern.compile("^(https?://)?([^/]+).*$", Pattern.CASE_INSENSITIVE);
   private static final Pattern ALL_ASCII_PATTERN          = Pattern.compile("^[\\x00-\\x7F]*$", Pattern.CASE_INSENSITIVE);
   private static final Pattern ALL_NON_ASCII_PATTERN      = Pattern.compile("^[^\\x00-\\x7F]*$", Pattern.CASE_INSENSITIVE);
-  private static final Pattern OPEN_GRAPH_TAG_PATTERN     = Pattern.compile("<\\s*meta[^>]*property\\s*=\\s*\"\\s*og:([^\"]+)\"[^>]*/?\\s*>", Pattern.CASE_INSENSITIVE);
-  private static final Pattern ARTICLE_TAG_PATTERN        = Pattern.compile("<\\s*meta[^>]*property\\s*=\\s*\"\\s*article:([^\"]+)\"[^>]*/?\\s*>", Pattern.CASE_INSENSITIVE);
-  private static final Pattern OPEN_GRAPH_CONTENT_PATTERN = Pattern.compile("content\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
-  private static final Pattern TITLE_PATTERN              = Pattern.compile("<\\s*title[^>]*>(.*)<\\s*/title[^>]*>", Pattern.CASE_INSENSITIVE);
-  private static final Pattern FAVICON_PATTERN            = Pattern.compile("<\\s*link[^>]*rel\\s*=\\s*\".*icon.*\"[^>]*>", Pattern.CASE_INSENSITIVE);
-  private static final Pattern FAVICON_HREF_PATTERN       = Pattern.compile("href\\s*=\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+  private static final Pattern HEAD_TAG_PATTERN           = Pattern.compile("<\\s*(meta|title|link)\\b([^>]*)>", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ATTRIBUTE_PATTERN          = Pattern.compile("([\\w:-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+  private static final Pattern TITLE_END_PATTERN          = Pattern.compile("<\\s*/title[^>]*>", Pattern.CASE_INSENSITIVE);
+  private static final Pattern WHITESPACE_PATTERN         = Pattern.compile("\\s+");
+
+  private static final int    MAX_HEAD_BYTES  = 256 * 1024;
+  private static final byte[] HEAD_END_MARKER = "</head".getBytes();
+  private static final byte[] BODY_MARKER     = "<body".getBytes();
 
   /**
    * @return All whitelisted URLs in the source text.
@@ -117,54 +124,127 @@ public final class LinkPreviewUtil {
       return new OpenGraph(Collections.emptyMap(), null, null);
     }
 
-    Map<String, String> openGraphTags    = new HashMap<>();
-    Matcher             openGraphMatcher = OPEN_GRAPH_TAG_PATTERN.matcher(html);
+    Map<String, String> openGraphTags = new HashMap<>();
+    Map<String, String> articleTags   = new HashMap<>();
+    String              htmlTitle     = "";
+    String              faviconUrl    = "";
+    Matcher             tagMatcher    = HEAD_TAG_PATTERN.matcher(html);
+
+    while (tagMatcher.find()) {
+      String tagName = tagMatcher.group(1).toLowerCase(Locale.ROOT);
+
+      if (tagName.equals("meta")) {
+        Map<String, String> attributes = parseAttributes(tagMatcher.group(2));
+        String              property   = attributes.get("property");
+        String              content    = attributes.get("content");
 
-    while (openGraphMatcher.find()) {
-      String tag      = openGraphMatcher.group();
-      String property = openGraphMatcher.groupCount() > 0 ? openGraphMatcher.group(1) : null;
+        if (property == null || content == null) continue;
 
-      if (property != null) {
-        Matcher contentMatcher = OPEN_GRAPH_CONTENT_PATTERN.matcher(tag);
-        if (contentMatcher.find() && contentMatcher.groupCount() > 0) {
-          String content = htmlDecoder.fromEncoded(contentMatcher.group(1));
-          openGraphTags.put(property.toLowerCase(), content);
+        property = property.trim().toLowerCase();
+
+        if (property.startsWith("og:") && property.length() > 3) {
+          openGraphTags.put(property.substring(3), decode(content, htmlDecoder));
+        } else if (property.startsWith("article:") && property.length() > 8) {
+          articleTags.put(property.substring(8), decode(content, htmlDecoder));
+        }
+      } else if (tagName.equals("title") && htmlTitle.isEmpty()) {
+        Matcher titleEndMatcher = TITLE_END_PATTERN.matcher(html);
+        if (titleEndMatcher.find(tagMatcher.end())) {
+          htmlTitle = decode(html.substring(tagMatcher.end(), titleEndMatcher.start()), htmlDecoder);
+        }
+      } else if (tagName.equals("link") && faviconUrl.isEmpty()) {
+        Map<String, String> attributes = parseAttributes(tagMatcher.group(2));
+        String              rel        = attributes.get("rel");
+        String              href       = attributes.get("href");
+
+        if (rel != null && href != null && rel.toLowerCase().contains("icon")) {
+          faviconUrl = href;
         }
       }
     }
 
-    Matcher articleMatcher = ARTICLE_TAG_PATTERN.matcher(html);
+    openGraphTags.putAll(articleTags);
 
-    while (articleMatcher.find()) {
-      String tag      = articleMatcher.group();
-      String property = articleMatcher.groupCount() > 0 ? articleMatcher.group(1) : null;
+    return new OpenGraph(openGraphTags, htmlTitle, faviconUrl);
+  }
 
-      if (property != null) {
-        Matcher contentMatcher = OPEN_GRAPH_CONTENT_PATTERN.matcher(tag);
-        if (contentMatcher.find() && contentMatcher.groupCount() > 0) {
-          String content = htmlDecoder.fromEncoded(contentMatcher.group(1));
-          openGraphTags.put(property.toLowerCase(), content);
-        }
+  /**
+   * Reads the start of an HTML document up to the end of its head (or the start of its body),
+   * reading at most {@link #MAX_HEAD_BYTES}, so that large pages aren't downloaded in full just to
+   * read their metadata.
+   */
+  public static @NonNull String readHtmlHead(@NonNull InputStream inputStream, @NonNull Charset charset) throws IOException {
+    byte[] data   = new byte[8192];
+    int    length = 0;
+
+    while (length < MAX_HEAD_BYTES) {
+      if (length == data.length) {
+        data = Arrays.copyOf(data, Math.min(data.length * 2, MAX_HEAD_BYTES));
+      }
+
+      int read = inputStream.read(data, length, data.length - length);
+      if (read == -1) break;
+
+      int searchFrom = Math.max(0, length - HEAD_END_MARKER.length);
+      length += read;
+
+      int headEnd = indexOfIgnoreCase(data, searchFrom, length, HEAD_END_MARKER);
+      if (headEnd == -1) headEnd = indexOfIgnoreCase(data, searchFrom, length, BODY_MARKER);
+
+      if (headEnd != -1) {
+        length = headEnd;
+        break;
+      }
+    }
+
+    return new String(data, 0, length, charset);
+  }
+
+  /**
+   * @return The URL with any fragment removed, and its scheme and host in canonical form, for use
+   * as a cache key.
+   */
+  public static @NonNull String normalizeUrl(@NonNull String url) {
+    HttpUrl httpUrl = HttpUrl.parse(url);
+    return httpUrl != null ? httpUrl.newBuilder().fragment(null).build().toString() : url;
+  }
+
+  private static @NonNull Map<String, String> parseAttributes(@NonNull String tagBody) {
+    Map<String, String> attributes = new HashMap<>();
+    Matcher             matcher    = ATTRIBUTE_PATTERN.matcher(tagBody);
+
+    while (matcher.find()) {
+      String name  = matcher.group(1).toLowerCase(Locale.ROOT);
+      String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+
+      if (!attributes.containsKey(name)) {
+        attributes.put(name, value);
       }
     }
 
-    String htmlTitle  = "";
-    String faviconUrl = "";
+    return attributes;
+  }
 
-    Matcher titleMatcher = TITLE_PATTERN.matcher(html);
-    if (titleMatcher.find() && titleMatcher.groupCount() > 0) {
-      htmlTitle = htmlDecoder.fromEncoded(titleMatcher.group(1));
+  private static @NonNull String decode(@NonNull String text, @NonNull HtmlDecoder htmlDecoder) {
+    if (text.indexOf('&') == -1 && text.indexOf('<') == -1) {
+      return WHITESPACE_PATTERN.matcher(text).replaceAll(" ").trim();
     }
 
-    Matcher faviconMatcher = FAVICON_PATTERN.matcher(html);
-    if (faviconMatcher.find()) {
-      Matcher faviconHrefMatcher = FAVICON_HREF_PATTERN.matcher(faviconMatcher.group());
-      if (faviconHrefMatcher.find() && faviconHrefMatcher.groupCount() > 0) {
-        faviconUrl = faviconHrefMatcher.group(1);
+    return htmlDecoder.fromEncoded(text);
+  }
+
+  private static int indexOfIgnoreCase(@NonNull byte[] data, int from, int to, @NonNull byte[] lowerCaseNeedle) {
+    outer:
+    for (int i = from; i <= to - lowerCaseNeedle.length; i++) {
+      for (int j = 0; j < lowerCaseNeedle.length; j++) {
+        byte b = data[i + j];
+        if (b >= 'A' && b <= 'Z') b += 'a' - 'A';
+        if (b != lowerCaseNeedle[j]) continue outer;
       }
+      return i;
     }
 
-    return new OpenGraph(openGraphTags, htmlTitle, faviconUrl);
+    return -1;
   }
 
   public static final class OpenGraph {
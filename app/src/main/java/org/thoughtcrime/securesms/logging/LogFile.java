@@ -12,6 +12,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -44,13 +45,15 @@ class LogFile {
     private final byte[]        ivBuffer         = new byte[16];
     private final GrowingBuffer ciphertextBuffer = new GrowingBuffer();
 
-    private final byte[]               secret;
+    private final SecretKeySpec        key;
+    private final SecureRandom         random;
     private final File                 file;
     private final Cipher               cipher;
     private final BufferedOutputStream outputStream;
 
     Writer(@NonNull byte[] secret, @NonNull File file) throws IOException {
-      this.secret       = secret;
+      this.key          = new SecretKeySpec(secret, "AES");
+      this.random       = new SecureRandom();
       this.file         = file;
       this.outputStream = new BufferedOutputStream(new FileOutputStream(file, true));
 
@@ -61,12 +64,16 @@ class LogFile {
       }
     }
 
+    /**
+     * Encrypts and writes a single block. A block may contain many newline-separated log lines,
+     * which lets callers pay for one cipher initialization and one flush per batch.
+     */
     void writeEntry(@NonNull String entry) throws IOException {
-      new SecureRandom().nextBytes(ivBuffer);
+      random.nextBytes(ivBuffer);
 
       byte[] plaintext = entry.getBytes();
       try {
-        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
+        cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(ivBuffer));
 
         int    cipherLength = cipher.getOutputSize(plaintext.length);
         byte[] ciphertext   = ciphertextBuffer.get(cipherLength);
@@ -123,7 +130,34 @@ class LogFile {
       return builder.toString();
     }
 
+    /**
+     * Decrypts every block in the file straight into the provided stream.
+     *
+     * @return The number of bytes written.
+     */
+    long readAllTo(@NonNull OutputStream outputStream) throws IOException {
+      long written = 0;
+
+      byte[] entry;
+      while ((entry = readEntryBytes()) != null) {
+        outputStream.write(entry);
+        outputStream.write('\n');
+        written += entry.length + 1;
+      }
+
+      return written;
+    }
+
+    void close() {
+      Util.close(inputStream);
+    }
+
     String readEntry() throws IOException {
+      byte[] entry = readEntryBytes();
+      return entry != null ? new String(entry) : null;
+    }
+
+    private byte[] readEntryBytes() throws IOException {
       try {
         Util.readFully(inputStream, ivBuffer);
         Util.readFully(inputStream, intBuffer);
@@ -135,9 +169,7 @@ class LogFile {
 
         try {
           cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(secret, "AES"), new IvParameterSpec(ivBuffer));
-          byte[] plaintext = cipher.doFinal(ciphertext, 0, length);
-
-          return new String(plaintext);
+          return cipher.doFinal(ciphertext, 0, length);
         } catch (InvalidKeyException | InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
           throw new AssertionError(e);
         }
@@ -0,0 +1,107 @@
+package org.thoughtcrime.securesms.logging;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi-producer queue. When the buffer is full the oldest item is dropped
+ * to make room for the new one, and the number of dropped items is tracked so the consumer can
+ * account for them.
+ */
+final class LogRingBuffer<T> {
+
+  private final int                     mask;
+  private final AtomicReferenceArray<T> items;
+  private final AtomicLongArray         sequences;
+  private final AtomicLong              head    = new AtomicLong();
+  private final AtomicLong              tail    = new AtomicLong();
+  private final AtomicLong              dropped = new AtomicLong();
+
+  LogRingBuffer(int capacity) {
+    if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+      throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+    }
+
+    this.mask      = capacity - 1;
+    this.items     = new AtomicReferenceArray<>(capacity);
+    this.sequences = new AtomicLongArray(capacity);
+
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * Adds an item, dropping the oldest queued item if the buffer is full.
+   */
+  void offer(@NonNull T item) {
+    while (!tryOffer(item)) {
+      if (poll() != null) {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * @return The oldest item in the buffer, or null if it is empty.
+   */
+  @Nullable T poll() {
+    long position = head.get();
+
+    while (true) {
+      int  index    = (int) (position & mask);
+      long sequence = sequences.get(index);
+      long diff     = sequence - (position + 1);
+
+      if (diff == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          T item = items.get(index);
+          items.lazySet(index, null);
+          sequences.set(index, position + mask + 1);
+          return item;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+
+      position = head.get();
+    }
+  }
+
+  int size() {
+    return (int) Math.max(0, tail.get() - head.get());
+  }
+
+  /**
+   * @return The number of items dropped since the last call, resetting the count to zero.
+   */
+  long takeDroppedCount() {
+    return dropped.getAndSet(0);
+  }
+
+  private boolean tryOffer(@NonNull T item) {
+    long position = tail.get();
+
+    while (true) {
+      int  index    = (int) (position & mask);
+      long sequence = sequences.get(index);
+      long diff     = sequence - position;
+
+      if (diff == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          items.lazySet(index, item);
+          sequences.set(index, position + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+
+      position = tail.get();
+    }
+  }
+}
@@ -3,25 +3,23 @@ package org.thoughtcrime.securesms.logging;
 import android.content.Context;
 
 import androidx.annotation.AnyThread;
+import androidx.annotation.NonNull;
 import androidx.annotation.WorkerThread;
 
-import org.session.libsignal.utilities.ListenableFuture;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.NoExternalStorageException;
-import org.session.libsignal.utilities.SettableFuture;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public class PersistentLogger extends Log.Logger {
 
@@ -34,29 +32,42 @@ public class PersistentLogger extends Log.Logger {
   private static final String LOG_E   = "E";
   private static final String LOG_WTF = "A";
 
-  private static final String           LOG_DIRECTORY   = "log";
-  private static final String           FILENAME_PREFIX = "log-";
-  private static final int              MAX_LOG_FILES   = 5;
-  private static final int              MAX_LOG_SIZE    = 300 * 1024;
-  private static final int              MAX_LOG_EXPORT  = 10_000;
-  private static final SimpleDateFormat DATE_FORMAT     = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz");
-
-  private final Context  context;
-  private final Executor executor;
-  private final byte[]   secret;
+  private static final String LOG_DIRECTORY    = "log";
+  private static final String FILENAME_PREFIX  = "log-";
+  private static final int    MAX_LOG_FILES    = 5;
+  private static final int    MAX_LOG_SIZE     = 300 * 1024;
+  private static final int    BUFFER_CAPACITY  = 4096;
+  private static final int    MAX_BLOCK_CHARS  = 32 * 1024;
+  private static final long   MAX_FLUSH_WAIT   = TimeUnit.SECONDS.toMillis(2);
+
+  private final Context                  context;
+  private final byte[]                   secret;
+  private final LogRingBuffer<LogEntry>  buffer;
+  private final EntryFormatter           formatter;
+  private final StringBuilder            block;
+  private final Object                   flushLock;
+  private final AtomicLong               enqueued;
+  private final Thread                   writerThread;
+
+  private volatile long    processed;
+  private volatile boolean flushRequested;
+  private volatile boolean writerParked;
 
   private LogFile.Writer writer;
 
   public PersistentLogger(Context context) {
-    this.context  = context.getApplicationContext();
-    this.secret   = LogSecretProvider.getOrCreateAttachmentSecret(context);
-    this.executor = Executors.newSingleThreadExecutor(r -> {
-      Thread thread = new Thread(r, "PersistentLogger");
-      thread.setPriority(Thread.MIN_PRIORITY);
-      return thread;
-    });
-
-    executor.execute(this::initializeWriter);
+    this.context      = context.getApplicationContext();
+    this.secret       = LogSecretProvider.getOrCreateAttachmentSecret(context);
+    this.buffer       = new LogRingBuffer<>(BUFFER_CAPACITY);
+    this.formatter    = new EntryFormatter();
+    this.block        = new StringBuilder(MAX_BLOCK_CHARS);
+    this.flushLock    = new Object();
+    this.enqueued     = new AtomicLong();
+    this.writerThread = new Thread(this::writeLoop, "PersistentLogger");
+
+    writerThread.setPriority(Thread.MIN_PRIORITY);
+    writerThread.setDaemon(true);
+    writerThread.start();
   }
 
   @Override
@@ -89,87 +100,173 @@ public class PersistentLogger extends Log.Logger {
     write(LOG_WTF, tag, message, t);
   }
 
+  /**
+   * Waits for the writer thread to persist everything logged so far, for at most
+   * {@link #MAX_FLUSH_WAIT}. Returns straight away if called from the writer thread or if the writer
+   * thread has died, as nothing would ever finish the writes.
+   */
   @Override
   public void blockUntilAllWritesFinished() {
-    CountDownLatch latch = new CountDownLatch(1);
+    if (Thread.currentThread() == writerThread || !writerThread.isAlive()) {
+      return;
+    }
 
-    executor.execute(latch::countDown);
+    long target   = enqueued.get();
+    long deadline = System.currentTimeMillis() + MAX_FLUSH_WAIT;
 
-    try {
-      latch.await();
-    } catch (InterruptedException e) {
-      android.util.Log.w(TAG, "Failed to wait for all writes.");
+    synchronized (flushLock) {
+      while (processed < target) {
+        long remaining = deadline - System.currentTimeMillis();
+
+        if (remaining <= 0 || !writerThread.isAlive()) {
+          android.util.Log.w(TAG, "Gave up waiting for all writes.");
+          return;
+        }
+
+        flushRequested = true;
+        LockSupport.unpark(writerThread);
+
+        try {
+          flushLock.wait(remaining);
+        } catch (InterruptedException e) {
+          android.util.Log.w(TAG, "Failed to wait for all writes.");
+          return;
+        }
+      }
     }
   }
 
+  /**
+   * Streams all persisted logs, oldest first, into the provided stream. Pending entries are
+   * flushed first so the export includes everything logged before this call.
+   *
+   * @return The number of bytes written.
+   */
   @WorkerThread
-  public ListenableFuture<String> getLogs() {
-    final SettableFuture<String> future = new SettableFuture<>();
+  public long exportLogs(@NonNull OutputStream outputStream) throws IOException, NoExternalStorageException {
+    blockUntilAllWritesFinished();
 
-    executor.execute(() -> {
-      StringBuilder builder = new StringBuilder();
-      long entriesWritten = 0;
+    long   written = 0;
+    File[] logs    = getSortedLogFiles();
 
+    for (int i = logs.length - 1; i >= 0; i--) {
+      LogFile.Reader reader = null;
       try {
-        File[] logs = getSortedLogFiles();
-        for (int i = logs.length - 1; i >= 0 && entriesWritten <= MAX_LOG_EXPORT; i--) {
-          try {
-            LogFile.Reader reader = new LogFile.Reader(secret, logs[i]);
-            String entry;
-            while ((entry = reader.readEntry()) != null) {
-              entriesWritten++;
-              builder.append(entry).append('\n');
-            }
-          } catch (IOException e) {
-            android.util.Log.w(TAG, "Failed to read log at index " + i + ". Removing reference.");
-            logs[i].delete();
-          }
-        }
-
-        future.set(builder.toString());
-      } catch (NoExternalStorageException e) {
-        future.setException(e);
+        reader   = new LogFile.Reader(secret, logs[i]);
+        written += reader.readAllTo(outputStream);
+      } catch (IOException e) {
+        android.util.Log.w(TAG, "Failed to read log at index " + i + ".", e);
+      } finally {
+        if (reader != null) reader.close();
       }
-    });
+    }
 
-    return future;
+    outputStream.flush();
+    return written;
   }
 
-  @WorkerThread
-  private void initializeWriter() {
-    try {
-      writer = new LogFile.Writer(secret, getOrCreateActiveLogFile());
-    } catch (NoExternalStorageException | IOException e) {
-      android.util.Log.e(TAG, "Failed to initialize writer.", e);
+  @AnyThread
+  private void write(String level, String tag, String message, Throwable t) {
+    enqueued.incrementAndGet();
+    buffer.offer(new LogEntry(System.currentTimeMillis(), level, tag, message, t));
+
+    if (writerParked) {
+      LockSupport.unpark(writerThread);
     }
   }
 
-  @AnyThread
-  private void write(String level, String tag, String message, Throwable t) {
-    executor.execute(() -> {
+  /**
+   * Sleeps until an entry is offered or a flush is requested, so an idle app never wakes this
+   * thread. Entries logged while a block is being written are picked up in the next block.
+   */
+  @WorkerThread
+  private void writeLoop() {
+    initializeWriter();
+
+    while (true) {
       try {
-        if (writer == null) {
-          return;
+        writerParked = true;
+        if (!flushRequested && buffer.size() == 0) {
+          LockSupport.park(this);
         }
+        writerParked = false;
+
+        flushRequested = false;
+        drainBuffer();
+      } catch (Throwable t) {
+        // keep going, or every later log and flush would wait on a thread that no longer exists
+        android.util.Log.e(TAG, "Failed to write logs.", t);
+      } finally {
+        writerParked = false;
+      }
 
-        if (writer.getLogSize() >= MAX_LOG_SIZE) {
-          writer.close();
-          writer = new LogFile.Writer(secret, createNewLogFile());
-          trimLogFilesOverMax();
-        }
+      synchronized (flushLock) {
+        flushLock.notifyAll();
+      }
+    }
+  }
 
-        for (String entry : buildLogEntries(level, tag, message, t)) {
-          writer.writeEntry(entry);
-        }
+  @WorkerThread
+  private void drainBuffer() {
+    while (true) {
+      long dropped = buffer.takeDroppedCount();
+      int  polled  = 0;
 
-      } catch (NoExternalStorageException e) {
-        android.util.Log.w(TAG, "Cannot persist logs.", e);
-      } catch (IOException e) {
-        android.util.Log.w(TAG, "Failed to write line. Deleting all logs and starting over.");
-        deleteAllLogs();
-        initializeWriter();
+      block.setLength(0);
+
+      if (dropped > 0) {
+        formatter.append(block, LOG_W, TAG, "Dropped " + dropped + " log entries due to backpressure.", System.currentTimeMillis());
+      }
+
+      LogEntry entry;
+      while (block.length() < MAX_BLOCK_CHARS && (entry = buffer.poll()) != null) {
+        appendEntry(entry);
+        polled++;
+      }
+
+      if (block.length() > 0) {
+        writeBlock();
       }
-    });
+
+      processed += dropped + polled;
+
+      if (polled == 0 && dropped == 0) {
+        return;
+      }
+    }
+  }
+
+  @WorkerThread
+  private void writeBlock() {
+    try {
+      if (writer == null) {
+        return;
+      }
+
+      if (writer.getLogSize() >= MAX_LOG_SIZE) {
+        writer.close();
+        writer = new LogFile.Writer(secret, createNewLogFile());
+        trimLogFilesOverMax();
+      }
+
+      block.setLength(block.length() - 1);
+      writer.writeEntry(block.toString());
+    } catch (NoExternalStorageException e) {
+      android.util.Log.w(TAG, "Cannot persist logs.", e);
+    } catch (IOException e) {
+      android.util.Log.w(TAG, "Failed to write block. Deleting all logs and starting over.");
+      deleteAllLogs();
+      initializeWriter();
+    }
+  }
+
+  @WorkerThread
+  private void initializeWriter() {
+    try {
+      writer = new LogFile.Writer(secret, getOrCreateActiveLogFile());
+    } catch (NoExternalStorageException | IOException e) {
+      android.util.Log.e(TAG, "Failed to initialize writer.", e);
+    }
   }
 
   private void trimLogFilesOverMax() throws NoExternalStorageException {
@@ -223,28 +320,69 @@ public class PersistentLogger extends Log.Logger {
     return logDir;
   }
 
-  private List<String> buildLogEntries(String level, String tag, String message, Throwable t) {
-    List<String> entries = new LinkedList<>();
-    Date         date    = new Date();
-
-    entries.add(buildEntry(level, tag, message, date));
-
-    if (t != null) {
-      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-      t.printStackTrace(new PrintStream(outputStream));
+  @WorkerThread
+  private void appendEntry(@NonNull LogEntry entry) {
+    formatter.append(block, entry.level, entry.tag, entry.message, entry.timestamp);
 
-      String   trace = new String(outputStream.toByteArray());
-      String[] lines = trace.split("\\n");
+    if (entry.throwable != null) {
+      StringWriter trace = new StringWriter();
+      entry.throwable.printStackTrace(new PrintWriter(trace));
 
-      for (String line : lines) {
-        entries.add(buildEntry(level, tag, line, date));
+      for (String line : trace.toString().split("\\n")) {
+        formatter.append(block, entry.level, entry.tag, line, entry.timestamp);
       }
     }
+  }
 
-    return entries;
+  private static final class LogEntry {
+    private final long      timestamp;
+    private final String    level;
+    private final String    tag;
+    private final String    message;
+    private final Throwable throwable;
+
+    private LogEntry(long timestamp, String level, String tag, String message, Throwable throwable) {
+      this.timestamp = timestamp;
+      this.level     = level;
+      this.tag       = tag;
+      this.message   = message;
+      this.throwable = throwable;
+    }
   }
 
-  private String buildEntry(String level, String tag, String message, Date date) {
-    return DATE_FORMAT.format(date) + ' ' + level + ' ' + tag + ": " + message;
+  /**
+   * Formats entries as "yyyy-MM-dd HH:mm:ss.SSS zzz", only invoking {@link SimpleDateFormat} once
+   * per second of log time. Not thread safe; only used from the writer thread.
+   */
+  private static final class EntryFormatter {
+    private final SimpleDateFormat secondFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private final SimpleDateFormat zoneFormat   = new SimpleDateFormat("zzz");
+    private final Date             date         = new Date();
+
+    private long   cachedSecond = Long.MIN_VALUE;
+    private String cachedPrefix;
+    private String cachedZone;
+
+    void append(@NonNull StringBuilder builder, String level, String tag, String message, long timestamp) {
+      long second = timestamp / 1000;
+      int  millis = (int) (timestamp % 1000);
+
+      if (second != cachedSecond) {
+        date.setTime(timestamp);
+        cachedSecond = second;
+        cachedPrefix = secondFormat.format(date);
+        cachedZone   = zoneFormat.format(date);
+      }
+
+      builder.append(cachedPrefix).append('.');
+      if (millis < 100) builder.append('0');
+      if (millis < 10)  builder.append('0');
+      builder.append(millis)
+             .append(' ').append(cachedZone)
+             .append(' ').append(level)
+             .append(' ').append(tag)
+             .append(": ").append(message)
+             .append('\n');
+    }
   }
 }
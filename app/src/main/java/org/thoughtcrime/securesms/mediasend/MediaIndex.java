@@ -0,0 +1,525 @@
+package org.thoughtcrime.securesms.mediasend;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Images;
+import android.provider.MediaStore.Video;
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.WorkerThread;
+
+import org.session.libsignal.utilities.guava.Optional;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import network.loki.messenger.R;
+
+/**
+ * An in memory index of the images and videos in the {@link MediaStore}, so that the media picker
+ * doesn't have to scan the whole media store every time it is opened.
+ * <p>
+ * The index is built with a single scan of each table the first time it is needed. After that a
+ * content observer marks it as stale whenever the media store changes, and the next read only
+ * queries the rows modified since the last refresh. Deletions are found by checking whether the
+ * rows the media store notified about still exist, falling back to listing every id only when a
+ * notification didn't say which rows changed.
+ */
+final class MediaIndex {
+
+  private static final int MAX_CACHED_BUCKETS = 8;
+  private static final int MAX_PENDING_IDS    = 500;
+
+  private static volatile MediaIndex instance;
+
+  private final Context                       context;
+  private final Table                         images;
+  private final Table                         videos;
+  private final LruCache<String, BucketMedia> bucketMedia;
+
+  private volatile boolean           stale = true;
+  private volatile boolean           loaded;
+  private volatile List<MediaFolder> folders;
+
+  static @NonNull MediaIndex getInstance(@NonNull Context context) {
+    if (instance == null) {
+      synchronized (MediaIndex.class) {
+        if (instance == null) {
+          instance = new MediaIndex(context.getApplicationContext());
+        }
+      }
+    }
+    return instance;
+  }
+
+  private MediaIndex(@NonNull Context context) {
+    this.context     = context;
+    this.images      = new Table(Images.Media.EXTERNAL_CONTENT_URI, true);
+    this.videos      = new Table(Video.Media.EXTERNAL_CONTENT_URI, false);
+    this.bucketMedia = new LruCache<>(MAX_CACHED_BUCKETS);
+
+    context.getContentResolver().registerContentObserver(images.contentUri, true, new TableObserver(images));
+    context.getContentResolver().registerContentObserver(videos.contentUri, true, new TableObserver(videos));
+  }
+
+  /**
+   * @return True once the index has been built, after which reads only cost a refresh of what
+   * changed.
+   */
+  boolean isLoaded() {
+    return loaded;
+  }
+
+  /**
+   * @return The folders as of the last refresh, or null if they haven't been listed yet.
+   */
+  @Nullable List<MediaFolder> getCachedFolders() {
+    return folders;
+  }
+
+  /**
+   * @return Up to {@code limit} of the newest media in a bucket as of the last refresh, or null if
+   * the bucket isn't cached.
+   */
+  @Nullable List<Media> getCachedMediaInBucket(@NonNull String bucketId, int limit) {
+    BucketMedia media = bucketMedia.get(bucketId);
+    return media != null ? media.getFirstPage(limit) : null;
+  }
+
+  @WorkerThread
+  synchronized @NonNull List<MediaFolder> getFolders() {
+    if (refresh() || folders == null) {
+      folders = buildFolders();
+    }
+    return folders;
+  }
+
+  /**
+   * @return Up to {@code limit} of the newest media in a bucket. The same list is returned for as
+   * long as nothing in the bucket changes.
+   */
+  @WorkerThread
+  synchronized @NonNull List<Media> getMediaInBucket(@NonNull String bucketId, int limit) {
+    refresh();
+
+    BucketMedia media = bucketMedia.get(bucketId);
+    if (media == null) {
+      media = new BucketMedia(buildMediaInBucket(bucketId));
+      bucketMedia.put(bucketId, media);
+    }
+    return media.getFirstPage(limit);
+  }
+
+  /**
+   * @return True if anything changed since the last refresh.
+   */
+  private boolean refresh() {
+    if (!stale) return false;
+    stale = false;
+
+    boolean changed = images.refresh(context) | videos.refresh(context);
+
+    loaded = true;
+
+    if (changed) {
+      bucketMedia.evictAll();
+    }
+    return changed;
+  }
+
+  private @NonNull List<MediaFolder> buildFolders() {
+    Map<String, FolderData> folderData   = new HashMap<>();
+    Item                    newest       = null;
+    int                     allItemCount = 0;
+
+    for (Table table : new Table[] { images, videos }) {
+      for (Item item : table.items.values()) {
+        FolderData folder = folderData.get(item.bucketId);
+        if (folder == null) {
+          folder = new FolderData(item.bucketId, item.bucketTitle);
+          folderData.put(item.bucketId, folder);
+        }
+
+        folder.add(item);
+        allItemCount++;
+
+        if (newest == null || item.dateTaken > newest.dateTaken) {
+          newest = item;
+        }
+      }
+    }
+
+    List<MediaFolder> mediaFolders = new ArrayList<>(folderData.size() + 1);
+    for (FolderData folder : folderData.values()) {
+      mediaFolders.add(new MediaFolder(Uri.fromFile(new File(folder.newest.path)), folder.title, folder.count, folder.bucketId));
+    }
+
+    Collections.sort(mediaFolders, (first, second) -> {
+      if (first.getTitle() == null)  return second.getTitle() == null ? 0 : 1;
+      if (second.getTitle() == null) return -1;
+      return first.getTitle().compareToIgnoreCase(second.getTitle());
+    });
+
+    if (newest != null) {
+      mediaFolders.add(0, new MediaFolder(Uri.fromFile(new File(newest.path)), context.getString(R.string.MediaRepository_all_media), allItemCount, Media.ALL_MEDIA_BUCKET_ID));
+    }
+
+    return Collections.unmodifiableList(mediaFolders);
+  }
+
+  private @NonNull List<Media> buildMediaInBucket(@NonNull String bucketId) {
+    boolean    allMedia = Media.ALL_MEDIA_BUCKET_ID.equals(bucketId);
+    List<Item> items    = new ArrayList<>();
+
+    for (Table table : new Table[] { images, videos }) {
+      for (Item item : table.items.values()) {
+        if (allMedia || bucketId.equals(item.bucketId)) {
+          items.add(item);
+        }
+      }
+    }
+
+    Collections.sort(items, (first, second) -> Long.compare(second.dateTaken, first.dateTaken));
+
+    List<Media>      media         = new ArrayList<>(items.size());
+    Optional<String> mediaBucketId = Optional.of(bucketId);
+
+    for (Item item : items) {
+      media.add(new Media(item.getUri(), item.mimeType, item.dateTaken, item.width, item.height, item.size, mediaBucketId, Optional.absent()));
+    }
+
+    return Collections.unmodifiableList(media);
+  }
+
+  /**
+   * Marks the index as stale, and remembers which rows of the table the media store notified about.
+   */
+  private final class TableObserver extends ContentObserver {
+    private final Table table;
+
+    private TableObserver(@NonNull Table table) {
+      super(null);
+      this.table = table;
+    }
+
+    @Override
+    public void onChange(boolean selfChange, @Nullable Uri uri) {
+      table.onChange(uri);
+      stale = true;
+    }
+  }
+
+  /**
+   * The indexed rows of one media store table.
+   */
+  private static final class Table {
+    private final Uri             contentUri;
+    private final boolean         hasOrientation;
+    private final Map<Long, Item> items = new HashMap<>();
+
+    // the rows notified about since the last refresh, which are all that may have been deleted
+    private final Set<Long> pendingIds = new HashSet<>();
+    private       boolean   pendingUnknown;
+
+    private long lastDateModified = -1;
+    private long lastGeneration   = -1;
+
+    private Table(@NonNull Uri contentUri, boolean hasOrientation) {
+      this.contentUri     = contentUri;
+      this.hasOrientation = hasOrientation;
+    }
+
+    /**
+     * @return True if any rows were added, changed or removed.
+     */
+    private boolean refresh(@NonNull Context context) {
+      Set<Long> notifiedIds = takeNotifiedIds();
+      boolean   changed     = false;
+
+      String   selection     = Images.Media.DATA + " NOT NULL";
+      String[] selectionArgs = null;
+
+      if (lastGeneration >= 0) {
+        selection     += " AND " + MediaStore.MediaColumns.GENERATION_MODIFIED + " > ?";
+        selectionArgs  = new String[] { String.valueOf(lastGeneration) };
+      } else if (lastDateModified >= 0) {
+        selection     += " AND " + Images.Media.DATE_MODIFIED + " >= ?";
+        selectionArgs  = new String[] { String.valueOf(lastDateModified) };
+      }
+
+      try (Cursor cursor = context.getContentResolver().query(contentUri, getProjection(), selection, selectionArgs, null)) {
+        if (cursor != null) {
+          int idColumn           = cursor.getColumnIndexOrThrow(Images.Media._ID);
+          int pathColumn         = cursor.getColumnIndexOrThrow(Images.Media.DATA);
+          int bucketIdColumn     = cursor.getColumnIndexOrThrow(Images.Media.BUCKET_ID);
+          int bucketTitleColumn  = cursor.getColumnIndexOrThrow(Images.Media.BUCKET_DISPLAY_NAME);
+          int mimeTypeColumn     = cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE);
+          int dateTakenColumn    = cursor.getColumnIndexOrThrow(Images.Media.DATE_TAKEN);
+          int dateModifiedColumn = cursor.getColumnIndexOrThrow(Images.Media.DATE_MODIFIED);
+          int widthColumn        = cursor.getColumnIndexOrThrow(Images.Media.WIDTH);
+          int heightColumn       = cursor.getColumnIndexOrThrow(Images.Media.HEIGHT);
+          int sizeColumn         = cursor.getColumnIndexOrThrow(Images.Media.SIZE);
+          int orientationColumn  = hasOrientation ? cursor.getColumnIndexOrThrow(Images.Media.ORIENTATION) : -1;
+          int generationColumn   = Build.VERSION.SDK_INT >= 30 ? cursor.getColumnIndexOrThrow(MediaStore.MediaColumns.GENERATION_MODIFIED) : -1;
+
+          long maxDateModified = lastDateModified;
+          long maxGeneration   = lastGeneration;
+
+          while (cursor.moveToNext()) {
+            int     orientation = orientationColumn >= 0 ? cursor.getInt(orientationColumn) : 0;
+            boolean rotated     = orientation == 90 || orientation == 270;
+            long    id          = cursor.getLong(idColumn);
+            Item    item        = new Item(contentUri,
+                                           id,
+                                           cursor.getString(pathColumn),
+                                           cursor.getString(bucketIdColumn),
+                                           cursor.getString(bucketTitleColumn),
+                                           cursor.getString(mimeTypeColumn),
+                                           cursor.getLong(dateTakenColumn),
+                                           cursor.getInt(rotated ? heightColumn : widthColumn),
+                                           cursor.getInt(rotated ? widthColumn : heightColumn),
+                                           cursor.getLong(sizeColumn));
+
+            if (!item.equals(items.put(id, item))) {
+              changed = true;
+            }
+
+            maxDateModified = Math.max(maxDateModified, cursor.getLong(dateModifiedColumn));
+
+            if (generationColumn >= 0) {
+              maxGeneration = Math.max(maxGeneration, cursor.getLong(generationColumn));
+            }
+          }
+
+          lastDateModified = maxDateModified;
+          lastGeneration   = generationColumn >= 0 ? Math.max(maxGeneration, 0) : -1;
+        }
+      }
+
+      return removeDeleted(context, notifiedIds) || changed;
+    }
+
+    private synchronized void onChange(@Nullable Uri uri) {
+      List<String> segments = uri != null ? uri.getPathSegments() : null;
+      Long         id       = null;
+
+      // like content://media/external/images/media/42
+      if (segments != null && segments.size() == 4 && segments.get(1).equals(contentUri.getPathSegments().get(1))) {
+        try {
+          id = Long.parseLong(segments.get(3));
+        } catch (NumberFormatException e) {
+          id = null;
+        }
+      }
+
+      if (id == null || pendingIds.size() >= MAX_PENDING_IDS) {
+        pendingUnknown = true;
+      } else {
+        pendingIds.add(id);
+      }
+    }
+
+    /**
+     * @return The rows notified about since this was last called, or null if a notification didn't
+     * say which rows changed.
+     */
+    private synchronized @Nullable Set<Long> takeNotifiedIds() {
+      Set<Long> ids = pendingUnknown ? null : new HashSet<>(pendingIds);
+
+      pendingIds.clear();
+      pendingUnknown = false;
+
+      return ids;
+    }
+
+    /**
+     * Drops the items that are no longer in the media store, only checking the rows notified about
+     * when the notifications said which they were.
+     */
+    private boolean removeDeleted(@NonNull Context context, @Nullable Set<Long> ids) {
+      if (ids == null) {
+        return removeAllDeleted(context);
+      }
+
+      ids.retainAll(items.keySet());
+      if (ids.isEmpty()) return false;
+
+      String   selection     = Images.Media._ID + " IN (" + TextUtils.join(",", Collections.nCopies(ids.size(), "?")) + ") AND " + Images.Media.DATA + " NOT NULL";
+      String[] selectionArgs = new String[ids.size()];
+      int      i             = 0;
+
+      for (Long id : ids) {
+        selectionArgs[i++] = String.valueOf(id);
+      }
+
+      try (Cursor cursor = context.getContentResolver().query(contentUri, new String[] { Images.Media._ID }, selection, selectionArgs, null)) {
+        if (cursor == null) return false;
+
+        while (cursor.moveToNext()) {
+          ids.remove(cursor.getLong(0));
+        }
+      }
+
+      items.keySet().removeAll(ids);
+
+      return !ids.isEmpty();
+    }
+
+    /**
+     * Every refreshed row is in the index, so the index only has more items than the media store
+     * when some were deleted, and it is only then that the ids are listed.
+     */
+    private boolean removeAllDeleted(@NonNull Context context) {
+      String[] projection = new String[] { Images.Media._ID };
+      String   selection  = Images.Media.DATA + " NOT NULL";
+
+      try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, null)) {
+        if (cursor == null || cursor.getCount() == items.size()) return false;
+
+        Map<Long, Item> remaining = new HashMap<>(items.size());
+
+        while (cursor.moveToNext()) {
+          long id   = cursor.getLong(0);
+          Item item = items.get(id);
+
+          if (item != null) remaining.put(id, item);
+        }
+
+        boolean changed = remaining.size() != items.size();
+
+        items.clear();
+        items.putAll(remaining);
+
+        return changed;
+      }
+    }
+
+    private @NonNull String[] getProjection() {
+      List<String> projection = new ArrayList<>();
+
+      Collections.addAll(projection, Images.Media._ID, Images.Media.DATA, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME,
+                                     Images.Media.MIME_TYPE, Images.Media.DATE_TAKEN, Images.Media.DATE_MODIFIED,
+                                     Images.Media.WIDTH, Images.Media.HEIGHT, Images.Media.SIZE);
+
+      if (hasOrientation) {
+        projection.add(Images.Media.ORIENTATION);
+      }
+
+      if (Build.VERSION.SDK_INT >= 30) {
+        projection.add(MediaStore.MediaColumns.GENERATION_MODIFIED);
+      }
+
+      return projection.toArray(new String[0]);
+    }
+  }
+
+  private static final class Item {
+    private final Uri    contentUri;
+    private final long   id;
+    private final String path;
+    private final String bucketId;
+    private final String bucketTitle;
+    private final String mimeType;
+    private final long   dateTaken;
+    private final int    width;
+    private final int    height;
+    private final long   size;
+
+    private Item(@NonNull Uri contentUri, long id, @NonNull String path, String bucketId, String bucketTitle, String mimeType, long dateTaken, int width, int height, long size) {
+      this.contentUri  = contentUri;
+      this.id          = id;
+      this.path        = path;
+      this.bucketId    = bucketId;
+      this.bucketTitle = bucketTitle;
+      this.mimeType    = mimeType;
+      this.dateTaken   = dateTaken;
+      this.width       = width;
+      this.height      = height;
+      this.size        = size;
+    }
+
+    @NonNull Uri getUri() {
+      return Uri.withAppendedPath(contentUri, String.valueOf(id));
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Item)) return false;
+
+      Item other = (Item) o;
+
+      return id        == other.id                          &&
+             dateTaken == other.dateTaken                   &&
+             width     == other.width                       &&
+             height    == other.height                      &&
+             size      == other.size                        &&
+             path.equals(other.path)                        &&
+             Objects.equals(bucketId, other.bucketId)       &&
+             Objects.equals(bucketTitle, other.bucketTitle) &&
+             Objects.equals(mimeType, other.mimeType);
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.valueOf(id).hashCode();
+    }
+  }
+
+  /**
+   * The media of a bucket, newest first, along with the page last asked for so that asking for it
+   * again returns the same list.
+   */
+  private static final class BucketMedia {
+    private final List<Media> media;
+
+    private int         pageLimit = -1;
+    private List<Media> page;
+
+    private BucketMedia(@NonNull List<Media> media) {
+      this.media = media;
+    }
+
+    private synchronized @NonNull List<Media> getFirstPage(int limit) {
+      if (limit != pageLimit) {
+        pageLimit = limit;
+        page      = media.size() > limit ? media.subList(0, limit) : media;
+      }
+      return page;
+    }
+  }
+
+  private static final class FolderData {
+    private final String bucketId;
+    private final String title;
+
+    private Item newest;
+    private int  count;
+
+    private FolderData(String bucketId, String title) {
+      this.bucketId = bucketId;
+      this.title    = title;
+    }
+
+    private void add(@NonNull Item item) {
+      if (newest == null || item.dateTaken > newest.dateTaken) {
+        newest = item;
+      }
+      count++;
+    }
+  }
+}
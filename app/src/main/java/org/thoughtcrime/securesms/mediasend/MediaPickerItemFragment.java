@@ -96,6 +96,14 @@ public class MediaPickerItemFragment extends Fragment implements MediaPickerItem
 
     imageList.setLayoutManager(layoutManager);
     imageList.setAdapter(adapter);
+    imageList.addOnScrollListener(new RecyclerView.OnScrollListener() {
+      @Override
+      public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        if (layoutManager.findLastVisibleItemPosition() >= adapter.getItemCount() - MediaRepository.PAGE_SIZE / 2) {
+          viewModel.loadMoreMediaInBucket(requireContext(), bucketId);
+        }
+      }
+    });
 
     initToolbar(view.findViewById(R.id.mediapicker_toolbar));
     onScreenWidthChanged(getScreenWidth());
@@ -1,10 +1,13 @@
 package org.thoughtcrime.securesms.mediasend;
 
 import android.annotation.TargetApi;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Bundle;
 import android.provider.MediaStore.Images;
 import android.provider.MediaStore.Video;
 import android.provider.OpenableColumns;
@@ -16,40 +19,66 @@ import androidx.annotation.WorkerThread;
 
 import com.annimon.stream.Stream;
 
-import org.session.libsession.utilities.Util;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.mms.PartAuthority;
 import org.thoughtcrime.securesms.util.MediaUtil;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-
-import network.loki.messenger.R;
 
 /**
  * Handles the retrieval of media present on the user's device.
  */
 class MediaRepository {
 
+  static final int PAGE_SIZE = 120;
+
   /**
-   * Retrieves a list of folders that contain media.
+   * Retrieves a list of folders that contain media. The folders as last seen are delivered first if
+   * there are any, followed by the current folders if anything changed since.
    */
   void getFolders(@NonNull Context context, @NonNull Callback<List<MediaFolder>> callback) {
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getFolders(context)));
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+      MediaIndex        index  = MediaIndex.getInstance(context);
+      List<MediaFolder> cached = index.getCachedFolders();
+
+      if (cached != null) {
+        callback.onComplete(cached);
+      }
+
+      List<MediaFolder> folders = index.getFolders();
+
+      if (folders != cached) {
+        callback.onComplete(folders);
+      }
+    });
   }
 
   /**
-   * Retrieves a list of media items (images and videos) that are present int he specified bucket.
+   * Retrieves up to {@code limit} of the newest media items (images and videos) in the specified
+   * bucket, so that a large bucket can be shown a page at a time. The bucket's media as last seen,
+   * or read straight from the media store while the media index is built, is delivered first so
+   * that the picker can show something while the index is built or refreshed.
    */
-  void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Callback<List<Media>> callback) {
-    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getMediaInBucket(context, bucketId)));
+  void getMediaInBucket(@NonNull Context context, @NonNull String bucketId, int limit, @NonNull Callback<List<Media>> callback) {
+    AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+      MediaIndex  index  = MediaIndex.getInstance(context);
+      List<Media> cached = index.getCachedMediaInBucket(bucketId, limit);
+
+      if (cached != null) {
+        callback.onComplete(cached);
+      } else if (!index.isLoaded()) {
+        callback.onComplete(getFirstMediaInBucket(context, bucketId, limit));
+      }
+
+      List<Media> media = index.getMediaInBucket(bucketId, limit);
+
+      if (media != cached) {
+        callback.onComplete(media);
+      }
+    });
   }
 
   /**
@@ -65,90 +94,26 @@ class MediaRepository {
     AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> callback.onComplete(getPopulatedMedia(context, media)));
   }
 
+  /**
+   * Reads the newest media of a bucket straight from the media store, for showing before the media
+   * index has been built.
+   */
   @WorkerThread
-  private @NonNull List<MediaFolder> getFolders(@NonNull Context context) {
-    FolderResult imageFolders       = getFolders(context, Images.Media.EXTERNAL_CONTENT_URI);
-    FolderResult videoFolders       = getFolders(context, Video.Media.EXTERNAL_CONTENT_URI);
-    Map<String, FolderData> folders = new HashMap<>(imageFolders.getFolderData());
-
-    for (Map.Entry<String, FolderData> entry : videoFolders.getFolderData().entrySet()) {
-      if (folders.containsKey(entry.getKey())) {
-        folders.get(entry.getKey()).incrementCount(entry.getValue().getCount());
-      } else {
-        folders.put(entry.getKey(), entry.getValue());
-      }
-    }
-
-    Comparator<MediaFolder> folderNameSorter = (Comparator<MediaFolder>) (first, second) -> {
-      if (first == null || first.getTitle() == null) return 1;
-      if (second == null || second.getTitle() == null) return -1;
-      return first.getTitle().toLowerCase().compareTo(second.getTitle().toLowerCase());
-    };
-
-    List<MediaFolder> mediaFolders = Stream.of(folders.values()).map(folder -> new MediaFolder(folder.getThumbnail(),
-            folder.getTitle(),
-            folder.getCount(),
-            folder.getBucketId()))
-            .sorted(folderNameSorter)
-            .toList();
-
-    Uri allMediaThumbnail = imageFolders.getThumbnailTimestamp() > videoFolders.getThumbnailTimestamp() ? imageFolders.getThumbnail() : videoFolders.getThumbnail();
-    if (allMediaThumbnail != null) {
-      int allMediaCount = Stream.of(mediaFolders).reduce(0, (count, folder) -> count + folder.getItemCount());
-      mediaFolders.add(0, new MediaFolder(allMediaThumbnail, context.getString(R.string.MediaRepository_all_media), allMediaCount, Media.ALL_MEDIA_BUCKET_ID));
-    }
-
-    return mediaFolders;
-  }
-
-  @WorkerThread
-  private @NonNull FolderResult getFolders(@NonNull Context context, @NonNull Uri contentUri) {
-    Uri                     globalThumbnail    = null;
-    long                    thumbnailTimestamp = 0;
-    Map<String, FolderData> folders            = new HashMap<>();
-
-    String[] projection = new String[] { Images.Media.DATA, Images.Media.BUCKET_ID, Images.Media.BUCKET_DISPLAY_NAME, Images.Media.DATE_TAKEN };
-    String   selection  = Images.Media.DATA + " NOT NULL";
-    String   sortBy     = Images.Media.BUCKET_DISPLAY_NAME + " COLLATE NOCASE ASC, " + Images.Media.DATE_TAKEN + " DESC";
-
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, null, sortBy)) {
-      while (cursor != null && cursor.moveToNext()) {
-        String     path      = cursor.getString(cursor.getColumnIndexOrThrow(projection[0]));
-        Uri        thumbnail = Uri.fromFile(new File(path));
-        String     bucketId  = cursor.getString(cursor.getColumnIndexOrThrow(projection[1]));
-        String     title     = cursor.getString(cursor.getColumnIndexOrThrow(projection[2]));
-        long       timestamp = cursor.getLong(cursor.getColumnIndexOrThrow(projection[3]));
-        FolderData folder    = Util.getOrDefault(folders, bucketId, new FolderData(thumbnail, title, bucketId));
-
-        folder.incrementCount();
-        folders.put(bucketId, folder);
-
-        if (timestamp > thumbnailTimestamp) {
-          globalThumbnail    = thumbnail;
-          thumbnailTimestamp = timestamp;
-        }
-      }
-    }
-
-    return new FolderResult(globalThumbnail, thumbnailTimestamp, folders);
-  }
-
-  @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true);
-    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false);
+  private @NonNull List<Media> getFirstMediaInBucket(@NonNull Context context, @NonNull String bucketId, int limit) {
+    List<Media> images = getMediaInBucket(context, bucketId, Images.Media.EXTERNAL_CONTENT_URI, true, limit);
+    List<Media> videos = getMediaInBucket(context, bucketId, Video.Media.EXTERNAL_CONTENT_URI, false, limit);
     List<Media> media  = new ArrayList<>(images.size() + videos.size());
 
     media.addAll(images);
     media.addAll(videos);
     Collections.sort(media, (o1, o2) -> Long.compare(o2.getDate(), o1.getDate()));
 
-    return media;
+    return media.size() > limit ? new ArrayList<>(media.subList(0, limit)) : media;
   }
 
   @WorkerThread
-  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean hasOrientation) {
-    List<Media> media         = new LinkedList<>();
+  private @NonNull List<Media> getMediaInBucket(@NonNull Context context, @NonNull String bucketId, @NonNull Uri contentUri, boolean hasOrientation, int limit) {
+    List<Media> media         = new ArrayList<>(limit);
     String      selection     = Images.Media.BUCKET_ID + " = ? AND " + Images.Media.DATA + " NOT NULL";
     String[]    selectionArgs = new String[] { bucketId };
     String      sortBy        = Images.Media.DATE_TAKEN + " DESC";
@@ -166,7 +131,7 @@ class MediaRepository {
       selectionArgs = null;
     }
 
-    try (Cursor cursor = context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy)) {
+    try (Cursor cursor = query(context, contentUri, projection, selection, selectionArgs, sortBy, limit)) {
       while (cursor != null && cursor.moveToNext()) {
         Uri    uri         = Uri.withAppendedPath(contentUri, cursor.getString(cursor.getColumnIndexOrThrow(Images.Media._ID)));
         String mimetype    = cursor.getString(cursor.getColumnIndexOrThrow(Images.Media.MIME_TYPE));
@@ -183,6 +148,24 @@ class MediaRepository {
     return media;
   }
 
+  /**
+   * Queries at most {@code limit} rows. The media store rejects a LIMIT in the sort order from
+   * Android 11, where it takes the limit as a query argument instead.
+   */
+  @WorkerThread
+  private @Nullable Cursor query(@NonNull Context context, @NonNull Uri contentUri, @NonNull String[] projection, @NonNull String selection, @Nullable String[] selectionArgs, @NonNull String sortBy, int limit) {
+    if (Build.VERSION.SDK_INT >= 30) {
+      Bundle queryArgs = new Bundle();
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+      queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SORT_ORDER, sortBy);
+      queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, limit);
+      return context.getContentResolver().query(contentUri, projection, queryArgs, null);
+    } else {
+      return context.getContentResolver().query(contentUri, projection, selection, selectionArgs, sortBy + " LIMIT " + limit);
+    }
+  }
+
   @WorkerThread
   private List<Media> getPopulatedMedia(@NonNull Context context, @NonNull List<Media> media) {
     return Stream.of(media).map(m -> {
@@ -267,71 +250,6 @@ class MediaRepository {
     return new Media(media.getUri(), media.getMimeType(), media.getDate(), width, height, size, media.getBucketId(), media.getCaption());
   }
 
-  private static class FolderResult {
-    private final Uri                     thumbnail;
-    private final long                    thumbnailTimestamp;
-    private final Map<String, FolderData> folderData;
-
-    private FolderResult(@Nullable Uri thumbnail,
-                         long thumbnailTimestamp,
-                         @NonNull Map<String, FolderData> folderData)
-    {
-      this.thumbnail          = thumbnail;
-      this.thumbnailTimestamp = thumbnailTimestamp;
-      this.folderData         = folderData;
-    }
-
-    @Nullable Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    long getThumbnailTimestamp() {
-      return thumbnailTimestamp;
-    }
-
-    @NonNull Map<String, FolderData> getFolderData() {
-      return folderData;
-    }
-  }
-
-  private static class FolderData {
-    private final Uri    thumbnail;
-    private final String title;
-    private final String bucketId;
-
-    private int count;
-
-    private FolderData(Uri thumbnail, String title, String bucketId) {
-      this.thumbnail = thumbnail;
-      this.title     = title;
-      this.bucketId  = bucketId;
-    }
-
-    Uri getThumbnail() {
-      return thumbnail;
-    }
-
-    String getTitle() {
-      return title;
-    }
-
-    String getBucketId() {
-      return bucketId;
-    }
-
-    int getCount() {
-      return count;
-    }
-
-    void incrementCount() {
-      incrementCount(1);
-    }
-
-    void incrementCount(int amount) {
-      count += amount;
-    }
-  }
-
   interface Callback<E> {
     void onComplete(@NonNull E result);
   }
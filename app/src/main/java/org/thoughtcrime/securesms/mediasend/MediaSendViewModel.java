@@ -53,6 +53,8 @@ class MediaSendViewModel extends ViewModel {
   private CountButtonState.Visibility countButtonVisibility;
   private boolean                     sentMedia;
   private Optional<Media>             lastImageCapture;
+  private String                      bucketMediaId;
+  private int                         bucketMediaLimit;
 
   private MediaSendViewModel(@NonNull Application application, @NonNull MediaRepository repository) {
     this.application            = application;
@@ -256,10 +258,33 @@ class MediaSendViewModel extends ViewModel {
   }
 
   @NonNull LiveData<List<Media>> getMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
-    repository.getMediaInBucket(context, bucketId, bucketMedia::postValue);
+    loadMediaInBucket(context, bucketId, MediaRepository.PAGE_SIZE);
     return bucketMedia;
   }
 
+  /**
+   * Loads the next page of the bucket's media, unless the bucket has no more.
+   */
+  void loadMoreMediaInBucket(@NonNull Context context, @NonNull String bucketId) {
+    List<Media> media = bucketMedia.getValue();
+
+    if (bucketId.equals(bucketMediaId) && media != null && media.size() >= bucketMediaLimit) {
+      loadMediaInBucket(context, bucketId, bucketMediaLimit + MediaRepository.PAGE_SIZE);
+    }
+  }
+
+  private void loadMediaInBucket(@NonNull Context context, @NonNull String bucketId, int limit) {
+    bucketMediaId    = bucketId;
+    bucketMediaLimit = limit;
+
+    repository.getMediaInBucket(context, bucketId, limit, media -> Util.runOnMain(() -> {
+      // drop the results of requests since replaced by one for another bucket or page
+      if (bucketId.equals(bucketMediaId) && limit == bucketMediaLimit) {
+        bucketMedia.setValue(media);
+      }
+    }));
+  }
+
   @NonNull LiveData<List<MediaFolder>> getFolders(@NonNull Context context) {
     repository.getFolders(context, folders::postValue);
     return folders;
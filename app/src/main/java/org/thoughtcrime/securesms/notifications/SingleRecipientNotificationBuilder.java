@@ -11,6 +11,7 @@ import android.graphics.PorterDuff;
 import android.graphics.PorterDuffXfermode;
 import android.graphics.Rect;
 import android.graphics.RectF;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Build;
@@ -248,6 +249,11 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
 
       if (recipientPhotoBitmap != null) {
         setLargeIcon(getCircularBitmap(recipientPhotoBitmap));
+
+        // A BitmapDrawable hands out the bitmap it draws, which for placeholders is shared
+        if (!(drawable instanceof BitmapDrawable)) {
+          recipientPhotoBitmap.recycle();
+        }
       }
     }
   }
@@ -267,8 +273,6 @@ public class SingleRecipientNotificationBuilder extends AbstractNotificationBuil
     paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_IN));
     canvas.drawBitmap(bitmap, rect, rect, paint);
 
-    bitmap.recycle();
-
     return output;
   }
 
@@ -26,7 +26,6 @@ import org.session.libsignal.utilities.Log
 import org.thoughtcrime.securesms.ApplicationContext
 import org.thoughtcrime.securesms.conversation.v2.utilities.BaseDialog
 import org.thoughtcrime.securesms.util.FileProviderUtil
-import org.thoughtcrime.securesms.util.StreamUtil
 import java.io.File
 import java.io.FileOutputStream
 import java.io.IOException
@@ -64,16 +63,15 @@ class ShareLogsDialog : BaseDialog() {
                     return@launch
                 }
 
-                val inputStream = persistentLogger.logs.get().byteInputStream()
                 val updateValues = ContentValues()
                 if (outputUri.scheme == ContentResolver.SCHEME_FILE) {
-                    FileOutputStream(mediaUri.path).use { outputStream ->
-                        StreamUtil.copy(inputStream, outputStream)
+                    FileOutputStream(mediaUri.path).buffered().use { outputStream ->
+                        persistentLogger.exportLogs(outputStream)
                         MediaScannerConnection.scanFile(context, arrayOf(mediaUri.path), arrayOf("text/plain"), null)
                     }
                 } else {
-                    context.contentResolver.openOutputStream(mediaUri, "w").use { outputStream ->
-                        val total: Long = StreamUtil.copy(inputStream, outputStream)
+                    context.contentResolver.openOutputStream(mediaUri, "w")!!.buffered().use { outputStream ->
+                        val total: Long = persistentLogger.exportLogs(outputStream)
                         if (total > 0) {
                             updateValues.put(MediaStore.MediaColumns.SIZE, total)
                         }
@@ -4,9 +4,12 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.MergeCursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -33,6 +36,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
 import kotlin.Pair;
 
@@ -43,6 +47,8 @@ public class SearchRepository {
 
   private static final String TAG = SearchRepository.class.getSimpleName();
 
+  public static final int MESSAGE_PAGE_SIZE = 50;
+
   private static final Set<Character> BANNED_CHARACTERS = new HashSet<>();
   static {
     // Several ranges of invalid ASCII characters
@@ -68,6 +74,8 @@ public class SearchRepository {
   private final ContactAccessor        contactAccessor;
   private final Executor               executor;
 
+  private final AtomicReference<CancellationSignal> currentQuery = new AtomicReference<>();
+
   public SearchRepository(@NonNull Context context,
                           @NonNull SearchDatabase searchDatabase,
                           @NonNull ThreadDatabase threadDatabase,
@@ -85,26 +93,46 @@ public class SearchRepository {
     this.executor         = executor;
   }
 
+  /**
+   * Searches contacts, conversations and the first page of messages. Any query still in progress is cancelled,
+   * and its callback isn't called.
+   */
   public void query(@NonNull String query, @NonNull Callback<SearchResult> callback) {
+    CancellationSignal cancellationSignal = supersedeQuery();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(SearchResult.EMPTY);
       return;
     }
 
     executor.execute(() -> {
+      if (cancellationSignal.isCanceled()) return;
+
       Stopwatch timer = new Stopwatch("FtsQuery");
 
       String cleanQuery = sanitizeQuery(query);
       timer.split("clean");
 
-      Pair<CursorList<Contact>, List<String>> contacts = queryContacts(cleanQuery);
-      timer.split("contacts");
-
-      CursorList<GroupRecord> conversations = queryConversations(cleanQuery, contacts.getSecond());
-      timer.split("conversations");
+      Pair<CursorList<Contact>, List<String>> contacts      = null;
+      CursorList<GroupRecord>                 conversations = null;
+      CursorList<MessageResult>               messages;
 
-      CursorList<MessageResult> messages = queryMessages(cleanQuery);
-      timer.split("messages");
+      try {
+        contacts = queryContacts(cleanQuery, cancellationSignal);
+        timer.split("contacts");
+
+        cancellationSignal.throwIfCanceled();
+        conversations = queryConversations(cleanQuery, contacts.getSecond());
+        timer.split("conversations");
+
+        messages = queryMessages(cleanQuery, null, cancellationSignal);
+        timer.split("messages");
+      } catch (OperationCanceledException e) {
+        if (contacts != null) contacts.getFirst().close();
+        if (conversations != null) conversations.close();
+        Log.d(TAG, "Superseded query cancelled");
+        return;
+      }
 
       timer.stop(TAG);
 
@@ -112,41 +140,86 @@ public class SearchRepository {
     });
   }
 
+  /**
+   * Searches the page of messages that follows {@code after}, which was the last of the previous page. Any query
+   * still in progress is cancelled, and its callback isn't called.
+   */
+  public void queryMessages(@NonNull String query, @NonNull MessageResult after, @NonNull Callback<CursorList<MessageResult>> callback) {
+    CancellationSignal cancellationSignal = supersedeQuery();
+
+    executor.execute(() -> {
+      if (cancellationSignal.isCanceled()) return;
+
+      try {
+        callback.onResult(queryMessages(sanitizeQuery(query), after, cancellationSignal));
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "Superseded query cancelled");
+      }
+    });
+  }
+
   public void query(@NonNull String query, long threadId, @NonNull Callback<CursorList<MessageResult>> callback) {
+    CancellationSignal cancellationSignal = supersedeQuery();
+
     if (TextUtils.isEmpty(query)) {
       callback.onResult(CursorList.emptyList());
       return;
     }
 
     executor.execute(() -> {
+      if (cancellationSignal.isCanceled()) return;
+
       long startTime = System.currentTimeMillis();
-      CursorList<MessageResult> messages = queryMessages(sanitizeQuery(query), threadId);
+      CursorList<MessageResult> messages;
+      try {
+        messages = queryMessages(sanitizeQuery(query), threadId, cancellationSignal);
+      } catch (OperationCanceledException e) {
+        Log.d(TAG, "Superseded query cancelled");
+        return;
+      }
       Log.d(TAG, "[ConversationQuery] " + (System.currentTimeMillis() - startTime) + " ms");
 
       callback.onResult(messages);
     });
   }
 
-  private Pair<CursorList<Contact>, List<String>> queryContacts(String query) {
+  /**
+   * Cancels the query in progress, if any, without starting another.
+   */
+  public void cancelQuery() {
+    CancellationSignal previous = currentQuery.getAndSet(null);
+    if (previous != null) previous.cancel();
+  }
 
-    Cursor contacts = contactDatabase.queryContactsByName(query);
+  private CancellationSignal supersedeQuery() {
+    CancellationSignal cancellationSignal = new CancellationSignal();
+    CancellationSignal previous           = currentQuery.getAndSet(cancellationSignal);
+    if (previous != null) previous.cancel();
+    return cancellationSignal;
+  }
+
+  private Pair<CursorList<Contact>, List<String>> queryContacts(String query, CancellationSignal cancellationSignal) {
+
+    Cursor contacts = contactDatabase.queryContactsByName(query, cancellationSignal);
     List<Address> contactList = new ArrayList<>();
     List<String> contactStrings = new ArrayList<>();
 
-    while (contacts.moveToNext()) {
-      try {
-        Contact contact = contactDatabase.contactFromCursor(contacts);
-        String contactSessionId = contact.getSessionID();
-        Address address = Address.fromSerialized(contactSessionId);
-        contactList.add(address);
-        contactStrings.add(contactSessionId);
-      } catch (Exception e) {
-        Log.e("Loki", "Error building Contact from cursor in query", e);
+    try {
+      while (contacts.moveToNext()) {
+        try {
+          Contact contact = contactDatabase.contactFromCursor(contacts);
+          String contactSessionId = contact.getSessionID();
+          Address address = Address.fromSerialized(contactSessionId);
+          contactList.add(address);
+          contactStrings.add(contactSessionId);
+        } catch (Exception e) {
+          Log.e("Loki", "Error building Contact from cursor in query", e);
+        }
       }
+    } finally {
+      contacts.close();
     }
 
-    contacts.close();
-
     Cursor addressThreads = threadDatabase.searchConversationAddresses(query);
     Cursor individualRecipients = threadDatabase.getFilteredConversationList(contactList);
     if (individualRecipients == null && addressThreads == null) {
@@ -185,18 +258,28 @@ public class SearchRepository {
             : CursorList.emptyList();
   }
 
-  private CursorList<MessageResult> queryMessages(@NonNull String query) {
-    Cursor messages = searchDatabase.queryMessages(query);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
+  private CursorList<MessageResult> queryMessages(@NonNull String query, @Nullable MessageResult after, @NonNull CancellationSignal cancellationSignal) {
+    Cursor messages = searchDatabase.queryMessages(query, MESSAGE_PAGE_SIZE, after, cancellationSignal);
+    return messages != null ? cursorList(messages, new MessageModelBuilder(context))
                             : CursorList.emptyList();
   }
 
-  private CursorList<MessageResult> queryMessages(@NonNull String query, long threadId) {
-    Cursor messages = searchDatabase.queryMessages(query, threadId);
-    return messages != null ? new CursorList<>(messages, new MessageModelBuilder(context))
+  private CursorList<MessageResult> queryMessages(@NonNull String query, long threadId, @NonNull CancellationSignal cancellationSignal) {
+    Cursor messages = searchDatabase.queryMessages(query, threadId, cancellationSignal);
+    return messages != null ? cursorList(messages, new MessageModelBuilder(context))
                             : CursorList.emptyList();
   }
 
+  // Cursors are only run when the list loads them, which is when a cancelled query throws
+  private static <T> CursorList<T> cursorList(@NonNull Cursor cursor, @NonNull CursorList.ModelBuilder<T> modelBuilder) {
+    try {
+      return new CursorList<>(cursor, modelBuilder);
+    } catch (OperationCanceledException e) {
+      cursor.close();
+      throw e;
+    }
+  }
+
   /**
    * Unfortunately {@link DatabaseUtils#sqlEscapeString(String)} is not sufficient for our purposes.
    * MATCH queries have a separate format of their own that disallow most "special" characters.
@@ -303,8 +386,10 @@ public class SearchRepository {
       String    body                  = cursor.getString(cursor.getColumnIndexOrThrow(SearchDatabase.SNIPPET));
       long      sentMs                = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.NORMALIZED_DATE_SENT));
       long      threadId              = cursor.getLong(cursor.getColumnIndexOrThrow(MmsSmsColumns.THREAD_ID));
+      long      messageId             = cursor.getLong(cursor.getColumnIndexOrThrow(SearchDatabase.MESSAGE_ID));
+      boolean   isMms                 = cursor.getInt(cursor.getColumnIndexOrThrow(SearchDatabase.IS_MMS)) == 1;
 
-      return new MessageResult(conversationRecipient, messageRecipient, body, threadId, sentMs);
+      return new MessageResult(conversationRecipient, messageRecipient, body, threadId, sentMs, messageId, isMms);
     }
   }
 
@@ -14,17 +14,23 @@ public class MessageResult {
   public final String    bodySnippet;
   public final long      threadId;
   public final long      sentTimestampMs;
+  public final long      messageId;
+  public final boolean   isMms;
 
   public MessageResult(@NonNull Recipient conversationRecipient,
                        @NonNull Recipient messageRecipient,
                        @NonNull String bodySnippet,
                        long threadId,
-                       long sentTimestampMs)
+                       long sentTimestampMs,
+                       long messageId,
+                       boolean isMms)
   {
     this.conversationRecipient = conversationRecipient;
     this.messageRecipient      = messageRecipient;
     this.bodySnippet           = bodySnippet;
     this.threadId              = threadId;
     this.sentTimestampMs       = sentTimestampMs;
+    this.messageId             = messageId;
+    this.isMms                 = isMms;
   }
 }
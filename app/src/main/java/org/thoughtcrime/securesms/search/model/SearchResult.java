@@ -9,13 +9,14 @@ import org.session.libsession.utilities.GroupRecord;
 import org.thoughtcrime.securesms.database.CursorList;
 import org.thoughtcrime.securesms.database.model.ThreadRecord;
 
+import java.io.Closeable;
 import java.util.List;
 
 /**
  * Represents an all-encompassing search result that can contain various result for different
  * subcategories.
  */
-public class SearchResult {
+public class SearchResult implements Closeable {
 
   public static final SearchResult EMPTY = new SearchResult("", CursorList.emptyList(), CursorList.emptyList(), CursorList.emptyList());
 
@@ -71,6 +72,7 @@ public class SearchResult {
     messages.unregisterContentObserver(observer);
   }
 
+  @Override
   public void close() {
     contacts.close();
     conversations.close();
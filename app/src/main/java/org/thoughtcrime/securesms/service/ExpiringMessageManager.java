@@ -1,6 +1,7 @@
 package org.thoughtcrime.securesms.service;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import org.jetbrains.annotations.NotNull;
 import org.session.libsession.messaging.messages.control.ExpirationTimerUpdate;
@@ -15,14 +16,21 @@ import org.session.libsignal.messages.SignalServiceGroup;
 import org.session.libsignal.utilities.Log;
 import org.session.libsignal.utilities.guava.Optional;
 import org.thoughtcrime.securesms.database.MmsDatabase;
+import org.thoughtcrime.securesms.database.MmsSmsColumns;
+import org.thoughtcrime.securesms.database.MmsSmsDatabase;
 import org.thoughtcrime.securesms.database.SmsDatabase;
 import org.thoughtcrime.securesms.database.model.MessageRecord;
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.mms.MmsException;
 
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 
@@ -30,8 +38,14 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
 
   private static final String TAG = ExpiringMessageManager.class.getSimpleName();
 
-  private final TreeSet<ExpiringMessageReference> expiringMessageReferences = new TreeSet<>(new ExpiringMessageComparator());
-  private final Executor                          executor                  = Executors.newSingleThreadExecutor();
+  /**
+   * Messages are grouped into buckets of this width by expiry time, and each bucket is deleted in
+   * a single transaction once all of its messages have expired.
+   */
+  private static final long BUCKET_WIDTH_MILLIS = 1000;
+
+  private final TreeMap<Long, Set<ExpiringMessageReference>> expiringMessageBuckets = new TreeMap<>();
+  private final Executor                                      executor               = Executors.newSingleThreadExecutor();
 
   private final SmsDatabase smsDatabase;
   private final MmsDatabase mmsDatabase;
@@ -53,16 +67,28 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
   public void scheduleDeletion(long id, boolean mms, long startedAtTimestamp, long expiresInMillis) {
     long expiresAtMillis = startedAtTimestamp + expiresInMillis;
 
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.add(new ExpiringMessageReference(id, mms, expiresAtMillis));
-      expiringMessageReferences.notifyAll();
+    synchronized (expiringMessageBuckets) {
+      addReference(new ExpiringMessageReference(id, mms, expiresAtMillis));
+      expiringMessageBuckets.notifyAll();
     }
   }
 
   public void checkSchedule() {
-    synchronized (expiringMessageReferences) {
-      expiringMessageReferences.notifyAll();
+    synchronized (expiringMessageBuckets) {
+      expiringMessageBuckets.notifyAll();
+    }
+  }
+
+  private void addReference(ExpiringMessageReference reference) {
+    long bucket = (reference.expiresAtMillis + BUCKET_WIDTH_MILLIS - 1) / BUCKET_WIDTH_MILLIS * BUCKET_WIDTH_MILLIS;
+
+    Set<ExpiringMessageReference> references = expiringMessageBuckets.get(bucket);
+    if (references == null) {
+      references = new LinkedHashSet<>();
+      expiringMessageBuckets.put(bucket, references);
     }
+
+    references.add(reference);
   }
 
   @Override
@@ -180,25 +206,21 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
   private class LoadTask implements Runnable {
 
     public void run() {
-      SmsDatabase.Reader smsReader = smsDatabase.readerFor(smsDatabase.getExpirationStartedMessages());
-      MmsDatabase.Reader mmsReader = mmsDatabase.getExpireStartedMessages();
-
-      MessageRecord messageRecord;
-
-      while ((messageRecord = smsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
-      }
-
-      while ((messageRecord = mmsReader.getNext()) != null) {
-        expiringMessageReferences.add(new ExpiringMessageReference(messageRecord.getId(),
-                                                                   messageRecord.isMms(),
-                                                                   messageRecord.getExpireStarted() + messageRecord.getExpiresIn()));
+      MmsSmsDatabase mmsSmsDatabase = DatabaseComponent.get(context).mmsSmsDatabase();
+
+      try (Cursor cursor = mmsSmsDatabase.getExpireStartedMessages()) {
+        int idColumn        = cursor.getColumnIndexOrThrow(MmsSmsColumns.ID);
+        int transportColumn = cursor.getColumnIndexOrThrow(MmsSmsDatabase.TRANSPORT);
+        int expiresAtColumn = cursor.getColumnIndexOrThrow(MmsSmsDatabase.EXPIRES_AT);
+
+        synchronized (expiringMessageBuckets) {
+          while (cursor.moveToNext()) {
+            addReference(new ExpiringMessageReference(cursor.getLong(idColumn),
+                                                      MmsSmsDatabase.MMS_TRANSPORT.equals(cursor.getString(transportColumn)),
+                                                      cursor.getLong(expiresAtColumn)));
+          }
+        }
       }
-
-      smsReader.close();
-      mmsReader.close();
     }
   }
 
@@ -206,21 +228,25 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
   private class ProcessTask implements Runnable {
     public void run() {
       while (true) {
-        ExpiringMessageReference expiredMessage = null;
+        List<ExpiringMessageReference> expiredMessages = null;
 
-        synchronized (expiringMessageReferences) {
+        synchronized (expiringMessageBuckets) {
           try {
-            while (expiringMessageReferences.isEmpty()) expiringMessageReferences.wait();
+            while (expiringMessageBuckets.isEmpty()) expiringMessageBuckets.wait();
 
-            ExpiringMessageReference nextReference = expiringMessageReferences.first();
-            long                     waitTime      = nextReference.expiresAtMillis - System.currentTimeMillis();
+            long now      = System.currentTimeMillis();
+            long waitTime = expiringMessageBuckets.firstKey() - now;
 
             if (waitTime > 0) {
               ExpirationListener.setAlarm(context, waitTime);
-              expiringMessageReferences.wait(waitTime);
+              expiringMessageBuckets.wait(waitTime);
             } else {
-              expiredMessage = nextReference;
-              expiringMessageReferences.remove(nextReference);
+              expiredMessages = new ArrayList<>();
+
+              while (!expiringMessageBuckets.isEmpty() && expiringMessageBuckets.firstKey() <= now) {
+                Map.Entry<Long, Set<ExpiringMessageReference>> bucket = expiringMessageBuckets.pollFirstEntry();
+                expiredMessages.addAll(bucket.getValue());
+              }
             }
 
           } catch (InterruptedException e) {
@@ -228,12 +254,26 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
           }
         }
 
-        if (expiredMessage != null) {
-          if (expiredMessage.mms) mmsDatabase.deleteMessage(expiredMessage.id);
-          else                    smsDatabase.deleteMessage(expiredMessage.id);
+        if (expiredMessages != null) {
+          deleteExpiredMessages(expiredMessages);
         }
       }
     }
+
+    private void deleteExpiredMessages(List<ExpiringMessageReference> expiredMessages) {
+      long[] smsIds   = new long[expiredMessages.size()];
+      long[] mmsIds   = new long[expiredMessages.size()];
+      int    smsCount = 0;
+      int    mmsCount = 0;
+
+      for (ExpiringMessageReference reference : expiredMessages) {
+        if (reference.mms) mmsIds[mmsCount++] = reference.id;
+        else               smsIds[smsCount++] = reference.id;
+      }
+
+      DatabaseComponent.get(context).mmsSmsDatabase().deleteExpiredMessages(Arrays.copyOf(smsIds, smsCount),
+                                                                             Arrays.copyOf(mmsIds, mmsCount));
+    }
   }
 
   private static class ExpiringMessageReference {
@@ -262,17 +302,4 @@ public class ExpiringMessageManager implements SSKEnvironment.MessageExpirationM
     }
   }
 
-  private static class ExpiringMessageComparator implements Comparator<ExpiringMessageReference> {
-    @Override
-    public int compare(ExpiringMessageReference lhs, ExpiringMessageReference rhs) {
-      if      (lhs.expiresAtMillis < rhs.expiresAtMillis) return -1;
-      else if (lhs.expiresAtMillis > rhs.expiresAtMillis) return 1;
-      else if (lhs.id < rhs.id)                           return -1;
-      else if (lhs.id > rhs.id)                           return 1;
-      else if (!lhs.mms && rhs.mms)                       return -1;
-      else if (lhs.mms && !rhs.mms)                       return 1;
-      else                                                return 0;
-    }
-  }
-
 }
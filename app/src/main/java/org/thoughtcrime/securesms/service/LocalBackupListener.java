@@ -4,8 +4,10 @@ import android.content.Context;
 import android.content.Intent;
 
 import org.thoughtcrime.securesms.ApplicationContext;
+import org.thoughtcrime.securesms.dependencies.DatabaseComponent;
 import org.thoughtcrime.securesms.jobs.LocalBackupJob;
 import org.session.libsession.utilities.TextSecurePreferences;
+import org.session.libsignal.utilities.ThreadUtils;
 
 import java.util.concurrent.TimeUnit;
 
@@ -22,6 +24,8 @@ public class LocalBackupListener extends PersistentAlarmManagerListener {
   protected long onAlarm(Context context, long scheduledTime) {
     if (TextSecurePreferences.isBackupEnabled(context)) {
       ApplicationContext.getInstance(context).getJobManager().add(new LocalBackupJob());
+    } else {
+      ThreadUtils.queue(() -> DatabaseComponent.get(context).lokiBackupFilesDatabase().stopTrackingChanges());
     }
 
     long nextTime = System.currentTimeMillis() + INTERVAL;
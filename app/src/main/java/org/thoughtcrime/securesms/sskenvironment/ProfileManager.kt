@@ -4,7 +4,6 @@ import android.content.Context
 import org.session.libsession.messaging.contacts.Contact
 import org.session.libsession.utilities.SSKEnvironment
 import org.session.libsession.utilities.recipients.Recipient
-import org.thoughtcrime.securesms.ApplicationContext
 import org.thoughtcrime.securesms.dependencies.DatabaseComponent
 import org.thoughtcrime.securesms.jobs.RetrieveProfileAvatarJob
 
@@ -34,15 +33,15 @@ class ProfileManager : SSKEnvironment.ProfileManagerProtocol {
             contactDatabase.setContact(contact)
         }
         // Old API
-        val database = DatabaseComponent.get(context).recipientDatabase()
-        database.setProfileName(recipient, name)
-        recipient.notifyListeners()
+        if (recipient.resolve().profileName != name) {
+            val database = DatabaseComponent.get(context).recipientDatabase()
+            database.setProfileName(recipient, name)
+            recipient.notifyListeners()
+        }
     }
 
     override fun setProfilePictureURL(context: Context, recipient: Recipient, profilePictureURL: String) {
-        val job = RetrieveProfileAvatarJob(recipient, profilePictureURL)
-        val jobManager = ApplicationContext.getInstance(context).jobManager
-        jobManager.add(job)
+        RetrieveProfileAvatarJob.enqueue(context, recipient, profilePictureURL)
         val sessionID = recipient.address.serialize()
         val contactDatabase = DatabaseComponent.get(context).sessionContactDatabase()
         var contact = contactDatabase.getContactWithSessionID(sessionID)
@@ -74,4 +73,41 @@ class ProfileManager : SSKEnvironment.ProfileManagerProtocol {
         val database = DatabaseComponent.get(context).recipientDatabase()
         database.setUnidentifiedAccessMode(recipient, unidentifiedAccessMode)
     }
+
+    override fun setProfile(context: Context, recipient: Recipient, name: String?, profileKey: ByteArray?, profilePictureURL: String?) {
+        // New API
+        val sessionID = recipient.address.serialize()
+        val contactDatabase = DatabaseComponent.get(context).sessionContactDatabase()
+        var contact = contactDatabase.getContactWithSessionID(sessionID)
+        if (contact == null) contact = Contact(sessionID)
+        contact.threadID = DatabaseComponent.get(context).storage().getThreadId(recipient.address)
+        var contactChanged = false
+        if (name != null && contact.name != name) {
+            contact.name = name
+            contactChanged = true
+        }
+        if (profileKey != null && !contact.profilePictureEncryptionKey.contentEquals(profileKey)) {
+            contact.profilePictureEncryptionKey = profileKey
+            contactChanged = true
+        }
+        if (profilePictureURL != null && contact.profilePictureURL != profilePictureURL) {
+            contact.profilePictureURL = profilePictureURL
+            contactChanged = true
+        }
+        if (contactChanged) {
+            contactDatabase.setContact(contact)
+        }
+        // Old API
+        val profileName = name?.takeIf { it != recipient.resolve().profileName }
+        if (profileName != null || profileKey != null) {
+            val database = DatabaseComponent.get(context).recipientDatabase()
+            val unidentifiedAccessMode = if (profileKey != null) Recipient.UnidentifiedAccessMode.UNKNOWN else null
+            database.setProfile(recipient, profileName, profileKey, unidentifiedAccessMode)
+            recipient.notifyListeners()
+        }
+        // the job reads the profile key when it runs, so it's enqueued after the key is stored
+        if (profilePictureURL != null) {
+            RetrieveProfileAvatarJob.enqueue(context, recipient, profilePictureURL)
+        }
+    }
 }
\ No newline at end of file
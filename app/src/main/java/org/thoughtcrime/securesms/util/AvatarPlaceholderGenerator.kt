@@ -11,21 +11,36 @@ import android.graphics.Typeface
 import android.graphics.drawable.BitmapDrawable
 import android.text.TextPaint
 import android.text.TextUtils
+import android.util.LruCache
 import network.loki.messenger.R
 import org.session.libsignal.utilities.IdPrefix
-import java.math.BigInteger
 import java.security.MessageDigest
 import java.util.Locale
 
 object AvatarPlaceholderGenerator {
 
     private const val EMPTY_LABEL = "0"
+    private const val MAX_CACHE_SIZE = 4 * 1024 * 1024
+
+    /**
+     * Identifies a rendered placeholder. The color is the one resolved from the current theme, so
+     * that placeholders rendered for another theme are not reused.
+     */
+    private data class CacheKey(val pixelSize: Int, val color: Int, val label: String)
+
+    /**
+     * Rendered placeholders, which are never drawn on or recycled once cached so that every drawable
+     * handed out can share them.
+     */
+    private val cache = object : LruCache<CacheKey, Bitmap>(MAX_CACHE_SIZE) {
+        override fun sizeOf(key: CacheKey, value: Bitmap): Int = value.byteCount
+    }
 
     @JvmStatic
     fun generate(context: Context, pixelSize: Int, hashString: String, displayName: String?): BitmapDrawable {
         val hash: Long
         if (hashString.length >= 12 && hashString.matches(Regex("^[0-9A-Fa-f]+\$"))) {
-            hash = getSha512(hashString).substring(0 until 12).toLong(16)
+            hash = getSha512Prefix(hashString)
         } else {
             hash = 0
         }
@@ -40,6 +55,13 @@ object AvatarPlaceholderGenerator {
             else -> EMPTY_LABEL
         }
 
+        val key = CacheKey(pixelSize, colorPrimary, labelText)
+        val bitmap = cache.get(key) ?: render(pixelSize, colorPrimary, labelText).also { cache.put(key, it) }
+
+        return BitmapDrawable(context.resources, bitmap)
+    }
+
+    private fun render(pixelSize: Int, colorPrimary: Int, labelText: String): Bitmap {
         val bitmap = Bitmap.createBitmap(pixelSize, pixelSize, Bitmap.Config.ARGB_8888)
         val canvas = Canvas(bitmap)
 
@@ -61,7 +83,7 @@ object AvatarPlaceholderGenerator {
         textBounds.top += (areaRect.height() - textBounds.bottom) * 0.5f
         canvas.drawText(labelText, textBounds.left, textBounds.top - textPaint.ascent(), textPaint)
 
-        return BitmapDrawable(context.resources, bitmap)
+        return bitmap
     }
 
     fun extractLabel(content: String): String {
@@ -79,24 +101,11 @@ object AvatarPlaceholderGenerator {
         }.uppercase()
     }
 
-    private fun getSha512(input: String): String {
+    /**
+     * @return The first 12 hex digits of the SHA-512 of [input], as a number.
+     */
+    private fun getSha512Prefix(input: String): Long {
         val messageDigest = MessageDigest.getInstance("SHA-512").digest(input.toByteArray())
-
-        // Convert byte array into signum representation
-        val no = BigInteger(1, messageDigest)
-
-        // Convert message digest into hex value
-        var hashText: String = no.toString(16)
-
-        // Add preceding 0s to make it 32 bytes
-        if (hashText.length < 128) {
-            val sb = StringBuilder()
-            for (i in 0 until 128 - hashText.length) {
-                sb.append('0')
-            }
-            hashText = sb.append(hashText).toString()
-        }
-
-        return hashText
+        return messageDigest.take(6).fold(0L) { value, byte -> (value shl 8) or (byte.toLong() and 0xff) }
     }
-}
\ No newline at end of file
+}
@@ -8,6 +8,7 @@ import android.os.Build
 import android.os.Environment
 import android.provider.DocumentsContract
 import android.widget.Toast
+import androidx.annotation.VisibleForTesting
 import androidx.annotation.WorkerThread
 import androidx.documentfile.provider.DocumentFile
 import androidx.fragment.app.Fragment
@@ -16,6 +17,7 @@ import org.greenrobot.eventbus.EventBus
 import org.session.libsession.utilities.TextSecurePreferences
 import org.session.libsignal.utilities.ByteUtil
 import org.session.libsignal.utilities.Log
+import org.thoughtcrime.securesms.backup.BackupBlockFormat
 import org.thoughtcrime.securesms.backup.BackupEvent
 import org.thoughtcrime.securesms.backup.BackupPassphrase
 import org.thoughtcrime.securesms.backup.BackupProtos.SharedPreference
@@ -37,6 +39,12 @@ object BackupUtil {
     const val BACKUP_FILE_MIME_TYPE = "application/session-backup"
     const val BACKUP_PASSPHRASE_LENGTH = 30
 
+    /**
+     * The number of incremental backups made on top of a full backup before the next backup is a
+     * full one again, so that restoring never has to replay a long chain.
+     */
+    private const val MAX_INCREMENTAL_BACKUPS = 6
+
     fun getBackupRecords(context: Context): List<SharedPreference> {
         val prefName = MASTER_SECRET_UTIL_PREFERENCES_NAME
         val preferences = context.getSharedPreferences(prefName, 0)
@@ -150,9 +158,19 @@ object BackupUtil {
         val dirUri = getSelectedBackupDirIfValid(context)
                 ?: throw IOException("Backup save directory is not selected or invalid")
 
+        val backupFilesDatabase = DatabaseComponent.get(context).lokiBackupFilesDatabase()
+        val database = DatabaseComponent.get(context).openHelper().readableDatabase
+        val isTrackingChanges = backupFilesDatabase.startTrackingChanges()
+        val lastChangeId = backupFilesDatabase.getLastChangeId()
+        val chain = if (isTrackingChanges) getNextChain(context, database.version) else BackupBlockFormat.Chain.newBase()
+
         val date = Date()
         val timestamp = SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.US).format(date)
-        val fileName = String.format("session-%s.backup", timestamp)
+        val fileName = if (chain.isBase) {
+            String.format("session-%s.backup", timestamp)
+        } else {
+            String.format("session-%s-%d.backup", timestamp, chain.sequence)
+        }
 
         val fileUri = DocumentsContract.createDocument(
                 context.contentResolver,
@@ -168,9 +186,11 @@ object BackupUtil {
         try {
             FullBackupExporter.export(context,
                 AttachmentSecretProvider.getInstance(context).orCreateAttachmentSecret,
-                DatabaseComponent.get(context).openHelper().readableDatabase,
+                database,
                 fileUri,
-                backupPassword)
+                backupPassword,
+                chain,
+                lastChangeId)
         } catch (e: Exception) {
             // Delete the backup file on any error.
             DocumentsContract.deleteDocument(context.contentResolver, fileUri)
@@ -178,14 +198,55 @@ object BackupUtil {
         }
 
         //TODO Use real file size.
-        val record = DatabaseComponent.get(context).lokiBackupFilesDatabase()
-                .insertBackupFile(BackupFileRecord(fileUri, -1, date))
+        val record = backupFilesDatabase.insertBackupFile(BackupFileRecord(-1, fileUri, -1, date,
+                chain.id, chain.sequence, database.version))
+        backupFilesDatabase.deleteChanges(lastChangeId)
 
         Log.v(TAG, "A backup file was created: $fileUri")
 
         return record
     }
 
+    /**
+     * @return The next backup in the chain of the last backup, or a new full backup if there is no
+     * usable chain, it is long enough to be compacted, or the database schema changed since it began.
+     */
+    private fun getNextChain(context: Context, databaseVersion: Int): BackupBlockFormat.Chain {
+        val last = getLastBackup(context) ?: return BackupBlockFormat.Chain.newBase()
+        return getNextChain(last, databaseVersion, { getBackupChain(context, last) }) { uri ->
+            DocumentFile.fromSingleUri(context, uri)?.exists() == true
+        }
+    }
+
+    @VisibleForTesting
+    internal fun getNextChain(last: BackupFileRecord,
+                              databaseVersion: Int,
+                              getChain: () -> List<BackupFileRecord>,
+                              fileExists: (Uri) -> Boolean): BackupBlockFormat.Chain {
+        val chainId = last.chainId ?: return BackupBlockFormat.Chain.newBase()
+        if (last.chainSequence >= MAX_INCREMENTAL_BACKUPS || last.databaseVersion != databaseVersion) {
+            return BackupBlockFormat.Chain.newBase()
+        }
+        val chain = getChain()
+        val isComplete = chain.withIndex().all { (index, record) -> record.chainSequence == index }
+        val filesExist = chain.all { fileExists(it.uri) }
+        if (!isComplete || !filesExist) {
+            Log.w(TAG, "The last backup chain is incomplete, making a full backup.")
+            return BackupBlockFormat.Chain.newBase()
+        }
+        return BackupBlockFormat.Chain(chainId, last.chainSequence).next()
+    }
+
+    /**
+     * @return The backup files needed to restore [record], from its full backup up to itself.
+     */
+    @JvmStatic
+    fun getBackupChain(context: Context, record: BackupFileRecord): List<BackupFileRecord> {
+        val chainId = record.chainId ?: return listOf(record)
+        return DatabaseComponent.get(context).lokiBackupFilesDatabase().getBackupChain(chainId)
+                .filter { it.chainSequence <= record.chainSequence }
+    }
+
     @JvmStatic
     @JvmOverloads
     fun deleteAllBackupFiles(context: Context, except: Collection<BackupFileRecord>? = null) {
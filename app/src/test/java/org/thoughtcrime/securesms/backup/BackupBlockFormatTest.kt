@@ -0,0 +1,74 @@
+package org.thoughtcrime.securesms.backup
+
+import com.google.protobuf.ByteString
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.session.libsession.utilities.Conversions
+import org.thoughtcrime.securesms.backup.BackupProtos.BackupFrame
+import org.thoughtcrime.securesms.backup.BackupProtos.Header
+import java.io.IOException
+import java.util.Random
+import java.util.zip.Deflater
+
+class BackupBlockFormatTest {
+
+    private val cipherKey = randomBytes(32, 1)
+    private val macKey = randomBytes(32, 2)
+    private val iv = randomBytes(16, 3)
+
+    @Test
+    fun `text blocks round trip compressed`() {
+        val text = (0 until 10_000).joinToString(" ") { "INSERT INTO sms VALUES ($it)" }.toByteArray()
+
+        val block = BackupBlockFormat.encryptBlock(cipherKey, macKey, iv, 7, text, text.size, Deflater.DEFAULT_COMPRESSION)
+
+        assertTrue(block.size < text.size / 4)
+        assertArrayEquals(text, decrypt(block, 7))
+    }
+
+    @Test
+    fun `incompressible and empty blocks round trip`() {
+        val data = randomBytes(100_000, 4)
+
+        assertArrayEquals(data, decrypt(BackupBlockFormat.encryptBlock(cipherKey, macKey, iv, 1, data, data.size, Deflater.BEST_SPEED), 1))
+        assertArrayEquals(ByteArray(0), decrypt(BackupBlockFormat.encryptBlock(cipherKey, macKey, iv, 2, ByteArray(0), 0, Deflater.BEST_SPEED), 2))
+    }
+
+    @Test(expected = IOException::class)
+    fun `blocks read out of order are rejected`() {
+        val data = randomBytes(1000, 5)
+
+        decrypt(BackupBlockFormat.encryptBlock(cipherKey, macKey, iv, 1, data, data.size, Deflater.BEST_SPEED), 2)
+    }
+
+    @Test
+    fun `header version and chain survive serialization`() {
+        val chain = BackupBlockFormat.Chain.newBase().next()
+        val header = BackupBlockFormat.setVersion(Header.newBuilder().setIv(ByteString.copyFrom(iv)), chain).build()
+        val frame = BackupFrame.parseFrom(BackupFrame.newBuilder().setHeader(header).build().toByteArray())
+
+        assertEquals(BackupBlockFormat.VERSION, BackupBlockFormat.getVersion(frame.header))
+        assertEquals(chain, BackupBlockFormat.getChain(frame.header))
+    }
+
+    @Test
+    fun `headers without a version are the old format`() {
+        val header = Header.newBuilder().setIv(ByteString.copyFrom(iv)).build()
+
+        assertEquals(1, BackupBlockFormat.getVersion(header))
+        assertNull(BackupBlockFormat.getChain(header))
+    }
+
+    private fun decrypt(block: ByteArray, counter: Int): ByteArray {
+        val length = Conversions.byteArrayToInt(block)
+        assertEquals(block.size - 4, length)
+        return BackupBlockFormat.decryptBlock(cipherKey, macKey, iv, counter, block.copyOfRange(4, block.size))
+    }
+
+    private fun randomBytes(size: Int, seed: Long): ByteArray {
+        return ByteArray(size).also { Random(seed).nextBytes(it) }
+    }
+}
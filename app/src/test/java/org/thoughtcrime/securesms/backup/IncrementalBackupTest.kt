@@ -0,0 +1,195 @@
+package org.thoughtcrime.securesms.backup
+
+import android.app.Application
+import android.database.sqlite.SQLiteDatabase
+import android.net.Uri
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.mockito.kotlin.mock
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
+import org.thoughtcrime.securesms.backup.BackupBlockFormat.Chain
+import org.thoughtcrime.securesms.backup.BackupProtos.SqlStatement
+import org.thoughtcrime.securesms.crypto.AttachmentSecret
+import org.thoughtcrime.securesms.database.BackupFileRecord
+import org.thoughtcrime.securesms.database.LokiBackupFilesDatabase
+import org.thoughtcrime.securesms.database.SmsDatabase
+import org.thoughtcrime.securesms.util.BackupUtil
+import java.io.IOException
+import java.io.InputStream
+import java.util.Date
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class IncrementalBackupTest {
+
+    private val databaseVersion = 40
+    private val source = createDatabase()
+    private val target = createDatabase()
+
+    @After
+    fun tearDown() {
+        source.close()
+        target.close()
+    }
+
+    @Test
+    fun `the next backup continues a complete chain`() {
+        val chain = backupChain("chain", 3)
+
+        assertEquals(Chain("chain", 3), nextChain(chain))
+    }
+
+    @Test
+    fun `a full backup is made without a usable chain`() {
+        val chain = backupChain("chain", 3)
+
+        assertTrue(nextChain(listOf(chain.last().copy(chainId = null))).isBase)
+        assertTrue(nextChain(chain - chain[1]).isBase)
+        assertTrue(nextChain(chain) { it != chain[1].uri }.isBase)
+        assertTrue(BackupUtil.getNextChain(chain.last(), databaseVersion + 1, { chain }) { true }.isBase)
+    }
+
+    @Test
+    fun `long chains are restarted with a full backup`() {
+        var chain = backupChain("chain", 1)
+        var next = nextChain(chain)
+        while (!next.isBase) {
+            chain = chain + backupFile(next)
+            next = nextChain(chain)
+        }
+
+        assertNotEquals("chain", next.id)
+        assertTrue(chain.size > 2)
+    }
+
+    @Test
+    fun `backups restored in chain order are accepted`() {
+        checkChains(null)
+        checkChains(Chain("chain", 0))
+        checkChains(Chain("chain", 0), Chain("chain", 1), Chain("chain", 2))
+    }
+
+    @Test(expected = IOException::class)
+    fun `restoring must start from a full backup`() {
+        checkChains(Chain("chain", 1), Chain("chain", 2))
+    }
+
+    @Test(expected = IOException::class)
+    fun `missing backups are rejected`() {
+        checkChains(Chain("chain", 0), Chain("chain", 2))
+    }
+
+    @Test(expected = IOException::class)
+    fun `backups out of order are rejected`() {
+        checkChains(Chain("chain", 0), Chain("chain", 2), Chain("chain", 1))
+    }
+
+    @Test(expected = IOException::class)
+    fun `backups from another chain are rejected`() {
+        checkChains(Chain("chain", 0), Chain("other", 1))
+    }
+
+    @Test
+    fun `a full backup and its increment restore the latest rows`() {
+        for (id in 1L..3L) insertMessage(id, "Message $id")
+        replay(export { FullBackupExporter.exportTable(mock<AttachmentSecret>(), SmsDatabase.TABLE_NAME, it, this, null, null, 0) })
+        assertEquals(messages(source), messages(target))
+
+        source.execSQL("UPDATE ${SmsDatabase.TABLE_NAME} SET body = 'Edited' WHERE _id = 1")
+        source.execSQL("DELETE FROM ${SmsDatabase.TABLE_NAME} WHERE _id = 2")
+        insertMessage(4, "Message 4")
+        logChanges(1, 2, 4)
+        val expected = messages(source)
+        // changed after the backup read the change log, so left for the next one
+        source.execSQL("UPDATE ${SmsDatabase.TABLE_NAME} SET body = 'Too late' WHERE _id = 3")
+        logChanges(3)
+
+        replay(export { FullBackupExporter.exportChanges(mock<AttachmentSecret>(), SmsDatabase.TABLE_NAME, it, this, 3, 0) })
+
+        assertEquals(listOf(listOf<Any?>(1L, "Edited"), listOf<Any?>(3L, "Message 3"), listOf<Any?>(4L, "Message 4")), expected)
+        assertEquals(expected, messages(target))
+    }
+
+    private fun nextChain(chain: List<BackupFileRecord>, fileExists: (Uri) -> Boolean = { true }): Chain {
+        return BackupUtil.getNextChain(chain.last(), databaseVersion, { chain }, fileExists)
+    }
+
+    private fun backupChain(id: String, length: Int): List<BackupFileRecord> {
+        return (0 until length).map { backupFile(Chain(id, it)) }
+    }
+
+    private fun backupFile(chain: Chain): BackupFileRecord {
+        return BackupFileRecord(chain.sequence.toLong(), mock(), 0, Date(), chain.id, chain.sequence, databaseVersion)
+    }
+
+    // checks each backup against the one before it, as importFromUris does while reading their headers
+    private fun checkChains(vararg chains: Chain?) {
+        for ((index, chain) in chains.withIndex()) {
+            FullBackupImporter.checkChain(chains.getOrNull(index - 1), chain, index)
+        }
+    }
+
+    private fun createDatabase(): SQLiteDatabase {
+        return SQLiteDatabase.create(null).apply {
+            execSQL("CREATE TABLE ${SmsDatabase.TABLE_NAME} (_id INTEGER PRIMARY KEY, body TEXT, expires_in INTEGER DEFAULT 0)")
+            execSQL(LokiBackupFilesDatabase.CREATE_CHANGES_TABLE_COMMAND)
+        }
+    }
+
+    private fun insertMessage(id: Long, body: String) {
+        source.execSQL("INSERT INTO ${SmsDatabase.TABLE_NAME} (_id, body) VALUES (?, ?)", arrayOf<Any>(id, body))
+    }
+
+    private fun logChanges(vararg ids: Long) {
+        for (id in ids) {
+            source.execSQL("INSERT INTO ${LokiBackupFilesDatabase.CHANGES_TABLE_NAME} " +
+                "(${LokiBackupFilesDatabase.CHANGE_TABLE}, ${LokiBackupFilesDatabase.CHANGE_ROW_ID}) VALUES (?, ?)",
+                arrayOf<Any>(SmsDatabase.TABLE_NAME, id))
+        }
+    }
+
+    private fun messages(database: SQLiteDatabase): List<List<Any?>> {
+        database.rawQuery("SELECT _id, body FROM ${SmsDatabase.TABLE_NAME} ORDER BY _id", null).use { cursor ->
+            val rows = mutableListOf<List<Any?>>()
+            while (cursor.moveToNext()) rows += listOf(cursor.getLong(0), cursor.getString(1))
+            return rows
+        }
+    }
+
+    private fun export(export: FullBackupExporter.RowOutputStream.(RowQuery) -> Unit): List<SqlStatement> {
+        val statements = mutableListOf<SqlStatement>()
+        val outputStream = object : FullBackupExporter.RowOutputStream {
+            override fun writeSql(statement: SqlStatement) {
+                statements += statement
+            }
+
+            override fun writeAttachment(attachmentId: AttachmentId, inputStream: InputStream, size: Long) {
+                throw AssertionError("No attachments expected")
+            }
+        }
+        outputStream.export { sql, args -> source.rawQuery(sql, args) }
+        return statements
+    }
+
+    // runs the statements as FullBackupImporter.processStatement does
+    private fun replay(statements: List<SqlStatement>) {
+        for (statement in statements) {
+            val args = statement.parametersList.map {
+                when {
+                    it.hasStringParamter() -> it.stringParamter
+                    it.hasDoubleParameter() -> it.doubleParameter
+                    it.hasIntegerParameter() -> it.integerParameter
+                    it.hasBlobParameter() -> it.blobParameter.toByteArray()
+                    else -> null
+                }
+            }
+            target.execSQL(statement.statement, args.toTypedArray())
+        }
+    }
+}
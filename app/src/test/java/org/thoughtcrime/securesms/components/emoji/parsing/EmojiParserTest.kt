@@ -0,0 +1,102 @@
+package org.thoughtcrime.securesms.components.emoji.parsing
+
+import android.net.Uri
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+import org.mockito.kotlin.mock
+import org.thoughtcrime.securesms.emoji.EmojiPage
+
+class EmojiParserTest {
+
+    private val page = EmojiPage.Asset(mock<Uri>())
+    private val skinTones = listOf("🏻", "🏼", "🏽", "🏾", "🏿")
+    private val emoji: List<String> =
+        (0x1F600..0x1F64F).map { String(Character.toChars(it)) } +
+        (0x1F44A..0x1F450).flatMap { base -> String(Character.toChars(base)).let { listOf(it) + skinTones.map { tone -> it + tone } } } +
+        listOf("❤️", "☺️", "1️⃣", "#️⃣",
+            "\uD83D\uDC68\u200D\uD83D\uDC69\u200D\uD83D\uDC67", "\uD83D\uDC68\u200D\uD83D\uDCBB", "👨")
+    private val drawInfo = emoji.mapIndexed { index, it -> it to EmojiDrawInfo(page, index, it, it, null) }.toMap()
+    private val emojiTree = EmojiTree().also { tree -> drawInfo.forEach { (emoji, info) -> tree.add(emoji, info) } }
+    private val referenceTree = ReferenceTree().also { tree -> drawInfo.forEach { (emoji, info) -> tree.add(emoji, info) } }
+
+    private val plainMessages = listOf(
+        "Hey, are you around later?", "Sure, 123 Main St at 7", "I'll bring the #1 snacks",
+        "Did you see the game last night? Unbelievable ending", "ok"
+    )
+    private val emojiMessages = listOf(
+        "😀😂😍", "❤", "❤️❤️", "👍🏽",
+        "Coding all night 👨‍💻☕", "Family day 👨‍👩‍👧 😊",
+        "1️⃣ then 2", "👨‍", "🙏🏿 thanks ☺"
+    )
+
+    @Test
+    fun `candidates match the character trie`() {
+        val parser = EmojiParser(emojiTree)
+
+        for (text in plainMessages + emojiMessages) {
+            val expected = referenceCandidates(text)
+            val actual = parser.findCandidates(text)
+
+            assertEquals(text, expected.second, actual.allEmojis)
+            assertEquals(text, expected.first, actual.map { Triple(it.startIndex, it.endIndex, it.drawInfo) })
+        }
+    }
+
+    @Test
+    fun `cached candidates are reused for the same text`() {
+        val parser = EmojiParser(emojiTree)
+
+        assertSame(parser.findCachedCandidates(emojiMessages[4]), parser.findCachedCandidates(StringBuilder(emojiMessages[4])))
+    }
+
+    // how EmojiParser found candidates before, checking each prefix from each position against a trie of chars
+    private fun referenceCandidates(text: String): Pair<List<Triple<Int, Int, EmojiDrawInfo?>>, Boolean> {
+        val results = mutableListOf<Triple<Int, Int, EmojiDrawInfo?>>()
+        var allEmojis = text.isNotEmpty()
+        var i = 0
+        while (i < text.length) {
+            var best = -1
+            for (j in i + 1..text.length) {
+                val status = referenceTree.isEmoji(text, i, j)
+                if (status == 0) best = j else if (status < 0) break
+            }
+            if (best != -1) {
+                val info = referenceTree.getEmoji(text, i, best)
+                if (best + 2 <= text.length && Fitzpatrick.fitzpatrickFromUnicode(text, best) != null) best += 2
+                results += Triple(i, best, info)
+                i = best
+            } else {
+                allEmojis = false
+                i++
+            }
+        }
+        return results to allEmojis
+    }
+
+    private class ReferenceTree {
+        private class Node(val children: MutableMap<Char, Node> = HashMap(), var emoji: EmojiDrawInfo? = null)
+
+        private val root = Node()
+
+        fun add(emoji: String, info: EmojiDrawInfo) {
+            var node = root
+            for (c in emoji) node = node.children.getOrPut(c) { Node() }
+            node.emoji = info
+        }
+
+        // 0 for an exact match, 1 for a possible one and -1 for an impossible one
+        fun isEmoji(text: String, start: Int, end: Int): Int {
+            var node = root
+            for (i in start until end) node = node.children[text[i]] ?: return -1
+            val terminated = node.children['\uFE0F']
+            return if (node.emoji != null || (text[end - 1] != '\uFE0F' && terminated?.emoji != null)) 0 else 1
+        }
+
+        fun getEmoji(text: String, start: Int, end: Int): EmojiDrawInfo? {
+            var node = root
+            for (i in start until end) node = node.children[text[i]] ?: return null
+            return node.emoji ?: if (text[end - 1] != '\uFE0F') node.children['\uFE0F']?.emoji else null
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.thoughtcrime.securesms.database
+
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.yield
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Change
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Kind
+import org.thoughtcrime.securesms.database.DatabaseChangeFeed.Table
+
+class DatabaseChangeFeedTest {
+
+    @Test
+    fun `listeners receive changes until removed`() {
+        val changes = mutableListOf<Change>()
+        val listener = DatabaseChangeFeed.Listener { changes += it }
+
+        DatabaseChangeFeed.addListener(listener)
+        assertTrue(DatabaseChangeFeed.hasListeners)
+        DatabaseChangeFeed.publish(Table.SMS, Kind.INSERT, 1L, 10L, 11L)
+        DatabaseChangeFeed.publishRecipient(Kind.UPDATE, "05alice")
+        DatabaseChangeFeed.removeListener(listener)
+        DatabaseChangeFeed.publish(Table.THREAD, Kind.DELETE, 1L)
+
+        assertFalse(DatabaseChangeFeed.hasListeners)
+        assertEquals(listOf(
+            Change(Table.SMS, Kind.INSERT, 1L, setOf(10L, 11L)),
+            Change(Table.RECIPIENT, Kind.UPDATE, DatabaseChangeFeed.NO_THREAD, address = "05alice")
+        ), changes)
+    }
+
+    @Test
+    fun `changes written in a transaction are published once it commits`() {
+        val changes = mutableListOf<Change>()
+        val listener = DatabaseChangeFeed.Listener { changes += it }
+        DatabaseChangeFeed.addListener(listener)
+
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.SMS, Kind.INSERT, 1L, 10L)
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, 1L)
+        DatabaseChangeFeed.setTransactionSuccessful()
+        DatabaseChangeFeed.endTransaction(true)
+        DatabaseChangeFeed.setTransactionSuccessful()
+
+        assertTrue(changes.isEmpty())
+        DatabaseChangeFeed.endTransaction(true)
+        DatabaseChangeFeed.removeListener(listener)
+
+        assertEquals(listOf(Change(Table.SMS, Kind.INSERT, 1L, setOf(10L)), Change(Table.THREAD, Kind.UPDATE, 1L)), changes)
+    }
+
+    @Test
+    fun `changes written in a rolled back transaction are not published`() {
+        val changes = mutableListOf<Change>()
+        val listener = DatabaseChangeFeed.Listener { changes += it }
+        DatabaseChangeFeed.addListener(listener)
+
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.SMS, Kind.INSERT, 1L, 10L)
+        DatabaseChangeFeed.endTransaction(true)
+
+        // an inner transaction that isn't marked successful rolls back the outer one too
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.MMS, Kind.INSERT, 1L, 11L)
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.THREAD, Kind.UPDATE, 1L)
+        DatabaseChangeFeed.endTransaction(true)
+        DatabaseChangeFeed.setTransactionSuccessful()
+        DatabaseChangeFeed.endTransaction(true)
+
+        // and so does a failed commit
+        DatabaseChangeFeed.beginTransaction()
+        DatabaseChangeFeed.publish(Table.MMS, Kind.DELETE, 1L, 12L)
+        DatabaseChangeFeed.setTransactionSuccessful()
+        DatabaseChangeFeed.endTransaction(false)
+
+        DatabaseChangeFeed.publish(Table.THREAD, Kind.DELETE, 2L)
+        DatabaseChangeFeed.removeListener(listener)
+
+        assertEquals(listOf(Change(Table.THREAD, Kind.DELETE, 2L)), changes)
+    }
+
+    @Test
+    fun `collectors don't drop changes published faster than they are collected`() = runBlocking {
+        val published = (0L until 1000L).map { Change(Table.MMS, Kind.UPDATE, it % 10, setOf(it)) }
+        val collected = async(start = CoroutineStart.UNDISPATCHED) {
+            DatabaseChangeFeed.changes().take(published.size).toList()
+        }
+        // let the collector start listening
+        yield()
+
+        published.forEach { DatabaseChangeFeed.publish(it) }
+
+        assertEquals(published, collected.await())
+    }
+}
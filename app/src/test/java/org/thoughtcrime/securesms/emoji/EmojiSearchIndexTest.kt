@@ -0,0 +1,44 @@
+package org.thoughtcrime.securesms.emoji
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.math.roundToInt
+
+class EmojiSearchIndexTest {
+
+    private val words = listOf("face", "grin", "smile", "happy", "cat", "heart", "red", "blue", "hand", "wave",
+        "thumbs", "up", "down", "sun", "moon", "star", "fire", "water", "tree", "flag", "person", "woman", "man",
+        "light", "dark", "skin", "tone", "joy", "tears", "laugh", "crying", "angry", "kiss", "eye", "party")
+    private val entries = (0 until 6000).map { i ->
+        val label = if (i % 3 == 0) words[i % words.size] else "${words[i % words.size]} ${words[(i / words.size) % words.size]}"
+        label to "emoji$i"
+    }
+    private val queries = words.flatMap { word -> (1..word.length).map { word.substring(0, it) } } +
+        listOf("ace", "mile", "ile", "art", "face grin", "Smile", "zzz", "q")
+
+    @Test
+    fun `queries match ranking every label`() {
+        val index = EmojiSearchIndex(entries)
+
+        for (query in queries) {
+            assertEquals(query, queryEveryLabel(query, 20), index.query(query, 20))
+        }
+    }
+
+    private fun queryEveryLabel(query: String, limit: Int): List<String> {
+        val term = query.lowercase()
+        return entries
+            .filter { it.first.contains(term) }
+            .sortedWith(compareBy { similarityScore(term, it.first) })
+            .distinctBy { it.second }
+            .take(limit)
+            .map { it.second }
+    }
+
+    private fun similarityScore(searchTerm: String, match: String): Int {
+        if (searchTerm == match) return 0
+        val startIndex = match.indexOf(searchTerm)
+        val suffixCount = match.length - (startIndex + searchTerm.length)
+        return ((startIndex * 1.5f) + suffixCount).roundToInt()
+    }
+}
@@ -0,0 +1,97 @@
+package org.thoughtcrime.securesms.glide.cache;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.session.libsession.utilities.Util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class EncryptedCoderTest {
+
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
+
+  private final EncryptedCoder coder     = new EncryptedCoder();
+  private final byte[]         masterKey = Util.getSecretBytes(32);
+
+  @Test
+  public void round_trip_small_entry() throws IOException {
+    byte[] data = randomBytes(1000);
+    File   file = folder.newFile();
+
+    write(file, data);
+
+    assertArrayEquals(data, read(file));
+  }
+
+  @Test
+  public void round_trip_large_entry_written_in_small_chunks() throws IOException {
+    byte[] data = randomBytes(1024 * 1024 + 123);
+    File   file = folder.newFile();
+
+    try (OutputStream outputStream = coder.createEncryptedOutputStream(masterKey, file)) {
+      for (int offset = 0; offset < data.length; offset += 4096) {
+        outputStream.write(data, offset, Math.min(4096, data.length - offset));
+      }
+    }
+
+    assertArrayEquals(data, read(file));
+  }
+
+  @Test
+  public void skip_keeps_decrypting_in_step() throws IOException {
+    byte[] data = randomBytes(100 * 1024);
+    File   file = folder.newFile();
+
+    write(file, data);
+
+    try (InputStream inputStream = coder.createEncryptedInputStream(masterKey, file)) {
+      assertEquals(70000, inputStream.skip(70000));
+      assertEquals(data[70000] & 0xff, inputStream.read());
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void wrong_key_is_rejected() throws IOException {
+    File file = folder.newFile();
+
+    write(file, randomBytes(100));
+
+    coder.createEncryptedInputStream(Util.getSecretBytes(32), file).close();
+  }
+
+  private void write(File file, byte[] data) throws IOException {
+    try (OutputStream outputStream = coder.createEncryptedOutputStream(masterKey, file)) {
+      outputStream.write(data);
+    }
+  }
+
+  private byte[] read(File file) throws IOException {
+    try (InputStream inputStream = coder.createEncryptedInputStream(masterKey, file)) {
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      byte[]                buffer       = new byte[8192];
+      int                   read;
+
+      while ((read = inputStream.read(buffer)) != -1) {
+        outputStream.write(buffer, 0, read);
+      }
+
+      return outputStream.toByteArray();
+    }
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(size).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,86 @@
+package org.thoughtcrime.securesms.imageeditor.model;
+
+import android.app.Application;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, application = Application.class)
+public final class ElementSnapshotTest {
+
+  private final EditorElement root  = new EditorElement(null);
+  private final EditorElement moved = new EditorElement(null);
+  private final EditorElement still = new EditorElement(null);
+
+  public ElementSnapshotTest() {
+    root.addElement(moved);
+    root.addElement(still);
+  }
+
+  @Test
+  public void unchanged_element_state_is_reused_across_pushes() {
+    ElementSnapshot first = ElementSnapshot.of(root, null);
+
+    moved.getLocalMatrix().postTranslate(10, 0);
+
+    ElementSnapshot second = ElementSnapshot.of(root, first);
+
+    assertSame(first.getChild(1), second.getChild(1));
+    assertSame(first.getState(), second.getState());
+    assertNotSame(first.getChild(0).getState(), second.getChild(0).getState());
+  }
+
+  @Test
+  public void unchanged_element_is_not_serialized_again() {
+    byte[] state = still.getState();
+
+    moved.getLocalMatrix().postScale(2, 2);
+    moved.getFlags().setVisible(false).persist();
+
+    assertSame(state, still.getState());
+    assertNotSame(state, moved.getState());
+  }
+
+  @Test
+  public void persisted_flag_changes_are_snapshotted() {
+    ElementSnapshot first = ElementSnapshot.of(root, null);
+
+    still.getFlags().setSelectable(false);
+    assertSame(first, ElementSnapshot.of(root, first));
+
+    still.getFlags().persist();
+    assertNotSame(first.getChild(1), ElementSnapshot.of(root, first).getChild(1));
+  }
+
+  @Test
+  public void push_of_unchanged_tree_is_skipped() {
+    ElementStack stack = new ElementStack(10);
+
+    assertTrue(stack.tryPush(root));
+    assertFalse(stack.tryPush(root));
+
+    still.getLocalMatrix().postRotate(90);
+
+    assertTrue(stack.tryPush(root));
+  }
+
+  @Test
+  public void restored_tree_matches_its_snapshot() {
+    moved.getLocalMatrix().postTranslate(5, 5);
+
+    ElementSnapshot snapshot = ElementSnapshot.of(root, null);
+    EditorElement   restored = snapshot.toElement();
+
+    assertEquals(snapshot, ElementSnapshot.of(restored, null));
+    assertSame(snapshot, ElementSnapshot.of(restored, snapshot));
+  }
+}
@@ -2,6 +2,10 @@ package org.thoughtcrime.securesms.linkpreview;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -70,4 +74,85 @@ public class LinkPreviewUtilTest {
   public void isLegal_emptyUrl() {
     assertFalse(LinkPreviewUtil.isLegalUrl(""));
   }
+
+  @Test
+  public void readHtmlHead_stopsAfterHead() throws IOException {
+    CountingInputStream page = new CountingInputStream(largePage("<html><head><title>Title</title></HEAD><body>"));
+    String              head = LinkPreviewUtil.readHtmlHead(page, Charset.forName("UTF-8"));
+
+    assertTrue(head.contains("<title>Title</title>"));
+    assertTrue(page.bytesRead < 64 * 1024);
+  }
+
+  @Test
+  public void readHtmlHead_stopsAtByteCap() throws IOException {
+    CountingInputStream page = new CountingInputStream(largePage("<html><head><title>Title</title>"));
+    String              head = LinkPreviewUtil.readHtmlHead(page, Charset.forName("UTF-8"));
+
+    assertTrue(head.startsWith("<html><head><title>Title</title>"));
+    assertTrue(page.bytesRead <= 256 * 1024);
+  }
+
+  @Test
+  public void parseOpenGraphFields_onlyReadsHead() throws IOException {
+    String html = "<html><head>\n" +
+                  "<title>\n  Html Title\n</title>\n" +
+                  "<link rel=\"shortcut icon\" href=\"https://example.com/favicon.png\">\n" +
+                  "<meta property=\"og:title\" content=\"Open Graph Title\"/>\n" +
+                  "<meta content='https://example.com/image.jpg' property='og:image'>\n" +
+                  "</head><body><meta property=\"og:title\" content=\"Ignored\"></body></html>";
+
+    String                    head      = LinkPreviewUtil.readHtmlHead(new ByteArrayInputStream(html.getBytes()), Charset.forName("UTF-8"));
+    LinkPreviewUtil.OpenGraph openGraph = LinkPreviewUtil.parseOpenGraphFields(head, text -> text);
+
+    assertEquals("Open Graph Title", openGraph.getTitle().get());
+    assertEquals("https://example.com/image.jpg", openGraph.getImageUrl().get());
+  }
+
+  @Test
+  public void parseOpenGraphFields_fallsBackToHtmlTitleAndFavicon() {
+    String html = "<html><head><title>\n  Html Title\n</title>" +
+                  "<link rel=\"icon\" href=\"https://example.com/favicon.png\"></head></html>";
+
+    LinkPreviewUtil.OpenGraph openGraph = LinkPreviewUtil.parseOpenGraphFields(html, text -> text);
+
+    assertEquals("Html Title", openGraph.getTitle().get());
+    assertEquals("https://example.com/favicon.png", openGraph.getImageUrl().get());
+  }
+
+  @Test
+  public void normalizeUrl_dropsFragmentAndCanonicalizesHost() {
+    assertEquals("https://example.com/path?q=1", LinkPreviewUtil.normalizeUrl("HTTPS://Example.com:443/path?q=1#section"));
+  }
+
+  private static InputStream largePage(String prefix) {
+    StringBuilder page = new StringBuilder(prefix);
+    while (page.length() < 4 * 1024 * 1024) {
+      page.append("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>");
+    }
+    return new ByteArrayInputStream(page.toString().getBytes());
+  }
+
+  private static class CountingInputStream extends InputStream {
+    private final InputStream inputStream;
+    private       long        bytesRead;
+
+    CountingInputStream(InputStream inputStream) {
+      this.inputStream = inputStream;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int read = inputStream.read();
+      if (read != -1) bytesRead++;
+      return read;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      int read = inputStream.read(buffer, offset, length);
+      if (read > 0) bytesRead += read;
+      return read;
+    }
+  }
 }
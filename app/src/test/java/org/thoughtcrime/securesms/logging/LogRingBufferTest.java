@@ -0,0 +1,72 @@
+package org.thoughtcrime.securesms.logging;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public final class LogRingBufferTest {
+
+  @Test
+  public void poll_returns_items_in_order() {
+    LogRingBuffer<Integer> buffer = new LogRingBuffer<>(4);
+
+    buffer.offer(1);
+    buffer.offer(2);
+    buffer.offer(3);
+
+    assertEquals(3, buffer.size());
+    assertEquals(Integer.valueOf(1), buffer.poll());
+    assertEquals(Integer.valueOf(2), buffer.poll());
+    assertEquals(Integer.valueOf(3), buffer.poll());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void offer_when_full_drops_oldest() {
+    LogRingBuffer<Integer> buffer = new LogRingBuffer<>(4);
+
+    for (int i = 0; i < 6; i++) {
+      buffer.offer(i);
+    }
+
+    assertEquals(2, buffer.takeDroppedCount());
+    assertEquals(0, buffer.takeDroppedCount());
+    assertEquals(Integer.valueOf(2), buffer.poll());
+    assertEquals(Integer.valueOf(3), buffer.poll());
+    assertEquals(Integer.valueOf(4), buffer.poll());
+    assertEquals(Integer.valueOf(5), buffer.poll());
+    assertNull(buffer.poll());
+  }
+
+  @Test
+  public void concurrent_producers_account_for_every_item() throws InterruptedException {
+    LogRingBuffer<Integer> buffer    = new LogRingBuffer<>(64);
+    Thread[]               producers = new Thread[4];
+
+    for (int i = 0; i < producers.length; i++) {
+      producers[i] = new Thread(() -> {
+        for (int j = 0; j < 1000; j++) {
+          buffer.offer(j);
+        }
+      });
+      producers[i].start();
+    }
+
+    for (Thread producer : producers) {
+      producer.join();
+    }
+
+    int polled = 0;
+    while (buffer.poll() != null) {
+      polled++;
+    }
+
+    assertEquals(4000, polled + buffer.takeDroppedCount());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void capacity_must_be_power_of_two() {
+    new LogRingBuffer<Integer>(5);
+  }
+}
@@ -0,0 +1,86 @@
+package org.session.libsession.messaging.sending_receiving
+
+import android.os.SystemClock
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.session.libsession.messaging.messages.Message
+import org.session.libsession.messaging.messages.control.CallMessage
+import org.session.libsession.messaging.messages.control.ClosedGroupControlMessage
+import org.session.libsession.messaging.messages.control.ConfigurationMessage
+import org.session.libsession.messaging.messages.control.DataExtractionNotification
+import org.session.libsession.messaging.messages.control.ExpirationTimerUpdate
+import org.session.libsession.messaging.messages.control.MessageRequestResponse
+import org.session.libsession.messaging.messages.control.ReadReceipt
+import org.session.libsession.messaging.messages.control.TypingIndicator
+import org.session.libsession.messaging.messages.control.UnsendRequest
+import org.session.libsession.messaging.messages.visible.VisibleMessage
+import org.session.libsignal.protos.SignalServiceProtos.Content
+import org.session.libsignal.protos.SignalServiceProtos.DataExtractionNotification as DataExtractionNotificationProto
+import org.session.libsignal.protos.SignalServiceProtos.DataMessage
+import org.session.libsignal.protos.SignalServiceProtos.ReceiptMessage
+import org.session.libsignal.protos.SignalServiceProtos.TypingMessage
+import org.session.libsignal.protos.SignalServiceProtos.UnsendRequest as UnsendRequestProto
+import org.session.libsignal.utilities.Log
+
+@RunWith(AndroidJUnit4::class)
+class MessageDecodingBenchmark {
+
+    private val visibleMessage = Content.newBuilder().setDataMessage(DataMessage.newBuilder()
+        .setBody("Hello there")
+        .setProfile(DataMessage.LokiProfile.newBuilder().setDisplayName("Alice"))
+        .setTimestamp(1000)).build()
+    private val quotingMessage = Content.newBuilder().setDataMessage(DataMessage.newBuilder()
+        .setBody("General Kenobi")
+        .setQuote(DataMessage.Quote.newBuilder().setId(1000).setAuthor("05alice").setText("Hello there"))
+        .setProfile(DataMessage.LokiProfile.newBuilder().setDisplayName("Bob"))
+        .setTimestamp(2000)).build()
+    private val readReceipt = Content.newBuilder().setReceiptMessage(ReceiptMessage.newBuilder()
+        .setType(ReceiptMessage.Type.READ).addTimestamp(1000).addTimestamp(2000)).build()
+    private val typingIndicator = Content.newBuilder().setTypingMessage(TypingMessage.newBuilder()
+        .setTimestamp(3000).setAction(TypingMessage.Action.STARTED)).build()
+    private val expirationTimerUpdate = Content.newBuilder().setDataMessage(DataMessage.newBuilder()
+        .setFlags(DataMessage.Flags.EXPIRATION_TIMER_UPDATE_VALUE).setExpireTimer(3600)).build()
+    private val unsendRequest = Content.newBuilder().setUnsendRequest(UnsendRequestProto.newBuilder()
+        .setTimestamp(1000).setAuthor("05alice")).build()
+    private val dataExtractionNotification = Content.newBuilder().setDataExtractionNotification(DataExtractionNotificationProto.newBuilder()
+        .setType(DataExtractionNotificationProto.Type.SCREENSHOT)).build()
+
+    // mostly visible messages, with the control messages that accompany them
+    private val mix = List(60) { visibleMessage } + List(15) { quotingMessage } + List(10) { readReceipt } +
+        List(10) { typingIndicator } + List(2) { expirationTimerUpdate } + List(2) { unsendRequest } +
+        List(1) { dataExtractionNotification }
+
+    private val data = List(100) { mix }.flatten().map { it.toByteArray() }
+
+    @Test
+    fun decodingThroughput() {
+        val everyParser = measure { decodeByTryingEveryParser(Content.parseFrom(it)) }
+        val singleParser = measure { MessageReceiver.decodeMessage(Content.parseFrom(it)) }
+
+        Log.d("Loki", "Decoding ${data.size} messages: ${(data.size / everyParser).toInt()} messages/s trying every parser, " +
+            "${(data.size / singleParser).toInt()} messages/s with a single parser.")
+    }
+
+    private fun measure(decode: (ByteArray) -> Message?): Double {
+        repeat(3) { assertEquals(data.size, data.count { decode(it) != null }) }
+
+        val start = SystemClock.elapsedRealtimeNanos()
+        data.forEach { decode(it) }
+        return (SystemClock.elapsedRealtimeNanos() - start) / 1_000_000_000.0
+    }
+
+    private fun decodeByTryingEveryParser(proto: Content): Message? {
+        return ReadReceipt.fromProto(proto) ?:
+            TypingIndicator.fromProto(proto) ?:
+            ClosedGroupControlMessage.fromProto(proto) ?:
+            DataExtractionNotification.fromProto(proto) ?:
+            ExpirationTimerUpdate.fromProto(proto) ?:
+            ConfigurationMessage.fromProto(proto) ?:
+            UnsendRequest.fromProto(proto) ?:
+            MessageRequestResponse.fromProto(proto) ?:
+            CallMessage.fromProto(proto) ?:
+            VisibleMessage.fromProto(proto)
+    }
+}
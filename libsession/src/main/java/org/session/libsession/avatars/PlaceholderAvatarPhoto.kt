@@ -12,4 +12,12 @@ class PlaceholderAvatarPhoto(val context: Context,
         messageDigest.update(hashString.encodeToByteArray())
         messageDigest.update(displayName.encodeToByteArray())
     }
-}
\ No newline at end of file
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is PlaceholderAvatarPhoto) return false
+        return hashString == other.hashString && displayName == other.displayName
+    }
+
+    override fun hashCode(): Int = 31 * hashString.hashCode() + displayName.hashCode()
+}
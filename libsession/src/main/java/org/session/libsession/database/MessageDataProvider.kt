@@ -1,5 +1,6 @@
 package org.session.libsession.database
 
+import android.media.MediaDataSource
 import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentId
 import org.session.libsession.messaging.sending_receiving.attachments.AttachmentState
@@ -7,6 +8,7 @@ import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAt
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentPointer
 import org.session.libsession.messaging.sending_receiving.attachments.SessionServiceAttachmentStream
 import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.MediaMetadata
 import org.session.libsession.utilities.UploadResult
 import org.session.libsession.utilities.recipients.Recipient
 import org.session.libsignal.messages.SignalServiceAttachmentPointer
@@ -33,12 +35,19 @@ interface MessageDataProvider {
     fun getSignalAttachmentPointer(attachmentId: Long): SignalServiceAttachmentPointer?
     fun setAttachmentState(attachmentState: AttachmentState, attachmentId: AttachmentId, messageID: Long)
     fun insertAttachment(messageId: Long, attachmentId: AttachmentId, stream : InputStream)
-    fun updateAudioAttachmentDuration(attachmentId: AttachmentId, durationMs: Long, threadId: Long)
+    fun getAttachmentDataSource(attachmentId: AttachmentId): MediaDataSource?
+    fun updateAttachmentMediaMetadata(attachmentId: AttachmentId, metadata: MediaMetadata, threadId: Long)
     fun isMmsOutgoing(mmsMessageId: Long): Boolean
     fun isOutgoingMessage(timestamp: Long): Boolean
     fun handleSuccessfulAttachmentUpload(attachmentId: Long, attachmentStream: SignalServiceAttachmentStream, attachmentKey: ByteArray, uploadResult: UploadResult)
     fun handleFailedAttachmentUpload(attachmentId: Long)
     fun getMessageForQuote(timestamp: Long, author: Address): Triple<Long, Boolean, String>?
+    /**
+     * Looks up the messages for many quotes at once, as [getMessageForQuote] does for one.
+     *
+     * @return the messages found, by the (timestamp, serialized author) pair of their quote
+     */
+    fun getMessagesForQuotes(quotes: Collection<Pair<Long, String>>): Map<Pair<Long, String>, Triple<Long, Boolean, String>>
     fun getAttachmentsAndLinkPreviewFor(mmsId: Long): List<Attachment>
     fun getMessageBodyFor(timestamp: Long, author: String): String
     fun getAttachmentIDsFor(messageID: Long): List<Long>
@@ -8,9 +8,8 @@ import org.session.libsession.messaging.sending_receiving.attachments.Attachment
 import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachment
 import org.session.libsession.messaging.utilities.Data
 import org.session.libsession.snode.OnionRequestAPI
-import org.session.libsession.utilities.DecodedAudio
 import org.session.libsession.utilities.DownloadUtilities
-import org.session.libsession.utilities.InputStreamMediaDataSource
+import org.session.libsession.utilities.MediaIngestionStream
 import org.session.libsignal.streams.AttachmentCipherInputStream
 import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.Log
@@ -128,24 +127,13 @@ class AttachmentDownloadJob(val attachmentID: Long, val databaseMessageID: Long)
                 }
             }
             Log.d("AttachmentDownloadJob", "getting input stream")
-            val inputStream = getInputStream(tempFile, attachment)
+            val inputStream = MediaIngestionStream(getInputStream(tempFile, attachment), attachment.contentType)
 
             Log.d("AttachmentDownloadJob", "inserting attachment")
             messageDataProvider.insertAttachment(databaseMessageID, attachment.attachmentId, inputStream)
-            if (attachment.contentType.startsWith("audio/")) {
-                // process the duration
-                    try {
-                        InputStreamMediaDataSource(getInputStream(tempFile, attachment)).use { mediaDataSource ->
-                            val durationMs = (DecodedAudio.create(mediaDataSource).totalDuration / 1000.0).toLong()
-                            messageDataProvider.updateAudioAttachmentDuration(
-                                attachment.attachmentId,
-                                durationMs,
-                                threadID
-                            )
-                        }
-                    } catch (e: Exception) {
-                        Log.e("Loki", "Couldn't process audio attachment", e)
-                    }
+            // Image dimensions come from the header that was just stored, audio and video are read back from the encrypted part
+            inputStream.extractMetadata(messageDataProvider.getAttachmentDataSource(attachment.attachmentId))?.let { metadata ->
+                messageDataProvider.updateAttachmentMediaMetadata(attachment.attachmentId, metadata, threadID)
             }
             Log.d("AttachmentDownloadJob", "deleting tempfile")
             tempFile.delete()
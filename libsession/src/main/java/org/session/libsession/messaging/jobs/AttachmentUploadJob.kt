@@ -12,8 +12,7 @@ import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.open_groups.OpenGroupApi
 import org.session.libsession.messaging.sending_receiving.MessageSender
 import org.session.libsession.messaging.utilities.Data
-import org.session.libsession.utilities.DecodedAudio
-import org.session.libsession.utilities.InputStreamMediaDataSource
+import org.session.libsession.utilities.MediaIngestionStream
 import org.session.libsession.utilities.UploadResult
 import org.session.libsignal.messages.SignalServiceAttachmentStream
 import org.session.libsignal.streams.*
@@ -110,17 +109,12 @@ class AttachmentUploadJob(val attachmentID: Long, val threadID: String, val mess
         val messageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
         messageDataProvider.handleSuccessfulAttachmentUpload(attachmentID, attachment, attachmentKey, uploadResult)
         if (attachment.contentType.startsWith("audio/")) {
-            // process the duration
-            try {
-                val inputStream = messageDataProvider.getAttachmentStream(attachmentID)!!.inputStream!!
-                InputStreamMediaDataSource(inputStream).use { mediaDataSource ->
-                    val durationMs = (DecodedAudio.create(mediaDataSource).totalDuration / 1000.0).toLong()
-                    messageDataProvider.getDatabaseAttachment(attachmentID)?.attachmentId?.let { attachmentId ->
-                        messageDataProvider.updateAudioAttachmentDuration(attachmentId, durationMs, threadID.toLong())
-                    }
+            // Read the audio back from the stored, encrypted part rather than keeping a plaintext copy of it
+            messageDataProvider.getDatabaseAttachment(attachmentID)?.attachmentId?.let { attachmentId ->
+                val storedData = messageDataProvider.getAttachmentDataSource(attachmentId) ?: return@let
+                MediaIngestionStream.extractStoredMetadata(attachment.contentType, storedData)?.let { metadata ->
+                    messageDataProvider.updateAttachmentMediaMetadata(attachmentId, metadata, threadID.toLong())
                 }
-            } catch (e: Exception) {
-                Log.e("Loki", "Couldn't process audio attachment", e)
             }
         }
         val storage = MessagingModuleConfiguration.shared.storage
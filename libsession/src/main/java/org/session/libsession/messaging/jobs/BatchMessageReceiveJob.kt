@@ -7,12 +7,12 @@ import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.runBlocking
 import nl.komponents.kovenant.Promise
 import nl.komponents.kovenant.task
-import org.session.libsession.database.StorageProtocol
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.messages.Message
 import org.session.libsession.messaging.messages.control.ExpirationTimerUpdate
 import org.session.libsession.messaging.messages.control.UnsendRequest
 import org.session.libsession.messaging.messages.visible.ParsedMessage
+import org.session.libsession.messaging.messages.visible.Profile
 import org.session.libsession.messaging.messages.visible.VisibleMessage
 import org.session.libsession.messaging.open_groups.OpenGroupApi
 import org.session.libsession.messaging.sending_receiving.*
@@ -57,13 +57,13 @@ class BatchMessageReceiveJob(
         private val OPEN_GROUP_ID_KEY = "open_group_id"
     }
 
-    private fun getThreadId(message: Message, storage: StorageProtocol): Long {
+    private fun getThreadId(message: Message, batchContext: ReceiveBatchContext): Long {
         val senderOrSync = when (message) {
             is VisibleMessage -> message.syncTarget ?: message.sender!!
             is ExpirationTimerUpdate -> message.syncTarget ?: message.sender!!
             else -> message.sender!!
         }
-        return storage.getOrCreateThreadIdFor(senderOrSync, message.groupPublicKey, openGroupID)
+        return batchContext.getOrCreateThreadIdFor(senderOrSync, message.groupPublicKey)
     }
 
     override fun execute(dispatcherName: String) {
@@ -77,6 +77,13 @@ class BatchMessageReceiveJob(
             val context = MessagingModuleConfiguration.shared.context
             val localUserPublicKey = storage.getUserPublicKey()
             val serverPublicKey = openGroupID?.let { storage.getOpenGroupPublicKey(it.split(".").dropLast(1).joinToString(".")) }
+            val userBlindedKey = serverPublicKey?.let { SodiumUtilities.blindedKeyPair(it, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) }?.let { SessionId(
+                    IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
+            // the latest profile of each sender in the batch
+            val profiles = mutableMapOf<String, Profile>()
+            val batchContext = ReceiveBatchContext(openGroupID)
+            // the messages quoted in the batch, by timestamp and author
+            val quotes = mutableSetOf<Pair<Long, String>>()
 
             // parse and collect IDs
             messages.forEach { messageParameters ->
@@ -84,8 +91,16 @@ class BatchMessageReceiveJob(
                 try {
                     val (message, proto) = MessageReceiver.parse(data, openGroupMessageServerID, openGroupPublicKey = serverPublicKey)
                     message.serverHash = serverHash
-                    val threadID = getThreadId(message, storage)
+                    val threadID = getThreadId(message, batchContext)
                     val parsedParams = ParsedMessage(messageParameters, message, proto)
+                    if (message is VisibleMessage) {
+                        message.profile?.let { profiles[message.sender!!] = it }
+                        if (message.quote != null && proto.dataMessage.hasQuote()) {
+                            val quote = proto.dataMessage.quote
+                            val author = if (quote.author == userBlindedKey && localUserPublicKey != null) localUserPublicKey else quote.author
+                            quotes += Pair(quote.id, author)
+                        }
+                    }
                     if (!threadMap.containsKey(threadID)) {
                         threadMap[threadID] = mutableListOf(parsedParams)
                     } else {
@@ -113,6 +128,18 @@ class BatchMessageReceiveJob(
                 }
             }
 
+            // apply each sender's profile once rather than once per message, and before their messages are persisted
+            profiles.forEach { (sender, profile) ->
+                if (sender == localUserPublicKey || sender == userBlindedKey) return@forEach
+                try {
+                    MessageReceiver.updateProfileIfNeeded(sender, profile)
+                } catch (e: Exception) {
+                    Log.e(TAG, "Couldn't update profile.", e)
+                }
+            }
+
+            batchContext.prefetchQuotes(quotes)
+
             // iterate over threads and persist them (persistence is the longest constant in the batch process operation)
             runBlocking(Dispatchers.IO) {
                 val deferredThreadMap = threadMap.entries.map { (threadId, messages) ->
@@ -127,12 +154,12 @@ class BatchMessageReceiveJob(
                                         val messageId = MessageReceiver.handleVisibleMessage(message, proto, openGroupID,
                                                 runIncrement = false,
                                                 runThreadUpdate = false,
-                                                runProfileUpdate = true
+                                                runProfileUpdate = false,
+                                                batchContext = batchContext
                                         )
 
                                         if (messageId != null && message.reaction == null) {
-                                            val isUserBlindedSender = message.sender == serverPublicKey?.let { SodiumUtilities.blindedKeyPair(it, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) }?.let { SessionId(
-                                                    IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
+                                            val isUserBlindedSender = message.sender == userBlindedKey
                                             messageIds[messageId] = Pair(
                                                 (message.sender == localUserPublicKey || isUserBlindedSender),
                                                 message.hasMention
@@ -11,12 +11,11 @@ import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.plus
 import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.sending_receiving.pollers.PollScheduler
 import org.session.libsignal.utilities.Log
-import java.util.Timer
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicInteger
-import kotlin.concurrent.schedule
 import kotlin.math.min
 import kotlin.math.pow
 import kotlin.math.roundToLong
@@ -34,7 +33,9 @@ class JobQueue : JobDelegate {
 
     private val openGroupChannels = mutableMapOf<String, Channel<Job>>()
 
-    val timer = Timer()
+    private val scheduler = PollScheduler.shared
+    // Jobs that were never added to the queue have no id to key their retries by
+    private val unidentifiedRetryCount = AtomicInteger()
 
     private fun CoroutineScope.processWithOpenGroupDispatcher(
         channel: Channel<Job>,
@@ -267,7 +268,8 @@ class JobQueue : JobDelegate {
             storage.persistJob(job)
             val retryInterval = getRetryInterval(job)
             Log.i("Loki", "${job::class.simpleName} failed (id: ${job.id}); scheduling retry (failure count is ${job.failureCount}).")
-            timer.schedule(delay = retryInterval) {
+            val retryKey = "job-retry-" + (job.id ?: "unidentified-${unidentifiedRetryCount.getAndIncrement()}")
+            scheduler.schedule(retryKey, retryInterval) {
                 Log.i("Loki", "Retrying ${job::class.simpleName} (id: ${job.id}).")
                 queue.trySend(job)
             }
@@ -675,7 +675,10 @@ object OpenGroupApi {
     @Suppress("UNCHECKED_CAST")
     fun poll(
         rooms: List<String>,
-        server: String
+        server: String,
+        includeCapabilities: Boolean = true,
+        roomsNeedingInfo: Set<String> = rooms.toSet(),
+        includeDirectMessages: Boolean = true
     ): Promise<List<BatchResponse<*>>, Exception> {
         val storage = MessagingModuleConfiguration.shared.storage
         val context = MessagingModuleConfiguration.shared.context
@@ -689,29 +692,34 @@ object OpenGroupApi {
         }
         val lastInboxMessageId = storage.getLastInboxMessageId(server)
         val lastOutboxMessageId = storage.getLastOutboxMessageId(server)
-        val requests = mutableListOf<BatchRequestInfo<*>>(
-            BatchRequestInfo(
-                request = BatchRequest(
-                    method = GET,
-                    path = "/capabilities"
-                ),
-                endpoint = Endpoint.Capabilities,
-                responseType = object : TypeReference<Capabilities>(){}
-            )
-        )
-        rooms.forEach { room ->
-            val infoUpdates = storage.getOpenGroup(room, server)?.infoUpdates ?: 0
-            val lastMessageServerId = storage.getLastMessageServerID(room, server) ?: 0L
+        val requests = mutableListOf<BatchRequestInfo<*>>()
+        if (includeCapabilities) {
             requests.add(
                 BatchRequestInfo(
                     request = BatchRequest(
                         method = GET,
-                        path = "/room/$room/pollInfo/$infoUpdates"
+                        path = "/capabilities"
                     ),
-                    endpoint = Endpoint.RoomPollInfo(room, infoUpdates),
-                    responseType = object : TypeReference<RoomPollInfo>(){}
+                    endpoint = Endpoint.Capabilities,
+                    responseType = object : TypeReference<Capabilities>(){}
                 )
             )
+        }
+        rooms.forEach { room ->
+            val lastMessageServerId = storage.getLastMessageServerID(room, server) ?: 0L
+            if (room in roomsNeedingInfo) {
+                val infoUpdates = storage.getOpenGroup(room, server)?.infoUpdates ?: 0
+                requests.add(
+                    BatchRequestInfo(
+                        request = BatchRequest(
+                            method = GET,
+                            path = "/room/$room/pollInfo/$infoUpdates"
+                        ),
+                        endpoint = Endpoint.RoomPollInfo(room, infoUpdates),
+                        responseType = object : TypeReference<RoomPollInfo>(){}
+                    )
+                )
+            }
             requests.add(
                 if (shouldRetrieveRecentMessages || lastMessageServerId == 0L) {
                     BatchRequestInfo(
@@ -735,7 +743,7 @@ object OpenGroupApi {
             )
         }
         val serverCapabilities = storage.getServerCapabilities(server)
-        if (serverCapabilities.contains(Capability.BLIND.name.lowercase())) {
+        if (includeDirectMessages && serverCapabilities.contains(Capability.BLIND.name.lowercase())) {
             requests.add(
                 if (lastInboxMessageId == null) {
                     BatchRequestInfo(
@@ -14,11 +14,18 @@ import org.session.libsignal.utilities.IdPrefix
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.hexEncodedPublicKey
 import org.session.libsignal.utilities.removingIdPrefixIfNeeded
+import java.util.concurrent.ConcurrentHashMap
 
 object MessageDecrypter {
 
     private val sodium by lazy { LazySodiumAndroid(SodiumAndroid()) }
 
+    /**
+     * The key pair that last decrypted a message of each closed group, which is most likely to decrypt the group's next
+     * message too, even when it isn't the group's latest key pair.
+     */
+    private val lastClosedGroupEncryptionKeyPairs = ConcurrentHashMap<String, ECKeyPair>()
+
     /**
      * Decrypts `ciphertext` using the Session protocol and `x25519KeyPair`.
      *
@@ -28,20 +35,54 @@ object MessageDecrypter {
      * @return the padded plaintext.
      */
     public fun decrypt(ciphertext: ByteArray, x25519KeyPair: ECKeyPair): Pair<ByteArray, String> {
+        return decryptOrNull(ciphertext, x25519KeyPair) ?: throw Error.DecryptionFailed
+    }
+
+    /**
+     * Decrypts a closed group message by trying the group's key pairs, starting with the one that last decrypted a
+     * message of the group and then going from the newest key pair to the oldest.
+     *
+     * @param encryptionKeyPairs the group's key pairs, from oldest to newest.
+     *
+     * @return the padded plaintext.
+     */
+    fun decryptClosedGroupMessage(ciphertext: ByteArray, groupPublicKey: String, encryptionKeyPairs: List<ECKeyPair>): Pair<ByteArray, String> {
+        val lastKeyPair = lastClosedGroupEncryptionKeyPairs[groupPublicKey]?.let { lastKeyPair ->
+            encryptionKeyPairs.lastOrNull { it.publicKey == lastKeyPair.publicKey }
+        }
+        if (lastKeyPair != null) {
+            decryptOrNull(ciphertext, lastKeyPair)?.let { return it }
+        }
+        for (encryptionKeyPair in encryptionKeyPairs.asReversed()) {
+            if (encryptionKeyPair === lastKeyPair) continue
+            val decryptionResult = decryptOrNull(ciphertext, encryptionKeyPair) ?: continue
+            lastClosedGroupEncryptionKeyPairs[groupPublicKey] = encryptionKeyPair
+            return decryptionResult
+        }
+        Log.e("Loki", "Failed to decrypt group message with any of ${encryptionKeyPairs.size} key pairs.")
+        throw Error.DecryptionFailed
+    }
+
+    /**
+     * Decrypts `ciphertext` like [decrypt], but returns null rather than throwing when `x25519KeyPair` isn't the key pair
+     * it was encrypted for, so that several key pairs can be tried cheaply.
+     */
+    private fun decryptOrNull(ciphertext: ByteArray, x25519KeyPair: ECKeyPair): Pair<ByteArray, String>? {
         val recipientX25519PrivateKey = x25519KeyPair.privateKey.serialize()
         val recipientX25519PublicKey = Hex.fromStringCondensed(x25519KeyPair.hexEncodedPublicKey.removingIdPrefixIfNeeded())
         val signatureSize = Sign.BYTES
         val ed25519PublicKeySize = Sign.PUBLICKEYBYTES
 
         // 1. ) Decrypt the message
+        if (ciphertext.size <= Box.SEALBYTES + signatureSize + ed25519PublicKeySize) { return null }
         val plaintextWithMetadata = ByteArray(ciphertext.size - Box.SEALBYTES)
-        try {
+        val isOpened = try {
             sodium.cryptoBoxSealOpen(plaintextWithMetadata, ciphertext, ciphertext.size.toLong(), recipientX25519PublicKey, recipientX25519PrivateKey)
         } catch (exception: Exception) {
             Log.d("Loki", "Couldn't decrypt message due to error: $exception.")
-            throw Error.DecryptionFailed
+            false
         }
-        if (plaintextWithMetadata.size <= (signatureSize + ed25519PublicKeySize)) { throw Error.DecryptionFailed }
+        if (!isOpened) { return null }
         // 2. ) Get the message parts
         val signature = plaintextWithMetadata.sliceArray(plaintextWithMetadata.size - signatureSize until plaintextWithMetadata.size)
         val senderED25519PublicKey = plaintextWithMetadata.sliceArray(plaintextWithMetadata.size - (signatureSize + ed25519PublicKeySize) until plaintextWithMetadata.size - signatureSize)
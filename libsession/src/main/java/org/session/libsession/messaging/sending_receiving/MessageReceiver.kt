@@ -17,7 +17,6 @@ import org.session.libsession.messaging.utilities.SodiumUtilities
 import org.session.libsignal.crypto.PushTransportDetails
 import org.session.libsignal.protos.SignalServiceProtos
 import org.session.libsignal.utilities.IdPrefix
-import org.session.libsignal.utilities.Log
 
 object MessageReceiver {
 
@@ -96,26 +95,10 @@ object MessageReceiver {
                     if (encryptionKeyPairs.isEmpty()) {
                         throw Error.NoGroupKeyPair
                     }
-                    // Loop through all known group key pairs in reverse order (i.e. try the latest key pair first (which'll more than
-                    // likely be the one we want) but try older ones in case that didn't work)
-                    var encryptionKeyPair = encryptionKeyPairs.removeLast()
-                    fun decrypt() {
-                        try {
-                            val decryptionResult = MessageDecrypter.decrypt(ciphertext.toByteArray(), encryptionKeyPair)
-                            plaintext = decryptionResult.first
-                            sender = decryptionResult.second
-                        } catch (e: Exception) {
-                            if (encryptionKeyPairs.isNotEmpty()) {
-                                encryptionKeyPair = encryptionKeyPairs.removeLast()
-                                decrypt()
-                            } else {
-                                Log.e("Loki", "Failed to decrypt group message", e)
-                                throw e
-                            }
-                        }
-                    }
+                    val decryptionResult = MessageDecrypter.decryptClosedGroupMessage(ciphertext.toByteArray(), hexEncodedGroupPublicKey, encryptionKeyPairs)
+                    plaintext = decryptionResult.first
+                    sender = decryptionResult.second
                     groupPublicKey = envelope.source
-                    decrypt()
                 }
                 else -> {
                     throw Error.UnknownEnvelopeType
@@ -129,16 +112,7 @@ object MessageReceiver {
         // Parse the proto
         val proto = SignalServiceProtos.Content.parseFrom(PushTransportDetails.getStrippedPaddingMessageBody(plaintext))
         // Parse the message
-        val message: Message = ReadReceipt.fromProto(proto) ?:
-            TypingIndicator.fromProto(proto) ?:
-            ClosedGroupControlMessage.fromProto(proto) ?:
-            DataExtractionNotification.fromProto(proto) ?:
-            ExpirationTimerUpdate.fromProto(proto) ?:
-            ConfigurationMessage.fromProto(proto) ?:
-            UnsendRequest.fromProto(proto) ?:
-            MessageRequestResponse.fromProto(proto) ?:
-            CallMessage.fromProto(proto) ?:
-            VisibleMessage.fromProto(proto) ?: run {
+        val message: Message = decodeMessage(proto) ?: run {
             throw Error.UnknownMessage
         }
         val isUserBlindedSender = sender == openGroupPublicKey?.let { SodiumUtilities.blindedKeyPair(it, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) }?.let { SessionId(IdPrefix.BLINDED, it.publicKey.asBytes).hexString }
@@ -179,4 +153,42 @@ object MessageReceiver {
         // Return
         return Pair(message, proto)
     }
+
+    private val parsers: List<(SignalServiceProtos.Content) -> Message?> = listOf(
+        { ReadReceipt.fromProto(it) },
+        { TypingIndicator.fromProto(it) },
+        { ClosedGroupControlMessage.fromProto(it) },
+        { DataExtractionNotification.fromProto(it) },
+        { ExpirationTimerUpdate.fromProto(it) },
+        { ConfigurationMessage.fromProto(it) },
+        { UnsendRequest.fromProto(it) },
+        { MessageRequestResponse.fromProto(it) },
+        { CallMessage.fromProto(it) },
+        { VisibleMessage.fromProto(it) }
+    )
+
+    /**
+     * Decodes `proto` starting from the parser for the kind of message it holds, as told by which of its fields are set,
+     * rather than by trying every parser in turn. The parsers before it can't match, so if it rejects `proto` the
+     * remaining parsers are tried in the same order as before, ending with visible messages.
+     */
+    internal fun decodeMessage(proto: SignalServiceProtos.Content): Message? {
+        val isDataMessage = proto.hasDataMessage()
+        val first = when {
+            proto.hasReceiptMessage() -> 0
+            proto.hasTypingMessage() -> 1
+            isDataMessage && proto.dataMessage.hasClosedGroupControlMessage() -> 2
+            proto.hasDataExtractionNotification() -> 3
+            isDataMessage && proto.dataMessage.flags.and(SignalServiceProtos.DataMessage.Flags.EXPIRATION_TIMER_UPDATE_VALUE) != 0 -> 4
+            proto.hasConfigurationMessage() -> 5
+            proto.hasUnsendRequest() -> 6
+            proto.hasMessageRequestResponse() -> 7
+            proto.hasCallMessage() -> 8
+            else -> parsers.lastIndex
+        }
+        for (index in first until parsers.size) {
+            parsers[index](proto)?.let { return it }
+        }
+        return null
+    }
 }
\ No newline at end of file
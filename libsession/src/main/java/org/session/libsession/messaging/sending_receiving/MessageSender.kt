@@ -23,7 +23,6 @@ import org.session.libsession.messaging.open_groups.OpenGroupMessage
 import org.session.libsession.messaging.utilities.MessageWrapper
 import org.session.libsession.messaging.utilities.SessionId
 import org.session.libsession.messaging.utilities.SodiumUtilities
-import org.session.libsession.snode.RawResponsePromise
 import org.session.libsession.snode.SnodeAPI
 import org.session.libsession.snode.SnodeMessage
 import org.session.libsession.snode.SnodeModule
@@ -34,7 +33,6 @@ import org.session.libsignal.crypto.PushTransportDetails
 import org.session.libsignal.protos.SignalServiceProtos
 import org.session.libsignal.utilities.*
 import java.util.concurrent.TimeUnit
-import java.util.concurrent.atomic.AtomicInteger
 import org.session.libsession.messaging.sending_receiving.attachments.Attachment as SignalAttachment
 import org.session.libsession.messaging.sending_receiving.link_preview.LinkPreview as SignalLinkPreview
 import org.session.libsession.messaging.sending_receiving.quotes.QuoteModel as SignalQuote
@@ -111,11 +109,11 @@ object MessageSender {
                 deferred.resolve(Unit)
                 return promise
             }
-            // Attach the user's profile if needed
-            if (message is VisibleMessage) {
+            // Attach the user's profile if needed, which sync messages already have from the original send
+            if (message is VisibleMessage && !isSyncMessage) {
                 message.profile = storage.getUserProfile()
             }
-            if (message is MessageRequestResponse) {
+            if (message is MessageRequestResponse && !isSyncMessage) {
                 message.profile = storage.getUserProfile()
             }
             // Convert it to protobuf
@@ -166,38 +164,27 @@ object MessageSender {
             if (destination is Destination.Contact && message is VisibleMessage && !isSelfSend) {
                 SnodeModule.shared.broadcaster.broadcast("sendingMessage", messageSendTime)
             }
-            namespaces.map { namespace -> SnodeAPI.sendMessage(snodeMessage, requiresAuth = false, namespace = namespace) }.let { promises ->
-                var isSuccess = false
-                val promiseCount = promises.size
-                val errorCount = AtomicInteger(0)
-                promises.forEach { promise: RawResponsePromise ->
-                    promise.success {
-                        if (isSuccess) { return@success } // Succeed as soon as the first promise succeeds
-                        isSuccess = true
-                        if (destination is Destination.Contact && message is VisibleMessage && !isSelfSend) {
-                            SnodeModule.shared.broadcaster.broadcast("messageSent", messageSendTime)
-                        }
-                        val hash = it["hash"] as? String
-                        message.serverHash = hash
-                        handleSuccessfulMessageSend(message, destination, isSyncMessage)
-                        val shouldNotify = ((message is VisibleMessage || message is UnsendRequest || message is CallMessage) && !isSyncMessage)
-                        /*
-                        if (message is ClosedGroupControlMessage && message.kind is ClosedGroupControlMessage.Kind.New) {
-                            shouldNotify = true
-                        }
-                         */
-                        if (shouldNotify) {
-                            val notifyPNServerJob = NotifyPNServerJob(snodeMessage)
-                            JobQueue.shared.add(notifyPNServerJob)
-                        }
-                        deferred.resolve(Unit)
-                    }
-                    promise.fail {
-                        errorCount.getAndIncrement()
-                        if (errorCount.get() != promiseCount) { return@fail } // Only error out if all promises failed
-                        handleFailure(it)
-                    }
+            // Store the message in every namespace with a single request, which succeeds if any of the stores does
+            SnodeAPI.sendMessageToNamespaces(snodeMessage, namespaces, requiresAuth = false).success { results ->
+                if (destination is Destination.Contact && message is VisibleMessage && !isSelfSend) {
+                    SnodeModule.shared.broadcaster.broadcast("messageSent", messageSendTime)
+                }
+                val hash = results.firstNotNullOfOrNull { it.getOrNull() }?.get("hash") as? String
+                message.serverHash = hash
+                handleSuccessfulMessageSend(message, destination, isSyncMessage)
+                val shouldNotify = ((message is VisibleMessage || message is UnsendRequest || message is CallMessage) && !isSyncMessage)
+                /*
+                if (message is ClosedGroupControlMessage && message.kind is ClosedGroupControlMessage.Kind.New) {
+                    shouldNotify = true
                 }
+                 */
+                if (shouldNotify) {
+                    val notifyPNServerJob = NotifyPNServerJob(snodeMessage)
+                    JobQueue.shared.add(notifyPNServerJob)
+                }
+                deferred.resolve(Unit)
+            }.fail {
+                handleFailure(it)
             }
         } catch (exception: Exception) {
             handleFailure(exception)
@@ -0,0 +1,85 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.session.libsession.database.MessageDataProvider
+import org.session.libsession.database.StorageProtocol
+import org.session.libsession.messaging.MessagingModuleConfiguration
+import org.session.libsession.messaging.utilities.SessionId
+import org.session.libsession.messaging.utilities.SodiumUtilities
+import org.session.libsession.utilities.Address
+import org.session.libsession.utilities.recipients.Recipient
+import org.session.libsignal.utilities.IdPrefix
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Resolves the lookups that the messages of a receive batch share, like the thread of each
+ * conversation, the thread's recipient and the user's blinded key in the batch's open group, once
+ * per batch rather than once per message. Quoted messages can be looked up for the whole batch up
+ * front with [prefetchQuotes].
+ *
+ * The threads of a batch are handled concurrently, so lookups may be made from several threads.
+ */
+class ReceiveBatchContext(
+    val openGroupID: String?,
+    private val storage: StorageProtocol = MessagingModuleConfiguration.shared.storage,
+    private val messageDataProvider: MessageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
+) {
+
+    val userPublicKey: String? by lazy { storage.getUserPublicKey() }
+
+    private val threadIDs = Memo<Triple<String, String?, String?>, Long>()
+    private val threadRecipients = Memo<Long, Recipient?>()
+    private val userBlindedKeys = Memo<Long, String?>()
+    // only found quotes are remembered, as a missing one may be a message stored later in the batch
+    private val quotes = ConcurrentHashMap<Pair<Long, String>, Triple<Long, Boolean, String>>()
+
+    fun getOrCreateThreadIdFor(publicKey: String, groupPublicKey: String?): Long {
+        return threadIDs.get(Triple(publicKey, groupPublicKey, openGroupID)) {
+            storage.getOrCreateThreadIdFor(publicKey, groupPublicKey, openGroupID)
+        }
+    }
+
+    fun getRecipientForThread(threadID: Long): Recipient? {
+        return threadRecipients.get(threadID) { storage.getRecipientForThread(threadID) }
+    }
+
+    /**
+     * @return the user's blinded key in the open group of the thread, or null outside open groups.
+     */
+    fun getUserBlindedKey(threadID: Long): String? {
+        if (openGroupID == null) return null
+        return userBlindedKeys.get(threadID) {
+            val openGroup = storage.getOpenGroup(threadID) ?: return@get null
+            val blindedKey = SodiumUtilities.blindedKeyPair(openGroup.publicKey, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) ?: return@get null
+            SessionId(IdPrefix.BLINDED, blindedKey.publicKey.asBytes).hexString
+        }
+    }
+
+    /**
+     * Looks up the messages quoted by the batch in a single query, by their timestamp and author.
+     */
+    fun prefetchQuotes(timestampsAndAuthors: Collection<Pair<Long, String>>) {
+        val missing = timestampsAndAuthors.filter { !quotes.containsKey(it) }
+        if (missing.isEmpty()) return
+        quotes.putAll(messageDataProvider.getMessagesForQuotes(missing))
+    }
+
+    fun getMessageForQuote(timestamp: Long, author: Address): Triple<Long, Boolean, String>? {
+        val key = Pair(timestamp, author.serialize())
+        return quotes[key] ?: messageDataProvider.getMessageForQuote(timestamp, author)?.also { quotes[key] = it }
+    }
+
+    /**
+     * A concurrent map of lookups that can remember null results.
+     */
+    private class Memo<K : Any, V> {
+        private val values = ConcurrentHashMap<K, Any>()
+
+        @Suppress("UNCHECKED_CAST")
+        fun get(key: K, lookup: () -> V): V {
+            val value = values[key] ?: (lookup() ?: NULL).also { values[key] = it }
+            return (if (value === NULL) null else value) as V
+        }
+
+        private object NULL
+    }
+}
@@ -1,6 +1,7 @@
 package org.session.libsession.messaging.sending_receiving
 
 import android.text.TextUtils
+import android.util.LruCache
 import org.session.libsession.avatars.AvatarHelper
 import org.session.libsession.messaging.MessagingModuleConfiguration
 import org.session.libsession.messaging.jobs.BackgroundGroupAddJob
@@ -16,6 +17,7 @@ import org.session.libsession.messaging.messages.control.ReadReceipt
 import org.session.libsession.messaging.messages.control.TypingIndicator
 import org.session.libsession.messaging.messages.control.UnsendRequest
 import org.session.libsession.messaging.messages.visible.Attachment
+import org.session.libsession.messaging.messages.visible.Profile
 import org.session.libsession.messaging.messages.visible.Reaction
 import org.session.libsession.messaging.messages.visible.VisibleMessage
 import org.session.libsession.messaging.open_groups.OpenGroupApi
@@ -214,54 +216,63 @@ fun handleMessageRequestResponse(message: MessageRequestResponse) {
 }
 //endregion
 
+/**
+ * The profile last applied for each sender, so that the profile carried by every message of a sender
+ * whose profile hasn't changed doesn't cost any database reads or writes.
+ */
+private val appliedProfiles = LruCache<String, ProfileFingerprint>(1000)
+
+private data class ProfileFingerprint(val displayName: String?, val profileKey: String?, val profilePictureURL: String?)
+
+fun MessageReceiver.updateProfileIfNeeded(sender: String, profile: Profile) {
+    val fingerprint = ProfileFingerprint(profile.displayName, profile.profileKey?.toHexString(), profile.profilePictureURL)
+    if (appliedProfiles.get(sender) == fingerprint) return
+    val context = MessagingModuleConfiguration.shared.context
+    val recipient = Recipient.from(context, Address.fromSerialized(sender), false)
+    val name = profile.displayName!!.takeIf { it.isNotEmpty() }
+    val newProfileKey = profile.profileKey
+
+    val needsProfilePicture = !AvatarHelper.avatarFileExists(context, Address.fromSerialized(sender))
+    val profileKeyValid = newProfileKey?.isNotEmpty() == true && (newProfileKey.size == 16 || newProfileKey.size == 32) && profile.profilePictureURL?.isNotEmpty() == true
+    val profileKeyChanged = (recipient.profileKey == null || !MessageDigest.isEqual(recipient.profileKey, newProfileKey))
+    val updatePicture = (profileKeyValid && profileKeyChanged) || (profileKeyValid && needsProfilePicture)
+
+    if (name != null || updatePicture) {
+        SSKEnvironment.shared.profileManager.setProfile(context, recipient, name,
+            newProfileKey.takeIf { updatePicture }, profile.profilePictureURL.takeIf { updatePicture })
+    }
+    // while the avatar is missing, keep applying the profile so that its download is retried
+    if (!profileKeyValid || !needsProfilePicture) {
+        appliedProfiles.put(sender, fingerprint)
+    }
+}
+
 fun MessageReceiver.handleVisibleMessage(message: VisibleMessage,
                                          proto: SignalServiceProtos.Content,
                                          openGroupID: String?,
                                          runIncrement: Boolean,
                                          runThreadUpdate: Boolean,
-                                         runProfileUpdate: Boolean): Long? {
+                                         runProfileUpdate: Boolean,
+                                         batchContext: ReceiveBatchContext = ReceiveBatchContext(openGroupID)): Long? {
     val storage = MessagingModuleConfiguration.shared.storage
-    val context = MessagingModuleConfiguration.shared.context
-    val userPublicKey = storage.getUserPublicKey()
-    val messageSender: String? = message.sender
+    val userPublicKey = batchContext.userPublicKey
+    val messageSender: String = message.sender!!
     // Get or create thread
     // FIXME: In case this is an open group this actually * doesn't * create the thread if it doesn't yet
     //        exist. This is intentional, but it's very non-obvious.
-    val threadID = storage.getOrCreateThreadIdFor(message.syncTarget ?: messageSender!!, message.groupPublicKey, openGroupID)
+    val threadID = batchContext.getOrCreateThreadIdFor(message.syncTarget ?: messageSender, message.groupPublicKey)
     if (threadID < 0) {
         // Thread doesn't exist; should only be reached in a case where we are processing open group messages for a no longer existent thread
         throw MessageReceiver.Error.NoThread
     }
-    val threadRecipient = storage.getRecipientForThread(threadID)
-    val userBlindedKey = openGroupID?.let {
-        val openGroup = storage.getOpenGroup(threadID) ?: return@let null
-        val blindedKey = SodiumUtilities.blindedKeyPair(openGroup.publicKey, MessagingModuleConfiguration.shared.getUserED25519KeyPair()!!) ?: return@let null
-        SessionId(
-            IdPrefix.BLINDED, blindedKey.publicKey.asBytes
-        ).hexString
-    }
+    val threadRecipient = batchContext.getRecipientForThread(threadID)
+    val userBlindedKey = batchContext.getUserBlindedKey(threadID)
     // Update profile if needed
-    val recipient = Recipient.from(context, Address.fromSerialized(messageSender!!), false)
     if (runProfileUpdate) {
         val profile = message.profile
         val isUserBlindedSender = messageSender == userBlindedKey
         if (profile != null && userPublicKey != messageSender && !isUserBlindedSender) {
-            val profileManager = SSKEnvironment.shared.profileManager
-            val name = profile.displayName!!
-            if (name.isNotEmpty()) {
-                profileManager.setName(context, recipient, name)
-            }
-            val newProfileKey = profile.profileKey
-
-            val needsProfilePicture = !AvatarHelper.avatarFileExists(context, Address.fromSerialized(messageSender))
-            val profileKeyValid = newProfileKey?.isNotEmpty() == true && (newProfileKey.size == 16 || newProfileKey.size == 32) && profile.profilePictureURL?.isNotEmpty() == true
-            val profileKeyChanged = (recipient.profileKey == null || !MessageDigest.isEqual(recipient.profileKey, newProfileKey))
-
-            if ((profileKeyValid && profileKeyChanged) || (profileKeyValid && needsProfilePicture)) {
-                profileManager.setProfileKey(context, recipient, newProfileKey!!)
-                profileManager.setUnidentifiedAccessMode(context, recipient, Recipient.UnidentifiedAccessMode.UNKNOWN)
-                profileManager.setProfilePictureURL(context, recipient, profile.profilePictureURL!!)
-            }
+            updateProfileIfNeeded(messageSender, profile)
         }
     }
     // Parse quote if needed
@@ -277,7 +288,7 @@ fun MessageReceiver.handleVisibleMessage(message: VisibleMessage,
         }
 
         val messageDataProvider = MessagingModuleConfiguration.shared.messageDataProvider
-        val messageInfo = messageDataProvider.getMessageForQuote(quote.id, author)
+        val messageInfo = batchContext.getMessageForQuote(quote.id, author)
         quoteMessageBody = messageInfo?.third
         quoteModel = if (messageInfo != null) {
             val attachments = if (messageInfo.second) messageDataProvider.getAttachmentsAndLinkPreviewFor(messageInfo.first) else ArrayList()
@@ -9,6 +9,8 @@ data class DatabaseAttachmentAudioExtras(
 
     companion object {
         const val DURATION_UNDEFINED = -1L
+        /** The amount of [visualSamples] computed for the visualization. */
+        const val VISUAL_RMS_FRAMES = 32
     }
 
     override fun equals(other: Any?): Boolean {
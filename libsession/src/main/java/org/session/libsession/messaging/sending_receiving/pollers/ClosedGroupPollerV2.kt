@@ -17,15 +17,11 @@ import org.session.libsignal.utilities.defaultRequiresAuth
 import org.session.libsignal.utilities.hasNamespaces
 import java.text.DateFormat
 import java.util.Date
-import java.util.concurrent.Executors
-import java.util.concurrent.ScheduledFuture
-import java.util.concurrent.TimeUnit
 import kotlin.math.min
 
 class ClosedGroupPollerV2 {
-    private val executorService = Executors.newScheduledThreadPool(1)
+    private val scheduler = PollScheduler.shared
     private var isPolling = mutableMapOf<String, Boolean>()
-    private var futures = mutableMapOf<String, ScheduledFuture<*>>()
 
     private fun isPolling(groupPublicKey: String): Boolean {
         return isPolling[groupPublicKey] ?: false
@@ -61,7 +57,7 @@ class ClosedGroupPollerV2 {
     }
 
     fun stopPolling(groupPublicKey: String) {
-        futures[groupPublicKey]?.cancel(false)
+        scheduler.cancel(taskKey(groupPublicKey))
         isPolling[groupPublicKey] = false
     }
 
@@ -87,16 +83,18 @@ class ClosedGroupPollerV2 {
         val limit: Long = 12 * 60 * 60 * 1000
         val a = (Companion.maxPollInterval - minPollInterval).toDouble() / limit.toDouble()
         val nextPollInterval = a * min(timeSinceLastMessage, limit) + minPollInterval
-        executorService?.schedule({
+        scheduler.schedule(taskKey(groupPublicKey), nextPollInterval.toLong()) {
             poll(groupPublicKey).success {
                 pollRecursively(groupPublicKey)
             }.fail {
                 // The error is logged in poll(_:)
                 pollRecursively(groupPublicKey)
             }
-        }, nextPollInterval.toLong(), TimeUnit.MILLISECONDS)
+        }
     }
 
+    private fun taskKey(groupPublicKey: String) = "closed-group-$groupPublicKey"
+
     fun poll(groupPublicKey: String): Promise<Unit, Exception> {
         if (!isPolling(groupPublicKey)) { return Promise.of(Unit) }
         val promise = SnodeAPI.getSwarm(groupPublicKey).bind { swarm ->
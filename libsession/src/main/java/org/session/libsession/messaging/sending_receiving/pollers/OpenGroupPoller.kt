@@ -30,37 +30,78 @@ import org.session.libsignal.protos.SignalServiceProtos
 import org.session.libsignal.utilities.Base64
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.successBackground
-import java.util.concurrent.ScheduledExecutorService
-import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
-class OpenGroupPoller(private val server: String, private val executorService: ScheduledExecutorService?) {
+class OpenGroupPoller(private val server: String, private val scheduler: PollScheduler?) {
     var hasStarted = false
     var isCaughtUp = false
     var secondToLastJob: MessageReceiveJob? = null
-    private var future: ScheduledFuture<*>? = null
+    private val taskKey = "open-group-$server"
+    private val roomActivity = ConcurrentHashMap<String, Activity>()
+    private val directMessageActivity = Activity()
+    @Volatile private var lastCapabilitiesUpdate = 0L
 
     companion object {
-        private const val pollInterval: Long = 4000L
+        private const val minPollInterval: Long = 4000L
+        private const val maxPollInterval: Long = 60 * 1000
+        private const val capabilitiesTTL: Long = 15 * 60 * 1000
+        private const val roomInfoTTL: Long = 60 * 1000
+        private const val trimGrowthInterval = 250
         const val maxInactivityPeriod = 14 * 24 * 60 * 60 * 1000
     }
 
+    /**
+     * Tracks how busy a room (or the server's inbox/outbox) is. Quiet rooms are polled less and
+     * less often, up to [maxPollInterval]; any new message brings the interval back down towards
+     * [minPollInterval].
+     */
+    private class Activity {
+        var interval = minPollInterval
+        var nextPollAt = 0L
+        var lastInfoUpdate = 0L
+        var messagesUntilTrim = -1
+
+        fun isDue(now: Long) = nextPollAt <= now
+
+        fun recordPoll(hadNewMessages: Boolean, now: Long) {
+            interval = if (hadNewMessages) {
+                maxOf(minPollInterval, interval / 4)
+            } else {
+                PollScheduler.backoff(interval, maxPollInterval, factor = 1.5)
+            }
+            nextPollAt = now + interval
+        }
+    }
+
     fun startIfNeeded() {
         if (hasStarted) { return }
         hasStarted = true
-        future = executorService?.schedule(::poll, 0, TimeUnit.MILLISECONDS)
+        scheduler?.schedule(taskKey, 0) { poll() }
     }
 
     fun stop() {
-        future?.cancel(false)
+        scheduler?.cancel(taskKey)
         hasStarted = false
     }
 
     fun poll(isPostCapabilitiesRetry: Boolean = false): Promise<Unit, Exception> {
         val storage = MessagingModuleConfiguration.shared.storage
         val rooms = storage.getAllOpenGroups().values.filter { it.server == server }.map { it.room }
+        val now = System.currentTimeMillis()
+        val dueRooms = rooms.filter { activityFor(it).isDue(now) }
+        val roomsNeedingInfo = dueRooms.filter { now - activityFor(it).lastInfoUpdate >= roomInfoTTL }.toSet()
+        val isBlinded = storage.getServerCapabilities(server).contains(OpenGroupApi.Capability.BLIND.name.lowercase())
+        val includeCapabilities = isPostCapabilitiesRetry || now - lastCapabilitiesUpdate >= capabilitiesTTL
+        val includeDirectMessages = isBlinded && directMessageActivity.isDue(now)
+        if (dueRooms.isEmpty() && !includeCapabilities && !includeDirectMessages) {
+            scheduleNextPoll(rooms, isBlinded)
+            return Promise.of(Unit)
+        }
 
-        return OpenGroupApi.poll(rooms, server).successBackground { responses ->
+        return OpenGroupApi.poll(dueRooms, server, includeCapabilities, roomsNeedingInfo, includeDirectMessages).successBackground { responses ->
+            val activeRooms = mutableSetOf<String>()
+            var hasNewDirectMessages = false
             responses.filterNot { it.body == null }.forEach { response ->
                 when (response.endpoint) {
                     is Endpoint.Capabilities -> {
@@ -68,46 +109,76 @@ class OpenGroupPoller(private val server: String, private val executorService: S
                     }
                     is Endpoint.RoomPollInfo -> {
                         handleRoomPollInfo(server, response.endpoint.roomToken, response.body as OpenGroupApi.RoomPollInfo)
+                        activityFor(response.endpoint.roomToken).lastInfoUpdate = now
                     }
                     is Endpoint.RoomMessagesRecent -> {
-                        handleMessages(server, response.endpoint.roomToken, response.body as List<OpenGroupApi.Message>)
+                        val messages = response.body as List<OpenGroupApi.Message>
+                        if (messages.isNotEmpty()) { activeRooms.add(response.endpoint.roomToken) }
+                        handleMessages(server, response.endpoint.roomToken, messages)
                     }
                     is Endpoint.RoomMessagesSince  -> {
-                        handleMessages(server, response.endpoint.roomToken, response.body as List<OpenGroupApi.Message>)
+                        val messages = response.body as List<OpenGroupApi.Message>
+                        if (messages.isNotEmpty()) { activeRooms.add(response.endpoint.roomToken) }
+                        handleMessages(server, response.endpoint.roomToken, messages)
                     }
                     is Endpoint.Inbox, is Endpoint.InboxSince -> {
-                        handleDirectMessages(server, false, response.body as List<OpenGroupApi.DirectMessage>)
+                        val messages = response.body as List<OpenGroupApi.DirectMessage>
+                        hasNewDirectMessages = hasNewDirectMessages || messages.isNotEmpty()
+                        handleDirectMessages(server, false, messages)
                     }
                     is Endpoint.Outbox, is Endpoint.OutboxSince -> {
-                        handleDirectMessages(server, true, response.body as List<OpenGroupApi.DirectMessage>)
+                        val messages = response.body as List<OpenGroupApi.DirectMessage>
+                        hasNewDirectMessages = hasNewDirectMessages || messages.isNotEmpty()
+                        handleDirectMessages(server, true, messages)
                     }
                 }
                 if (secondToLastJob == null && !isCaughtUp) {
                     isCaughtUp = true
                 }
             }
-            executorService?.schedule(this@OpenGroupPoller::poll, pollInterval, TimeUnit.MILLISECONDS)
+            dueRooms.forEach { activityFor(it).recordPoll(it in activeRooms, now) }
+            if (includeDirectMessages) {
+                directMessageActivity.recordPoll(hasNewDirectMessages, now)
+            }
+            scheduleNextPoll(rooms, isBlinded)
         }.fail {
             updateCapabilitiesIfNeeded(isPostCapabilitiesRetry, it)
         }.map { }
     }
 
+    private fun activityFor(room: String): Activity {
+        return roomActivity.getOrPut(room) { Activity() }
+    }
+
     private fun updateCapabilitiesIfNeeded(isPostCapabilitiesRetry: Boolean, exception: Exception) {
         if (exception is OnionRequestAPI.HTTPRequestFailedBlindingRequiredException) {
             if (!isPostCapabilitiesRetry) {
                 OpenGroupApi.getCapabilities(server).map {
                     handleCapabilities(server, it)
                 }
-                executorService?.schedule({ poll(isPostCapabilitiesRetry = true) }, pollInterval, TimeUnit.MILLISECONDS)
+                scheduleNextPoll(minPollInterval, isPostCapabilitiesRetry = true)
             }
         } else {
-            executorService?.schedule(this@OpenGroupPoller::poll, pollInterval, TimeUnit.MILLISECONDS)
+            scheduleNextPoll(minPollInterval)
         }
     }
 
+    private fun scheduleNextPoll(rooms: List<String>, isBlinded: Boolean) {
+        val now = System.currentTimeMillis()
+        val nextRoomPoll = rooms.minOfOrNull { activityFor(it).nextPollAt } ?: (now + maxPollInterval)
+        val nextPoll = if (isBlinded) minOf(nextRoomPoll, directMessageActivity.nextPollAt) else nextRoomPoll
+        scheduleNextPoll(maxOf(minPollInterval, nextPoll - now))
+    }
+
+    private fun scheduleNextPoll(delay: Long, isPostCapabilitiesRetry: Boolean = false) {
+        if (!hasStarted) { return }
+        scheduler?.schedule(taskKey, delay) { poll(isPostCapabilitiesRetry) }
+    }
+
     private fun handleCapabilities(server: String, capabilities: OpenGroupApi.Capabilities) {
         val storage = MessagingModuleConfiguration.shared.storage
         storage.setServerCapabilities(server, capabilities.capabilities)
+        lastCapabilitiesUpdate = System.currentTimeMillis()
     }
 
     private fun handleRoomPollInfo(
@@ -288,7 +359,24 @@ class OpenGroupPoller(private val server: String, private val executorService: S
         }
 
         if (envelopes.isNotEmpty()) {
+            trimThreadIfNeeded(roomToken, threadId, openGroupID, envelopes.size)
+        }
+    }
+
+    /**
+     * Only enqueues a [TrimThreadJob] once the thread has grown past the trim trigger size, and
+     * after that once every [trimGrowthInterval] new messages, rather than after every poll.
+     */
+    private fun trimThreadIfNeeded(roomToken: String, threadId: Long, openGroupID: String, newMessageCount: Int) {
+        val activity = activityFor(roomToken)
+        if (activity.messagesUntilTrim < 0) {
+            val messageCount = MessagingModuleConfiguration.shared.storage.getMessageCount(threadId)
+            activity.messagesUntilTrim = maxOf(0L, TrimThreadJob.THREAD_LENGTH_TRIGGER_SIZE - messageCount).toInt()
+        }
+        activity.messagesUntilTrim -= newMessageCount
+        if (activity.messagesUntilTrim <= 0) {
             JobQueue.shared.add(TrimThreadJob(threadId, openGroupID))
+            activity.messagesUntilTrim = trimGrowthInterval
         }
     }
 
@@ -0,0 +1,121 @@
+package org.session.libsession.messaging.sending_receiving.pollers
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import org.session.libsignal.utilities.Log
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * A single, coroutine based scheduler shared by the DM, closed group and open group pollers and by
+ * job retries. Every task runs on one thread, so callbacks should be short and hand off any heavy
+ * work (they typically just kick off a promise chain).
+ *
+ * Fire times are rounded up to a wakeup window: a short one while the app is in the foreground and
+ * a much longer one while it's in the background, so that tasks due around the same time share a
+ * single wakeup.
+ */
+class PollScheduler {
+    private val dispatcher = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "PollScheduler").apply { isDaemon = true }
+    }.asCoroutineDispatcher()
+    private val scope = CoroutineScope(SupervisorJob() + dispatcher)
+    private val tasks = ConcurrentHashMap<String, Job>()
+    private val statsLock = Any()
+    private val statsSince = System.currentTimeMillis()
+    private var lastWakeup = 0L
+    private var wakeups = 0L
+    private var coalescedWakeups = 0L
+
+    @Volatile
+    var isInBackground = false
+
+    data class Stats(
+        val scheduledTasks: Int,
+        val wakeups: Long,
+        val coalescedWakeups: Long,
+        val wakeupsPerMinute: Double
+    )
+
+    companion object {
+        private const val TAG = "PollScheduler"
+        private const val foregroundWindow: Long = 250
+        private const val backgroundWindow: Long = 15 * 1000
+        const val defaultJitter = 0.1
+
+        @JvmStatic
+        val shared: PollScheduler by lazy { PollScheduler() }
+
+        /**
+         * Grows [currentDelay] by [factor], capped at [maxDelay].
+         */
+        fun backoff(currentDelay: Long, maxDelay: Long, factor: Double = 1.2): Long {
+            return min(maxDelay, max(currentDelay + 1, (currentDelay * factor).toLong()))
+        }
+    }
+
+    /**
+     * Runs [action] after roughly [delay] milliseconds, replacing any task already scheduled under
+     * [key]. [jitter] is the fraction of the delay that the fire time may randomly deviate by.
+     */
+    fun schedule(key: String, delay: Long, jitter: Double = defaultJitter, action: () -> Unit) {
+        val fireAt = fireTimeFor(delay, jitter)
+        val job = scope.launch(start = CoroutineStart.LAZY) {
+            val remaining = fireAt - System.currentTimeMillis()
+            if (remaining > 0) { delay(remaining) }
+            recordWakeup(fireAt)
+            try {
+                action()
+            } catch (e: Exception) {
+                Log.e(TAG, "Scheduled task $key failed.", e)
+            }
+        }
+        tasks.put(key, job)?.cancel()
+        job.invokeOnCompletion { tasks.remove(key, job) }
+        job.start()
+    }
+
+    fun cancel(key: String) {
+        tasks.remove(key)?.cancel()
+    }
+
+    fun isScheduled(key: String): Boolean {
+        return tasks[key]?.isActive == true
+    }
+
+    fun stats(): Stats {
+        synchronized(statsLock) {
+            val minutes = max(1L, System.currentTimeMillis() - statsSince).toDouble() / 60_000
+            return Stats(tasks.size, wakeups, coalescedWakeups, wakeups / minutes)
+        }
+    }
+
+    private fun fireTimeFor(delay: Long, jitter: Double): Long {
+        val now = System.currentTimeMillis()
+        if (delay <= 0) { return now }
+        val spread = (delay * jitter).toLong()
+        val jittered = if (spread > 0) delay + Random.nextLong(-spread, spread + 1) else delay
+        val window = if (isInBackground) backgroundWindow else foregroundWindow
+        val target = now + max(0, jittered)
+        return ((target + window - 1) / window) * window
+    }
+
+    private fun recordWakeup(fireAt: Long) {
+        synchronized(statsLock) {
+            if (fireAt == lastWakeup) {
+                coalescedWakeups += 1
+            } else {
+                wakeups += 1
+                lastWakeup = fireAt
+            }
+        }
+    }
+}
@@ -15,8 +15,6 @@ import org.session.libsession.snode.SnodeModule
 import org.session.libsignal.utilities.Log
 import org.session.libsignal.utilities.Snode
 import java.security.SecureRandom
-import java.util.Timer
-import java.util.TimerTask
 
 private class PromiseCanceledException : Exception("Promise canceled.")
 
@@ -30,6 +28,7 @@ class Poller {
     companion object {
         private const val retryInterval: Long = 2 * 1000
         private const val maxInterval: Long = 15 * 1000
+        private const val taskKey = "poller"
     }
     // endregion
 
@@ -45,13 +44,13 @@ class Poller {
         Log.d("Loki", "Stopped polling.")
         hasStarted = false
         usedSnodes.clear()
+        PollScheduler.shared.cancel(taskKey)
     }
     // endregion
 
     // region Private API
     private fun setUpPolling(delay: Long) {
         if (!hasStarted) { return; }
-        val thread = Thread.currentThread()
         SnodeAPI.getSwarm(userPublicKey).bind {
             usedSnodes.clear()
             val deferred = deferred<Unit, Exception>()
@@ -59,18 +58,10 @@ class Poller {
             deferred.promise
         }.success {
             val nextDelay = if (isCaughtUp) retryInterval else 0
-            Timer().schedule(object : TimerTask() {
-                override fun run() {
-                    thread.run { setUpPolling(retryInterval) }
-                }
-            }, nextDelay)
+            PollScheduler.shared.schedule(taskKey, nextDelay) { setUpPolling(retryInterval) }
         }.fail {
-            val nextDelay = minOf(maxInterval, (delay * 1.2).toLong())
-            Timer().schedule(object : TimerTask() {
-                override fun run() {
-                    thread.run { setUpPolling(nextDelay) }
-                }
-            }, nextDelay)
+            val nextDelay = PollScheduler.backoff(delay, maxInterval)
+            PollScheduler.shared.schedule(taskKey, nextDelay) { setUpPolling(nextDelay) }
         }
     }
 
@@ -11,6 +11,7 @@ import com.goterl.lazysodium.interfaces.PwHash
 import com.goterl.lazysodium.interfaces.SecretBox
 import com.goterl.lazysodium.interfaces.Sign
 import com.goterl.lazysodium.utils.Key
+import com.goterl.lazysodium.utils.KeyPair
 import nl.komponents.kovenant.Promise
 import nl.komponents.kovenant.all
 import nl.komponents.kovenant.deferred
@@ -372,27 +373,10 @@ object SnodeAPI {
         return retryIfNeeded(maxRetryCount) {
             val module = MessagingModuleConfiguration.shared
             val userED25519KeyPair = module.getUserED25519KeyPair() ?: return@retryIfNeeded Promise.ofFail(Error.NoKeyPair)
-            val parameters = message.toJSON().toMutableMap<String,Any>()
-            // Construct signature
-            if (requiresAuth) {
-                val sigTimestamp = System.currentTimeMillis() + SnodeAPI.clockOffset
-                val ed25519PublicKey = userED25519KeyPair.publicKey.asHexString
-                val signature = ByteArray(Sign.BYTES)
-                // assume namespace here is non-zero, as zero namespace doesn't require auth
-                val verificationData = "store$namespace$sigTimestamp".toByteArray()
-                try {
-                    sodium.cryptoSignDetached(signature, verificationData, verificationData.size.toLong(), userED25519KeyPair.secretKey.asBytes)
-                } catch (exception: Exception) {
-                    return@retryIfNeeded Promise.ofFail(Error.SigningFailed)
-                }
-                parameters["sig_timestamp"] = sigTimestamp
-                parameters["pubkey_ed25519"] = ed25519PublicKey
-                parameters["signature"] = Base64.encodeBytes(signature)
-            }
-            // If the namespace is default (0) here it will be implicitly read as 0 on the storage server
-            // we only need to specify it explicitly if we want to (in future) or if it is non-zero
-            if (namespace != 0) {
-                parameters["namespace"] = namespace
+            val parameters = try {
+                getStoreParameters(message, requiresAuth, namespace, userED25519KeyPair)
+            } catch (exception: Exception) {
+                return@retryIfNeeded Promise.ofFail(exception)
             }
             getSingleTargetSnode(destination).bind { snode ->
                 invoke(Snode.Method.SendMessage, snode, parameters, destination)
@@ -400,6 +384,86 @@ object SnodeAPI {
         }
     }
 
+    /**
+     * Stores [message] in each of [namespaces] with a single batch request to the recipient's swarm, rather than
+     * resolving the swarm and building an onion request for each namespace.
+     *
+     * The batch is only failed, and retried, when every store in it fails. Otherwise it resolves to the result of
+     * each store, in the order of [namespaces].
+     */
+    fun sendMessageToNamespaces(message: SnodeMessage, namespaces: List<Int>, requiresAuth: Boolean = false): Promise<List<Result<RawResponse>>, Exception> {
+        if (namespaces.size == 1) {
+            return sendMessage(message, requiresAuth, namespaces.first()).map { listOf(Result.success(it)) }
+        }
+        val destination = message.recipient
+        return retryIfNeeded(maxRetryCount) {
+            val module = MessagingModuleConfiguration.shared
+            val userED25519KeyPair = module.getUserED25519KeyPair() ?: return@retryIfNeeded Promise.ofFail(Error.NoKeyPair)
+            val requests = try {
+                namespaces.map { namespace ->
+                    mapOf(
+                        "method" to Snode.Method.SendMessage.rawValue,
+                        "params" to getStoreParameters(message, requiresAuth, namespace, userED25519KeyPair)
+                    )
+                }
+            } catch (exception: Exception) {
+                return@retryIfNeeded Promise.ofFail(exception)
+            }
+            getSingleTargetSnode(destination).bind { snode ->
+                invoke(Snode.Method.Batch, snode, mapOf( "requests" to requests ), destination).map { rawResponse ->
+                    val results = parseBatchResults(rawResponse, requests.size, snode, destination)
+                    if (results.none { it.isSuccess }) { throw results.first().exceptionOrNull()!! }
+                    results
+                }
+            }
+        }
+    }
+
+    private fun getStoreParameters(message: SnodeMessage, requiresAuth: Boolean, namespace: Int, userED25519KeyPair: KeyPair): Map<String, Any> {
+        val parameters = message.toJSON().toMutableMap<String,Any>()
+        // Construct signature
+        if (requiresAuth) {
+            val sigTimestamp = System.currentTimeMillis() + SnodeAPI.clockOffset
+            val ed25519PublicKey = userED25519KeyPair.publicKey.asHexString
+            val signature = ByteArray(Sign.BYTES)
+            // assume namespace here is non-zero, as zero namespace doesn't require auth
+            val verificationData = "store$namespace$sigTimestamp".toByteArray()
+            try {
+                sodium.cryptoSignDetached(signature, verificationData, verificationData.size.toLong(), userED25519KeyPair.secretKey.asBytes)
+            } catch (exception: Exception) {
+                throw Error.SigningFailed
+            }
+            parameters["sig_timestamp"] = sigTimestamp
+            parameters["pubkey_ed25519"] = ed25519PublicKey
+            parameters["signature"] = Base64.encodeBytes(signature)
+        }
+        // If the namespace is default (0) here it will be implicitly read as 0 on the storage server
+        // we only need to specify it explicitly if we want to (in future) or if it is non-zero
+        if (namespace != 0) {
+            parameters["namespace"] = namespace
+        }
+        return parameters
+    }
+
+    private fun parseBatchResults(rawResponse: RawResponse, requestCount: Int, snode: Snode, publicKey: String): List<Result<RawResponse>> {
+        val results = rawResponse["results"] as? List<*>
+        if (results == null || results.size != requestCount) {
+            Log.d("Loki", "Got an unexpected batch response from: $snode.")
+            throw Error.Generic
+        }
+        return results.map { result ->
+            val json = result as? Map<*, *>
+            val statusCode = (json?.get("code") as? Number)?.toInt() ?: 0
+            val body = json?.get("body") as? Map<*, *>
+            if (statusCode in 200..299 && body != null) {
+                Result.success(body)
+            } else {
+                Log.d("Loki", "A batched request to $snode failed with status code: $statusCode.")
+                Result.failure(handleSnodeError(statusCode, body, snode, publicKey) ?: Error.Generic)
+            }
+        }
+    }
+
     fun deleteMessage(publicKey: String, serverHashes: List<String>): Promise<Map<String,Boolean>, Exception> {
         return retryIfNeeded(maxRetryCount) {
             val module = MessagingModuleConfiguration.shared
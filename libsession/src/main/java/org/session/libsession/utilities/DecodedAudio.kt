@@ -376,6 +376,10 @@ class InputStreamMediaDataSource: MediaDataSource {
         this.data = inputStream.readBytes()
     }
 
+    constructor(data: ByteArray): super() {
+        this.data = data
+    }
+
     override fun readAt(position: Long, buffer: ByteArray, offset: Int, size: Int): Int {
         val length: Int = data.size
         if (position >= length) {
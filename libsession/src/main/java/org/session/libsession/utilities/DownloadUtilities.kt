@@ -14,12 +14,32 @@ object DownloadUtilities {
     @JvmStatic
     fun downloadFile(destination: File, url: String) {
         val outputStream = FileOutputStream(destination) // Throws
+        retrying { downloadFile(outputStream, url) }
+    }
+
+    /**
+     * Downloads the file into memory rather than to disk, for small files that are processed as a
+     * whole, like profile pictures.
+     *
+     * Blocks the calling thread.
+     */
+    @JvmStatic
+    fun downloadBytes(url: String): ByteArray {
+        val outputStream = ByteArrayOutputStream()
+        retrying {
+            outputStream.reset()
+            downloadFile(outputStream, url)
+        }
+        return outputStream.toByteArray()
+    }
+
+    private fun retrying(download: () -> Unit) {
         var remainingAttempts = 4
         var exception: Exception? = null
         while (remainingAttempts > 0) {
             remainingAttempts -= 1
             try {
-                downloadFile(outputStream, url)
+                download()
                 exception = null
                 break
             } catch (e: Exception) {
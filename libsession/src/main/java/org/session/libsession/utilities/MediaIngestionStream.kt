@@ -0,0 +1,140 @@
+package org.session.libsession.utilities
+
+import android.graphics.BitmapFactory
+import android.media.MediaDataSource
+import android.media.MediaMetadataRetriever
+import org.session.libsession.messaging.sending_receiving.attachments.DatabaseAttachmentAudioExtras
+import org.session.libsignal.utilities.Log
+import java.io.ByteArrayOutputStream
+import java.io.FilterInputStream
+import java.io.InputStream
+
+/**
+ * Media metadata computed while an attachment is being stored or uploaded.
+ *
+ * [waveform] is only set for audio attachments; [width] and [height] are 0 when unknown.
+ */
+class MediaMetadata(
+    val durationMs: Long,
+    val waveform: ByteArray?,
+    val width: Int,
+    val height: Int
+)
+
+/**
+ * Wraps the plaintext stream of an attachment so that [extractMetadata] can compute the audio
+ * duration and waveform or the image/video dimensions once the attachment has been stored.
+ *
+ * Images only need their header, so the first [imageHeaderLimit] bytes that flow through are kept in
+ * memory. Audio and video need the whole file, which is read back from the stored, encrypted part
+ * through a [MediaDataSource] that decrypts as it's read, so no plaintext copy is ever written to
+ * disk.
+ */
+class MediaIngestionStream(
+    inputStream: InputStream,
+    private val contentType: String
+) : FilterInputStream(inputStream) {
+
+    companion object {
+        private const val TAG = "MediaIngestionStream"
+        private const val imageHeaderLimit = 256 * 1024
+
+        /**
+         * Computes the metadata of a stored audio or video attachment, then closes [storedData].
+         *
+         * @return null if nothing could be extracted for this content type.
+         */
+        fun extractStoredMetadata(contentType: String, storedData: MediaDataSource): MediaMetadata? {
+            try {
+                return when {
+                    contentType.startsWith("audio/") -> extractAudioMetadata(storedData)
+                    contentType.startsWith("video/") -> extractVideoMetadata(storedData)
+                    else -> null
+                }
+            } catch (e: Exception) {
+                Log.w(TAG, "Couldn't extract metadata for $contentType attachment.", e)
+                return null
+            } finally {
+                storedData.close()
+            }
+        }
+
+        private fun extractAudioMetadata(dataSource: MediaDataSource): MediaMetadata {
+            val decodedAudio = DecodedAudio.create(dataSource)
+            val durationMs = if (decodedAudio.totalDuration >= 0) {
+                (decodedAudio.totalDuration / 1000.0).toLong()
+            } else {
+                DatabaseAttachmentAudioExtras.DURATION_UNDEFINED
+            }
+            return MediaMetadata(durationMs, decodedAudio.calculateRms(DatabaseAttachmentAudioExtras.VISUAL_RMS_FRAMES), 0, 0)
+        }
+
+        private fun extractVideoMetadata(dataSource: MediaDataSource): MediaMetadata {
+            val retriever = MediaMetadataRetriever()
+            try {
+                retriever.setDataSource(dataSource)
+                val durationMs = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)?.toLongOrNull()
+                val width = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)?.toIntOrNull() ?: 0
+                val height = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)?.toIntOrNull() ?: 0
+                val rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION)?.toIntOrNull() ?: 0
+                val isRotated = rotation == 90 || rotation == 270
+                return MediaMetadata(
+                    durationMs ?: DatabaseAttachmentAudioExtras.DURATION_UNDEFINED,
+                    null,
+                    if (isRotated) height else width,
+                    if (isRotated) width else height
+                )
+            } finally {
+                retriever.release()
+            }
+        }
+    }
+
+    private val isImage = contentType.startsWith("image/")
+
+    private val imageHeader = ByteArrayOutputStream(if (isImage) 64 * 1024 else 0)
+
+    override fun read(): Int {
+        val byte = super.read()
+        if (byte >= 0 && isImage && imageHeader.size() < imageHeaderLimit) { imageHeader.write(byte) }
+        return byte
+    }
+
+    override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+        val read = super.read(buffer, offset, length)
+        if (read > 0 && isImage) {
+            val room = imageHeaderLimit - imageHeader.size()
+            if (room > 0) { imageHeader.write(buffer, offset, minOf(room, read)) }
+        }
+        return read
+    }
+
+    override fun markSupported(): Boolean = false
+
+    /**
+     * Computes the metadata once the stream has been fully consumed and the attachment stored.
+     *
+     * @param storedData Reads the stored attachment, for audio and video.
+     * @return null if nothing could be extracted for this content type.
+     */
+    fun extractMetadata(storedData: MediaDataSource?): MediaMetadata? {
+        if (!isImage) {
+            return storedData?.let { extractStoredMetadata(contentType, it) }
+        }
+        storedData?.close()
+        if (imageHeader.size() == 0) return null
+        try {
+            return extractImageMetadata()
+        } catch (e: Exception) {
+            Log.w(TAG, "Couldn't extract metadata for $contentType attachment.", e)
+            return null
+        }
+    }
+
+    private fun extractImageMetadata(): MediaMetadata {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        val data = imageHeader.toByteArray()
+        BitmapFactory.decodeByteArray(data, 0, data.size, options)
+        return MediaMetadata(DatabaseAttachmentAudioExtras.DURATION_UNDEFINED, null, maxOf(0, options.outWidth), maxOf(0, options.outHeight))
+    }
+}
@@ -34,6 +34,11 @@ class SSKEnvironment(
         fun setProfilePictureURL(context: Context, recipient: Recipient, profilePictureURL: String)
         fun setProfileKey(context: Context, recipient: Recipient, profileKey: ByteArray)
         fun setUnidentifiedAccessMode(context: Context, recipient: Recipient, unidentifiedAccessMode: Recipient.UnidentifiedAccessMode)
+        /**
+         * Applies a sender's profile in one recipient update, skipping the fields that are null. A new profile
+         * key also resets the unidentified access mode, and a profile picture URL starts the avatar download.
+         */
+        fun setProfile(context: Context, recipient: Recipient, name: String?, profileKey: ByteArray?, profilePictureURL: String?)
     }
 
     interface MessageExpirationManagerProtocol {
@@ -0,0 +1,94 @@
+package org.session.libsession.messaging.sending_receiving
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.mockingDetails
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import org.session.libsession.database.MessageDataProvider
+import org.session.libsession.database.StorageProtocol
+import org.session.libsession.utilities.Address
+
+class ReceiveBatchContextTest {
+
+    private val senders = (0 until 5).map { "05$it" }
+    private val messages = (0 until 100).map { senders[it % senders.size] to 1000L + it }
+
+    @Test
+    fun `batch lookups are made once per batch`() {
+        val unbatchedStorage = mockStorage()
+        val unbatchedMessageDataProvider = mockMessageDataProvider()
+        // as each message looked things up before
+        messages.forEach { (sender, timestamp) ->
+            unbatchedStorage.getUserPublicKey()
+            val threadID = unbatchedStorage.getOrCreateThreadIdFor(sender, null, null)
+            unbatchedStorage.getRecipientForThread(threadID)
+            unbatchedMessageDataProvider.getMessageForQuote(timestamp - 1, Address.fromSerialized(sender))
+        }
+        val unbatchedReads = reads(unbatchedStorage, unbatchedMessageDataProvider)
+
+        val storage = mockStorage()
+        val messageDataProvider = mockMessageDataProvider()
+        val quotes = messages.map { (sender, timestamp) -> Pair(timestamp - 1, sender) }
+        whenever(messageDataProvider.getMessagesForQuotes(any())).thenReturn(quotes.associateWith { Triple(it.first, false, it.second) })
+        val batchContext = ReceiveBatchContext(null, storage, messageDataProvider)
+
+        batchContext.prefetchQuotes(quotes)
+        messages.forEach { (sender, timestamp) ->
+            batchContext.userPublicKey
+            val threadID = batchContext.getOrCreateThreadIdFor(sender, null)
+            batchContext.getRecipientForThread(threadID)
+            batchContext.getMessageForQuote(timestamp - 1, Address.fromSerialized(sender))
+        }
+
+        val batchedReads = reads(storage, messageDataProvider)
+
+        assertEquals(4 * messages.size, unbatchedReads)
+        // one user key, one thread and recipient per sender, one quote query
+        assertEquals(1 + 2 * senders.size + 1, batchedReads)
+        assertTrue(batchedReads * 10 < unbatchedReads)
+    }
+
+    @Test
+    fun `quotes missing from the prefetch are looked up again`() {
+        val messageDataProvider = mockMessageDataProvider()
+        val batchContext = ReceiveBatchContext(null, mockStorage(), messageDataProvider)
+        val author = Address.fromSerialized("051")
+
+        batchContext.prefetchQuotes(listOf(Pair(1L, "051")))
+        // the quoted message is stored by an earlier message of the same batch
+        whenever(messageDataProvider.getMessageForQuote(1L, author)).thenReturn(Triple(10L, false, "051"))
+
+        assertEquals(Triple(10L, false, "051"), batchContext.getMessageForQuote(1L, author))
+        assertEquals(Triple(10L, false, "051"), batchContext.getMessageForQuote(1L, author))
+        verify(messageDataProvider, times(1)).getMessageForQuote(1L, author)
+    }
+
+    @Test
+    fun `blinded keys are only looked up in open groups`() {
+        val storage = mockStorage()
+        val batchContext = ReceiveBatchContext(null, storage, mockMessageDataProvider())
+
+        assertNull(batchContext.getUserBlindedKey(1L))
+        assertEquals(0, mockingDetails(storage).invocations.size)
+    }
+
+    private fun mockStorage(): StorageProtocol = mock<StorageProtocol>().also { storage ->
+        whenever(storage.getUserPublicKey()).thenReturn("05user")
+        whenever(storage.getOrCreateThreadIdFor(any(), anyOrNull(), anyOrNull())).thenAnswer { senders.indexOf(it.arguments[0]).toLong() }
+    }
+
+    private fun mockMessageDataProvider(): MessageDataProvider = mock<MessageDataProvider>().also { provider ->
+        whenever(provider.getMessagesForQuotes(any())).thenReturn(emptyMap())
+    }
+
+    private fun reads(storage: StorageProtocol, messageDataProvider: MessageDataProvider): Int {
+        return mockingDetails(storage).invocations.size + mockingDetails(messageDataProvider).invocations.size
+    }
+}